@@ -0,0 +1,90 @@
+/* Copyright 2017 Ping Identity Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package com.pingidentity.labs.dtva.endpoints.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.pingidentity.labs.dtva.application.ValidityKey;
+
+/**
+ * Compares decoding a session identifier string through the general CBOR stream stack, the fixed
+ * layout decoder, and the cached param converter, over a working set of distinct identifiers.
+ * 
+ * Run with {@code gradle :dtva-api:jmh}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SessionIdentifierDecodeBenchmark {
+	@Param({"1000", "100000"})
+	int workingSet;
+
+	String[] identifiers;
+	SessionIdentifierParamConverter cachedConverter;
+	int next;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(0);
+		Instant now = Instant.now();
+		identifiers = new String[workingSet];
+		for (int i = 0; i < workingSet; i++) {
+			ValidityKey key = new ValidityKey(now.plusSeconds(random.nextInt(86_400)), random.nextInt(16),
+					Optional.of(Duration.ofMinutes(15)), random.nextLong());
+			identifiers[i] = new SessionIdentifier(key, now.plusSeconds(60)).toStringIdentifier();
+		}
+		cachedConverter = new SessionIdentifierParamConverter(new SessionIdentifierCache(65_536));
+	}
+
+	private String nextIdentifier() {
+		String identifier = identifiers[next];
+		next = next + 1 == identifiers.length ? 0 : next + 1;
+		return identifier;
+	}
+
+	@Benchmark
+	public SessionIdentifier genericDecode() throws IOException {
+		byte[] cborEncoded = Base64.getUrlDecoder().decode(nextIdentifier());
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(cborEncoded))) {
+			return new SessionIdentifier(in);
+		}
+	}
+
+	@Benchmark
+	public SessionIdentifier fixedLayoutDecode() {
+		return SessionIdentifier.decodeFixedLayout(Base64.getUrlDecoder().decode(nextIdentifier()));
+	}
+
+	@Benchmark
+	public SessionIdentifier cachedConverter() {
+		return cachedConverter.fromString(nextIdentifier());
+	}
+}
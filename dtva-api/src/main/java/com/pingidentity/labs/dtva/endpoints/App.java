@@ -17,33 +17,101 @@ import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
 
+import javax.json.JsonObject;
 import javax.servlet.ServletContext;
 import javax.ws.rs.core.Application;
 import javax.ws.rs.core.Context;
 
 import com.pingidentity.labs.dtva.application.DTVACoordinator;
+import com.pingidentity.labs.dtva.endpoints.util.AdmissionControl;
+import com.pingidentity.labs.dtva.endpoints.util.BacklogFullExceptionMapper;
+import com.pingidentity.labs.dtva.endpoints.util.IssuerRateLimitedExceptionMapper;
 import com.pingidentity.labs.dtva.endpoints.util.IssuersBodyWriter;
+import com.pingidentity.labs.dtva.endpoints.util.RequestSnapshotBinder;
+import com.pingidentity.labs.dtva.endpoints.util.RevocationFilterViewWriter;
+import com.pingidentity.labs.dtva.endpoints.util.SessionIdentifierCache;
+import com.pingidentity.labs.dtva.endpoints.util.SessionIdentifierParamConverter;
 import com.pingidentity.labs.dtva.endpoints.util.SessionIdentifierParamConverterProvider;
 import com.pingidentity.labs.dtva.endpoints.util.SessionIdentifierViewWriter;
+import com.pingidentity.labs.dtva.endpoints.util.ValidityBatchBodyReader;
+import com.pingidentity.labs.dtva.endpoints.util.ValidityBatchResultWriter;
 import com.pingidentity.labs.dtva.endpoints.util.ValidityKeyCreationRequestBodyReader;
+import com.pingidentity.labs.dtva.endpoints.util.ValidityKeyPageWriter;
+import com.pingidentity.labs.dtva.endpoints.util.ValidityQueryBodyReader;
+import com.pingidentity.labs.dtva.endpoints.util.ValidityQueryResultWriter;
 
 public class App extends Application {
 	private final DTVACoordinator platformInstance;
+	private final AdmissionControl admissionControl;
+	private final SessionIdentifierCache sessionIdentifierCache;
+	private final SessionIdentifierViewWriter sessionIdentifierViewWriter;
+
+	/** ServletContext attribute holding the coordinator when deployed as a web application */
+	public static final String PLATFORM_INSTANCE_ATTRIBUTE = "com.pingidentity.labs.dtva.state.PlatformInstance";
 
 	public App(@Context ServletContext context) {
-		platformInstance = (DTVACoordinator) context.getAttribute("com.pingidentity.labs.dtva.state.PlatformInstance");
+		this(lookupPlatformInstance(context));
+	}
+
+	/**
+	 * Create the application around a coordinator directly, for hosts that register the application
+	 * with an embedded servlet container rather than deploying the WAR.
+	 */
+	public App(DTVACoordinator platformInstance) {
+		this(platformInstance, AdmissionControl.fromConfiguration(
+				platformInstance == null ? null : platformInstance.getLocalConfiguration()));
+	}
+
+	/**
+	 * Create the application sharing admission control with the host, so that requests the host answers
+	 * itself count against the same limits.
+	 */
+	public App(DTVACoordinator platformInstance, AdmissionControl admissionControl) {
+		this(platformInstance, admissionControl,
+				SessionIdentifierCache.fromConfiguration(localConfiguration(platformInstance)),
+				SessionIdentifierViewWriter.fromConfiguration(localConfiguration(platformInstance)));
+	}
+
+	/**
+	 * Create the application sharing admission control, decoded session identifiers and encoded session
+	 * views with the host, so that requests the host answers itself warm the same caches.
+	 * 
+	 * @param sessionIdentifierCache cache of decoded identifiers, or null to decode every time
+	 */
+	public App(DTVACoordinator platformInstance, AdmissionControl admissionControl,
+			SessionIdentifierCache sessionIdentifierCache, SessionIdentifierViewWriter sessionIdentifierViewWriter) {
+		if (platformInstance == null) {
+			throw new IllegalStateException("no platform supplied");
+		}
+		this.platformInstance = platformInstance;
+		this.admissionControl = admissionControl;
+		this.sessionIdentifierCache = sessionIdentifierCache;
+		this.sessionIdentifierViewWriter = sessionIdentifierViewWriter;
+	}
+
+	private static JsonObject localConfiguration(DTVACoordinator platformInstance) {
+		return platformInstance == null ? null : platformInstance.getLocalConfiguration();
+	}
+
+	private static DTVACoordinator lookupPlatformInstance(ServletContext context) {
+		DTVACoordinator platformInstance = (DTVACoordinator) context.getAttribute(PLATFORM_INSTANCE_ATTRIBUTE);
 		if (platformInstance == null) {
 			throw new IllegalStateException("no platform in ServletContext");
 		}
+		return platformInstance;
 	}
 
 	@Override
 	public Set<Class<?>> getClasses() {
 		return new HashSet<>(Arrays.asList(
+				BacklogFullExceptionMapper.class,
+				IssuerRateLimitedExceptionMapper.class,
 				IssuersBodyWriter.class,
-				SessionIdentifierParamConverterProvider.class,
-				SessionIdentifierViewWriter.class,
-				ValidityKeyCreationRequestBodyReader.class
+				RevocationFilterViewWriter.class,
+				ValidityBatchResultWriter.class,
+				ValidityKeyCreationRequestBodyReader.class,
+				ValidityKeyPageWriter.class,
+				ValidityQueryResultWriter.class
 				));
 	}
 	
@@ -51,7 +119,14 @@ public class App extends Application {
 	public Set<Object> getSingletons() {
 		return new HashSet<>(Arrays.asList(
 				new SessionIdentifierCollectionEndpoint(platformInstance),
-				new IssuerNameCollectionEndpoint(platformInstance)
+				new IssuerNameCollectionEndpoint(platformInstance),
+				new MetricsEndpoint(platformInstance, admissionControl),
+				admissionControl,
+				new RequestSnapshotBinder(platformInstance),
+				new SessionIdentifierParamConverterProvider(new SessionIdentifierParamConverter(sessionIdentifierCache)),
+				sessionIdentifierViewWriter,
+				ValidityBatchBodyReader.fromConfiguration(platformInstance.getLocalConfiguration()),
+				ValidityQueryBodyReader.fromConfiguration(platformInstance.getLocalConfiguration())
 				));
 	}
 }
\ No newline at end of file
@@ -14,24 +14,39 @@ limitations under the License. */
 package com.pingidentity.labs.dtva.endpoints;
 
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
 
+import javax.json.Json;
+import javax.json.JsonNumber;
 import javax.json.JsonObject;
 import javax.validation.constraints.NotNull;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.FormParam;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.GenericEntity;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.UriInfo;
 
 import com.github.dwaite.problemdetails.ProblemDetails;
 import com.github.dwaite.problemdetails.ProblemType;
@@ -39,15 +54,40 @@ import com.pingidentity.labs.dtva.application.DTVACoordinator;
 import com.pingidentity.labs.dtva.application.Issuer;
 import com.pingidentity.labs.dtva.application.Participant;
 import com.pingidentity.labs.dtva.application.State;
+import com.pingidentity.labs.dtva.application.ValidityKey;
+import com.pingidentity.labs.dtva.application.ValidityKeyView;
+import com.pingidentity.labs.dtva.endpoints.util.Constants;
+import com.pingidentity.labs.dtva.endpoints.util.RequestSnapshot;
+import com.pingidentity.labs.dtva.endpoints.util.SessionIdentifier;
+import com.pingidentity.labs.dtva.endpoints.util.ValidityKeyPage;
 
 /**
  *  allow pre-registration and debug introspection of issuer names
  */
 @Path("/issuer")
 public class IssuerNameCollectionEndpoint {
+	/** local configuration object mapping issuer names to the bearer token allowed to list and invalidate their keys */
+	public static final String INVALIDATION_TOKENS_KEY = "issuer-invalidation-tokens";
+	private static final String BEARER_PREFIX = "Bearer ";
+	// compared against when an issuer has no token, so that case takes as long as a wrong token
+	private static final String UNCONFIGURED_TOKEN = "\0unconfigured";
+
+	/** local configuration value, the most validity keys returned in one page of a listing */
+	public static final String MAX_PAGE_SIZE_KEY = "max-page-size";
+	public static final int DEFAULT_MAX_PAGE_SIZE = 1000;
+	public static final int DEFAULT_PAGE_SIZE = 100;
+	// when filtering by state, how many keys may be examined per key returned before a page is cut short
+	private static final int SCAN_FACTOR = 10;
+	private static final List<String> STATE_NAMES = Arrays.asList("active", "expired", "invalidated");
+
 	private @NotNull DTVACoordinator platform;
+	private final int maxPageSize;
+
 	public IssuerNameCollectionEndpoint(@NotNull DTVACoordinator platform) {
 		this.platform = platform;
+		JsonObject localConfiguration = platform.getLocalConfiguration();
+		JsonNumber maxPageSize = localConfiguration == null ? null : localConfiguration.getJsonNumber(MAX_PAGE_SIZE_KEY);
+		this.maxPageSize = maxPageSize == null ? DEFAULT_MAX_PAGE_SIZE : maxPageSize.intValue();
 	}
 	
 	@GET
@@ -62,6 +102,94 @@ public class IssuerNameCollectionEndpoint {
 				.build();
 	}
 	
+	/**
+	 * List the validity keys of an issuer in order of hard expiry, a page at a time. Each page
+	 * carries a {@code next} cursor (also given as a {@code Link rel="next"}) to pass back as
+	 * {@code after}; a page without one is the last. Listings may be narrowed by state and by a
+	 * range of hard expiry times in epoch seconds.
+	 * 
+	 * When filtering by state, a page stops after examining {@value #SCAN_FACTOR} keys per key
+	 * requested, so it may be short (or empty) while still carrying a cursor to continue from.
+	 * 
+	 * Listed session identifiers are enough to invalidate the sessions, so callers must present the
+	 * issuer's bearer token, as for {@link #invalidateIssuer(String, String, Long)}.
+	 */
+	@GET
+	@Path("{iss}/validity")
+	@Produces({MediaType.APPLICATION_JSON, Constants.APPLICATION_CBOR})
+	public Response listValidityKeys(@PathParam("iss") String issuerName,
+			@HeaderParam(HttpHeaders.AUTHORIZATION) String authorization,
+			@QueryParam("after") String after,
+			@QueryParam("state") String stateName,
+			@QueryParam("hard_expiry_from") Long hardExpiryFrom,
+			@QueryParam("hard_expiry_before") Long hardExpiryBefore,
+			@QueryParam("limit") Integer limit,
+			@Context UriInfo uriInfo,
+			@Context RequestSnapshot snapshot) {
+		Optional<Response> denied = checkIssuerAuthority(issuerName, authorization);
+		if (denied.isPresent()) {
+			return denied.get();
+		}
+		State state = snapshot.getState();
+		Optional<Issuer> issuer = state.getIssuerByName(issuerName);
+		if (!issuer.isPresent()) {
+			return ProblemDetails.ofType(ProblemType.forHttpStatus(Status.NOT_FOUND))
+					.detail("Issuer name is not currently known")
+					.customAttributes((builder) -> builder.add("iss", issuerName))
+					.build();
+		}
+		int issuerIndex = issuer.get().getIndex();
+		if (stateName != null && !STATE_NAMES.contains(stateName)) {
+			return ProblemDetails.ofType(ProblemType.forHttpStatus(Status.BAD_REQUEST))
+					.detail("state must be one of " + STATE_NAMES)
+					.build();
+		}
+		if (limit != null && limit <= 0) {
+			return ProblemDetails.ofType(ProblemType.forHttpStatus(Status.BAD_REQUEST))
+					.detail("limit must be positive")
+					.build();
+		}
+		int pageSize = Math.min(limit == null ? DEFAULT_PAGE_SIZE : limit, maxPageSize);
+		Optional<ValidityKey> afterKey = Optional.empty();
+		if (after != null) {
+			try {
+				afterKey = Optional.of(SessionIdentifier.fromStringIdentifier(after).getKey());
+			}
+			catch (IllegalArgumentException e) {
+				afterKey = Optional.empty();
+			}
+			if (!afterKey.isPresent() || afterKey.get().getIssuerIndex() != issuerIndex) {
+				return ProblemDetails.ofType(ProblemType.forHttpStatus(Status.BAD_REQUEST))
+						.detail("after is not a cursor into this issuer's listing")
+						.build();
+			}
+		}
+
+		Iterator<? extends ValidityKeyView> keys = state.viewIssuerValidityKeys(issuerIndex, afterKey,
+				Optional.ofNullable(hardExpiryFrom).map(Instant::ofEpochSecond),
+				Optional.ofNullable(hardExpiryBefore).map(Instant::ofEpochSecond)).iterator();
+		List<ValidityKeyView> items = new ArrayList<>(Math.min(pageSize, DEFAULT_PAGE_SIZE));
+		long scanBudget = stateName == null ? pageSize : (long) pageSize * SCAN_FACTOR;
+		ValidityKeyView last = null;
+		while (items.size() < pageSize && scanBudget > 0 && keys.hasNext()) {
+			last = keys.next();
+			scanBudget--;
+			if (stateName == null || stateName.equals(last.getStateName())) {
+				items.add(last);
+			}
+		}
+		Optional<SessionIdentifier> next = last != null && keys.hasNext() ?
+				Optional.of(new SessionIdentifier(last.getValidityKey(), null)) :
+				Optional.empty();
+
+		ResponseBuilder response = Response.ok(new ValidityKeyPage(items, next))
+				.cacheControl(CacheControl.valueOf("no-cache"));
+		next.ifPresent((cursor) -> response.link(
+				uriInfo.getRequestUriBuilder().replaceQueryParam("after", cursor.toStringIdentifier()).build(),
+				"next"));
+		return response.build();
+	}
+
 	@POST
 	@Consumes(MediaType.APPLICATION_FORM_URLENCODED)
 	public Response addIssuer(@FormParam("iss") String issuerName) {
@@ -95,6 +223,77 @@ public class IssuerNameCollectionEndpoint {
 		}
 	}
 	
+	/**
+	 * Invalidate every validity key of an issuer registered before the given time (in epoch seconds,
+	 * defaulting to now). Callers must present the bearer token configured for the issuer under
+	 * {@value #INVALIDATION_TOKENS_KEY} in the local configuration; issuers without a configured
+	 * token cannot be invalidated through the API. Every authentication failure is answered with the
+	 * same 401, checked before the issuer is looked up.
+	 */
+	@POST
+	@Path("{iss}/invalidation")
+	@Consumes(MediaType.APPLICATION_FORM_URLENCODED)
+	public Response invalidateIssuer(@PathParam("iss") String issuerName,
+			@HeaderParam(HttpHeaders.AUTHORIZATION) String authorization,
+			@FormParam("before") Long before) {
+		Optional<Response> denied = checkIssuerAuthority(issuerName, authorization);
+		if (denied.isPresent()) {
+			return denied.get();
+		}
+		Instant now = Instant.now();
+		Optional<Issuer> issuer = platform.withStateEvaluatedAtTime(now, (State state) -> state.getIssuerByName(issuerName));
+		if (!issuer.isPresent()) {
+			return ProblemDetails.ofType(ProblemType.forHttpStatus(Status.NOT_FOUND))
+					.detail("Issuer name is not currently known")
+					.customAttributes((builder) -> builder.add("iss", issuerName))
+					.build();
+		}
+		Instant invalidatedBefore = before == null ? now : Instant.ofEpochSecond(before);
+		platform.sendIssuerInvalidation(issuer.get(), invalidatedBefore);
+		return Response
+				.accepted(Json.createObjectBuilder()
+						.add("iss", issuerName)
+						.add("invalidated_before", invalidatedBefore.getEpochSecond())
+						.build())
+				.type(MediaType.APPLICATION_JSON_TYPE)
+				.build();
+	}
+
+	@POST
+	@Path("{iss}/invalidation")
+	@Consumes(MediaType.APPLICATION_JSON)
+	public Response invalidateIssuer(@PathParam("iss") String issuerName,
+			@HeaderParam(HttpHeaders.AUTHORIZATION) String authorization,
+			JsonObject doc) {
+		JsonNumber before = doc.getJsonNumber("before");
+		return invalidateIssuer(issuerName, authorization, before == null ? null : before.longValue());
+	}
+
+	/**
+	 * Authenticate the caller before anything about the issuer is revealed: an unknown issuer, an
+	 * issuer without a configured token, a missing token and a wrong token all get the same 401.
+	 */
+	private Optional<Response> checkIssuerAuthority(String issuerName, String authorization) {
+		JsonObject localConfiguration = platform.getLocalConfiguration();
+		JsonObject tokens = localConfiguration == null ? null : localConfiguration.getJsonObject(INVALIDATION_TOKENS_KEY);
+		String expected = tokens == null ? null : tokens.getString(issuerName, null);
+		String presented = authorization != null && authorization.startsWith(BEARER_PREFIX) ?
+				authorization.substring(BEARER_PREFIX.length()).trim() : null;
+		// compared in constant time, so response timing does not reveal how much of a guess was right
+		boolean authenticated = MessageDigest.isEqual(
+				(expected == null ? UNCONFIGURED_TOKEN : expected).getBytes(StandardCharsets.UTF_8),
+				(presented == null ? "" : presented).getBytes(StandardCharsets.UTF_8));
+		if (expected == null || presented == null || !authenticated) {
+			return Optional.of(ProblemDetails.ofType(ProblemType.forHttpStatus(Status.UNAUTHORIZED))
+					.detail("A valid bearer token for this issuer is required")
+					.builder()
+					.header(HttpHeaders.WWW_AUTHENTICATE, presented == null ?
+							"Bearer" : "Bearer error=\"invalid_token\"")
+					.build());
+		}
+		return Optional.empty();
+	}
+
 	@POST
 	@Consumes(MediaType.APPLICATION_JSON)
 	public Response addIssuer(JsonObject doc) {
@@ -0,0 +1,56 @@
+/* Copyright 2017 Ping Identity Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package com.pingidentity.labs.dtva.endpoints;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.validation.constraints.NotNull;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import com.pingidentity.labs.dtva.application.DTVACoordinator;
+import com.pingidentity.labs.dtva.endpoints.util.AdmissionControl;
+
+/**
+ *  operational metrics for the local participant, for monitoring and debug introspection
+ */
+@Path("/metrics")
+public class MetricsEndpoint {
+	private @NotNull DTVACoordinator platform;
+	private @NotNull AdmissionControl admissionControl;
+	public MetricsEndpoint(@NotNull DTVACoordinator platform, @NotNull AdmissionControl admissionControl) {
+		this.platform = platform;
+		this.admissionControl = admissionControl;
+	}
+
+	@GET
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response getMetrics() {
+		JsonObjectBuilder builder = Json.createObjectBuilder();
+		platform.getMetrics().forEach(builder::add);
+		JsonObject metrics = builder
+				.add("admission_control", admissionControl.getMetrics())
+				.build();
+		return Response
+				.ok(metrics, MediaType.APPLICATION_JSON_TYPE)
+				.cacheControl(CacheControl.valueOf("no-cache, no-store, must-revalidate"))
+				.header("Pragma", "no-cache")
+				.build();
+	}
+}
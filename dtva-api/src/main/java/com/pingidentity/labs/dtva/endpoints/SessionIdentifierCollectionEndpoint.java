@@ -17,83 +17,192 @@ import java.io.IOException;
 import java.net.URI;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
 import javax.validation.constraints.NotNull;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.FormParam;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.CompletionCallback;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.Variant;
 
 import com.github.dwaite.problemdetails.ProblemDetails;
 import com.github.dwaite.problemdetails.ProblemType;
+import com.pingidentity.labs.dtva.application.BacklogFullException;
 import com.pingidentity.labs.dtva.application.DTVACoordinator;
 import com.pingidentity.labs.dtva.application.Issuer;
+import com.pingidentity.labs.dtva.application.IssuerRateLimitedException;
+import com.pingidentity.labs.dtva.application.RevocationFilter;
 import com.pingidentity.labs.dtva.application.State;
+import com.pingidentity.labs.dtva.application.StateChange;
 import com.pingidentity.labs.dtva.application.ValidityKey;
 import com.pingidentity.labs.dtva.application.ValidityKeyView;
+import com.pingidentity.labs.dtva.application.ValidityKeyWatch;
+import com.pingidentity.labs.dtva.application.transactions.DTVATransaction;
+import com.pingidentity.labs.dtva.application.transactions.ValidityKeyInteractivityTransaction;
+import com.pingidentity.labs.dtva.application.transactions.ValidityKeyInvalidationTransaction;
+import com.pingidentity.labs.dtva.application.transactions.ValidityKeyRegistrationTransaction;
+import com.pingidentity.labs.dtva.endpoints.util.AdmissionControl;
+import com.pingidentity.labs.dtva.endpoints.util.ChangeCursor;
+import com.pingidentity.labs.dtva.endpoints.util.ChangeFeedOutput;
 import com.pingidentity.labs.dtva.endpoints.util.Constants;
 import com.pingidentity.labs.dtva.endpoints.util.GraceValidityKeyView;
+import com.pingidentity.labs.dtva.endpoints.util.Prefer;
+import com.pingidentity.labs.dtva.endpoints.util.RequestSnapshot;
+import com.pingidentity.labs.dtva.endpoints.util.RevocationFilterView;
 import com.pingidentity.labs.dtva.endpoints.util.SessionIdentifier;
+import com.pingidentity.labs.dtva.endpoints.util.SessionIdentifierPrecheck;
 import com.pingidentity.labs.dtva.endpoints.util.SessionIdentifierView;
+import com.pingidentity.labs.dtva.endpoints.util.SessionSubscription;
+import com.pingidentity.labs.dtva.endpoints.util.SessionSubscriptions;
+import com.pingidentity.labs.dtva.endpoints.util.ValidityBatch;
+import com.pingidentity.labs.dtva.endpoints.util.ValidityBatchOperation;
+import com.pingidentity.labs.dtva.endpoints.util.ValidityBatchResult;
 import com.pingidentity.labs.dtva.endpoints.util.ValidityKeyCreationRequest;
+import com.pingidentity.labs.dtva.endpoints.util.ValidityQuery;
+import com.pingidentity.labs.dtva.endpoints.util.ValidityQueryResult;
 
 @Produces({MediaType.APPLICATION_JSON, Constants.APPLICATION_CBOR})
 @Consumes({MediaType.APPLICATION_JSON, Constants.APPLICATION_CBOR})
 @Path("/validity")
 public class SessionIdentifierCollectionEndpoint {
+	/** local configuration value, the longest in seconds an active session view may be cached for */
+	public static final String MAX_CACHE_AGE_KEY = "max-cache-age";
+	public static final int DEFAULT_MAX_CACHE_AGE = 5;
+
+	private static final List<Variant> VIEW_VARIANTS = Variant
+			.mediaTypes(MediaType.APPLICATION_JSON_TYPE, Constants.APPLICATION_CBOR_TYPE)
+			.build();
+
+	/** local configuration value, the longest in seconds a create may wait for consensus */
+	public static final String MAX_PREFER_WAIT_KEY = "max-prefer-wait";
+	public static final int DEFAULT_MAX_PREFER_WAIT = 30;
+
+	/** local configuration value, the longest in seconds a session view request may wait for a change */
+	public static final String MAX_POLL_WAIT_KEY = "max-poll-wait";
+	public static final int DEFAULT_MAX_POLL_WAIT = 60;
+
 	private @NotNull DTVACoordinator platform;
+	private final Duration maxCacheAge;
+	private final Duration maxPreferWait;
+	private final Duration maxPollWait;
+	private final SessionSubscriptions subscriptions;
+
 	public SessionIdentifierCollectionEndpoint(@NotNull DTVACoordinator platform) {
 		this.platform = platform;
+		JsonObject localConfiguration = platform.getLocalConfiguration();
+		JsonNumber maxCacheAge = localConfiguration == null ? null : localConfiguration.getJsonNumber(MAX_CACHE_AGE_KEY);
+		this.maxCacheAge = Duration.ofSeconds(maxCacheAge == null ? DEFAULT_MAX_CACHE_AGE : maxCacheAge.longValue());
+		JsonNumber maxPreferWait = localConfiguration == null ? null : localConfiguration.getJsonNumber(MAX_PREFER_WAIT_KEY);
+		this.maxPreferWait = Duration.ofSeconds(maxPreferWait == null ? DEFAULT_MAX_PREFER_WAIT : maxPreferWait.longValue());
+		JsonNumber maxPollWait = localConfiguration == null ? null : localConfiguration.getJsonNumber(MAX_POLL_WAIT_KEY);
+		this.maxPollWait = Duration.ofSeconds(maxPollWait == null ? DEFAULT_MAX_POLL_WAIT : maxPollWait.longValue());
+		this.subscriptions = SessionSubscriptions.fromConfiguration(platform);
 	}
 	
+	/**
+	 * Register a new session, answering 202 Accepted once the registration has been queued. A client
+	 * sending {@code Prefer: wait=N} is instead answered 201 Created as soon as consensus applies the
+	 * registration, falling back to 202 after N seconds (capped by {@value #MAX_PREFER_WAIT_KEY}). No
+	 * thread is held while waiting.
+	 */
 	@POST
-	public Response createSession(ValidityKeyCreationRequest request) throws IOException {
+	public void createSession(ValidityKeyCreationRequest request,
+			@HeaderParam(Prefer.PREFER) String prefer,
+			@Suspended AsyncResponse asyncResponse) throws IOException {
 		Instant now = Instant.now();
 		Optional<Issuer> issuer = platform.withStateEvaluatedAtTime(now, (State state) ->
 			state.getIssuerByName(request.getIssuerName()));
 		if (!issuer.isPresent()) {
-			return ProblemType.forHttpStatus(Status.BAD_REQUEST)
+			asyncResponse.resume(ProblemType.forHttpStatus(Status.BAD_REQUEST)
 					.builder()
 					.detail("Issuer name is not currently known")
 					.customAttributes((jsonObj) -> 
 						jsonObj.add("missingIssuer", request.getIssuerName()))
-					.build();
+					.build());
+			return;
 		}
 		// FIXME consensus grace is now part of the identifier
 		Optional<Duration> grace = platform.getConsensusGraceSpan();
 		Optional<Instant> graceExpiryAt = grace.map(now::plus);
-		ValidityKey key = platform.sendValidityKeyRegistration(request.getHardExpiryAt(), issuer.get(), request.getInteractivityTimeout());
-		System.out.println("Created transaction");
+		ValidityKey key = platform.createValidityKey(request.getHardExpiryAt(), issuer.get(), request.getInteractivityTimeout());
 		SessionIdentifier sid = new SessionIdentifier(key, graceExpiryAt.orElse(null));
 		URI path = URI.create("/validity/" + sid.toStringIdentifier());
-		
-		return platform.withStateEvaluatedAtTime(now, (State state) -> {
-			return state.viewValidityKey(key).filter(ValidityKeyView::isActive).map((view) ->
-				Response
-					.created(path)
-					.entity(new SessionIdentifierView(view, sid))
-					.build())
-			.orElse(
+		Optional<Duration> wait = Prefer.getWait(prefer)
+				.map((requested) -> requested.compareTo(maxPreferWait) > 0 ? maxPreferWait : requested)
+				.filter((requested) -> !requested.isZero());
+
+		if (!wait.isPresent()) {
+			platform.sendValidityKeyRegistration(key);
+			asyncResponse.resume(platform.withStateEvaluatedAtTime(now, (State state) -> {
+				return state.viewValidityKey(key).filter(ValidityKeyView::isActive).map((view) ->
 					Response
-					.accepted()
-					.location(path)
-					.build());
+						.created(path)
+						.entity(new SessionIdentifierView(view, sid))
+						.build())
+				.orElse(
+						Response
+						.accepted()
+						.location(path)
+						.build());
+			}));
+			return;
+		}
+
+		// watch before sending, so the registration cannot be applied unseen
+		ValidityKeyWatch watch = platform.watchValidityKeys(Collections.singleton(key), (view) -> {
+			if (view.isActive()) {
+				asyncResponse.resume(Response
+						.created(path)
+						.entity(new SessionIdentifierView(view, sid))
+						.build());
+			}
 		});
+		asyncResponse.register((CompletionCallback) (throwable) -> watch.close());
+		asyncResponse.setTimeoutHandler((timedOut) -> timedOut.resume(Response
+				.accepted()
+				.location(path)
+				.build()));
+		asyncResponse.setTimeout(wait.get().toMillis(), TimeUnit.MILLISECONDS);
+		try {
+			platform.sendValidityKeyRegistration(key);
+		}
+		catch (BacklogFullException | IssuerRateLimitedException e) {
+			asyncResponse.resume(e);
+		}
 	}
 	
 	@GET
-	public Response findSession(@QueryParam("sid") SessionIdentifier sid, @QueryParam("iss") String iss) {
-		Instant now = Instant.now();
-		Optional<ValidityKeyView> oview = platform.withStateEvaluatedAtTime(now, (State state) -> state.viewValidityKey(sid.getKey()));
+	public Response findSession(@QueryParam("sid") SessionIdentifier sid, @QueryParam("iss") String iss,
+			@Context RequestSnapshot snapshot) {
+		Instant now = snapshot.getEvaluatedAt();
+		Optional<ValidityKeyView> oview = snapshot.getState().viewValidityKey(sid.getKey());
 		if(oview.isPresent()) {
 			ValidityKeyView view = oview.get();
 			if (!view.getIssuer().getIssuerName().equals(iss)) {
@@ -103,7 +212,7 @@ public class SessionIdentifierCollectionEndpoint {
 			}
 		}
 		
-		boolean isInGrace = sid.getConsensusGrace().map( (grace) -> grace.isAfter(now)).orElse(false);
+		boolean isInGrace = sid.isInGrace(now);
 		if (!isInGrace) {
 			return ProblemDetails.ofType(ProblemType.forHttpStatus(Status.NOT_FOUND))
 					.detail("Session identifier is not known")
@@ -118,39 +227,430 @@ public class SessionIdentifierCollectionEndpoint {
 				.build();
 	}
 
+	/**
+	 * Stream the invalidations, expiries and issuer invalidations recorded after the supplied cursor.
+	 * Without a cursor the feed starts from the current state. The cursor to resume from is returned in
+	 * the {@value Constants#CURSOR} header, and alongside each entry.
+	 */
+	@GET
+	@Path("_changes")
+	@Produces(Constants.APPLICATION_NDJSON)
+	public Response getChangesAsJson(@QueryParam("since") String since) {
+		return getChanges(since, Constants.APPLICATION_NDJSON_TYPE);
+	}
+
+	@GET
+	@Path("_changes")
+	@Produces(Constants.APPLICATION_CBOR_SEQ)
+	public Response getChangesAsCbor(@QueryParam("since") String since) {
+		return getChanges(since, Constants.APPLICATION_CBOR_SEQ_TYPE);
+	}
+
+	private Response getChanges(String since, MediaType mediaType) {
+		long sequence;
+		try {
+			sequence = since == null ? -1 : ChangeCursor.decode(since);
+		}
+		catch (IllegalArgumentException e) {
+			return ProblemDetails.ofType(ProblemType.forHttpStatus(Status.BAD_REQUEST))
+					.detail("Change feed cursor is not recognized")
+					.build();
+		}
+		Instant now = Instant.now();
+		return platform.withStateEvaluatedAtTime(now, (State state) -> {
+			String cursor = ChangeCursor.encode(state.getChangeSequence());
+			Optional<Stream<StateChange>> changes = state.viewChangesSince(sequence < 0 ? state.getChangeSequence() : sequence);
+			if (!changes.isPresent()) {
+				return ProblemDetails.ofType(ProblemType.forHttpStatus(Status.GONE))
+						.detail("Changes since the cursor are no longer retained; cached validity must be refreshed")
+						.customAttributes((builder) -> builder.add("cursor", cursor))
+						.builder()
+						.header(Constants.CURSOR, cursor)
+						.build();
+			}
+			return Response
+					.ok(new ChangeFeedOutput(changes.get(), state.getIssuers(), mediaType), mediaType)
+					.header(Constants.CURSOR, cursor)
+					.cacheControl(CacheControl.valueOf("no-cache, no-store, must-revalidate"))
+					.build();
+		});
+	}
+
+	/**
+	 * Serve the filter of individually invalidated validity keys. A {@code since} tag from an earlier
+	 * response of the same generation answers with only the bit positions set since; otherwise the full
+	 * filter is returned. The version tag doubles as the entity tag.
+	 */
+	@GET
+	@Path("_filter")
+	public Response getRevocationFilter(@QueryParam("since") String since, @Context Request request,
+			@Context RequestSnapshot snapshot) {
+		// evaluated once for the whole response
+		State state = snapshot.getState();
+		RevocationFilter filter = platform.getRevocationFilter();
+		EntityTag etag = new EntityTag(filter.getTag(), true);
+		ResponseBuilder notModified = request.evaluatePreconditions(etag);
+		if (notModified != null) {
+			return notModified.tag(etag).build();
+		}
+		Optional<int[]> positionsSet = Optional.empty();
+		long sinceVersion = -1;
+		if (since != null) {
+			int separator = since.indexOf('.');
+			try {
+				if (separator < 0) {
+					throw new NumberFormatException();
+				}
+				long sinceGeneration = Long.parseLong(since.substring(0, separator));
+				sinceVersion = Long.parseLong(since.substring(separator + 1));
+				positionsSet = filter.getSetSince(sinceGeneration, sinceVersion);
+			}
+			catch (NumberFormatException e) {
+				return ProblemDetails.ofType(ProblemType.forHttpStatus(Status.BAD_REQUEST))
+						.detail("Revocation filter version is not recognized")
+						.build();
+			}
+		}
+		List<Issuer> issuers = state.getIssuers();
+		Duration maxHardExpiryIn = state.getConstitution().getMaxHardExpiryIn();
+		RevocationFilterView view = positionsSet.isPresent()
+				? RevocationFilterView.update(filter, sinceVersion, positionsSet.get(), issuers, maxHardExpiryIn)
+				: RevocationFilterView.full(filter, issuers, maxHardExpiryIn);
+		return Response.ok(view)
+				.tag(etag)
+				.cacheControl(CacheControl.valueOf("no-cache"))
+				.build();
+	}
+
+	/**
+	 * Get the current view of a session. With {@code wait=N}, the request is parked for up to N seconds
+	 * (capped by {@value #MAX_POLL_WAIT_KEY}) until the session no longer matches {@code version}, an
+	 * entity tag previously returned for it, defaulting to the current one. A change answers with the
+	 * new view, and reaching the timeout answers 304 Not Modified. A {@code version} which is already
+	 * out of date is answered immediately.
+	 * 
+	 * Parked requests hold no thread. Transactions touching the key resume them through a watch, and
+	 * transitions due to the passage of time are picked up by timing out at the next scheduled one.
+	 */
 	@GET
 	@Path("{sid}")
-	public Response getSession(@PathParam("sid") SessionIdentifier sid) {
+	public void getSession(@PathParam("sid") SessionIdentifier sid,
+			@QueryParam("wait") Integer wait, @QueryParam("version") String version,
+			@Context Request request, @Context RequestSnapshot snapshot,
+			@Suspended AsyncResponse asyncResponse) {
+		Instant now = snapshot.getEvaluatedAt();
+		State state = snapshot.getState();
+		Optional<Response> problem = SessionIdentifierPrecheck.check(sid, state, now);
+		if (problem.isPresent()) {
+			asyncResponse.resume(problem.get());
+			return;
+		}
+		Optional<SessionIdentifierView> sessionView = SessionIdentifierView.inState(sid, state, now);
+		if (!sessionView.isPresent()) {
+			asyncResponse.resume(sid.isInGrace(now) ? unknownIssuer() : sessionNotFound());
+			return;
+		}
+		Variant variant = request.selectVariant(VIEW_VARIANTS);
+		if (variant == null) {
+			asyncResponse.resume(Response.notAcceptable(VIEW_VARIANTS).build());
+			return;
+		}
+		MediaType mediaType = variant.getMediaType();
+		EntityTag etag = sessionView.get().getEntityTag(mediaType);
+		if (wait == null || wait <= 0 || (version != null && !isVersion(version, etag))) {
+			asyncResponse.resume(conditionalView(sessionView.get(), mediaType, request));
+			return;
+		}
+
+		Instant deadline = now.plus(Duration.ofSeconds(Math.min(wait, maxPollWait.getSeconds())));
+		ValidityKeyWatch watch = platform.watchValidityKeys(Collections.singleton(sid.getKey()), (view) -> {
+			SessionIdentifierView changed = new SessionIdentifierView(view, sid);
+			if (!changed.getEntityTag(mediaType).equals(etag)) {
+				asyncResponse.resume(viewResponse(changed, mediaType));
+			}
+		});
+		asyncResponse.register((CompletionCallback) (throwable) -> watch.close());
+		asyncResponse.setTimeoutHandler((timedOut) -> resumeIfChanged(timedOut, sid, etag, mediaType, deadline));
+		// the snapshot predates the watch, so check again for a change applied in between
+		resumeIfChanged(asyncResponse, sid, etag, mediaType, deadline);
+	}
+
+	/**
+	 * Re-evaluate a parked session view, answering if it no longer matches the entity tag or the
+	 * deadline has passed. Otherwise, wait on until the deadline or the next scheduled transition.
+	 */
+	private void resumeIfChanged(AsyncResponse asyncResponse, SessionIdentifier sid, EntityTag etag,
+			MediaType mediaType, Instant deadline) {
 		Instant now = Instant.now();
-		Optional<ValidityKeyView> view = platform.withStateEvaluatedAtTime(now, (State state) -> state.viewValidityKey(sid.getKey()));
-		if (view.isPresent()) {
-			return Response.ok(new SessionIdentifierView(view.get(), sid)).build();
+		Optional<SessionIdentifierView> sessionView = SessionIdentifierView.inState(sid, platform.getStateEvaluatedAtTime(now), now);
+		if (!sessionView.isPresent()) {
+			asyncResponse.resume(sessionNotFound());
+			return;
 		}
-		boolean isInGrace = sid.isInGrace(now);
-		if (!isInGrace) {
-			return ProblemDetails.ofType(ProblemType.forHttpStatus(Status.NOT_FOUND))
-					.detail("Session identifier is not known")
-					.build();
+		if (!sessionView.get().getEntityTag(mediaType).equals(etag)) {
+			asyncResponse.resume(viewResponse(sessionView.get(), mediaType));
+			return;
+		}
+		Duration remaining = Duration.between(now, deadline);
+		if (remaining.isNegative() || remaining.isZero()) {
+			asyncResponse.resume(notModified(sessionView.get(), mediaType));
+			return;
+		}
+		Duration untilTransition = sessionView.get().getView().untilNextTransition();
+		if (!untilTransition.isNegative() && untilTransition.compareTo(remaining) < 0) {
+			remaining = untilTransition;
 		}
 		try {
-			Issuer issuer = platform.withStateEvaluatedAtTime(now, (State state) -> state.getIssuers().get(sid.getKey().getIssuerIndex()));
-			SessionIdentifierView sessionView = new SessionIdentifierView(new GraceValidityKeyView(now, sid, issuer), sid);
-			return Response.ok(sessionView).build();
+			// a zero timeout would suspend indefinitely
+			asyncResponse.setTimeout(Math.max(remaining.toMillis(), 1), TimeUnit.MILLISECONDS);
+		}
+		catch (IllegalStateException e) {
+			// already resumed by the watch
 		}
-		catch (IndexOutOfBoundsException e) {
+	}
+
+	// accepts the entity tag with or without quotes, or as a weak tag
+	private static boolean isVersion(String version, EntityTag etag) {
+		String value = version.startsWith("W/") ? version.substring(2) : version;
+		if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+			value = value.substring(1, value.length() - 1);
+		}
+		return value.equals(etag.getValue());
+	}
+
+	private static Response sessionNotFound() {
+		return ProblemDetails.ofType(ProblemType.forHttpStatus(Status.NOT_FOUND))
+				.detail("Session identifier is not known")
+				.build();
+	}
+
+	private static Response unknownIssuer() {
+		return SessionIdentifierPrecheck.unknownIssuer();
+	}
+	
+	/**
+	 * Answer with the view, or with 304 Not Modified when the request preconditions show the client
+	 * already has the current representation. The media type is negotiated up front so that the entity
+	 * tag can be checked without encoding the body.
+	 */
+	private Response conditionalView(SessionIdentifierView sessionView, MediaType mediaType, Request request) {
+		EntityTag etag = sessionView.getEntityTag(mediaType);
+		Date lastModified = Date.from(sessionView.getLastModifiedAt());
+		if (request.evaluatePreconditions(lastModified, etag) != null) {
+			return notModified(sessionView, mediaType);
+		}
+		return viewResponse(sessionView, mediaType);
+	}
+
+	private Response notModified(SessionIdentifierView sessionView, MediaType mediaType) {
+		return Response.notModified(sessionView.getEntityTag(mediaType))
+				.lastModified(Date.from(sessionView.getLastModifiedAt()))
+				.cacheControl(sessionView.getCacheControl(maxCacheAge))
+				.build();
+	}
+
+	private Response viewResponse(SessionIdentifierView sessionView, MediaType mediaType) {
+		return Response.ok(sessionView, mediaType)
+				.tag(sessionView.getEntityTag(mediaType))
+				.cacheControl(sessionView.getCacheControl(maxCacheAge))
+				.build();
+	}
+
+	/**
+	 * Subscribe to changes in state of the given session identifiers, held open as a stream of
+	 * server-sent events or a CBOR sequence. The current state of each session is sent first, followed
+	 * by its new state whenever a transaction changes it. Transitions due to the passage of time are
+	 * not sent, as every state carries the time of its next scheduled transition.
+	 * 
+	 * A subscriber which falls too far behind is sent a {@code resync} event in place of the changes it
+	 * missed, and should then query its sessions again. A subscription covering more session
+	 * identifiers than allowed is refused with 413, and one beyond the number this node holds open at
+	 * once with 503.
+	 */
+	@GET
+	@Path("_subscribe")
+	@Produces(Constants.SERVER_SENT_EVENTS)
+	public Response subscribeAsEvents(@QueryParam("sid") List<String> sids) {
+		return subscribe(sids, Constants.SERVER_SENT_EVENTS_TYPE);
+	}
+
+	@GET
+	@Path("_subscribe")
+	@Produces(Constants.APPLICATION_CBOR_SEQ)
+	public Response subscribeAsCbor(@QueryParam("sid") List<String> sids) {
+		return subscribe(sids, Constants.APPLICATION_CBOR_SEQ_TYPE);
+	}
+
+	/** Subscribe to a set of session identifiers too large to list in the query string */
+	@POST
+	@Path("_subscribe")
+	@Produces(Constants.SERVER_SENT_EVENTS)
+	public Response subscribeAsEvents(ValidityQuery query) {
+		return subscribe(query.getSessionIdentifiers(), Constants.SERVER_SENT_EVENTS_TYPE);
+	}
+
+	@POST
+	@Path("_subscribe")
+	@Produces(Constants.APPLICATION_CBOR_SEQ)
+	public Response subscribeAsCbor(ValidityQuery query) {
+		return subscribe(query.getSessionIdentifiers(), Constants.APPLICATION_CBOR_SEQ_TYPE);
+	}
+
+	private Response subscribe(List<String> identifiers, MediaType mediaType) {
+		if (identifiers == null || identifiers.isEmpty()) {
 			return ProblemDetails.ofType(ProblemType.forHttpStatus(Status.BAD_REQUEST))
-					.detail("Session identifier was issued by an unknown issuer.")
+					.detail("At least one session identifier is required to subscribe")
+					.build();
+		}
+		if (identifiers.size() > subscriptions.getMaxSessions()) {
+			return ProblemDetails.ofType(ProblemType.forHttpStatus(Status.REQUEST_ENTITY_TOO_LARGE))
+					.detail("Too many session identifiers for one subscription")
+					.customAttributes((builder) -> builder.add("max_sessions", subscriptions.getMaxSessions()))
 					.build();
 		}
+		List<SessionIdentifier> sids = new ArrayList<>(identifiers.size());
+		for (String identifier : identifiers) {
+			try {
+				sids.add(SessionIdentifier.fromStringIdentifier(identifier));
+			}
+			catch (IllegalArgumentException e) {
+				return ProblemDetails.ofType(ProblemType.forHttpStatus(Status.BAD_REQUEST))
+						.detail("Session identifier is malformed")
+						.customAttributes((builder) -> builder.add("sid", identifier))
+						.build();
+			}
+		}
+		SessionSubscription subscription = subscriptions.subscribe(sids, mediaType).orElse(null);
+		if (subscription == null) {
+			return ProblemDetails.ofType(ProblemType.forHttpStatus(Status.SERVICE_UNAVAILABLE))
+					.detail("Too many subscriptions are open on this node")
+					.builder()
+					.header(Constants.RETRY_AFTER, AdmissionControl.DEFAULT_RETRY_AFTER)
+					.build();
+		}
+		return Response.ok(subscription.getOutput(), mediaType)
+				.cacheControl(CacheControl.valueOf("no-cache, no-store"))
+				.build();
 	}
-	
+
+	/**
+	 * Evaluate a batch of session identifiers against one snapshot of state, answering with a state
+	 * name per identifier in the order they were supplied.
+	 */
+	@POST
+	@Path("_query")
+	public Response querySessions(ValidityQuery query) {
+		List<String> identifiers = query.getSessionIdentifiers();
+		List<SessionIdentifier> sids = new ArrayList<>(identifiers.size());
+		List<ValidityKey> keys = new ArrayList<>(identifiers.size());
+		for (String identifier : identifiers) {
+			SessionIdentifier sid = null;
+			try {
+				sid = SessionIdentifier.fromStringIdentifier(identifier);
+				keys.add(sid.getKey());
+			}
+			catch (IllegalArgumentException e) {
+				// reported as malformed in position
+			}
+			sids.add(sid);
+		}
+		Instant now = Instant.now();
+		ValidityQueryResult result = platform.withStateEvaluatedAtTime(now, (State state) -> {
+			Map<ValidityKey, ValidityKeyView> views = state.viewValidityKeys(keys);
+			List<Issuer> issuers = state.getIssuers();
+			List<ValidityQueryResult.Entry> entries = new ArrayList<>(sids.size());
+			for (SessionIdentifier sid : sids) {
+				if (sid == null) {
+					entries.add(new ValidityQueryResult.Entry(ValidityQueryResult.MALFORMED, null));
+					continue;
+				}
+				ValidityKeyView view = views.get(sid.getKey());
+				int issuerIndex = sid.getKey().getIssuerIndex();
+				if (view == null && sid.isInGrace(now) && issuerIndex >= 0 && issuerIndex < issuers.size()) {
+					view = new GraceValidityKeyView(now, sid, issuers.get(issuerIndex));
+				}
+				entries.add(view != null ?
+						new ValidityQueryResult.Entry(view.getStateName(), view.getScheduledTransitionAt()) :
+						new ValidityQueryResult.Entry(ValidityQueryResult.UNKNOWN, null));
+			}
+			return new ValidityQueryResult(entries);
+		});
+		return Response.ok(result).build();
+	}
+
+	/**
+	 * Apply a mixed batch of registration, interactivity and invalidation operations. Operations that
+	 * are understood are sent to consensus together; each operation is answered in position with a
+	 * status and either its session identifier or the reason it was rejected. Operations on a session
+	 * which the identifier alone shows cannot succeed, such as one of an unknown issuer, are rejected
+	 * without being sent.
+	 */
+	@POST
+	@Path("_batch")
+	public Response batchSessions(ValidityBatch batch) {
+		Instant now = Instant.now();
+		Optional<Instant> graceExpiryAt = platform.getConsensusGraceSpan().map(now::plus);
+		List<DTVATransaction> transactions = new ArrayList<>(batch.getOperations().size());
+		List<ValidityBatchResult.Entry> entries = platform.withStateEvaluatedAtTime(now, (State state) -> {
+			List<ValidityBatchResult.Entry> results = new ArrayList<>(batch.getOperations().size());
+			for (ValidityBatchOperation operation : batch.getOperations()) {
+				String opName = operation.getOpName().orElse(null);
+				if (!operation.getOp().isPresent()) {
+					results.add(new ValidityBatchResult.Entry(opName, Status.BAD_REQUEST, null, operation.getError().orElse(null)));
+					continue;
+				}
+				if (operation.getOp().get() == ValidityBatchOperation.Op.Register) {
+					ValidityKeyCreationRequest request = operation.getRegistration().get();
+					Optional<Issuer> issuer = state.getIssuerByName(request.getIssuerName());
+					if (!issuer.isPresent()) {
+						results.add(new ValidityBatchResult.Entry(opName, Status.BAD_REQUEST, null, "Issuer name is not currently known"));
+						continue;
+					}
+					ValidityKey key = platform.createValidityKey(request.getHardExpiryAt(), issuer.get(), request.getInteractivityTimeout());
+					transactions.add(new ValidityKeyRegistrationTransaction(key));
+					SessionIdentifier sid = new SessionIdentifier(key, graceExpiryAt.orElse(null));
+					results.add(new ValidityBatchResult.Entry(opName, Status.ACCEPTED, sid.toStringIdentifier(), null));
+					continue;
+				}
+				String identifier = operation.getSessionIdentifier().get();
+				SessionIdentifier sid;
+				try {
+					sid = SessionIdentifier.fromStringIdentifier(identifier);
+				}
+				catch (IllegalArgumentException e) {
+					results.add(new ValidityBatchResult.Entry(opName, Status.BAD_REQUEST, identifier, "Session identifier is malformed"));
+					continue;
+				}
+				Optional<SessionIdentifierPrecheck.Problem> problem = SessionIdentifierPrecheck.find(sid, state, now);
+				if (problem.isPresent()) {
+					results.add(new ValidityBatchResult.Entry(opName, problem.get().getStatus(), identifier, problem.get().getDetail()));
+					continue;
+				}
+				ValidityKey key = sid.getKey();
+				transactions.add(operation.getOp().get() == ValidityBatchOperation.Op.Interactivity ?
+						new ValidityKeyInteractivityTransaction(key) :
+						new ValidityKeyInvalidationTransaction(key));
+				results.add(new ValidityBatchResult.Entry(opName, Status.ACCEPTED, identifier, null));
+			}
+			return results;
+		});
+		platform.sendTransactions(transactions);
+		return Response.ok(new ValidityBatchResult(entries)).build();
+	}
+
 	@POST
 	@Path("{sid}")
-	public Response updateSession(@PathParam("sid") SessionIdentifier sid, @FormParam("interactivity_detected") Boolean interactivityDetected ) {
+	public Response updateSession(@PathParam("sid") SessionIdentifier sid, @FormParam("interactivity_detected") Boolean interactivityDetected,
+			@Context RequestSnapshot snapshot) {
 		ValidityKey key = sid.getKey();
+		Instant now = snapshot.getEvaluatedAt();
+		State state = snapshot.getState();
+		Optional<Response> problem = SessionIdentifierPrecheck.check(sid, state, now);
+		if (problem.isPresent()) {
+			return problem.get();
+		}
 		platform.sendValidityKeyInteractivity(key);
-		Instant now = Instant.now();
-		Optional<ValidityKeyView> view = platform.withStateEvaluatedAtTime(now, (State state) -> state.viewValidityKey(key));
+		Optional<ValidityKeyView> view = state.viewValidityKey(key);
 		if (view.isPresent()) {
 			if (view.get().isActive())
 				return Response.ok(new SessionIdentifierView(view.get(), sid)).build();
@@ -172,20 +672,23 @@ public class SessionIdentifierCollectionEndpoint {
 		}
 		
 		if (sid.isInGrace(now)) {
-			Issuer iss = platform.withStateEvaluatedAtTime(now, (State state) -> state.getIssuers().get(key.getIssuerIndex()));
-			return Response.accepted(new SessionIdentifierView(new GraceValidityKeyView(now, sid, iss), sid)).build();
+			Optional<Issuer> iss = state.getIssuer(key.getIssuerIndex());
+			if (!iss.isPresent()) {
+				return unknownIssuer();
+			}
+			return Response.accepted(new SessionIdentifierView(new GraceValidityKeyView(now, sid, iss.get()), sid)).build();
 		}
 		
 		return ProblemDetails.ofType(ProblemType.forHttpStatus(Status.NOT_FOUND)).build();
 	}
 	
 	@DELETE
-	public Response deleteSession(@QueryParam("sid") SessionIdentifier sid, @QueryParam("iss") String issuerName) {
-		Instant now = Instant.now();
+	public Response deleteSession(@QueryParam("sid") SessionIdentifier sid, @QueryParam("iss") String issuerName,
+			@Context RequestSnapshot snapshot) {
 		ValidityKey key = sid.getKey();
-		Issuer issuer = platform.withStateEvaluatedAtTime(now, (State state) -> state.getIssuers().get(key.getIssuerIndex()));
-		if (issuer.getIssuerName().equals(issuerName)) {
-			return deleteSession(sid);
+		Optional<Issuer> issuer = snapshot.getState().getIssuer(key.getIssuerIndex());
+		if (issuer.isPresent() && issuer.get().getIssuerName().equals(issuerName)) {
+			return deleteSession(sid, snapshot);
 		}
 		return ProblemDetails.ofType(ProblemType.forHttpStatus(Status.BAD_REQUEST))
 				.detail("session identifier is not bound to the supplied issuer name")
@@ -194,11 +697,16 @@ public class SessionIdentifierCollectionEndpoint {
 
 	@DELETE
 	@Path("{sid}")
-	public Response deleteSession(@PathParam("sid") SessionIdentifier sid) {
+	public Response deleteSession(@PathParam("sid") SessionIdentifier sid, @Context RequestSnapshot snapshot) {
 		ValidityKey key = sid.getKey();
+		Instant now = snapshot.getEvaluatedAt();
+		State state = snapshot.getState();
+		Optional<Response> problem = SessionIdentifierPrecheck.check(sid, state, now);
+		if (problem.isPresent()) {
+			return problem.get();
+		}
 		platform.sendValidityKeyInvalidation(key);
-		Instant now = Instant.now();
-		Optional<ValidityKeyView> view = platform.withStateEvaluatedAtTime(now, (State state) -> state.viewValidityKey(key));
+		Optional<ValidityKeyView> view = state.viewValidityKey(key);
 		if (view.isPresent()) {
 			if (view.get().isExpired()) {
 				return Response.ok(new SessionIdentifierView(view.get(), sid)).build();
@@ -206,8 +714,11 @@ public class SessionIdentifierCollectionEndpoint {
 			return Response.accepted(new SessionIdentifierView(view.get(), sid)).build();
 		}
 		if (sid.isInGrace(now)) {
-			Issuer iss = platform.withStateEvaluatedAtTime(now, (State state) -> state.getIssuers().get(key.getIssuerIndex()));
-			return Response.accepted(new SessionIdentifierView(new GraceValidityKeyView(now, sid, iss), sid)).build();
+			Optional<Issuer> iss = state.getIssuer(key.getIssuerIndex());
+			if (!iss.isPresent()) {
+				return unknownIssuer();
+			}
+			return Response.accepted(new SessionIdentifierView(new GraceValidityKeyView(now, sid, iss.get()), sid)).build();
 		}
 		return ProblemDetails.ofType(ProblemType.forHttpStatus(Status.NOT_FOUND)).build();
 	}
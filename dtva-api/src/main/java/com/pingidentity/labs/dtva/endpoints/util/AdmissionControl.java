@@ -0,0 +1,331 @@
+/* Copyright 2017 Ping Identity Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package com.pingidentity.labs.dtva.endpoints.util;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.json.Json;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.PreMatching;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.ext.Provider;
+
+import org.glassfish.jersey.server.ContainerResponse;
+import org.glassfish.jersey.server.monitoring.ApplicationEvent;
+import org.glassfish.jersey.server.monitoring.ApplicationEventListener;
+import org.glassfish.jersey.server.monitoring.RequestEvent;
+import org.glassfish.jersey.server.monitoring.RequestEventListener;
+
+import com.github.dwaite.problemdetails.ProblemDetails;
+import com.github.dwaite.problemdetails.ProblemType;
+
+/**
+ * Sheds load before it queues up, by admitting requests against a {@link ConcurrencyLimit} per route
+ * class and answering those beyond it 503 Service Unavailable with a Retry-After.
+ * 
+ * Requests are classified before resource matching: session reads and queries, session writes, and
+ * issuer requests each adapt their own limit. Reads take priority over interactivity updates, which are
+ * also refused while reads are using more than the {@code write-yield} share of their limit; a missed
+ * update only shortens a session's idle timeout until the next one. Other writes - creations,
+ * batches and above all invalidations - never yield to reads, as dropping a logout ahead of a read of
+ * the same session would leave it valid. Requests which
+ * deliberately stay open - subscriptions, long polls and creations waiting on consensus - are not
+ * limited, as their duration says nothing about load.
+ */
+@Provider
+@PreMatching
+public class AdmissionControl implements ContainerRequestFilter, ApplicationEventListener {
+	/** local configuration object for admission control */
+	public static final String CONFIGURATION_KEY = "admission-control";
+	public static final long DEFAULT_RETRY_AFTER = 1;
+	public static final double DEFAULT_WRITE_YIELD = 0.8;
+
+	private static final String ADMISSION_PROPERTY = AdmissionControl.class.getName() + ".admission";
+
+	public enum RouteClass {
+		READ("read", 250),
+		WRITE("write", 1000),
+		ISSUER("issuer", 1000);
+
+		private final String configurationName;
+		private final long defaultLatencyThresholdMillis;
+
+		RouteClass(String configurationName, long defaultLatencyThresholdMillis) {
+			this.configurationName = configurationName;
+			this.defaultLatencyThresholdMillis = defaultLatencyThresholdMillis;
+		}
+
+		public String getConfigurationName() {
+			return configurationName;
+		}
+	}
+
+	private final boolean enabled;
+	private final Map<RouteClass, ConcurrencyLimit> limits;
+	private final long retryAfter;
+	private final double writeYield;
+	private final LongAdder writesYielded = new LongAdder();
+	private final RequestEventListener completion = this::onRequestEvent;
+
+	public AdmissionControl(boolean enabled, Map<RouteClass, ConcurrencyLimit> limits, long retryAfter,
+			double writeYield) {
+		this.enabled = enabled;
+		this.limits = new EnumMap<>(limits);
+		for (RouteClass routeClass : RouteClass.values()) {
+			if (!this.limits.containsKey(routeClass)) {
+				throw new IllegalArgumentException("No concurrency limit for route class " + routeClass);
+			}
+		}
+		this.retryAfter = retryAfter;
+		this.writeYield = writeYield;
+	}
+
+	/**
+	 * @param localConfiguration local configuration, whose {@value #CONFIGURATION_KEY} object may hold
+	 * {@code enabled}, {@code retry-after} seconds, {@code write-yield}, and a {@link ConcurrencyLimit}
+	 * configuration for each of {@code read}, {@code write} and {@code issuer}
+	 */
+	public static AdmissionControl fromConfiguration(JsonObject localConfiguration) {
+		JsonObject configuration = localConfiguration == null ? null :
+			localConfiguration.getJsonObject(CONFIGURATION_KEY);
+		Map<RouteClass, ConcurrencyLimit> limits = new EnumMap<>(RouteClass.class);
+		for (RouteClass routeClass : RouteClass.values()) {
+			limits.put(routeClass, ConcurrencyLimit.fromConfiguration(
+					configuration == null ? null : configuration.getJsonObject(routeClass.getConfigurationName()),
+					routeClass.defaultLatencyThresholdMillis));
+		}
+		if (configuration == null) {
+			return new AdmissionControl(true, limits, DEFAULT_RETRY_AFTER, DEFAULT_WRITE_YIELD);
+		}
+		JsonNumber retryAfter = configuration.getJsonNumber("retry-after");
+		JsonNumber writeYield = configuration.getJsonNumber("write-yield");
+		return new AdmissionControl(
+				configuration.getBoolean("enabled", true),
+				limits,
+				retryAfter == null ? DEFAULT_RETRY_AFTER : retryAfter.longValue(),
+				writeYield == null ? DEFAULT_WRITE_YIELD : writeYield.doubleValue());
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * The route class a request is limited under, if any.
+	 * 
+	 * @param path request path relative to the application, without a leading slash
+	 * @param longLived true if the request will be held open, as judged by
+	 * {@link #holdsOpen(String, String, String, String)}
+	 */
+	public static Optional<RouteClass> classify(String method, String path, boolean longLived) {
+		if (longLived) {
+			return Optional.empty();
+		}
+		if (path.startsWith("issuer")) {
+			return Optional.of(RouteClass.ISSUER);
+		}
+		if (!path.startsWith("validity") || path.startsWith("validity/_subscribe")) {
+			return Optional.empty();
+		}
+		switch (method) {
+		case HttpMethod.GET:
+		case HttpMethod.HEAD:
+			return Optional.of(RouteClass.READ);
+		case HttpMethod.POST:
+			return Optional.of(path.startsWith("validity/_query") ? RouteClass.READ : RouteClass.WRITE);
+		case HttpMethod.OPTIONS:
+			return Optional.empty();
+		default:
+			return Optional.of(RouteClass.WRITE);
+		}
+	}
+
+	/**
+	 * Whether a request will be held open, which is true only of a long poll of a session
+	 * ({@code GET validity/{sid}} with a positive {@code wait}) and of a creation waiting on consensus
+	 * ({@code POST validity} with a positive {@code Prefer: wait}). Any other request carrying a wait
+	 * is answered at once, and so is limited like the rest of its route class.
+	 * 
+	 * @param path request path relative to the application, without a leading slash
+	 * @param waitParameter the {@code wait} query parameter, or null
+	 * @param prefer the {@value Prefer#PREFER} header, or null
+	 */
+	public static boolean holdsOpen(String method, String path, String waitParameter, String prefer) {
+		switch (method) {
+		case HttpMethod.GET:
+		case HttpMethod.HEAD:
+			if (waitParameter == null || !isSession(path)) {
+				return false;
+			}
+			try {
+				return Integer.parseInt(waitParameter.trim()) > 0;
+			}
+			catch (NumberFormatException e) {
+				return false;
+			}
+		case HttpMethod.POST:
+			if (!path.equals("validity") && !path.equals("validity/")) {
+				return false;
+			}
+			Optional<Duration> wait = Prefer.getWait(prefer);
+			return wait.isPresent() && !wait.get().isZero();
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Whether a request gives way to reads under load, which is true only of an interactivity update
+	 * ({@code POST validity/{sid}}).
+	 * 
+	 * @param path request path relative to the application, without a leading slash
+	 */
+	public static boolean yieldsToReads(String method, String path) {
+		return HttpMethod.POST.equals(method) && isSession(path);
+	}
+
+	// validity/{sid}, rather than the collection or one of its _ prefixed resources
+	private static boolean isSession(String path) {
+		return path.startsWith("validity/") && path.length() > "validity/".length() &&
+				path.charAt("validity/".length()) != '_' && path.indexOf('/', "validity/".length()) < 0;
+	}
+
+	/**
+	 * Admit a request of the given class, which does not yield to reads. Every admitted request must
+	 * be followed by exactly one {@link #release(RouteClass, long, int)}.
+	 */
+	public boolean tryAcquire(RouteClass routeClass) {
+		return tryAcquire(routeClass, false);
+	}
+
+	/**
+	 * Admit a request of the given class. Every admitted request must be followed by exactly one
+	 * {@link #release(RouteClass, long, int)}.
+	 * 
+	 * @param yielding true to refuse the request while reads are using more than the write yield share
+	 * of their limit
+	 */
+	public boolean tryAcquire(RouteClass routeClass, boolean yielding) {
+		if (yielding) {
+			ConcurrencyLimit reads = limits.get(RouteClass.READ);
+			if (reads.getInFlight() >= reads.getLimit() * writeYield) {
+				writesYielded.increment();
+				return false;
+			}
+		}
+		return limits.get(routeClass).tryAcquire();
+	}
+
+	/**
+	 * Complete an admitted request.
+	 * 
+	 * @param admittedAt {@link System#nanoTime()} at admission
+	 * @param status response status, where 503 signals that the participant is overloaded. A 429 is not
+	 * taken as overload, as it refuses one caller or issuer rather than saying the participant is busy.
+	 */
+	public void release(RouteClass routeClass, long admittedAt, int status) {
+		boolean overload = status == Status.SERVICE_UNAVAILABLE.getStatusCode();
+		limits.get(routeClass).release(admittedAt, overload);
+	}
+
+	/** the response to a request refused admission */
+	public Response overloaded(RouteClass routeClass) {
+		return ProblemDetails.ofType(ProblemType.forHttpStatus(Status.SERVICE_UNAVAILABLE))
+				.detail("Too many requests of this kind are in progress")
+				.customAttributes((builder) -> builder
+						.add("route_class", routeClass.getConfigurationName())
+						.add("retry_after", retryAfter))
+				.builder()
+				.header(Constants.RETRY_AFTER, retryAfter)
+				.build();
+	}
+
+	@Override
+	public void filter(ContainerRequestContext requestContext) throws IOException {
+		if (!enabled) {
+			return;
+		}
+		String method = requestContext.getMethod();
+		String path = requestContext.getUriInfo().getPath();
+		boolean longLived = holdsOpen(method, path,
+				requestContext.getUriInfo().getQueryParameters().getFirst("wait"),
+				requestContext.getHeaderString(Prefer.PREFER));
+		Optional<RouteClass> routeClass = classify(method, path, longLived);
+		if (!routeClass.isPresent()) {
+			return;
+		}
+		if (tryAcquire(routeClass.get(), yieldsToReads(method, path))) {
+			requestContext.setProperty(ADMISSION_PROPERTY, new Admission(routeClass.get(), System.nanoTime()));
+		}
+		else {
+			requestContext.abortWith(overloaded(routeClass.get()));
+		}
+	}
+
+	@Override
+	public void onEvent(ApplicationEvent event) {
+	}
+
+	@Override
+	public RequestEventListener onRequest(RequestEvent requestEvent) {
+		return enabled ? completion : null;
+	}
+
+	// finishing covers every outcome, including unmapped exceptions and resumed asynchronous responses
+	private void onRequestEvent(RequestEvent event) {
+		if (event.getType() != RequestEvent.Type.FINISHED) {
+			return;
+		}
+		Admission admission = (Admission) event.getContainerRequest().getProperty(ADMISSION_PROPERTY);
+		if (admission == null) {
+			return;
+		}
+		event.getContainerRequest().removeProperty(ADMISSION_PROPERTY);
+		ContainerResponse response = event.getContainerResponse();
+		release(admission.routeClass, admission.admittedAt,
+				response == null ? Status.INTERNAL_SERVER_ERROR.getStatusCode() : response.getStatus());
+	}
+
+	public JsonObject getMetrics() {
+		JsonObjectBuilder builder = Json.createObjectBuilder()
+				.add("enabled", enabled);
+		for (Map.Entry<RouteClass, ConcurrencyLimit> entry : limits.entrySet()) {
+			builder.add(entry.getKey().getConfigurationName(), entry.getValue().getMetrics());
+		}
+		return builder
+				.add("writes_yielded", writesYielded.sum())
+				.build();
+	}
+
+	private static final class Admission {
+		final RouteClass routeClass;
+		final long admittedAt;
+
+		Admission(RouteClass routeClass, long admittedAt) {
+			this.routeClass = routeClass;
+			this.admittedAt = admittedAt;
+		}
+	}
+}
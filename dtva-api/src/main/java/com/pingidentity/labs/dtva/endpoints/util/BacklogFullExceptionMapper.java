@@ -0,0 +1,43 @@
+/* Copyright 2017 Ping Identity Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package com.pingidentity.labs.dtva.endpoints.util;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.ExceptionMapper;
+import javax.ws.rs.ext.Provider;
+
+import com.github.dwaite.problemdetails.ProblemDetails;
+import com.github.dwaite.problemdetails.ProblemType;
+import com.pingidentity.labs.dtva.application.BacklogFullException;
+
+/**
+ * Fail fast when the coordinator refuses a transaction due to its in-flight limit, telling the client
+ * when consensus is expected to have caught up.
+ */
+@Provider
+public class BacklogFullExceptionMapper implements ExceptionMapper<BacklogFullException> {
+
+	@Override
+	public Response toResponse(BacklogFullException exception) {
+		long retryAfter = Math.max(1, exception.getRetryAfter().getSeconds());
+		return ProblemDetails.ofType(ProblemType.forHttpStatus(Constants.TOO_MANY_REQUESTS))
+				.detail("Too many transactions of this type are awaiting consensus")
+				.customAttributes((builder) -> builder
+						.add("transaction_type", exception.getType().name())
+						.add("retry_after", retryAfter))
+				.builder()
+				.header(Constants.RETRY_AFTER, retryAfter)
+				.build();
+	}
+}
@@ -0,0 +1,51 @@
+/* Copyright 2017 Ping Identity Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package com.pingidentity.labs.dtva.endpoints.util;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+
+/**
+ * Opaque, resumable position in the change feed. A cursor encodes the change log sequence number of
+ * the state it was taken from, so it can be resumed against any participant which still retains
+ * that part of the log.
+ */
+public final class ChangeCursor {
+	private static final byte VERSION = 1;
+	private static final int LENGTH = 1 + Long.BYTES;
+
+	private ChangeCursor() {
+	}
+
+	public static String encode(long sequence) {
+		ByteBuffer buffer = ByteBuffer.allocate(LENGTH);
+		buffer.put(VERSION).putLong(sequence);
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.array());
+	}
+
+	/**
+	 * @throws IllegalArgumentException if the cursor was not produced by {@link #encode(long)}
+	 */
+	public static long decode(String cursor) throws IllegalArgumentException {
+		byte[] decoded = Base64.getUrlDecoder().decode(cursor);
+		if (decoded.length != LENGTH || decoded[0] != VERSION) {
+			throw new IllegalArgumentException("Unrecognized cursor");
+		}
+		long sequence = ByteBuffer.wrap(decoded, 1, Long.BYTES).getLong();
+		if (sequence < 0) {
+			throw new IllegalArgumentException("Unrecognized cursor");
+		}
+		return sequence;
+	}
+}
@@ -0,0 +1,147 @@
+/* Copyright 2017 Ping Identity Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package com.pingidentity.labs.dtva.endpoints.util;
+
+import static com.pingidentity.labs.dtva.endpoints.util.Constants.ISS;
+import static com.pingidentity.labs.dtva.endpoints.util.Constants.SID;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import javax.json.Json;
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonGeneratorFactory;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
+
+import com.github.dwaite.cyborg.electrode.impl.CborOutput;
+import com.pingidentity.labs.dtva.application.Issuer;
+import com.pingidentity.labs.dtva.application.StateChange;
+
+/**
+ * Streams change log entries as newline-delimited JSON or as a CBOR sequence. Every entry carries
+ * the cursor to resume from after it, so a consumer which is cut off part way through loses nothing.
+ */
+public class ChangeFeedOutput implements StreamingOutput {
+	static final String CURSOR = "cursor";
+	static final String TYPE = "type";
+	static final String AT = "at";
+	static final String INVALIDATED_BEFORE = "invalidated_before";
+
+	private static final JsonGeneratorFactory GENERATORS = Json.createGeneratorFactory(null);
+	private static final byte[] NEWLINE = { '\n' };
+
+	private final Stream<StateChange> changes;
+	private final List<Issuer> issuers;
+	private final MediaType mediaType;
+
+	public ChangeFeedOutput(Stream<StateChange> changes, List<Issuer> issuers, MediaType mediaType) {
+		this.changes = changes;
+		this.issuers = issuers;
+		this.mediaType = mediaType;
+	}
+
+	@Override
+	public void write(OutputStream output) throws IOException, WebApplicationException {
+		Iterator<StateChange> iterator = changes.iterator();
+		if (mediaType.isCompatible(Constants.APPLICATION_CBOR_SEQ_TYPE)) {
+			DataOutputStream dos = new DataOutputStream(output);
+			CborOutput cout = new CborOutput(dos);
+			while (iterator.hasNext()) {
+				writeCbor(cout, iterator.next());
+			}
+			dos.flush();
+		} else {
+			while (iterator.hasNext()) {
+				output.write(toJson(iterator.next()).getBytes(StandardCharsets.UTF_8));
+				output.write(NEWLINE);
+			}
+		}
+		output.flush();
+	}
+
+	static String typeName(StateChange.Kind kind) {
+		switch (kind) {
+		case Invalidated:
+			return "invalidated";
+		case Expired:
+			return "expired";
+		case IssuerInvalidated:
+			return "issuer_invalidated";
+		default:
+			throw new IllegalArgumentException("Unknown change kind " + kind);
+		}
+	}
+
+	private String issuerName(StateChange change) {
+		int index = change.getIssuerIndex();
+		return index >= 0 && index < issuers.size() ? issuers.get(index).getIssuerName() : null;
+	}
+
+	// validity keys are reported as session identifiers without grace, which can be looked up directly
+	private static String sid(StateChange change) {
+		return change.getValidityKey().map((key) -> new SessionIdentifier(key, null).toStringIdentifier()).orElse(null);
+	}
+
+	private String toJson(StateChange change) {
+		StringWriter line = new StringWriter();
+		try (JsonGenerator generator = GENERATORS.createGenerator(line)) {
+			generator.writeStartObject();
+			generator.write(CURSOR, ChangeCursor.encode(change.getSequence()));
+			generator.write(TYPE, typeName(change.getKind()));
+			generator.write(AT, change.getAt().getEpochSecond());
+			String issuerName = issuerName(change);
+			if (issuerName != null) {
+				generator.write(ISS, issuerName);
+			}
+			String sid = sid(change);
+			if (sid != null) {
+				generator.write(SID, sid);
+			}
+			change.getInvalidatedBefore().ifPresent((before) ->
+				generator.write(INVALIDATED_BEFORE, before.getEpochSecond()));
+			generator.writeEnd();
+		}
+		return line.toString();
+	}
+
+	private void writeCbor(CborOutput cout, StateChange change) throws IOException {
+		String issuerName = issuerName(change);
+		String sid = sid(change);
+		int pairs = 3
+				+ (issuerName != null ? 1 : 0)
+				+ (sid != null ? 1 : 0)
+				+ (change.getInvalidatedBefore().isPresent() ? 1 : 0);
+		cout.writeStartMap(pairs)
+			.writeText(CURSOR).writeText(ChangeCursor.encode(change.getSequence()))
+			.writeText(TYPE).writeText(typeName(change.getKind()))
+			.writeText(AT).writeLong(change.getAt().getEpochSecond());
+		if (issuerName != null) {
+			cout.writeText(ISS).writeText(issuerName);
+		}
+		if (sid != null) {
+			cout.writeText(SID).writeText(sid);
+		}
+		if (change.getInvalidatedBefore().isPresent()) {
+			cout.writeText(INVALIDATED_BEFORE).writeLong(change.getInvalidatedBefore().get().getEpochSecond());
+		}
+	}
+}
@@ -0,0 +1,155 @@
+/* Copyright 2017 Ping Identity Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package com.pingidentity.labs.dtva.endpoints.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.json.Json;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+
+/**
+ * An additive-increase/multiplicative-decrease limit on the requests of one route class which may be in
+ * progress at once.
+ * 
+ * The limit grows by one over each round of requests completing within the latency threshold while at
+ * least half of the limit was in use, and is cut by the backoff ratio when a request took longer or was turned away
+ * further in for lack of capacity. As with TCP congestion control the limit is cut at most once per
+ * round trip - only for requests admitted after the previous cut - so that one burst of slow requests
+ * does not collapse it. The limit therefore settles around the concurrency the participant can serve
+ * before queueing sets in, and requests beyond it are refused up front.
+ */
+public class ConcurrencyLimit {
+	public static final int    DEFAULT_INITIAL_LIMIT = 50;
+	public static final int    DEFAULT_MIN_LIMIT     = 4;
+	public static final int    DEFAULT_MAX_LIMIT     = 1000;
+	public static final double DEFAULT_BACKOFF_RATIO = 0.9;
+
+	private final int minLimit;
+	private final int maxLimit;
+	private final long latencyThresholdNanos;
+	private final double backoffRatio;
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+	// whole part of the limit, read without locking on admission
+	private volatile int limit;
+	// limit with the fractional growth accumulated so far, and System.nanoTime() of the last decrease,
+	// both guarded by this
+	private double window;
+	private long decreasedAt = System.nanoTime();
+
+	private final LongAdder admitted = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+	private final LongAdder overloaded = new LongAdder();
+
+	public ConcurrencyLimit(int initialLimit, int minLimit, int maxLimit, long latencyThresholdMillis,
+			double backoffRatio) {
+		if (minLimit < 1 || maxLimit < minLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+			throw new IllegalArgumentException("Concurrency limits must satisfy 1 <= min-limit <= initial-limit <= max-limit");
+		}
+		if (!(backoffRatio > 0 && backoffRatio < 1)) {
+			throw new IllegalArgumentException("backoff-ratio must be between 0 and 1");
+		}
+		this.limit = initialLimit;
+		this.window = initialLimit;
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.latencyThresholdNanos = TimeUnit.MILLISECONDS.toNanos(latencyThresholdMillis);
+		this.backoffRatio = backoffRatio;
+	}
+
+	/**
+	 * @param configuration object with optional {@code initial-limit}, {@code min-limit},
+	 * {@code max-limit} and {@code backoff-ratio}, and {@code latency-threshold-ms}
+	 * @param defaultLatencyThresholdMillis latency threshold when not configured
+	 */
+	public static ConcurrencyLimit fromConfiguration(JsonObject configuration, long defaultLatencyThresholdMillis) {
+		if (configuration == null) {
+			return new ConcurrencyLimit(DEFAULT_INITIAL_LIMIT, DEFAULT_MIN_LIMIT, DEFAULT_MAX_LIMIT,
+					defaultLatencyThresholdMillis, DEFAULT_BACKOFF_RATIO);
+		}
+		JsonNumber backoffRatio = configuration.getJsonNumber("backoff-ratio");
+		JsonNumber latencyThreshold = configuration.getJsonNumber("latency-threshold-ms");
+		return new ConcurrencyLimit(
+				configuration.getInt("initial-limit", DEFAULT_INITIAL_LIMIT),
+				configuration.getInt("min-limit", DEFAULT_MIN_LIMIT),
+				configuration.getInt("max-limit", DEFAULT_MAX_LIMIT),
+				latencyThreshold == null ? defaultLatencyThresholdMillis : latencyThreshold.longValue(),
+				backoffRatio == null ? DEFAULT_BACKOFF_RATIO : backoffRatio.doubleValue());
+	}
+
+	/**
+	 * Admit a request if the limit has room for it. Every admitted request must be followed by exactly
+	 * one {@link #release(long, boolean)}.
+	 */
+	public boolean tryAcquire() {
+		int current;
+		do {
+			current = inFlight.get();
+			if (current >= limit) {
+				rejected.increment();
+				return false;
+			}
+		} while (!inFlight.compareAndSet(current, current + 1));
+		admitted.increment();
+		return true;
+	}
+
+	/**
+	 * Complete an admitted request, adjusting the limit from how it went.
+	 * 
+	 * @param admittedAt {@link System#nanoTime()} when the request was admitted
+	 * @param overload true if the request was turned away further in for lack of capacity
+	 */
+	public void release(long admittedAt, boolean overload) {
+		int current = inFlight.getAndDecrement();
+		long now = System.nanoTime();
+		if (overload || now - admittedAt > latencyThresholdNanos) {
+			overloaded.increment();
+			synchronized (this) {
+				if (admittedAt - decreasedAt > 0) {
+					window = Math.max(minLimit, window * backoffRatio);
+					limit = (int) window;
+					decreasedAt = now;
+				}
+			}
+		}
+		else if (current * 2 >= limit) {
+			synchronized (this) {
+				window = Math.min(maxLimit, window + 1.0 / window);
+				limit = (int) window;
+			}
+		}
+	}
+
+	public int getLimit() {
+		return limit;
+	}
+
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	public JsonObject getMetrics() {
+		return Json.createObjectBuilder()
+				.add("limit", limit)
+				.add("in_flight", inFlight.get())
+				.add("admitted", admitted.sum())
+				.add("rejected", rejected.sum())
+				.add("overloaded", overloaded.sum())
+				.build();
+	}
+}
@@ -46,6 +46,38 @@ public class Constants {
 		}
 	};
 
+	public static final StatusType TOO_MANY_REQUESTS = new StatusType() {
+		@Override
+		public int getStatusCode() {
+			return 429;
+		}
+		
+		@Override
+		public String getReasonPhrase() {
+			return "Too Many Requests";
+		}
+		
+		@Override
+		public Family getFamily() {
+			return Family.CLIENT_ERROR;
+		}
+	};
+
+	public static final String RETRY_AFTER = "Retry-After";
+
 	public static final String APPLICATION_CBOR = "application/cbor";
 	public static final MediaType APPLICATION_CBOR_TYPE = MediaType.valueOf(APPLICATION_CBOR);
+
+	/** newline-delimited JSON, one value per line */
+	public static final String APPLICATION_NDJSON = "application/x-ndjson";
+	public static final MediaType APPLICATION_NDJSON_TYPE = MediaType.valueOf(APPLICATION_NDJSON);
+	/** concatenated CBOR data items (RFC 8742) */
+	public static final String APPLICATION_CBOR_SEQ = "application/cbor-seq";
+	public static final MediaType APPLICATION_CBOR_SEQ_TYPE = MediaType.valueOf(APPLICATION_CBOR_SEQ);
+	/** server-sent events, as defined by the HTML living standard */
+	public static final String SERVER_SENT_EVENTS = "text/event-stream";
+	public static final MediaType SERVER_SENT_EVENTS_TYPE = MediaType.valueOf(SERVER_SENT_EVENTS);
+
+	/** response header carrying the change feed cursor to resume from */
+	public static final String CURSOR = "DTVA-Cursor";
 }
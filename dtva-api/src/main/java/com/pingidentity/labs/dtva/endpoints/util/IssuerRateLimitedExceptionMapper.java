@@ -0,0 +1,44 @@
+/* Copyright 2017 Ping Identity Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package com.pingidentity.labs.dtva.endpoints.util;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.ExceptionMapper;
+import javax.ws.rs.ext.Provider;
+
+import com.github.dwaite.problemdetails.ProblemDetails;
+import com.github.dwaite.problemdetails.ProblemType;
+import com.pingidentity.labs.dtva.application.IssuerRateLimitedException;
+
+/**
+ * Refuse a transaction which would take its issuer over a rate limit, telling the client when the
+ * issuer's limit will next admit one.
+ */
+@Provider
+public class IssuerRateLimitedExceptionMapper implements ExceptionMapper<IssuerRateLimitedException> {
+
+	@Override
+	public Response toResponse(IssuerRateLimitedException exception) {
+		long retryAfter = Math.max(1, exception.getRetryAfter().getSeconds() +
+				(exception.getRetryAfter().getNano() > 0 ? 1 : 0));
+		return ProblemDetails.ofType(ProblemType.forHttpStatus(Constants.TOO_MANY_REQUESTS))
+				.detail("The issuer has exceeded its rate limit for this type of transaction")
+				.customAttributes((builder) -> builder
+						.add("transaction_type", exception.getType().name())
+						.add("retry_after", retryAfter))
+				.builder()
+				.header(Constants.RETRY_AFTER, retryAfter)
+				.build();
+	}
+}
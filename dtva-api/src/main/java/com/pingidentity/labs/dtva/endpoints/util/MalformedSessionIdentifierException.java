@@ -0,0 +1,34 @@
+/* Copyright 2017 Ping Identity Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package com.pingidentity.labs.dtva.endpoints.util;
+
+import javax.ws.rs.WebApplicationException;
+
+/**
+ * Refuses a session identifier parameter which cannot be decoded with {@code 400 Bad Request}, rather
+ * than leaving the resource method a null identifier. Malformed identifiers are usually junk or
+ * guesses, so the exception skips capturing a stack trace to keep turning them away cheap.
+ */
+public class MalformedSessionIdentifierException extends WebApplicationException {
+	private static final long serialVersionUID = 1L;
+
+	public MalformedSessionIdentifierException() {
+		super(SessionIdentifierPrecheck.malformed());
+	}
+
+	@Override
+	public synchronized Throwable fillInStackTrace() {
+		return this;
+	}
+}
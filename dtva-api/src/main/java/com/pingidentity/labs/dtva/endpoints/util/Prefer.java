@@ -0,0 +1,58 @@
+/* Copyright 2017 Ping Identity Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package com.pingidentity.labs.dtva.endpoints.util;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Reads preferences from the Prefer request header (RFC 7240).
+ */
+public final class Prefer {
+	public static final String PREFER = "Prefer";
+	static final String WAIT = "wait";
+
+	private Prefer() {
+	}
+
+	/**
+	 * The wait preference, being the time the client is prepared to wait for a complete response.
+	 * Absent if not requested, or if the value is not a non-negative number of seconds.
+	 */
+	public static Optional<Duration> getWait(String header) {
+		if (header == null) {
+			return Optional.empty();
+		}
+		for (String preference : header.split(",")) {
+			int parameters = preference.indexOf(';');
+			String token = (parameters < 0 ? preference : preference.substring(0, parameters)).trim();
+			int equals = token.indexOf('=');
+			if (equals < 0 || !token.substring(0, equals).trim().equalsIgnoreCase(WAIT)) {
+				continue;
+			}
+			String value = token.substring(equals + 1).trim();
+			if (value.length() > 1 && value.startsWith("\"") && value.endsWith("\"")) {
+				value = value.substring(1, value.length() - 1);
+			}
+			try {
+				long seconds = Long.parseLong(value);
+				return seconds < 0 ? Optional.empty() : Optional.of(Duration.ofSeconds(seconds));
+			}
+			catch (NumberFormatException e) {
+				return Optional.empty();
+			}
+		}
+		return Optional.empty();
+	}
+}
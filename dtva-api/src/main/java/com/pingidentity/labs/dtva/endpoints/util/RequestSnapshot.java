@@ -0,0 +1,51 @@
+/* Copyright 2017 Ping Identity Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package com.pingidentity.labs.dtva.endpoints.util;
+
+import java.time.Instant;
+import java.util.Objects;
+
+import javax.validation.constraints.NotNull;
+
+import com.pingidentity.labs.dtva.application.DTVACoordinator;
+import com.pingidentity.labs.dtva.application.State;
+
+/**
+ * The single evaluation instant and state snapshot used throughout one request, so that every lookup
+ * made while answering it agrees. Injected into resource methods with {@code @Context}.
+ * 
+ * The evaluation instant is fixed when the request begins. The state snapshot is taken on first use,
+ * so that requests which queue a transaction before reading state see as recent a state as before.
+ */
+public class RequestSnapshot {
+	private final @NotNull DTVACoordinator platform;
+	private final @NotNull Instant evaluatedAt;
+	private State state;
+
+	public RequestSnapshot(@NotNull DTVACoordinator platform, @NotNull Instant evaluatedAt) {
+		this.platform = Objects.requireNonNull(platform);
+		this.evaluatedAt = Objects.requireNonNull(evaluatedAt);
+	}
+
+	public Instant getEvaluatedAt() {
+		return evaluatedAt;
+	}
+
+	public State getState() {
+		if (state == null) {
+			state = platform.getStateEvaluatedAtTime(evaluatedAt);
+		}
+		return state;
+	}
+}
@@ -0,0 +1,57 @@
+/* Copyright 2017 Ping Identity Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package com.pingidentity.labs.dtva.endpoints.util;
+
+import java.time.Instant;
+
+import javax.validation.constraints.NotNull;
+
+import org.glassfish.hk2.api.Factory;
+import org.glassfish.hk2.utilities.binding.AbstractBinder;
+import org.glassfish.jersey.process.internal.RequestScoped;
+
+import com.pingidentity.labs.dtva.application.DTVACoordinator;
+
+/**
+ * Binds a {@link RequestSnapshot} per request.
+ */
+public class RequestSnapshotBinder extends AbstractBinder {
+	private final @NotNull DTVACoordinator platform;
+
+	public RequestSnapshotBinder(@NotNull DTVACoordinator platform) {
+		this.platform = platform;
+	}
+
+	@Override
+	protected void configure() {
+		bindFactory(new SnapshotFactory(platform)).to(RequestSnapshot.class).in(RequestScoped.class);
+	}
+
+	private static final class SnapshotFactory implements Factory<RequestSnapshot> {
+		private final DTVACoordinator platform;
+
+		SnapshotFactory(DTVACoordinator platform) {
+			this.platform = platform;
+		}
+
+		@Override
+		public RequestSnapshot provide() {
+			return new RequestSnapshot(platform, Instant.now());
+		}
+
+		@Override
+		public void dispose(RequestSnapshot instance) {
+		}
+	}
+}
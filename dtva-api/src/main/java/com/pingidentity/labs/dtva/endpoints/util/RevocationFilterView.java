@@ -0,0 +1,79 @@
+/* Copyright 2017 Ping Identity Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package com.pingidentity.labs.dtva.endpoints.util;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import com.pingidentity.labs.dtva.application.Issuer;
+import com.pingidentity.labs.dtva.application.RevocationFilter;
+
+/**
+ * The revocation filter as served to relying parties, either in full or as the positions set since
+ * an earlier version. Issuers with a revocation epoch are listed alongside, as their invalidated keys
+ * are not individually part of the filter.
+ */
+public class RevocationFilterView {
+	private final RevocationFilter filter;
+	private final Long sinceVersion;
+	private final int[] positionsSet;
+	private final List<Issuer> epochIssuers;
+	private final Duration maxHardExpiryIn;
+
+	private RevocationFilterView(RevocationFilter filter, Long sinceVersion, int[] positionsSet, List<Issuer> issuers, Duration maxHardExpiryIn) {
+		this.filter = filter;
+		this.sinceVersion = sinceVersion;
+		this.positionsSet = positionsSet;
+		this.epochIssuers = issuers.stream()
+				.filter((issuer) -> issuer.getInvalidatedBefore().isPresent())
+				.collect(Collectors.toList());
+		this.maxHardExpiryIn = maxHardExpiryIn;
+	}
+
+	public static RevocationFilterView full(RevocationFilter filter, List<Issuer> issuers, Duration maxHardExpiryIn) {
+		return new RevocationFilterView(filter, null, null, issuers, maxHardExpiryIn);
+	}
+
+	public static RevocationFilterView update(RevocationFilter filter, long sinceVersion, int[] positionsSet, List<Issuer> issuers, Duration maxHardExpiryIn) {
+		return new RevocationFilterView(filter, sinceVersion, positionsSet, issuers, maxHardExpiryIn);
+	}
+
+	public RevocationFilter getFilter() {
+		return filter;
+	}
+
+	/** for an incremental update, the version it applies to */
+	public Optional<Long> getSinceVersion() {
+		return Optional.ofNullable(sinceVersion);
+	}
+
+	public Optional<int[]> getPositionsSet() {
+		return Optional.ofNullable(positionsSet);
+	}
+
+	/**
+	 * Issuers with a revocation epoch. Any key of these issuers with a hard expiry no later than
+	 * the epoch's cutoff plus {@link #getMaxHardExpiryIn()} may have been registered before the
+	 * cutoff, and so must be checked against the API.
+	 */
+	public List<Issuer> getEpochIssuers() {
+		return epochIssuers;
+	}
+
+	public Duration getMaxHardExpiryIn() {
+		return maxHardExpiryIn;
+	}
+}
@@ -0,0 +1,141 @@
+/* Copyright 2017 Ping Identity Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package com.pingidentity.labs.dtva.endpoints.util;
+
+import static com.pingidentity.labs.dtva.endpoints.util.Constants.ISS;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.Base64;
+
+import javax.json.Json;
+import javax.json.stream.JsonGenerator;
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+
+import com.github.dwaite.bytestring.Bytes;
+import com.github.dwaite.cyborg.electrode.impl.CborOutput;
+import com.pingidentity.labs.dtva.application.Issuer;
+import com.pingidentity.labs.dtva.application.RevocationFilter;
+
+@Provider
+@Produces({MediaType.APPLICATION_JSON, Constants.APPLICATION_CBOR})
+public class RevocationFilterViewWriter implements MessageBodyWriter<RevocationFilterView> {
+	static final String GENERATION = "generation";
+	static final String VERSION = "version";
+	static final String SINCE = "since";
+	static final String BITS = "bits";
+	static final String HASHES = "hashes";
+	static final String FILTER = "filter";
+	static final String SET = "set";
+	static final String ISSUER_EPOCHS = "issuer_epochs";
+	static final String INDEX = "index";
+	static final String INVALIDATED_BEFORE = "invalidated_before";
+	static final String MAX_HARD_EXPIRY_IN = "max_hard_expiry_in";
+
+	@Override
+	public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+		return RevocationFilterView.class.isAssignableFrom(type) &&
+				(mediaType.isCompatible(MediaType.APPLICATION_JSON_TYPE) ||
+				mediaType.isCompatible(Constants.APPLICATION_CBOR_TYPE));
+	}
+
+	@Override
+	public long getSize(RevocationFilterView t, Class<?> type, Type genericType, Annotation[] annotations,
+			MediaType mediaType) {
+		return -1;
+	}
+
+	@Override
+	public void writeTo(RevocationFilterView view, Class<?> type, Type genericType, Annotation[] annotations,
+			MediaType mediaType, MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream)
+			throws IOException, WebApplicationException {
+		if (mediaType.isCompatible(MediaType.APPLICATION_JSON_TYPE)) {
+			writeJson(view, entityStream);
+		} else if (mediaType.isCompatible(Constants.APPLICATION_CBOR_TYPE)) {
+			writeCbor(view, entityStream);
+		} else {
+			throw new WebApplicationException("Unsupported media type");
+		}
+	}
+
+	private void writeCbor(RevocationFilterView view, OutputStream entityStream) throws IOException {
+		RevocationFilter filter = view.getFilter();
+		try (DataOutputStream dos = new DataOutputStream(entityStream)) {
+			CborOutput cout = new CborOutput(dos);
+			cout.writeStartMap(view.getSinceVersion().isPresent() ? 8 : 7)
+				.writeText(GENERATION).writeLong(filter.getGeneration())
+				.writeText(VERSION).writeLong(filter.getVersion())
+				.writeText(BITS).writeInteger(filter.getBitCount())
+				.writeText(HASHES).writeInteger(filter.getHashCount());
+			if (view.getSinceVersion().isPresent()) {
+				int[] positions = view.getPositionsSet().get();
+				cout.writeText(SINCE).writeLong(view.getSinceVersion().get());
+				cout.writeText(SET).writeStartArray(positions.length);
+				for (int position : positions) {
+					cout.writeInteger(position);
+				}
+			} else {
+				cout.writeText(FILTER).writeBytes(new Bytes(filter.toByteArray()));
+			}
+			cout.writeText(ISSUER_EPOCHS).writeStartArray(view.getEpochIssuers().size());
+			for (Issuer issuer : view.getEpochIssuers()) {
+				cout.writeStartMap(3)
+					.writeText(ISS).writeText(issuer.getIssuerName())
+					.writeText(INDEX).writeInteger(issuer.getIndex())
+					.writeText(INVALIDATED_BEFORE).writeLong(issuer.getInvalidatedBefore().get().getEpochSecond());
+			}
+			cout.writeText(MAX_HARD_EXPIRY_IN).writeLong(view.getMaxHardExpiryIn().getSeconds());
+		}
+	}
+
+	private void writeJson(RevocationFilterView view, OutputStream entityStream) {
+		RevocationFilter filter = view.getFilter();
+		try (JsonGenerator generator = Json.createGenerator(entityStream)) {
+			generator.writeStartObject();
+			generator.write(GENERATION, filter.getGeneration());
+			generator.write(VERSION, filter.getVersion());
+			generator.write(BITS, filter.getBitCount());
+			generator.write(HASHES, filter.getHashCount());
+			if (view.getSinceVersion().isPresent()) {
+				generator.write(SINCE, view.getSinceVersion().get());
+				generator.writeStartArray(SET);
+				for (int position : view.getPositionsSet().get()) {
+					generator.write(position);
+				}
+				generator.writeEnd();
+			} else {
+				generator.write(FILTER, Base64.getUrlEncoder().withoutPadding().encodeToString(filter.toByteArray()));
+			}
+			generator.writeStartArray(ISSUER_EPOCHS);
+			for (Issuer issuer : view.getEpochIssuers()) {
+				generator.writeStartObject();
+				generator.write(ISS, issuer.getIssuerName());
+				generator.write(INDEX, issuer.getIndex());
+				generator.write(INVALIDATED_BEFORE, issuer.getInvalidatedBefore().get().getEpochSecond());
+				generator.writeEnd();
+			}
+			generator.writeEnd();
+			generator.write(MAX_HARD_EXPIRY_IN, view.getMaxHardExpiryIn().getSeconds());
+			generator.writeEnd();
+		}
+	}
+}
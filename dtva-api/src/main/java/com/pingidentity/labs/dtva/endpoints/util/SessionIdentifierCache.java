@@ -0,0 +1,77 @@
+/* Copyright 2017 Ping Identity Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package com.pingidentity.labs.dtva.endpoints.util;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+
+/**
+ * A bounded cache from session identifier strings to their decoded form, so that identifiers which are
+ * validated repeatedly are only decoded once.
+ * 
+ * Entries are kept in a {@link StripedCache}. Only successfully decoded identifiers are cached, so
+ * malformed input cannot displace entries.
+ */
+public class SessionIdentifierCache {
+	private final StripedCache<String, SessionIdentifier> cache;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * @param capacity the approximate number of identifiers to keep, at least {@value StripedCache#STRIPES}
+	 */
+	public SessionIdentifierCache(int capacity) {
+		cache = new StripedCache<>(capacity);
+	}
+
+	/**
+	 * The cache sized by {@value SessionIdentifierParamConverterProvider#CONFIGURATION_KEY}, or null if
+	 * that is not positive. Sizes below {@value StripedCache#STRIPES} are rounded up to it.
+	 */
+	public static SessionIdentifierCache fromConfiguration(JsonObject localConfiguration) {
+		JsonNumber cacheSize = localConfiguration == null ? null :
+			localConfiguration.getJsonNumber(SessionIdentifierParamConverterProvider.CONFIGURATION_KEY);
+		int size = cacheSize == null ? SessionIdentifierParamConverterProvider.DEFAULT_SID_CACHE_SIZE : cacheSize.intValue();
+		return size > 0 ? new SessionIdentifierCache(Math.max(size, StripedCache.STRIPES)) : null;
+	}
+
+	/**
+	 * Return the cached decoding of the identifier, decoding it on a miss.
+	 * 
+	 * @throws IllegalArgumentException as thrown by the decoder for a malformed identifier
+	 */
+	public SessionIdentifier get(String identifier, Function<String, SessionIdentifier> decoder) {
+		SessionIdentifier sid = cache.get(identifier);
+		if (sid != null) {
+			hits.increment();
+			return sid;
+		}
+		misses.increment();
+		// decoded outside the lock; a racing decode of the same identifier is harmless
+		sid = decoder.apply(identifier);
+		cache.put(identifier, sid);
+		return sid;
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+}
@@ -16,10 +16,36 @@ package com.pingidentity.labs.dtva.endpoints.util;
 import javax.ws.rs.ext.ParamConverter;
 
 public class SessionIdentifierParamConverter implements ParamConverter<SessionIdentifier> {
+	private final SessionIdentifierCache cache;
 
+	public SessionIdentifierParamConverter() {
+		this(null);
+	}
+
+	/**
+	 * @param cache cache of decoded identifiers, or null to decode every time
+	 */
+	public SessionIdentifierParamConverter(SessionIdentifierCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * @throws MalformedSessionIdentifierException if the value is not a session identifier
+	 */
 	@Override
 	public SessionIdentifier fromString(String value) {
-		return SessionIdentifier.fromStringIdentifier(value);
+		if (value != null && !SessionIdentifier.hasValidSyntax(value)) {
+			throw new MalformedSessionIdentifierException();
+		}
+		try {
+			if (cache != null && value != null) {
+				return cache.get(value, SessionIdentifier::fromStringIdentifier);
+			}
+			return SessionIdentifier.fromStringIdentifier(value);
+		}
+		catch (IllegalArgumentException e) {
+			throw new MalformedSessionIdentifierException();
+		}
 	}
 
 	@Override
@@ -16,13 +16,31 @@ package com.pingidentity.labs.dtva.endpoints.util;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Type;
 
+import javax.json.JsonObject;
 import javax.ws.rs.ext.ParamConverter;
 import javax.ws.rs.ext.ParamConverterProvider;
 import javax.ws.rs.ext.Provider;
 
 @Provider
 public class SessionIdentifierParamConverterProvider implements ParamConverterProvider {
-	private SessionIdentifierParamConverter converter = new SessionIdentifierParamConverter();
+	/** local configuration value, the number of decoded session identifiers to keep, or 0 to disable */
+	public static final String CONFIGURATION_KEY = "sid-cache-size";
+	public static final int DEFAULT_SID_CACHE_SIZE = 65_536;
+
+	private final SessionIdentifierParamConverter converter;
+
+	public SessionIdentifierParamConverterProvider() {
+		this(new SessionIdentifierParamConverter());
+	}
+
+	public SessionIdentifierParamConverterProvider(SessionIdentifierParamConverter converter) {
+		this.converter = converter;
+	}
+
+	public static SessionIdentifierParamConverterProvider fromConfiguration(JsonObject localConfiguration) {
+		return new SessionIdentifierParamConverterProvider(new SessionIdentifierParamConverter(
+				SessionIdentifierCache.fromConfiguration(localConfiguration)));
+	}
 
 	@SuppressWarnings("unchecked")
 	@Override
@@ -33,4 +51,4 @@ public class SessionIdentifierParamConverterProvider implements ParamConverterPr
 		return null;
 	}
 	
-}
\ No newline at end of file
+}
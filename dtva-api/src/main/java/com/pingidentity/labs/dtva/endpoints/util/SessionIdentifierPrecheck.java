@@ -0,0 +1,131 @@
+/* Copyright 2017 Ping Identity Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package com.pingidentity.labs.dtva.endpoints.util;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+
+import com.github.dwaite.problemdetails.ProblemDetails;
+import com.github.dwaite.problemdetails.ProblemType;
+import com.pingidentity.labs.dtva.application.State;
+import com.pingidentity.labs.dtva.application.ValidityKey;
+
+/**
+ * Answers requests for a session which the identifier alone shows cannot succeed, before the session
+ * is looked up or a transaction is sent for it:
+ * <ul>
+ * <li>an interactivity timeout which is not positive is malformed</li>
+ * <li>a hard expiry which has passed is gone, whatever the state of the session</li>
+ * <li>an issuer index beyond the known issuers was never issued by a registered issuer</li>
+ * </ul>
+ * Only the issuer check consults the state, and only by index.
+ */
+public final class SessionIdentifierPrecheck {
+	/** what the identifier alone shows to be wrong with a request for its session */
+	public enum Problem {
+		MALFORMED(Status.BAD_REQUEST, "Session identifier is malformed"),
+		EXPIRED(Status.GONE, "sid has already expired"),
+		UNKNOWN_ISSUER(Status.BAD_REQUEST, "Session identifier was issued by an unknown issuer.");
+
+		private final Status status;
+		private final String detail;
+
+		Problem(Status status, String detail) {
+			this.status = status;
+			this.detail = detail;
+		}
+
+		public Status getStatus() {
+			return status;
+		}
+
+		public String getDetail() {
+			return detail;
+		}
+	}
+
+	private SessionIdentifierPrecheck() {
+	}
+
+	/**
+	 * @return the problem with the identifier, or empty if the session must be looked up to answer
+	 */
+	public static Optional<Problem> find(SessionIdentifier sid, State state, Instant now) {
+		ValidityKey key = sid.getKey();
+		Optional<Duration> interactivityTimeout = key.getInteractivityTimeout();
+		if (interactivityTimeout.isPresent() &&
+				(interactivityTimeout.get().isNegative() || interactivityTimeout.get().isZero())) {
+			return Optional.of(Problem.MALFORMED);
+		}
+		if (!key.getHardExpiryAt().isAfter(now)) {
+			return Optional.of(Problem.EXPIRED);
+		}
+		if (!state.getIssuer(key.getIssuerIndex()).isPresent()) {
+			return Optional.of(Problem.UNKNOWN_ISSUER);
+		}
+		return Optional.empty();
+	}
+
+	/**
+	 * @return the response to the problem with the identifier, or empty if the session must be looked
+	 *         up to answer
+	 */
+	public static Optional<Response> check(SessionIdentifier sid, State state, Instant now) {
+		return find(sid, state, now).map((problem) -> {
+			switch (problem) {
+			case MALFORMED:
+				return malformed(sid);
+			case EXPIRED:
+				return ProblemDetails.ofType(ProblemType.forHttpStatus(problem.getStatus()))
+						.detail(problem.getDetail())
+						.customAttributes((builder) ->
+						builder.add("sid", sid.toStringIdentifier())
+						.add("hard_expiry_at", sid.getKey().getHardExpiryAt().toEpochMilli()))
+						.build();
+			default:
+				return unknownIssuer();
+			}
+		});
+	}
+
+	/**
+	 * @return the problem with an identifier which could not be decoded. The raw value is not echoed
+	 *         back, as it is arbitrary client input rather than a session identifier.
+	 */
+	public static Response malformed() {
+		return ProblemDetails.ofType(ProblemType.forHttpStatus(Problem.MALFORMED.getStatus()))
+				.detail(Problem.MALFORMED.getDetail())
+				.build();
+	}
+
+	/**
+	 * @return the problem with an identifier which decoded, but describes a session that cannot exist
+	 */
+	public static Response malformed(SessionIdentifier sid) {
+		return ProblemDetails.ofType(ProblemType.forHttpStatus(Problem.MALFORMED.getStatus()))
+				.detail(Problem.MALFORMED.getDetail())
+				.customAttributes((builder) -> builder.add("sid", sid.toStringIdentifier()))
+				.build();
+	}
+
+	public static Response unknownIssuer() {
+		return ProblemDetails.ofType(ProblemType.forHttpStatus(Problem.UNKNOWN_ISSUER.getStatus()))
+				.detail(Problem.UNKNOWN_ISSUER.getDetail())
+				.build();
+	}
+}
@@ -19,7 +19,11 @@ import java.util.Objects;
 import java.util.Optional;
 
 import javax.validation.constraints.NotNull;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.MediaType;
 
+import com.pingidentity.labs.dtva.application.State;
 import com.pingidentity.labs.dtva.application.ValidityKey;
 import com.pingidentity.labs.dtva.application.ValidityKeyView;
 
@@ -37,6 +41,22 @@ public class SessionIdentifierView {
 		this.sid = sid;
 	}
 	
+	/**
+	 * The view of a session within the given state, including one still within its consensus grace
+	 * period. Empty if the session is not known, or was issued by an unknown issuer.
+	 */
+	public static Optional<SessionIdentifierView> inState(SessionIdentifier sid, State state, Instant now) {
+		Optional<ValidityKeyView> view = state.viewValidityKey(sid.getKey());
+		if (view.isPresent()) {
+			return Optional.of(new SessionIdentifierView(view.get(), sid));
+		}
+		if (!sid.isInGrace(now)) {
+			return Optional.empty();
+		}
+		return state.getIssuer(sid.getKey().getIssuerIndex())
+				.map((issuer) -> new SessionIdentifierView(new GraceValidityKeyView(now, sid, issuer), sid));
+	}
+
 	public ValidityKey getKey() {
 		return sid.getKey();
 	}
@@ -49,8 +69,55 @@ public class SessionIdentifierView {
 		return view;
 	}
 
+	/**
+	 * The last modification of the representation. An expired view changes state without any activity,
+	 * so it is considered modified when it expired.
+	 */
 	public Instant getLastModifiedAt() {
-		return view.getLastModifiedAt();
+		Instant lastModifiedAt = view.getLastModifiedAt();
+		if (view.isExpired()) {
+			Instant expiredAt = view.getInteractivityTimeout()
+					.map(lastModifiedAt::plus)
+					.filter((inactiveAt) -> inactiveAt.isBefore(view.getHardExpiryAt()))
+					.orElse(view.getHardExpiryAt());
+			if (expiredAt.isAfter(lastModifiedAt)) {
+				return expiredAt;
+			}
+		}
+		return lastModifiedAt;
+	}
+
+	/** whether the view is of a record in consensus state, rather than of an identifier in grace */
+	public boolean isInConsensus() {
+		return !(view instanceof GraceValidityKeyView);
+	}
+
+	/**
+	 * A strong entity tag for the representation in the given media type, changing whenever the state
+	 * or the last activity of the record changes. Views in consensus grace have no record, and are tagged
+	 * by the grace cutoff of the identifier instead.
+	 */
+	public EntityTag getEntityTag(MediaType mediaType) {
+		Instant versionedAt = isInConsensus()
+				? getLastModifiedAt()
+				: sid.getConsensusGrace().orElse(Instant.EPOCH);
+		return new EntityTag(view.getStateName() + "." +
+				Long.toString(versionedAt.toEpochMilli(), 36) + "." +
+				mediaType.getSubtype());
+	}
+
+	/**
+	 * Cache for no longer than the next scheduled transition. Active views may also be invalidated at
+	 * any time, so their lifetime is additionally capped.
+	 */
+	public CacheControl getCacheControl(Duration maxActiveAge) {
+		Duration maxAge = view.untilNextTransition();
+		if (view.isActive() && maxAge.compareTo(maxActiveAge) > 0) {
+			maxAge = maxActiveAge;
+		}
+		CacheControl cacheControl = new CacheControl();
+		cacheControl.setMaxAge(maxAge.isNegative() ? 0 : (int) Math.min(maxAge.getSeconds(), Integer.MAX_VALUE));
+		return cacheControl;
 	}
 
 	public Instant getHardExpiryAt() {
@@ -18,6 +18,7 @@ import static com.pingidentity.labs.dtva.endpoints.util.Constants.ITO;
 import static com.pingidentity.labs.dtva.endpoints.util.Constants.SEXP;
 import static com.pingidentity.labs.dtva.endpoints.util.Constants.SID;
 
+import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -27,9 +28,13 @@ import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.Collections;
+import java.util.Objects;
 
 import javax.json.Json;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
 import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonGeneratorFactory;
 import javax.ws.rs.Produces;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.MediaType;
@@ -39,9 +44,40 @@ import javax.ws.rs.ext.Provider;
 
 import com.github.dwaite.cyborg.electrode.impl.CborOutput;
 
+/**
+ * Writes session views, keeping the most recently written bodies and their headers already encoded.
+ * 
+ * Entries are keyed by the session identifier and the entity tag of the view, which changes with each
+ * state transition or activity of the record, so a cached body is never served for a newer version.
+ * Superseded entries simply age out of the cache, which is striped so that concurrent requests for
+ * different sessions do not contend on one lock.
+ */
 @Provider
 @Produces({MediaType.APPLICATION_JSON, Constants.APPLICATION_CBOR})
 public class SessionIdentifierViewWriter implements MessageBodyWriter<SessionIdentifierView> {
+	/** local configuration value, the number of encoded session views to keep */
+	public static final String CONFIGURATION_KEY = "view-cache-size";
+	public static final int DEFAULT_VIEW_CACHE_SIZE = 10_000;
+
+	private static final DateTimeFormatter HTTP_DATE_FORMATTER = DateTimeFormatter
+			.ofPattern("eee, dd MMM yyyy HH:mm:ss zzz")
+			.withZone(ZoneId.of("GMT"));
+	private static final JsonGeneratorFactory JSON_GENERATOR_FACTORY = Json.createGeneratorFactory(null);
+
+	private final StripedCache<CacheKey, EncodedView> cache;
+
+	public SessionIdentifierViewWriter() {
+		this(DEFAULT_VIEW_CACHE_SIZE);
+	}
+
+	public SessionIdentifierViewWriter(int cacheSize) {
+		this.cache = cacheSize > 0 ? new StripedCache<>(Math.max(cacheSize, StripedCache.STRIPES)) : null;
+	}
+
+	public static SessionIdentifierViewWriter fromConfiguration(JsonObject localConfiguration) {
+		JsonNumber cacheSize = localConfiguration == null ? null : localConfiguration.getJsonNumber(CONFIGURATION_KEY);
+		return new SessionIdentifierViewWriter(cacheSize == null ? DEFAULT_VIEW_CACHE_SIZE : cacheSize.intValue());
+	}
 
 	@Override
 	public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
@@ -58,12 +94,34 @@ public class SessionIdentifierViewWriter implements MessageBodyWriter<SessionIde
 	public void writeTo(SessionIdentifierView sessionIdentifierView, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType,
 			MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream)
 			throws IOException, WebApplicationException {
-	
-		httpHeaders.put("Last-Modified", Collections.singletonList(toHTTPDate(sessionIdentifierView.getLastModifiedAt())));
-		httpHeaders.put("Expires", Collections.singletonList(toHTTPDate(sessionIdentifierView.getHardExpiryAt())));
+		EncodedView encoded = getEncoded(sessionIdentifierView, mediaType);
+		httpHeaders.put("Last-Modified", Collections.singletonList(encoded.getLastModified()));
+		httpHeaders.put("Expires", Collections.singletonList(encoded.getExpires()));
+		entityStream.write(encoded.getBody());
+	}
+
+	/**
+	 * The encoded body and entity headers for a view, from the cache where possible. This is exactly
+	 * what {@link #writeTo} writes, for callers answering outside of JAX-RS.
+	 */
+	public EncodedView getEncoded(SessionIdentifierView sessionIdentifierView, MediaType mediaType) throws IOException {
+		// views in grace are not backed by a record, and are evaluated afresh each time
+		if (cache == null || !sessionIdentifierView.isInConsensus()) {
+			return encode(sessionIdentifierView, mediaType);
+		}
+		CacheKey key = new CacheKey(sessionIdentifierView.getSid(), sessionIdentifierView.getEntityTag(mediaType).getValue());
+		EncodedView encoded = cache.get(key);
+		if (encoded == null) {
+			encoded = encode(sessionIdentifierView, mediaType);
+			cache.put(key, encoded);
+		}
+		return encoded;
+	}
 
+	private EncodedView encode(SessionIdentifierView sessionIdentifierView, MediaType mediaType) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream(128);
 		if (mediaType.equals(MediaType.APPLICATION_JSON_TYPE)) {
-			try(JsonGenerator generator = Json.createGenerator(entityStream)) {
+			try(JsonGenerator generator = JSON_GENERATOR_FACTORY.createGenerator(body)) {
 				generator.writeStartObject();
 				generator.write(SEXP, sessionIdentifierView.getHardExpiryAt().getEpochSecond());
 				generator.write(SID, sessionIdentifierView.getSid().toStringIdentifier());
@@ -75,7 +133,7 @@ public class SessionIdentifierViewWriter implements MessageBodyWriter<SessionIde
 			}
 		}
 		else if (mediaType.equals(Constants.APPLICATION_CBOR_TYPE)) {
-			try(DataOutputStream dos = new DataOutputStream(entityStream)) {
+			try(DataOutputStream dos = new DataOutputStream(body)) {
 				CborOutput cout = new CborOutput(dos);
 				int pairs = sessionIdentifierView.getInteractivityTimeout().isPresent() ? 4 : 3;
 				cout.writeStartMap(pairs)
@@ -87,10 +145,64 @@ public class SessionIdentifierViewWriter implements MessageBodyWriter<SessionIde
 				}
 			}
 		}
+		return new EncodedView(
+				body.toByteArray(),
+				toHTTPDate(sessionIdentifierView.getLastModifiedAt()),
+				toHTTPDate(sessionIdentifierView.getHardExpiryAt()));
 	}
 
 	public static String toHTTPDate(Instant instant) {
-		DateTimeFormatter formatter = DateTimeFormatter.ofPattern("eee, dd MMM yyyy HH:mm:ss zzz").withZone(ZoneId.of("GMT"));
-		return formatter.format(instant);
+		return HTTP_DATE_FORMATTER.format(instant);
+	}
+
+	private static final class CacheKey {
+		private final SessionIdentifier sid;
+		private final String version;
+
+		CacheKey(SessionIdentifier sid, String version) {
+			this.sid = sid;
+			this.version = version;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * sid.hashCode() + version.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof CacheKey)) {
+				return false;
+			}
+			CacheKey other = (CacheKey) obj;
+			return sid.equals(other.sid) && version.equals(other.version);
+		}
+	}
+
+	public static final class EncodedView {
+		private final byte[] body;
+		private final String lastModified;
+		private final String expires;
+
+		EncodedView(byte[] body, String lastModified, String expires) {
+			this.body = Objects.requireNonNull(body);
+			this.lastModified = lastModified;
+			this.expires = expires;
+		}
+
+		/** the encoded body, which must not be modified */
+		public byte[] getBody() {
+			return body;
+		}
+
+		/** the Last-Modified header value */
+		public String getLastModified() {
+			return lastModified;
+		}
+
+		/** the Expires header value */
+		public String getExpires() {
+			return expires;
+		}
 	}
 }
@@ -0,0 +1,244 @@
+/* Copyright 2017 Ping Identity Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package com.pingidentity.labs.dtva.endpoints.util;
+
+import static com.pingidentity.labs.dtva.endpoints.util.Constants.LAST_MODIFIED_AT;
+import static com.pingidentity.labs.dtva.endpoints.util.Constants.SCHEDULED_TRANSITION_AT;
+import static com.pingidentity.labs.dtva.endpoints.util.Constants.SID;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import javax.json.Json;
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonGeneratorFactory;
+import javax.ws.rs.core.MediaType;
+
+import org.glassfish.jersey.server.ChunkedOutput;
+
+import com.github.dwaite.cyborg.electrode.impl.CborOutput;
+import com.pingidentity.labs.dtva.application.ValidityKey;
+import com.pingidentity.labs.dtva.application.ValidityKeyView;
+import com.pingidentity.labs.dtva.application.ValidityKeyWatch;
+
+/**
+ * A stream of state changes for a set of session identifiers, written as server-sent events or as a
+ * CBOR sequence.
+ * 
+ * The current state of every subscribed session is written first, outside of the queue, so that a
+ * large subscription does not start by overflowing it. Later changes are queued without blocking, so
+ * the thread delivering them is never held up by a slow consumer, and are written by a thread of this
+ * subscription's own, so a consumer which stops reading holds up only its own connection. When a
+ * consumer falls far enough behind to fill its queue, the queued changes are discarded and replaced
+ * by a single {@code resync} event, after which the consumer should query the state of its session
+ * identifiers afresh.
+ */
+public class SessionSubscription implements Closeable {
+	static final String TYPE = "type";
+	static final String STATE = "state";
+	static final String RESYNC = "resync";
+	static final String UNKNOWN = "unknown";
+
+	private static final JsonGeneratorFactory GENERATORS = Json.createGeneratorFactory(null);
+	private static final byte[] SSE_HEARTBEAT = ": heartbeat\n\n".getBytes(StandardCharsets.UTF_8);
+
+	private final Map<ValidityKey, SessionIdentifier> sids;
+	private final MediaType mediaType;
+	private final ChunkedOutput<byte[]> output;
+	private final BlockingQueue<byte[]> pending;
+	private final Consumer<SessionSubscription> onClose;
+	private final AtomicBoolean closed = new AtomicBoolean();
+	private volatile ValidityKeyWatch watch;
+	private volatile Thread writer;
+
+	SessionSubscription(Map<ValidityKey, SessionIdentifier> sids, MediaType mediaType, int bufferSize,
+			Consumer<SessionSubscription> onClose) {
+		this(sids, mediaType, bufferSize, new ChunkedOutput<>(byte[].class), onClose);
+	}
+
+	SessionSubscription(Map<ValidityKey, SessionIdentifier> sids, MediaType mediaType, int bufferSize,
+			ChunkedOutput<byte[]> output, Consumer<SessionSubscription> onClose) {
+		this.sids = sids;
+		this.mediaType = mediaType;
+		this.pending = new ArrayBlockingQueue<>(bufferSize);
+		this.output = output;
+		this.onClose = onClose;
+	}
+
+	public ChunkedOutput<byte[]> getOutput() {
+		return output;
+	}
+
+	void setWatch(ValidityKeyWatch watch) {
+		this.watch = watch;
+		if (closed.get()) {
+			watch.close();
+		}
+	}
+
+	/** queue the new state of a subscribed validity key */
+	void changed(ValidityKeyView view) {
+		SessionIdentifier sid = sids.get(view.getValidityKey());
+		if (sid != null) {
+			enqueue(encode(STATE, sid, view));
+		}
+	}
+
+	/** the event giving the current state of a subscribed session, for {@link #start(List)} */
+	byte[] initialState(SessionIdentifier sid, ValidityKeyView view) {
+		return encode(STATE, sid, view);
+	}
+
+	/** the event saying a subscribed session identifier is not known, for {@link #start(List)} */
+	byte[] initialUnknown(SessionIdentifier sid) {
+		return encode(UNKNOWN, sid, null);
+	}
+
+	/**
+	 * Start writing: the given initial events first, whatever their number, then the queued changes.
+	 */
+	void start(List<byte[]> initial) {
+		Thread thread = new Thread(() -> write(initial), "dtva-subscription-writer");
+		thread.setDaemon(true);
+		writer = thread;
+		thread.start();
+		if (closed.get()) {
+			thread.interrupt();
+		}
+	}
+
+	/**
+	 * Queue a heartbeat, so that an idle subscription notices once its consumer has gone away. Skipped
+	 * if anything is already waiting to be written.
+	 */
+	void heartbeat() {
+		if (pending.isEmpty()) {
+			enqueue(mediaType.isCompatible(Constants.SERVER_SENT_EVENTS_TYPE) ?
+					SSE_HEARTBEAT : encode("heartbeat", null, null));
+		}
+	}
+
+	private void enqueue(byte[] chunk) {
+		if (closed.get()) {
+			return;
+		}
+		synchronized (this) {
+			if (!pending.offer(chunk)) {
+				// the consumer is too far behind; drop what it has not seen and tell it to start over
+				pending.clear();
+				pending.offer(encode(RESYNC, null, null));
+			}
+		}
+	}
+
+	private void write(List<byte[]> initial) {
+		try {
+			for (byte[] chunk : initial) {
+				output.write(chunk);
+			}
+			while (!closed.get()) {
+				output.write(pending.take());
+			}
+		}
+		catch (IOException e) {
+			// the consumer has gone away
+			close();
+		}
+		catch (InterruptedException e) {
+			// closed
+		}
+	}
+
+	@Override
+	public void close() {
+		if (!closed.compareAndSet(false, true)) {
+			return;
+		}
+		ValidityKeyWatch watch = this.watch;
+		if (watch != null) {
+			watch.close();
+		}
+		Thread writer = this.writer;
+		if (writer != null && writer != Thread.currentThread()) {
+			writer.interrupt();
+		}
+		pending.clear();
+		try {
+			output.close();
+		}
+		catch (IOException e) {
+			// already closed by the container
+		}
+		onClose.accept(this);
+	}
+
+	public boolean isClosed() {
+		return closed.get();
+	}
+
+	private byte[] encode(String type, SessionIdentifier sid, ValidityKeyView view) {
+		if (mediaType.isCompatible(Constants.APPLICATION_CBOR_SEQ_TYPE)) {
+			return toCbor(type, sid, view);
+		}
+		return ("event: " + type + "\ndata: " + toJson(sid, view) + "\n\n").getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static String toJson(SessionIdentifier sid, ValidityKeyView view) {
+		StringWriter data = new StringWriter();
+		try (JsonGenerator generator = GENERATORS.createGenerator(data)) {
+			generator.writeStartObject();
+			if (sid != null) {
+				generator.write(SID, sid.toStringIdentifier());
+			}
+			if (view != null) {
+				generator.write(STATE, view.getStateName());
+				generator.write(LAST_MODIFIED_AT, view.getLastModifiedAt().getEpochSecond());
+				generator.write(SCHEDULED_TRANSITION_AT, view.getScheduledTransitionAt().getEpochSecond());
+			}
+			generator.writeEnd();
+		}
+		return data.toString();
+	}
+
+	private static byte[] toCbor(String type, SessionIdentifier sid, ValidityKeyView view) {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		try (DataOutputStream dos = new DataOutputStream(baos)) {
+			CborOutput cout = new CborOutput(dos);
+			cout.writeStartMap(1 + (sid != null ? 1 : 0) + (view != null ? 3 : 0))
+			.writeText(TYPE).writeText(type);
+			if (sid != null) {
+				cout.writeText(SID).writeText(sid.toStringIdentifier());
+			}
+			if (view != null) {
+				cout.writeText(STATE).writeText(view.getStateName())
+				.writeText(LAST_MODIFIED_AT).writeLong(view.getLastModifiedAt().getEpochSecond())
+				.writeText(SCHEDULED_TRANSITION_AT).writeLong(view.getScheduledTransitionAt().getEpochSecond());
+			}
+		}
+		catch (IOException e) {
+			throw new IllegalStateException("Unexpected IO exception", e);
+		}
+		return baos.toByteArray();
+	}
+}
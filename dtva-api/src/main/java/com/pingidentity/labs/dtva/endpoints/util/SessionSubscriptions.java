@@ -0,0 +1,148 @@
+/* Copyright 2017 Ping Identity Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package com.pingidentity.labs.dtva.endpoints.util;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.validation.constraints.NotNull;
+import javax.ws.rs.core.MediaType;
+
+import com.pingidentity.labs.dtva.application.DTVACoordinator;
+import com.pingidentity.labs.dtva.application.Issuer;
+import com.pingidentity.labs.dtva.application.State;
+import com.pingidentity.labs.dtva.application.ValidityKey;
+import com.pingidentity.labs.dtva.application.ValidityKeyView;
+
+/**
+ * The open {@link SessionSubscription}s of this node, along with the thread which keeps idle ones
+ * alive. Each subscription has a writer thread of its own, so the number open at once is limited.
+ */
+public class SessionSubscriptions {
+	/** local configuration object for subscriptions */
+	public static final String CONFIGURATION_KEY = "subscriptions";
+	/** changes which may be queued for one subscriber before it is told to resynchronize */
+	static final String BUFFER_SIZE = "buffer-size";
+	/** the most session identifiers one subscription may cover */
+	static final String MAX_SESSIONS = "max-sessions";
+	/** the most subscriptions open at once */
+	static final String MAX_SUBSCRIPTIONS = "max-subscriptions";
+	/** seconds between heartbeats on an idle subscription */
+	static final String HEARTBEAT = "heartbeat";
+	public static final int DEFAULT_BUFFER_SIZE = 256;
+	public static final int DEFAULT_MAX_SESSIONS = 10_000;
+	public static final int DEFAULT_MAX_SUBSCRIPTIONS = 1_000;
+	public static final int DEFAULT_HEARTBEAT = 30;
+
+	private final @NotNull DTVACoordinator platform;
+	private final int bufferSize;
+	private final int maxSessions;
+	private final int maxSubscriptions;
+	private final Set<SessionSubscription> subscriptions = ConcurrentHashMap.newKeySet();
+	private final AtomicInteger open = new AtomicInteger();
+	private final ScheduledExecutorService heartbeats = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+		Thread thread = new Thread(runnable, "dtva-subscription-heartbeat");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	public SessionSubscriptions(@NotNull DTVACoordinator platform, int bufferSize, int maxSessions, int maxSubscriptions,
+			int heartbeatSeconds) {
+		if (bufferSize < 1 || maxSessions < 1 || maxSubscriptions < 1 || heartbeatSeconds < 1) {
+			throw new IllegalArgumentException("subscription buffer size, limits and heartbeat must be positive");
+		}
+		this.platform = platform;
+		this.bufferSize = bufferSize;
+		this.maxSessions = maxSessions;
+		this.maxSubscriptions = maxSubscriptions;
+		heartbeats.scheduleWithFixedDelay(() -> subscriptions.forEach(SessionSubscription::heartbeat),
+				heartbeatSeconds, heartbeatSeconds, TimeUnit.SECONDS);
+	}
+
+	public static SessionSubscriptions fromConfiguration(@NotNull DTVACoordinator platform) {
+		JsonObject localConfiguration = platform.getLocalConfiguration();
+		JsonObject configuration = localConfiguration == null ? null : localConfiguration.getJsonObject(CONFIGURATION_KEY);
+		return new SessionSubscriptions(platform,
+				intValue(configuration, BUFFER_SIZE, DEFAULT_BUFFER_SIZE),
+				intValue(configuration, MAX_SESSIONS, DEFAULT_MAX_SESSIONS),
+				intValue(configuration, MAX_SUBSCRIPTIONS, DEFAULT_MAX_SUBSCRIPTIONS),
+				intValue(configuration, HEARTBEAT, DEFAULT_HEARTBEAT));
+	}
+
+	private static int intValue(JsonObject configuration, String key, int defaultValue) {
+		JsonNumber value = configuration == null ? null : configuration.getJsonNumber(key);
+		return value == null ? defaultValue : value.intValue();
+	}
+
+	/** the most session identifiers one subscription may cover */
+	public int getMaxSessions() {
+		return maxSessions;
+	}
+
+	/**
+	 * Open a subscription to the given session identifiers, or {@link Optional#empty()} if as many
+	 * subscriptions are already open as allowed. The current state of each is written first; the watch
+	 * is placed before that state is read, so no change in between is missed, although one may be
+	 * reported twice.
+	 * 
+	 * @throws IllegalArgumentException if there are more than {@link #getMaxSessions()} identifiers
+	 */
+	public Optional<SessionSubscription> subscribe(List<SessionIdentifier> sids, MediaType mediaType) {
+		if (sids.size() > maxSessions) {
+			throw new IllegalArgumentException("A subscription may cover at most " + maxSessions + " session identifiers");
+		}
+		if (open.incrementAndGet() > maxSubscriptions) {
+			open.decrementAndGet();
+			return Optional.empty();
+		}
+		Map<ValidityKey, SessionIdentifier> byKey = new LinkedHashMap<>();
+		for (SessionIdentifier sid : sids) {
+			byKey.put(sid.getKey(), sid);
+		}
+		SessionSubscription subscription = new SessionSubscription(byKey, mediaType, bufferSize, (closed) -> {
+			if (subscriptions.remove(closed)) {
+				open.decrementAndGet();
+			}
+		});
+		subscriptions.add(subscription);
+		subscription.setWatch(platform.watchValidityKeys(byKey.keySet(), subscription::changed));
+
+		Instant now = Instant.now();
+		State state = platform.getStateEvaluatedAtTime(now);
+		Map<ValidityKey, ValidityKeyView> views = state.viewValidityKeys(byKey.keySet());
+		List<byte[]> initial = new ArrayList<>(byKey.size());
+		for (SessionIdentifier sid : byKey.values()) {
+			ValidityKeyView view = views.get(sid.getKey());
+			if (view == null && sid.isInGrace(now)) {
+				Issuer issuer = state.getIssuer(sid.getKey().getIssuerIndex()).orElse(null);
+				view = issuer == null ? null : new GraceValidityKeyView(now, sid, issuer);
+			}
+			initial.add(view != null ? subscription.initialState(sid, view) : subscription.initialUnknown(sid));
+		}
+		subscription.start(initial);
+		return Optional.of(subscription);
+	}
+}
@@ -0,0 +1,106 @@
+/* Copyright 2017 Ping Identity Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package com.pingidentity.labs.dtva.endpoints.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A bounded map split into independently locked stripes, each evicting by the clock algorithm: entries
+ * are marked when hit, and the clock hand clears marks as it sweeps for an unmarked entry to replace.
+ * Lookups of different keys rarely contend, unlike a single access-ordered map.
+ */
+public class StripedCache<K, V> {
+	public static final int STRIPES = 16;
+
+	private final Stripe<K, V>[] stripes;
+
+	/**
+	 * @param capacity the approximate number of entries to keep, divided evenly between stripes
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public StripedCache(int capacity) {
+		if (capacity < STRIPES) {
+			throw new IllegalArgumentException("capacity must be at least " + STRIPES);
+		}
+		stripes = new Stripe[STRIPES];
+		for (int i = 0; i < STRIPES; i++) {
+			stripes[i] = new Stripe<>(capacity / STRIPES);
+		}
+	}
+
+	/** the cached value, or null */
+	public V get(K key) {
+		return stripeOf(key).get(key);
+	}
+
+	/** cache the value, unless the key is already present */
+	public void put(K key, V value) {
+		stripeOf(key).put(key, value);
+	}
+
+	private Stripe<K, V> stripeOf(K key) {
+		int hash = key.hashCode();
+		return stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+	}
+
+	private static final class Stripe<K, V> {
+		private final Map<K, Integer> slots;
+		private final Object[] keys;
+		private final Object[] values;
+		private final boolean[] referenced;
+		private int size;
+		private int hand;
+
+		Stripe(int capacity) {
+			slots = new HashMap<>(capacity * 4 / 3 + 1);
+			keys = new Object[capacity];
+			values = new Object[capacity];
+			referenced = new boolean[capacity];
+		}
+
+		@SuppressWarnings("unchecked")
+		synchronized V get(K key) {
+			Integer slot = slots.get(key);
+			if (slot == null) {
+				return null;
+			}
+			referenced[slot] = true;
+			return (V) values[slot];
+		}
+
+		synchronized void put(K key, V value) {
+			if (slots.containsKey(key)) {
+				return;
+			}
+			int slot;
+			if (size < keys.length) {
+				slot = size++;
+			}
+			else {
+				while (referenced[hand]) {
+					referenced[hand] = false;
+					hand = (hand + 1) % keys.length;
+				}
+				slot = hand;
+				hand = (hand + 1) % keys.length;
+				slots.remove(keys[slot]);
+			}
+			keys[slot] = key;
+			values[slot] = value;
+			referenced[slot] = false;
+			slots.put(key, slot);
+		}
+	}
+}
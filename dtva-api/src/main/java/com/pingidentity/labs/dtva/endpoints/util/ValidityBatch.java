@@ -0,0 +1,32 @@
+/* Copyright 2017 Ping Identity Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package com.pingidentity.labs.dtva.endpoints.util;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A mixed batch of registration, interactivity and invalidation operations, in the order supplied
+ */
+public class ValidityBatch {
+	private final List<ValidityBatchOperation> operations;
+
+	public ValidityBatch(List<ValidityBatchOperation> operations) {
+		this.operations = Collections.unmodifiableList(operations);
+	}
+
+	public List<ValidityBatchOperation> getOperations() {
+		return operations;
+	}
+}
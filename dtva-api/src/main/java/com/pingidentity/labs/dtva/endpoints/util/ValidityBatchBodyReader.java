@@ -0,0 +1,219 @@
+/* Copyright 2017 Ping Identity Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package com.pingidentity.labs.dtva.endpoints.util;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.json.Json;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.Provider;
+
+import com.github.dwaite.cyborg.electrode.CborEvent;
+import com.github.dwaite.cyborg.electrode.InitialByte;
+import com.github.dwaite.cyborg.electrode.InitialByte.LogicalType;
+import com.github.dwaite.cyborg.electrode.InitialByte.Major;
+import com.github.dwaite.cyborg.electrode.impl.CborDataInput;
+import com.github.dwaite.problemdetails.ProblemDetails;
+import com.github.dwaite.problemdetails.ProblemType;
+
+/**
+ * Reads a {@link ValidityBatch} as a JSON or CBOR array of operation objects. The body is parsed
+ * event by event, so only the decoded operations are held in memory, and reading stops as soon as
+ * the configured maximum number of operations is exceeded. CBOR arrays and maps must be of definite
+ * length.
+ */
+@Provider
+@Consumes({MediaType.APPLICATION_JSON, Constants.APPLICATION_CBOR})
+public class ValidityBatchBodyReader implements MessageBodyReader<ValidityBatch> {
+	/** local configuration key for the maximum number of operations in a single batch */
+	public static final String CONFIGURATION_KEY = "max-batch-size";
+	public static final int DEFAULT_MAX_BATCH_SIZE = 1000;
+
+	private final int maxBatchSize;
+
+	public ValidityBatchBodyReader(int maxBatchSize) {
+		if (maxBatchSize < 1) {
+			throw new IllegalArgumentException("maximum batch size must be positive");
+		}
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	public static ValidityBatchBodyReader fromConfiguration(JsonObject localConfiguration) {
+		JsonNumber maxBatchSize = localConfiguration == null ? null : localConfiguration.getJsonNumber(CONFIGURATION_KEY);
+		return new ValidityBatchBodyReader(maxBatchSize == null ? DEFAULT_MAX_BATCH_SIZE : maxBatchSize.intValue());
+	}
+
+	public int getMaxBatchSize() {
+		return maxBatchSize;
+	}
+
+	@Override
+	public boolean isReadable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+		return type.isAssignableFrom(ValidityBatch.class) && (
+				mediaType.isCompatible(MediaType.APPLICATION_JSON_TYPE) ||
+				mediaType.isCompatible(Constants.APPLICATION_CBOR_TYPE));
+	}
+
+	@Override
+	public ValidityBatch readFrom(Class<ValidityBatch> type, Type genericType, Annotation[] annotations,
+			MediaType mediaType, MultivaluedMap<String, String> httpHeaders, InputStream entityStream)
+			throws IOException, WebApplicationException {
+		if (mediaType.isCompatible(MediaType.APPLICATION_JSON_TYPE)) {
+			return readFromJson(entityStream);
+		}
+		if (mediaType.isCompatible(Constants.APPLICATION_CBOR_TYPE)) {
+			return readFromCbor(entityStream);
+		}
+		throw new WebApplicationException("Incompatible media type");
+	}
+
+	private ValidityBatch readFromCbor(InputStream entityStream) throws IOException {
+		try (DataInputStream dis = new DataInputStream(entityStream)) {
+			CborDataInput cin = new CborDataInput(dis);
+			int count = cin.readStartArray();
+			if (count < 0) {
+				throw indefiniteLength("Operations must be sent as a definite length array");
+			}
+			checkSize(count);
+			List<ValidityBatchOperation> operations = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				int pairCount = cin.readStartMap();
+				if (pairCount < 0) {
+					throw indefiniteLength("Operation " + i + " must be sent as a definite length map");
+				}
+				Map<String, Object> fields = new HashMap<>();
+				for (int j = 0; j < pairCount; j++) {
+					String key = cin.readText();
+					CborEvent value = cin.read();
+					if (value.getInitialByte().getLogicalType() == LogicalType.TEXT_CHUNK) {
+						fields.put(key, value.asTextValue());
+					} else if (value.getInitialByte().getMajor() == Major.INTEGER) {
+						fields.put(key, value.additionalInfoAsLong());
+					} else if (value.getInitialByte() == InitialByte.NULL) {
+						fields.put(key, null);
+					} else {
+						throw new IOException("Expected text, integer or null for \"" + key + "\" in operation " + i);
+					}
+				}
+				operations.add(ValidityBatchOperation.fromFields(fields));
+			}
+			return new ValidityBatch(operations);
+		}
+	}
+
+	private ValidityBatch readFromJson(InputStream entityStream) throws IOException {
+		try (JsonParser parser = Json.createParser(entityStream)) {
+			if (!parser.hasNext() || parser.next() != Event.START_ARRAY) {
+				throw new IOException("Expected array of operations");
+			}
+			List<ValidityBatchOperation> operations = new ArrayList<>();
+			while (parser.hasNext()) {
+				Event event = parser.next();
+				if (event == Event.END_ARRAY) {
+					return new ValidityBatch(operations);
+				}
+				if (event != Event.START_OBJECT) {
+					throw new IOException("Expected object for operation " + operations.size());
+				}
+				checkSize(operations.size() + 1);
+				operations.add(readJsonOperation(parser));
+			}
+			throw new IOException("Unterminated array of operations");
+		}
+	}
+
+	private ValidityBatchOperation readJsonOperation(JsonParser parser) throws IOException {
+		Map<String, Object> fields = new HashMap<>();
+		String key = null;
+		while (parser.hasNext()) {
+			Event event = parser.next();
+			switch (event) {
+			case END_OBJECT:
+				return ValidityBatchOperation.fromFields(fields);
+			case KEY_NAME:
+				key = parser.getString();
+				break;
+			case VALUE_STRING:
+				fields.put(key, parser.getString());
+				break;
+			case VALUE_NUMBER:
+				fields.put(key, parser.isIntegralNumber() ? (Object) parser.getLong() : parser.getBigDecimal());
+				break;
+			case VALUE_NULL:
+				fields.put(key, null);
+				break;
+			case START_OBJECT:
+			case START_ARRAY:
+				// not part of any operation; skip over it
+				skipStructure(parser);
+				fields.remove(key);
+				break;
+			default:
+				fields.put(key, event == Event.VALUE_TRUE);
+			}
+		}
+		throw new IOException("Unterminated operation");
+	}
+
+	private static void skipStructure(JsonParser parser) {
+		int depth = 1;
+		while (depth > 0 && parser.hasNext()) {
+			switch (parser.next()) {
+			case START_OBJECT:
+			case START_ARRAY:
+				depth++;
+				break;
+			case END_OBJECT:
+			case END_ARRAY:
+				depth--;
+				break;
+			default:
+			}
+		}
+	}
+
+	private static WebApplicationException indefiniteLength(String detail) {
+		return new WebApplicationException(
+				ProblemDetails.ofType(ProblemType.forHttpStatus(Status.BAD_REQUEST))
+				.detail(detail)
+				.build());
+	}
+
+	private void checkSize(int count) {
+		if (count > maxBatchSize) {
+			throw new WebApplicationException(
+					ProblemDetails.ofType(ProblemType.forHttpStatus(Status.REQUEST_ENTITY_TOO_LARGE))
+					.detail("Too many operations in a single batch")
+					.customAttributes((builder) -> builder.add("max_batch_size", maxBatchSize))
+					.build());
+		}
+	}
+}
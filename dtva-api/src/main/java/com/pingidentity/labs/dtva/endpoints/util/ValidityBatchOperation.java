@@ -0,0 +1,133 @@
+/* Copyright 2017 Ping Identity Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package com.pingidentity.labs.dtva.endpoints.util;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * A single entry of a {@link ValidityBatch}. An entry which could not be understood is kept, with
+ * the reason, so that it can be answered in position.
+ */
+public class ValidityBatchOperation {
+	static final String OP = "op";
+
+	public enum Op {
+		Register("register"),
+		Interactivity("interactivity"),
+		Invalidate("invalidate");
+
+		private final String name;
+
+		private Op(String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public static Optional<Op> forName(String name) {
+			for (Op op : values()) {
+				if (op.name.equals(name)) {
+					return Optional.of(op);
+				}
+			}
+			return Optional.empty();
+		}
+	}
+
+	private final String opName;
+	private final Op op;
+	private final ValidityKeyCreationRequest registration;
+	private final String sid;
+	private final String error;
+
+	private ValidityBatchOperation(String opName, Op op, ValidityKeyCreationRequest registration, String sid, String error) {
+		this.opName = opName;
+		this.op = op;
+		this.registration = registration;
+		this.sid = sid;
+		this.error = error;
+	}
+
+	/**
+	 * Interpret the scalar fields of one operation, as read from either JSON or CBOR. Values are
+	 * {@link String}, {@link Long} or null.
+	 */
+	static ValidityBatchOperation fromFields(Map<String, Object> fields) {
+		Object opName = fields.get(OP);
+		if (!(opName instanceof String)) {
+			return malformed(null, "Missing \"" + OP + "\"");
+		}
+		Optional<Op> op = Op.forName((String) opName);
+		if (!op.isPresent()) {
+			return malformed((String) opName, "Unknown operation");
+		}
+		switch (op.get()) {
+		case Register:
+			Object sexp = fields.get(Constants.SEXP);
+			Object iss = fields.get(Constants.ISS);
+			Object ito = fields.get(Constants.ITO);
+			if (!(sexp instanceof Long)) {
+				return malformed(op.get().getName(), "Expected integer for \"" + Constants.SEXP + "\"");
+			}
+			if (!(iss instanceof String)) {
+				return malformed(op.get().getName(), "Expected text for \"" + Constants.ISS + "\"");
+			}
+			if (ito != null && !(ito instanceof Long)) {
+				return malformed(op.get().getName(), "Expected integer or null for \"" + Constants.ITO + "\"");
+			}
+			ValidityKeyCreationRequest registration = new ValidityKeyCreationRequest(
+					Instant.ofEpochSecond((Long) sexp),
+					Optional.ofNullable((Long) ito).map(Duration::ofSeconds),
+					(String) iss);
+			return new ValidityBatchOperation(op.get().getName(), op.get(), registration, null, null);
+		default:
+			Object sid = fields.get(Constants.SID);
+			if (!(sid instanceof String)) {
+				return malformed(op.get().getName(), "Expected text for \"" + Constants.SID + "\"");
+			}
+			return new ValidityBatchOperation(op.get().getName(), op.get(), null, (String) sid, null);
+		}
+	}
+
+	static ValidityBatchOperation malformed(String opName, String error) {
+		return new ValidityBatchOperation(opName, null, null, null, error);
+	}
+
+	/** the operation name as supplied, which may be absent or not a known operation */
+	public Optional<String> getOpName() {
+		return Optional.ofNullable(opName);
+	}
+
+	/** the operation, or {@link Optional#empty()} if the entry was not understood */
+	public Optional<Op> getOp() {
+		return Optional.ofNullable(op);
+	}
+
+	public Optional<ValidityKeyCreationRequest> getRegistration() {
+		return Optional.ofNullable(registration);
+	}
+
+	public Optional<String> getSessionIdentifier() {
+		return Optional.ofNullable(sid);
+	}
+
+	public Optional<String> getError() {
+		return Optional.ofNullable(error);
+	}
+}
@@ -0,0 +1,65 @@
+/* Copyright 2017 Ping Identity Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package com.pingidentity.labs.dtva.endpoints.util;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import javax.ws.rs.core.Response.StatusType;
+
+/**
+ * Per-operation results of a {@link ValidityBatch}, in the same order as the operations were supplied
+ */
+public class ValidityBatchResult {
+	public static class Entry {
+		private final String opName;
+		private final StatusType status;
+		private final String sid;
+		private final String detail;
+
+		public Entry(String opName, StatusType status, String sid, String detail) {
+			this.opName = opName;
+			this.status = status;
+			this.sid = sid;
+			this.detail = detail;
+		}
+
+		public Optional<String> getOpName() {
+			return Optional.ofNullable(opName);
+		}
+
+		public StatusType getStatus() {
+			return status;
+		}
+
+		public Optional<String> getSessionIdentifier() {
+			return Optional.ofNullable(sid);
+		}
+
+		public Optional<String> getDetail() {
+			return Optional.ofNullable(detail);
+		}
+	}
+
+	private final List<Entry> entries;
+
+	public ValidityBatchResult(List<Entry> entries) {
+		this.entries = Collections.unmodifiableList(entries);
+	}
+
+	public List<Entry> getEntries() {
+		return entries;
+	}
+}
@@ -0,0 +1,111 @@
+/* Copyright 2017 Ping Identity Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package com.pingidentity.labs.dtva.endpoints.util;
+
+import static com.pingidentity.labs.dtva.endpoints.util.Constants.SID;
+import static com.pingidentity.labs.dtva.endpoints.util.ValidityBatchOperation.OP;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+import javax.json.Json;
+import javax.json.stream.JsonGenerator;
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+
+import com.github.dwaite.cyborg.electrode.impl.CborOutput;
+import com.pingidentity.labs.dtva.endpoints.util.ValidityBatchResult.Entry;
+
+/**
+ * Writes a {@link ValidityBatchResult} as an array with one object per operation, holding the
+ * operation name, an HTTP status code, and the session identifier or a detail message.
+ */
+@Provider
+@Produces({MediaType.APPLICATION_JSON, Constants.APPLICATION_CBOR})
+public class ValidityBatchResultWriter implements MessageBodyWriter<ValidityBatchResult> {
+	static final String STATUS = "status";
+	static final String DETAIL = "detail";
+
+	@Override
+	public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+		return ValidityBatchResult.class.isAssignableFrom(type) &&
+				(mediaType.isCompatible(MediaType.APPLICATION_JSON_TYPE) ||
+				mediaType.isCompatible(Constants.APPLICATION_CBOR_TYPE));
+	}
+
+	@Override
+	public long getSize(ValidityBatchResult t, Class<?> type, Type genericType, Annotation[] annotations,
+			MediaType mediaType) {
+		return -1;
+	}
+
+	@Override
+	public void writeTo(ValidityBatchResult result, Class<?> type, Type genericType, Annotation[] annotations,
+			MediaType mediaType, MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream)
+			throws IOException, WebApplicationException {
+		if (mediaType.isCompatible(MediaType.APPLICATION_JSON_TYPE)) {
+			writeJson(result, entityStream);
+		} else if (mediaType.isCompatible(Constants.APPLICATION_CBOR_TYPE)) {
+			writeCbor(result, entityStream);
+		} else {
+			throw new WebApplicationException("Unsupported media type");
+		}
+	}
+
+	private void writeCbor(ValidityBatchResult result, OutputStream entityStream) throws IOException {
+		try (DataOutputStream dos = new DataOutputStream(entityStream)) {
+			CborOutput cout = new CborOutput(dos);
+			cout.writeStartArray(result.getEntries().size());
+			for (Entry entry : result.getEntries()) {
+				int pairs = 1
+						+ (entry.getOpName().isPresent() ? 1 : 0)
+						+ (entry.getSessionIdentifier().isPresent() ? 1 : 0)
+						+ (entry.getDetail().isPresent() ? 1 : 0);
+				cout.writeStartMap(pairs);
+				if (entry.getOpName().isPresent()) {
+					cout.writeText(OP).writeText(entry.getOpName().get());
+				}
+				cout.writeText(STATUS).writeInteger(entry.getStatus().getStatusCode());
+				if (entry.getSessionIdentifier().isPresent()) {
+					cout.writeText(SID).writeText(entry.getSessionIdentifier().get());
+				}
+				if (entry.getDetail().isPresent()) {
+					cout.writeText(DETAIL).writeText(entry.getDetail().get());
+				}
+			}
+		}
+	}
+
+	private void writeJson(ValidityBatchResult result, OutputStream entityStream) {
+		try (JsonGenerator generator = Json.createGenerator(entityStream)) {
+			generator.writeStartArray();
+			for (Entry entry : result.getEntries()) {
+				generator.writeStartObject();
+				entry.getOpName().ifPresent((op) -> generator.write(OP, op));
+				generator.write(STATUS, entry.getStatus().getStatusCode());
+				entry.getSessionIdentifier().ifPresent((sid) -> generator.write(SID, sid));
+				entry.getDetail().ifPresent((detail) -> generator.write(DETAIL, detail));
+				generator.writeEnd();
+			}
+			generator.writeEnd();
+		}
+	}
+}
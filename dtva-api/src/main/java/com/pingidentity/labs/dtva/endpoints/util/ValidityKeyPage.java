@@ -0,0 +1,41 @@
+/* Copyright 2017 Ping Identity Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package com.pingidentity.labs.dtva.endpoints.util;
+
+import java.util.List;
+import java.util.Optional;
+
+import com.pingidentity.labs.dtva.application.ValidityKeyView;
+
+/**
+ * One page of an issuer's validity keys, in order of hard expiry. If more keys may follow, the
+ * page carries the session identifier to resume listing after.
+ */
+public class ValidityKeyPage {
+	private final List<ValidityKeyView> items;
+	private final SessionIdentifier next;
+
+	public ValidityKeyPage(List<ValidityKeyView> items, Optional<SessionIdentifier> next) {
+		this.items = items;
+		this.next = next.orElse(null);
+	}
+
+	public List<ValidityKeyView> getItems() {
+		return items;
+	}
+
+	public Optional<SessionIdentifier> getNext() {
+		return Optional.ofNullable(next);
+	}
+}
@@ -0,0 +1,111 @@
+/* Copyright 2017 Ping Identity Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package com.pingidentity.labs.dtva.endpoints.util;
+
+import static com.pingidentity.labs.dtva.endpoints.util.Constants.SCHEDULED_TRANSITION_AT;
+import static com.pingidentity.labs.dtva.endpoints.util.Constants.SEXP;
+import static com.pingidentity.labs.dtva.endpoints.util.Constants.SID;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+import javax.json.Json;
+import javax.json.stream.JsonGenerator;
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+
+import com.github.dwaite.cyborg.electrode.impl.CborOutput;
+import com.pingidentity.labs.dtva.application.ValidityKeyView;
+
+@Provider
+@Produces({MediaType.APPLICATION_JSON, Constants.APPLICATION_CBOR})
+public class ValidityKeyPageWriter implements MessageBodyWriter<ValidityKeyPage> {
+	static final String ITEMS = "items";
+	static final String STATE = "state";
+	static final String NEXT = "next";
+
+	@Override
+	public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+		return ValidityKeyPage.class.isAssignableFrom(type) &&
+				(mediaType.isCompatible(MediaType.APPLICATION_JSON_TYPE) ||
+				mediaType.isCompatible(Constants.APPLICATION_CBOR_TYPE));
+	}
+
+	@Override
+	public long getSize(ValidityKeyPage t, Class<?> type, Type genericType, Annotation[] annotations,
+			MediaType mediaType) {
+		return -1;
+	}
+
+	@Override
+	public void writeTo(ValidityKeyPage page, Class<?> type, Type genericType, Annotation[] annotations,
+			MediaType mediaType, MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream)
+			throws IOException, WebApplicationException {
+		if (mediaType.isCompatible(MediaType.APPLICATION_JSON_TYPE)) {
+			writeJson(page, entityStream);
+		} else if (mediaType.isCompatible(Constants.APPLICATION_CBOR_TYPE)) {
+			writeCbor(page, entityStream);
+		} else {
+			throw new WebApplicationException("Unsupported media type");
+		}
+	}
+
+	private void writeCbor(ValidityKeyPage page, OutputStream entityStream) throws IOException {
+		try (DataOutputStream dos = new DataOutputStream(entityStream)) {
+			CborOutput cout = new CborOutput(dos);
+			cout.writeStartMap(page.getNext().isPresent() ? 2 : 1)
+			.writeText(ITEMS).writeStartArray(page.getItems().size());
+			for (ValidityKeyView view : page.getItems()) {
+				cout.writeStartMap(4)
+				.writeText(SID).writeText(identifierOf(view))
+				.writeText(STATE).writeText(view.getStateName())
+				.writeText(SEXP).writeLong(view.getHardExpiryAt().getEpochSecond())
+				.writeText(SCHEDULED_TRANSITION_AT).writeLong(view.getScheduledTransitionAt().getEpochSecond());
+			}
+			if (page.getNext().isPresent()) {
+				cout.writeText(NEXT).writeText(page.getNext().get().toStringIdentifier());
+			}
+		}
+	}
+
+	private void writeJson(ValidityKeyPage page, OutputStream entityStream) {
+		try (JsonGenerator generator = Json.createGenerator(entityStream)) {
+			generator.writeStartObject();
+			generator.writeStartArray(ITEMS);
+			for (ValidityKeyView view : page.getItems()) {
+				generator.writeStartObject()
+				.write(SID, identifierOf(view))
+				.write(STATE, view.getStateName())
+				.write(SEXP, view.getHardExpiryAt().getEpochSecond())
+				.write(SCHEDULED_TRANSITION_AT, view.getScheduledTransitionAt().getEpochSecond())
+				.writeEnd();
+			}
+			generator.writeEnd();
+			page.getNext().ifPresent((next) -> generator.write(NEXT, next.toStringIdentifier()));
+			generator.writeEnd();
+		}
+	}
+
+	// listed keys are all in consensus, so their identifiers carry no grace period
+	private static String identifierOf(ValidityKeyView view) {
+		return new SessionIdentifier(view.getValidityKey(), null).toStringIdentifier();
+	}
+}
@@ -0,0 +1,34 @@
+/* Copyright 2017 Ping Identity Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package com.pingidentity.labs.dtva.endpoints.util;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A request to evaluate several session identifiers against a single snapshot of state. Identifiers
+ * are kept in their string form so that a malformed entry is reported in position rather than
+ * failing the whole request.
+ */
+public class ValidityQuery {
+	private final List<String> sids;
+
+	public ValidityQuery(List<String> sids) {
+		this.sids = Collections.unmodifiableList(sids);
+	}
+
+	public List<String> getSessionIdentifiers() {
+		return sids;
+	}
+}
@@ -0,0 +1,146 @@
+/* Copyright 2017 Ping Identity Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package com.pingidentity.labs.dtva.endpoints.util;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.json.Json;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.Provider;
+
+import com.github.dwaite.cyborg.electrode.CborEvent;
+import com.github.dwaite.cyborg.electrode.InitialByte.LogicalType;
+import com.github.dwaite.cyborg.electrode.impl.CborDataInput;
+import com.github.dwaite.problemdetails.ProblemDetails;
+import com.github.dwaite.problemdetails.ProblemType;
+
+/**
+ * Reads a {@link ValidityQuery} as a JSON or CBOR array of session identifier strings. Reading stops
+ * as soon as the array is found to exceed the configured maximum, rather than after buffering it. A
+ * CBOR array must be of definite length, so that its size is known up front.
+ */
+@Provider
+@Consumes({MediaType.APPLICATION_JSON, Constants.APPLICATION_CBOR})
+public class ValidityQueryBodyReader implements MessageBodyReader<ValidityQuery> {
+	/** local configuration key for the maximum number of identifiers in a single query */
+	public static final String CONFIGURATION_KEY = "max-query-size";
+	public static final int DEFAULT_MAX_QUERY_SIZE = 1000;
+
+	private final int maxQuerySize;
+
+	public ValidityQueryBodyReader(int maxQuerySize) {
+		if (maxQuerySize < 1) {
+			throw new IllegalArgumentException("maximum query size must be positive");
+		}
+		this.maxQuerySize = maxQuerySize;
+	}
+
+	public static ValidityQueryBodyReader fromConfiguration(JsonObject localConfiguration) {
+		JsonNumber maxQuerySize = localConfiguration == null ? null : localConfiguration.getJsonNumber(CONFIGURATION_KEY);
+		return new ValidityQueryBodyReader(maxQuerySize == null ? DEFAULT_MAX_QUERY_SIZE : maxQuerySize.intValue());
+	}
+
+	public int getMaxQuerySize() {
+		return maxQuerySize;
+	}
+
+	@Override
+	public boolean isReadable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+		return type.isAssignableFrom(ValidityQuery.class) && (
+				mediaType.isCompatible(MediaType.APPLICATION_JSON_TYPE) ||
+				mediaType.isCompatible(Constants.APPLICATION_CBOR_TYPE));
+	}
+
+	@Override
+	public ValidityQuery readFrom(Class<ValidityQuery> type, Type genericType, Annotation[] annotations,
+			MediaType mediaType, MultivaluedMap<String, String> httpHeaders, InputStream entityStream)
+			throws IOException, WebApplicationException {
+		if (mediaType.isCompatible(MediaType.APPLICATION_JSON_TYPE)) {
+			return readFromJson(entityStream);
+		}
+		if (mediaType.isCompatible(Constants.APPLICATION_CBOR_TYPE)) {
+			return readFromCbor(entityStream);
+		}
+		throw new WebApplicationException("Incompatible media type");
+	}
+
+	private ValidityQuery readFromCbor(InputStream entityStream) throws IOException {
+		try (DataInputStream dis = new DataInputStream(entityStream)) {
+			CborDataInput cin = new CborDataInput(dis);
+			int count = cin.readStartArray();
+			if (count < 0) {
+				throw new WebApplicationException(
+						ProblemDetails.ofType(ProblemType.forHttpStatus(Status.BAD_REQUEST))
+						.detail("Session identifiers must be sent as a definite length array")
+						.build());
+			}
+			checkSize(count);
+			List<String> sids = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				CborEvent value = cin.read();
+				if (value.getInitialByte().getLogicalType() != LogicalType.TEXT_CHUNK) {
+					throw new IOException("Expected fixed text for session identifier " + i);
+				}
+				sids.add(value.asTextValue());
+			}
+			return new ValidityQuery(sids);
+		}
+	}
+
+	private ValidityQuery readFromJson(InputStream entityStream) throws IOException {
+		try (JsonParser parser = Json.createParser(entityStream)) {
+			if (!parser.hasNext() || parser.next() != Event.START_ARRAY) {
+				throw new IOException("Expected array of session identifiers");
+			}
+			List<String> sids = new ArrayList<>();
+			while (parser.hasNext()) {
+				Event event = parser.next();
+				if (event == Event.END_ARRAY) {
+					return new ValidityQuery(sids);
+				}
+				if (event != Event.VALUE_STRING) {
+					throw new IOException("Expected string for session identifier " + sids.size());
+				}
+				checkSize(sids.size() + 1);
+				sids.add(parser.getString());
+			}
+			throw new IOException("Unterminated array of session identifiers");
+		}
+	}
+
+	private void checkSize(int count) {
+		if (count > maxQuerySize) {
+			throw new WebApplicationException(
+					ProblemDetails.ofType(ProblemType.forHttpStatus(Status.REQUEST_ENTITY_TOO_LARGE))
+					.detail("Too many session identifiers in a single query")
+					.customAttributes((builder) -> builder.add("max_query_size", maxQuerySize))
+					.build());
+		}
+	}
+}
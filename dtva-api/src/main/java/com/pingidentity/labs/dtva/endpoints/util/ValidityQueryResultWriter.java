@@ -0,0 +1,98 @@
+/* Copyright 2017 Ping Identity Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package com.pingidentity.labs.dtva.endpoints.util;
+
+import static com.pingidentity.labs.dtva.endpoints.util.Constants.SCHEDULED_TRANSITION_AT;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+import javax.json.Json;
+import javax.json.stream.JsonGenerator;
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+
+import com.github.dwaite.cyborg.electrode.impl.CborOutput;
+import com.pingidentity.labs.dtva.endpoints.util.ValidityQueryResult.Entry;
+
+/**
+ * Writes a {@link ValidityQueryResult} as an array with one small object per queried identifier,
+ * holding the state name and (where there is one) the next scheduled transition in epoch seconds.
+ */
+@Provider
+@Produces({MediaType.APPLICATION_JSON, Constants.APPLICATION_CBOR})
+public class ValidityQueryResultWriter implements MessageBodyWriter<ValidityQueryResult> {
+	static final String STATE = "state";
+
+	@Override
+	public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+		return ValidityQueryResult.class.isAssignableFrom(type) &&
+				(mediaType.isCompatible(MediaType.APPLICATION_JSON_TYPE) ||
+				mediaType.isCompatible(Constants.APPLICATION_CBOR_TYPE));
+	}
+
+	@Override
+	public long getSize(ValidityQueryResult t, Class<?> type, Type genericType, Annotation[] annotations,
+			MediaType mediaType) {
+		return -1;
+	}
+
+	@Override
+	public void writeTo(ValidityQueryResult result, Class<?> type, Type genericType, Annotation[] annotations,
+			MediaType mediaType, MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream)
+			throws IOException, WebApplicationException {
+		if (mediaType.isCompatible(MediaType.APPLICATION_JSON_TYPE)) {
+			writeJson(result, entityStream);
+		} else if (mediaType.isCompatible(Constants.APPLICATION_CBOR_TYPE)) {
+			writeCbor(result, entityStream);
+		} else {
+			throw new WebApplicationException("Unsupported media type");
+		}
+	}
+
+	private void writeCbor(ValidityQueryResult result, OutputStream entityStream) throws IOException {
+		try (DataOutputStream dos = new DataOutputStream(entityStream)) {
+			CborOutput cout = new CborOutput(dos);
+			cout.writeStartArray(result.getEntries().size());
+			for (Entry entry : result.getEntries()) {
+				cout.writeStartMap(entry.getScheduledTransitionAt().isPresent() ? 2 : 1)
+				.writeText(STATE).writeText(entry.getStateName());
+				if (entry.getScheduledTransitionAt().isPresent()) {
+					cout.writeText(SCHEDULED_TRANSITION_AT).writeLong(entry.getScheduledTransitionAt().get().getEpochSecond());
+				}
+			}
+		}
+	}
+
+	private void writeJson(ValidityQueryResult result, OutputStream entityStream) {
+		try (JsonGenerator generator = Json.createGenerator(entityStream)) {
+			generator.writeStartArray();
+			for (Entry entry : result.getEntries()) {
+				generator.writeStartObject();
+				generator.write(STATE, entry.getStateName());
+				entry.getScheduledTransitionAt().ifPresent((at) ->
+					generator.write(SCHEDULED_TRANSITION_AT, at.getEpochSecond()));
+				generator.writeEnd();
+			}
+			generator.writeEnd();
+		}
+	}
+}
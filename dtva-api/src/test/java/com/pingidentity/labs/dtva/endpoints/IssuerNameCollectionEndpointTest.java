@@ -0,0 +1,83 @@
+/* Copyright 2017 Ping Identity Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package com.pingidentity.labs.dtva.endpoints;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+
+import javax.json.Json;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+
+import org.junit.Test;
+import static org.junit.Assert.assertThat;
+import com.pingidentity.labs.dtva.application.ValidityKey;
+import com.pingidentity.labs.dtva.endpoints.util.RequestSnapshot;
+import com.pingidentity.labs.dtva.endpoints.util.ValidityKeyPage;
+import static org.hamcrest.CoreMatchers.*;
+
+public class IssuerNameCollectionEndpointTest {
+	private static final String TOKEN = "s3cret";
+
+	private final TestCoordinator coordinator = new TestCoordinator(Json.createObjectBuilder()
+			.add(IssuerNameCollectionEndpoint.INVALIDATION_TOKENS_KEY, Json.createObjectBuilder()
+					.add(TestCoordinator.ISSUER, TOKEN))
+			.build());
+	private final IssuerNameCollectionEndpoint endpoint = new IssuerNameCollectionEndpoint(coordinator);
+
+	private Response list(String issuerName, String authorization) {
+		return endpoint.listValidityKeys(issuerName, authorization, null, null, null, null, null, null,
+				new RequestSnapshot(coordinator, Instant.now()));
+	}
+
+	@Test
+	public void testListingRequiresTheIssuerToken() {
+		ValidityKey key = coordinator.sendValidityKeyRegistration(Instant.now().plus(Duration.ofHours(1)),
+				coordinator.getIssuer(), Optional.empty());
+		coordinator.apply();
+
+		Response missing = list(TestCoordinator.ISSUER, null);
+		assertThat(missing.getStatus(), is(401));
+		assertThat(missing.getHeaderString(HttpHeaders.WWW_AUTHENTICATE), is("Bearer"));
+		assertThat(list(TestCoordinator.ISSUER, "Bearer guess").getStatus(), is(401));
+
+		Response listed = list(TestCoordinator.ISSUER, "Bearer " + TOKEN);
+		assertThat(listed.getStatus(), is(200));
+		ValidityKeyPage page = (ValidityKeyPage) listed.getEntity();
+		assertThat(page.getItems().size(), is(1));
+		assertThat(page.getItems().get(0).getValidityKey(), is(equalTo(key)));
+	}
+
+	@Test
+	public void testUnknownAndUnconfiguredIssuersAreIndistinguishable() {
+		Response unknown = list("https://unknown.example.com", "Bearer " + TOKEN);
+		Response known = list(TestCoordinator.ISSUER, "Bearer guess");
+		assertThat(unknown.getStatus(), is(401));
+		assertThat(known.getStatus(), is(401));
+		assertThat(unknown.getHeaderString(HttpHeaders.WWW_AUTHENTICATE),
+				is(equalTo(known.getHeaderString(HttpHeaders.WWW_AUTHENTICATE))));
+
+		Response invalidation = endpoint.invalidateIssuer("https://unknown.example.com", null, (Long) null);
+		assertThat(invalidation.getStatus(), is(401));
+		assertThat(coordinator.sent.isEmpty(), is(true));
+	}
+
+	@Test
+	public void testInvalidationWithTheIssuerTokenIsSent() {
+		Response invalidation = endpoint.invalidateIssuer(TestCoordinator.ISSUER, "Bearer " + TOKEN, (Long) null);
+		assertThat(invalidation.getStatus(), is(202));
+		assertThat(coordinator.sent.size(), is(1));
+	}
+}
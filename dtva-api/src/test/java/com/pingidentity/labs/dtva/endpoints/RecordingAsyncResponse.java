@@ -0,0 +1,131 @@
+/* Copyright 2017 Ping Identity Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package com.pingidentity.labs.dtva.endpoints;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.CompletionCallback;
+import javax.ws.rs.container.TimeoutHandler;
+import javax.ws.rs.core.Response;
+
+/** Records how an asynchronous resource method resumed, for tests */
+public class RecordingAsyncResponse implements AsyncResponse {
+	private final CompletableFuture<Object> resumed = new CompletableFuture<>();
+	private volatile TimeoutHandler timeoutHandler;
+	private volatile long timeoutMillis = -1;
+
+	/** The response resumed with, waiting up to the given time */
+	public Response await(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		Object result = resumed.get(timeout, unit);
+		if (result instanceof Throwable) {
+			throw new ExecutionException((Throwable) result);
+		}
+		return (Response) result;
+	}
+
+	/** Run the timeout handler, as the container would once the timeout passed */
+	public void timeOut() {
+		timeoutHandler.handleTimeout(this);
+	}
+
+	public long getTimeoutMillis() {
+		return timeoutMillis;
+	}
+
+	@Override
+	public boolean resume(Object response) {
+		return resumed.complete(response);
+	}
+
+	@Override
+	public boolean resume(Throwable response) {
+		return resumed.complete(response);
+	}
+
+	@Override
+	public boolean cancel() {
+		return resumed.complete(Response.status(Response.Status.SERVICE_UNAVAILABLE).build());
+	}
+
+	@Override
+	public boolean cancel(int retryAfter) {
+		return cancel();
+	}
+
+	@Override
+	public boolean cancel(Date retryAfter) {
+		return cancel();
+	}
+
+	@Override
+	public boolean isSuspended() {
+		return !resumed.isDone();
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return false;
+	}
+
+	@Override
+	public boolean isDone() {
+		return resumed.isDone();
+	}
+
+	@Override
+	public boolean setTimeout(long time, TimeUnit unit) {
+		timeoutMillis = unit.toMillis(time);
+		return true;
+	}
+
+	@Override
+	public void setTimeoutHandler(TimeoutHandler handler) {
+		timeoutHandler = handler;
+	}
+
+	@Override
+	public Collection<Class<?>> register(Class<?> callback) {
+		return Collections.emptyList();
+	}
+
+	@Override
+	public Map<Class<?>, Collection<Class<?>>> register(Class<?> callback, Class<?>... callbacks) {
+		return Collections.emptyMap();
+	}
+
+	@Override
+	public Collection<Class<?>> register(Object callback) {
+		if (callback instanceof CompletionCallback) {
+			resumed.whenComplete((result, e) -> ((CompletionCallback) callback).onComplete(null));
+		}
+		return Collections.emptyList();
+	}
+
+	@Override
+	public Map<Class<?>, Collection<Class<?>>> register(Object callback, Object... callbacks) {
+		register(callback);
+		for (Object other : callbacks) {
+			register(other);
+		}
+		return Collections.emptyMap();
+	}
+}
@@ -0,0 +1,212 @@
+/* Copyright 2017 Ping Identity Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package com.pingidentity.labs.dtva.endpoints;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import javax.json.Json;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.Variant;
+
+import org.junit.Test;
+import static org.junit.Assert.assertThat;
+import com.pingidentity.labs.dtva.application.ValidityKey;
+import com.pingidentity.labs.dtva.application.transactions.DTVATransaction;
+import com.pingidentity.labs.dtva.endpoints.util.Constants;
+import com.pingidentity.labs.dtva.endpoints.util.RequestSnapshot;
+import com.pingidentity.labs.dtva.endpoints.util.SessionIdentifier;
+import com.pingidentity.labs.dtva.endpoints.util.SessionIdentifierView;
+import com.pingidentity.labs.dtva.endpoints.util.SessionSubscriptions;
+import com.pingidentity.labs.dtva.endpoints.util.ValidityKeyCreationRequest;
+import static org.hamcrest.CoreMatchers.*;
+
+public class SessionIdentifierCollectionEndpointTest {
+	private final TestCoordinator coordinator = new TestCoordinator();
+	private final SessionIdentifierCollectionEndpoint endpoint = new SessionIdentifierCollectionEndpoint(coordinator);
+
+	private ValidityKeyCreationRequest creation() {
+		return new ValidityKeyCreationRequest(Instant.now().plus(Duration.ofHours(1)).truncatedTo(ChronoUnit.SECONDS),
+				Optional.empty(), TestCoordinator.ISSUER);
+	}
+
+	@Test
+	public void testPreferWaitAnswersCreatedOnceApplied() throws Exception {
+		RecordingAsyncResponse async = new RecordingAsyncResponse();
+		endpoint.createSession(creation(), "wait=5", async);
+		assertThat(async.isDone(), is(false));
+		assertThat(async.getTimeoutMillis(), is(5000L));
+		assertThat(coordinator.sent.size(), is(1));
+		assertThat(coordinator.sent.get(0).getType(), is(DTVATransaction.Type.RegisterValidityKey));
+
+		coordinator.apply();
+		Response response = async.await(5, TimeUnit.SECONDS);
+		assertThat(response.getStatus(), is(201));
+		assertThat(response.getLocation().toString(), startsWith("/validity/"));
+		assertThat(response.getEntity(), is(instanceOf(SessionIdentifierView.class)));
+	}
+
+	@Test
+	public void testPreferWaitFallsBackToAcceptedOnTimeout() throws Exception {
+		RecordingAsyncResponse async = new RecordingAsyncResponse();
+		endpoint.createSession(creation(), "wait=5", async);
+		async.timeOut();
+		Response response = async.await(0, TimeUnit.SECONDS);
+		assertThat(response.getStatus(), is(202));
+		assertThat(response.getLocation().toString(), startsWith("/validity/"));
+	}
+
+	@Test
+	public void testWithoutPreferAnswersAccepted() throws Exception {
+		RecordingAsyncResponse async = new RecordingAsyncResponse();
+		endpoint.createSession(creation(), null, async);
+		assertThat(async.await(0, TimeUnit.SECONDS).getStatus(), is(202));
+		assertThat(coordinator.sent.size(), is(1));
+	}
+
+	private static TestCoordinator subscriptionLimited(int maxSessions, int maxSubscriptions) {
+		return new TestCoordinator(Json.createObjectBuilder()
+				.add(SessionSubscriptions.CONFIGURATION_KEY, Json.createObjectBuilder()
+						.add("max-sessions", maxSessions)
+						.add("max-subscriptions", maxSubscriptions))
+				.build());
+	}
+
+	@Test
+	public void testSubscriptionBeyondMaxSessionsIsRefused() {
+		SessionIdentifierCollectionEndpoint endpoint = new SessionIdentifierCollectionEndpoint(subscriptionLimited(1, 10));
+		Response response = endpoint.subscribeAsEvents(Arrays.asList("a", "b"));
+		assertThat(response.getStatus(), is(413));
+	}
+
+	@Test
+	public void testSubscriptionBeyondMaxSubscriptionsIsRefused() throws Exception {
+		SessionIdentifierCollectionEndpoint endpoint = new SessionIdentifierCollectionEndpoint(subscriptionLimited(10, 1));
+		RecordingAsyncResponse async = new RecordingAsyncResponse();
+		endpoint.createSession(creation(), null, async);
+		String sid = async.await(0, TimeUnit.SECONDS).getLocation().toString().substring("/validity/".length());
+
+		assertThat(endpoint.subscribeAsEvents(Collections.singletonList(sid)).getStatus(), is(200));
+		Response refused = endpoint.subscribeAsEvents(Collections.singletonList(sid));
+		assertThat(refused.getStatus(), is(503));
+		assertThat(refused.getHeaderString(Constants.RETRY_AFTER), is(notNullValue()));
+	}
+
+	/** Negotiates the first variant offered and has no preconditions */
+	private static final class UnconditionalRequest implements Request {
+		@Override
+		public String getMethod() {
+			return "GET";
+		}
+
+		@Override
+		public Variant selectVariant(List<Variant> variants) {
+			return variants.get(0);
+		}
+
+		@Override
+		public ResponseBuilder evaluatePreconditions(EntityTag eTag) {
+			return null;
+		}
+
+		@Override
+		public ResponseBuilder evaluatePreconditions(Date lastModified) {
+			return null;
+		}
+
+		@Override
+		public ResponseBuilder evaluatePreconditions(Date lastModified, EntityTag eTag) {
+			return null;
+		}
+
+		@Override
+		public ResponseBuilder evaluatePreconditions() {
+			return null;
+		}
+	}
+
+	private ValidityKey registered(Optional<Duration> interactivityTimeout) {
+		ValidityKey key = coordinator.sendValidityKeyRegistration(Instant.now().plus(Duration.ofHours(1)),
+				coordinator.getIssuer(), interactivityTimeout);
+		coordinator.apply();
+		return key;
+	}
+
+	private RecordingAsyncResponse poll(ValidityKey key, Integer wait, String version) {
+		RecordingAsyncResponse async = new RecordingAsyncResponse();
+		endpoint.getSession(new SessionIdentifier(key, null), wait, version, new UnconditionalRequest(),
+				new RequestSnapshot(coordinator, Instant.now()), async);
+		return async;
+	}
+
+	@Test
+	public void testChangeResumesParkedPoll() throws Exception {
+		ValidityKey key = registered(Optional.empty());
+		RecordingAsyncResponse async = poll(key, 30, null);
+		assertThat(async.isDone(), is(false));
+		assertThat(async.getTimeoutMillis() > 0 && async.getTimeoutMillis() <= 30_000, is(true));
+
+		coordinator.sendValidityKeyInvalidation(key);
+		coordinator.apply();
+		assertThat(async.await(5, TimeUnit.SECONDS).getStatus(), is(200));
+	}
+
+	@Test
+	public void testTimeoutAnswersNotModifiedOnlyOnceTheWaitIsOver() throws Exception {
+		ValidityKey key = registered(Optional.empty());
+		RecordingAsyncResponse async = poll(key, 1, null);
+		async.timeOut();
+		assertThat(async.isDone(), is(false));
+		assertThat(async.getTimeoutMillis() > 0, is(true));
+
+		Thread.sleep(1100);
+		async.timeOut();
+		assertThat(async.await(0, TimeUnit.SECONDS).getStatus(), is(304));
+	}
+
+	@Test
+	public void testParkedPollWakesForTheNextScheduledTransition() {
+		ValidityKey key = registered(Optional.of(Duration.ofSeconds(10)));
+		RecordingAsyncResponse async = poll(key, 30, null);
+		assertThat(async.isDone(), is(false));
+		assertThat(async.getTimeoutMillis() > 0 && async.getTimeoutMillis() <= 10_000, is(true));
+	}
+
+	@Test
+	public void testStaleVersionAnswersAtOnce() throws Exception {
+		ValidityKey key = registered(Optional.empty());
+		RecordingAsyncResponse async = poll(key, 30, "\"stale\"");
+		assertThat(async.isDone(), is(true));
+		assertThat(async.await(0, TimeUnit.SECONDS).getStatus(), is(200));
+		assertThat(async.getTimeoutMillis(), is(-1L));
+	}
+
+	@Test
+	public void testNoWaitAnswersAtOnce() throws Exception {
+		ValidityKey key = registered(Optional.empty());
+		RecordingAsyncResponse async = poll(key, 0, null);
+		assertThat(async.await(0, TimeUnit.SECONDS).getStatus(), is(200));
+		assertThat(async.getTimeoutMillis(), is(-1L));
+	}
+}
@@ -0,0 +1,202 @@
+/* Copyright 2017 Ping Identity Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package com.pingidentity.labs.dtva.endpoints;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+
+import com.github.dwaite.bytestring.Bytes;
+import com.pingidentity.labs.dtva.application.DTVACoordinator;
+import com.pingidentity.labs.dtva.application.Issuer;
+import com.pingidentity.labs.dtva.application.Participant;
+import com.pingidentity.labs.dtva.application.RevocationFilter;
+import com.pingidentity.labs.dtva.application.State;
+import com.pingidentity.labs.dtva.application.ValidityKey;
+import com.pingidentity.labs.dtva.application.ValidityKeyView;
+import com.pingidentity.labs.dtva.application.ValidityKeyWatch;
+import com.pingidentity.labs.dtva.application.impl.ConstitutionImpl;
+import com.pingidentity.labs.dtva.application.impl.DTVAStateManager;
+import com.pingidentity.labs.dtva.application.impl.ParticipantImpl;
+import com.pingidentity.labs.dtva.application.impl.StateImpl;
+import com.pingidentity.labs.dtva.application.impl.StateViewImpl;
+import com.pingidentity.labs.dtva.application.impl.ValidityKeyWatchRegistry;
+import com.pingidentity.labs.dtva.application.transactions.DTVATransaction;
+import com.pingidentity.labs.dtva.application.transactions.IssuerInvalidationTransaction;
+import com.pingidentity.labs.dtva.application.transactions.IssuerRegistrationTransaction;
+import com.pingidentity.labs.dtva.application.transactions.ValidityKeyInteractivityTransaction;
+import com.pingidentity.labs.dtva.application.transactions.ValidityKeyInvalidationTransaction;
+import com.pingidentity.labs.dtva.application.transactions.ValidityKeyRegistrationTransaction;
+import com.pingidentity.labs.rapport.TransactionMessage;
+
+/**
+ * A single participant coordinator for endpoint tests. Transactions sent are held until
+ * {@link #apply()}, which applies them through a {@link DTVAStateManager} at the current time.
+ */
+public class TestCoordinator implements DTVACoordinator {
+	public static final String ISSUER = "https://issuer.example.com";
+
+	private final Random random = new Random();
+	private final DTVAStateManager stateManager = new DTVAStateManager();
+	private final ValidityKeyWatchRegistry watches = new ValidityKeyWatchRegistry();
+	private final JsonObject localConfiguration;
+	/** transactions sent and not yet applied */
+	public final List<DTVATransaction> sent = new CopyOnWriteArrayList<>();
+	private volatile StateImpl state;
+
+	public TestCoordinator() {
+		this(Json.createObjectBuilder().build());
+	}
+
+	public TestCoordinator(JsonObject localConfiguration) {
+		this.localConfiguration = localConfiguration;
+		stateManager.addTransactionListener(watches);
+		state = new StateImpl(new ConstitutionImpl(
+				Collections.singletonList(new ParticipantImpl("test", new Bytes(new byte[] { 1 }), true)),
+				Duration.ofDays(1)));
+		sent.add(new IssuerRegistrationTransaction(ISSUER));
+		apply();
+	}
+
+	/** Apply every transaction sent so far, returning the new state */
+	public synchronized StateImpl apply() {
+		List<Message> messages = new ArrayList<>();
+		Instant now = Instant.now();
+		for (DTVATransaction transaction : sent) {
+			messages.add(new Message(transaction, now));
+		}
+		sent.clear();
+		if (!messages.isEmpty()) {
+			state = stateManager.handleTransactions(state, messages);
+		}
+		return state;
+	}
+
+	public Issuer getIssuer() {
+		return getStateEvaluatedAtTime(Instant.now()).getIssuerByName(ISSUER).get();
+	}
+
+	@Override
+	public ValidityKey sendValidityKeyRegistration(Instant hardExpiryAt, Issuer issuer, Optional<Duration> interactivityTimeout) {
+		ValidityKey key = createValidityKey(hardExpiryAt, issuer, interactivityTimeout);
+		sendValidityKeyRegistration(key);
+		return key;
+	}
+
+	@Override
+	public ValidityKey createValidityKey(Instant hardExpiryAt, Issuer issuer, Optional<Duration> interactivityTimeout) {
+		return new ValidityKey(hardExpiryAt, issuer.getIndex(), interactivityTimeout, random.nextLong() & Long.MAX_VALUE);
+	}
+
+	@Override
+	public void sendValidityKeyRegistration(ValidityKey validityKey) {
+		sent.add(new ValidityKeyRegistrationTransaction(validityKey));
+	}
+
+	@Override
+	public void sendValidityKeyInteractivity(ValidityKey key) {
+		sent.add(new ValidityKeyInteractivityTransaction(key));
+	}
+
+	@Override
+	public void sendValidityKeyInvalidation(ValidityKey key) {
+		sent.add(new ValidityKeyInvalidationTransaction(key));
+	}
+
+	@Override
+	public void sendIssuerInvalidation(Issuer issuer, Instant invalidatedBefore) {
+		sent.add(new IssuerInvalidationTransaction(issuer.getIssuerName(), invalidatedBefore));
+	}
+
+	@Override
+	public void sendIssuerRegistration(String issuerName) {
+		sent.add(new IssuerRegistrationTransaction(issuerName));
+	}
+
+	@Override
+	public void sendTransactions(List<? extends DTVATransaction> transactions) {
+		sent.addAll(transactions);
+	}
+
+	@Override
+	public <R> R withStateEvaluatedAtTime(Instant instant, Function<? super State, ? extends R> stateConsumer) {
+		return stateConsumer.apply(getStateEvaluatedAtTime(instant));
+	}
+
+	@Override
+	public State getStateEvaluatedAtTime(Instant instant) {
+		return new StateViewImpl(state, instant);
+	}
+
+	@Override
+	public Participant getSelf() {
+		return state.getConstitution().getParticipants().get(0);
+	}
+
+	@Override
+	public JsonObject getLocalConfiguration() {
+		return localConfiguration;
+	}
+
+	@Override
+	public RevocationFilter getRevocationFilter() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public ValidityKeyWatch watchValidityKeys(Collection<ValidityKey> keys, Consumer<? super ValidityKeyView> listener) {
+		return watches.watch(keys, listener);
+	}
+
+	@Override
+	public JsonObject getMetrics() {
+		return Json.createObjectBuilder().build();
+	}
+
+	@Override
+	public Optional<Duration> getConsensusGraceSpan() {
+		return Optional.empty();
+	}
+
+	private static final class Message implements TransactionMessage<DTVATransaction> {
+		private final DTVATransaction transaction;
+		private final Instant at;
+
+		Message(DTVATransaction transaction, Instant at) {
+			this.transaction = transaction;
+			this.at = at;
+		}
+
+		@Override
+		public DTVATransaction getTransaction() {
+			return transaction;
+		}
+
+		@Override
+		public Instant getConsensusEstablishedTime() {
+			return at;
+		}
+	}
+}
@@ -0,0 +1,93 @@
+/* Copyright 2017 Ping Identity Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package com.pingidentity.labs.dtva.endpoints.util;
+
+import java.util.Optional;
+
+import javax.json.Json;
+import javax.ws.rs.HttpMethod;
+
+import org.junit.Test;
+import static org.junit.Assert.assertThat;
+import com.pingidentity.labs.dtva.endpoints.util.AdmissionControl.RouteClass;
+import static org.hamcrest.CoreMatchers.*;
+
+public class AdmissionControlTest {
+	private static AdmissionControl fixedReadLimit(int limit) {
+		return AdmissionControl.fromConfiguration(Json.createObjectBuilder()
+				.add(AdmissionControl.CONFIGURATION_KEY, Json.createObjectBuilder()
+						.add("read", Json.createObjectBuilder()
+								.add("initial-limit", limit)
+								.add("min-limit", limit)
+								.add("max-limit", limit)))
+				.build());
+	}
+
+	@Test
+	public void testClassification() {
+		assertThat(AdmissionControl.classify(HttpMethod.GET, "validity/abc", false), is(Optional.of(RouteClass.READ)));
+		assertThat(AdmissionControl.classify(HttpMethod.POST, "validity/_query", false), is(Optional.of(RouteClass.READ)));
+		assertThat(AdmissionControl.classify(HttpMethod.POST, "validity/abc", false), is(Optional.of(RouteClass.WRITE)));
+		assertThat(AdmissionControl.classify(HttpMethod.DELETE, "validity/abc", false), is(Optional.of(RouteClass.WRITE)));
+		assertThat(AdmissionControl.classify(HttpMethod.GET, "validity/_subscribe", false), is(Optional.empty()));
+		assertThat(AdmissionControl.classify(HttpMethod.POST, "validity", true), is(Optional.empty()));
+	}
+
+	@Test
+	public void testOnlyParkingRequestsAreHeldOpen() {
+		assertThat(AdmissionControl.holdsOpen(HttpMethod.GET, "validity/abc", "5", null), is(true));
+		assertThat(AdmissionControl.holdsOpen(HttpMethod.POST, "validity", null, "wait=5"), is(true));
+
+		assertThat(AdmissionControl.holdsOpen(HttpMethod.GET, "validity/abc", "0", null), is(false));
+		assertThat(AdmissionControl.holdsOpen(HttpMethod.GET, "validity/abc", "-1", null), is(false));
+		assertThat(AdmissionControl.holdsOpen(HttpMethod.GET, "validity/abc", "soon", null), is(false));
+		assertThat(AdmissionControl.holdsOpen(HttpMethod.GET, "validity/abc", null, "wait=5"), is(false));
+		assertThat(AdmissionControl.holdsOpen(HttpMethod.POST, "validity", null, "wait=0"), is(false));
+		assertThat(AdmissionControl.holdsOpen(HttpMethod.POST, "validity", "5", null), is(false));
+	}
+
+	@Test
+	public void testWaitOnOtherRoutesIsNotHeldOpen() {
+		assertThat(AdmissionControl.holdsOpen(HttpMethod.POST, "validity/_batch", "1", "wait=5"), is(false));
+		assertThat(AdmissionControl.holdsOpen(HttpMethod.POST, "validity/_query", "1", "wait=5"), is(false));
+		assertThat(AdmissionControl.holdsOpen(HttpMethod.POST, "validity/abc", "1", "wait=5"), is(false));
+		assertThat(AdmissionControl.holdsOpen(HttpMethod.DELETE, "validity/abc", "1", "wait=5"), is(false));
+		assertThat(AdmissionControl.holdsOpen(HttpMethod.DELETE, "validity", "1", "wait=5"), is(false));
+		assertThat(AdmissionControl.holdsOpen(HttpMethod.GET, "validity/_changes", "5", null), is(false));
+		assertThat(AdmissionControl.holdsOpen(HttpMethod.GET, "issuer", "5", "wait=5"), is(false));
+		assertThat(AdmissionControl.holdsOpen(HttpMethod.POST, "issuer", "5", "wait=5"), is(false));
+	}
+
+	@Test
+	public void testOnlyInteractivityYieldsToReads() {
+		assertThat(AdmissionControl.yieldsToReads(HttpMethod.POST, "validity/abc"), is(true));
+		assertThat(AdmissionControl.yieldsToReads(HttpMethod.POST, "validity"), is(false));
+		assertThat(AdmissionControl.yieldsToReads(HttpMethod.POST, "validity/"), is(false));
+		assertThat(AdmissionControl.yieldsToReads(HttpMethod.POST, "validity/_batch"), is(false));
+		assertThat(AdmissionControl.yieldsToReads(HttpMethod.DELETE, "validity/abc"), is(false));
+		assertThat(AdmissionControl.yieldsToReads(HttpMethod.DELETE, "validity"), is(false));
+	}
+
+	@Test
+	public void testInvalidationsAreNotShedAheadOfReads() {
+		AdmissionControl admissionControl = fixedReadLimit(5);
+		for (int i = 0; i < 4; i++) {
+			assertThat(admissionControl.tryAcquire(RouteClass.READ), is(true));
+		}
+		assertThat(admissionControl.tryAcquire(RouteClass.WRITE, true), is(false));
+		assertThat(admissionControl.tryAcquire(RouteClass.WRITE, false), is(true));
+		assertThat(admissionControl.tryAcquire(RouteClass.WRITE), is(true));
+		assertThat(admissionControl.getMetrics().getJsonNumber("writes_yielded").longValue(), is(1L));
+	}
+}
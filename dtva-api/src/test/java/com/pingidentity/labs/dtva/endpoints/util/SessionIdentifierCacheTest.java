@@ -0,0 +1,49 @@
+/* Copyright 2017 Ping Identity Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package com.pingidentity.labs.dtva.endpoints.util;
+
+import java.time.Instant;
+import java.util.Optional;
+
+import javax.json.Json;
+
+import org.junit.Test;
+import static org.junit.Assert.assertThat;
+import com.pingidentity.labs.dtva.application.ValidityKey;
+import static org.hamcrest.CoreMatchers.*;
+
+public class SessionIdentifierCacheTest {
+
+	@Test
+	public void testSmallConfiguredSizesAreRoundedUp() {
+		SessionIdentifierCache cache = SessionIdentifierCache.fromConfiguration(Json.createObjectBuilder()
+				.add(SessionIdentifierParamConverterProvider.CONFIGURATION_KEY, 1)
+				.build());
+		assertThat(cache, is(notNullValue()));
+		SessionIdentifier sid = new SessionIdentifier(
+				new ValidityKey(Instant.parse("2017-06-01T00:00:00Z"), 0, Optional.empty(), 1), null);
+		String identifier = sid.toStringIdentifier();
+		cache.get(identifier, SessionIdentifier::fromStringIdentifier);
+		cache.get(identifier, SessionIdentifier::fromStringIdentifier);
+		assertThat(cache.getHits(), is(1L));
+	}
+
+	@Test
+	public void testNonPositiveSizesDisableTheCache() {
+		assertThat(SessionIdentifierCache.fromConfiguration(Json.createObjectBuilder()
+				.add(SessionIdentifierParamConverterProvider.CONFIGURATION_KEY, 0)
+				.build()), is(nullValue()));
+		assertThat(SessionIdentifierCache.fromConfiguration(null), is(notNullValue()));
+	}
+}
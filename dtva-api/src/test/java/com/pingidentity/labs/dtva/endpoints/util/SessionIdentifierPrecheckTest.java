@@ -0,0 +1,129 @@
+/* Copyright 2017 Ping Identity Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package com.pingidentity.labs.dtva.endpoints.util;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import javax.ws.rs.core.Response;
+
+import org.junit.Test;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import com.pingidentity.labs.dtva.application.State;
+import com.pingidentity.labs.dtva.application.ValidityKey;
+import com.pingidentity.labs.dtva.endpoints.SessionIdentifierCollectionEndpoint;
+import com.pingidentity.labs.dtva.endpoints.TestCoordinator;
+import static org.hamcrest.CoreMatchers.*;
+
+public class SessionIdentifierPrecheckTest {
+	private final TestCoordinator coordinator = new TestCoordinator();
+	private final Instant now = Instant.now();
+	private final State state = coordinator.getStateEvaluatedAtTime(now);
+
+	private SessionIdentifier sid(Duration expiresIn, long issuerIndex, Optional<Duration> interactivityTimeout) {
+		return new SessionIdentifier(
+				new ValidityKey(now.plus(expiresIn), issuerIndex, interactivityTimeout, 1), null);
+	}
+
+	private SessionIdentifier sid(Duration expiresIn) {
+		return sid(expiresIn, coordinator.getIssuer().getIndex(), Optional.empty());
+	}
+
+	@Test
+	public void testLiveIdentifierNeedsLookup() {
+		assertThat(SessionIdentifierPrecheck.check(sid(Duration.ofHours(1)), state, now).isPresent(), is(false));
+	}
+
+	@Test
+	public void testPassedHardExpiryIsGone() {
+		Optional<Response> problem = SessionIdentifierPrecheck.check(sid(Duration.ofHours(-1)), state, now);
+		assertThat(problem.get().getStatus(), is(410));
+	}
+
+	@Test
+	public void testNonPositiveInteractivityTimeoutIsMalformed() {
+		int issuerIndex = coordinator.getIssuer().getIndex();
+		for (Duration timeout : new Duration[] { Duration.ZERO, Duration.ofMinutes(-5) }) {
+			Optional<Response> problem = SessionIdentifierPrecheck.check(
+					sid(Duration.ofHours(1), issuerIndex, Optional.of(timeout)), state, now);
+			assertThat(problem.get().getStatus(), is(400));
+		}
+	}
+
+	@Test
+	public void testOutOfRangeIssuerIsRefused() {
+		Optional<Response> problem = SessionIdentifierPrecheck.check(
+				sid(Duration.ofHours(1), 1_000, Optional.empty()), state, now);
+		assertThat(problem.get().getStatus(), is(400));
+	}
+
+	@Test
+	public void testConverterRefusesUndecodableIdentifiersWithBadRequest() {
+		SessionIdentifierParamConverter converter = new SessionIdentifierParamConverter();
+		for (String value : new String[] { "not a sid <script>", "AAAA", "" }) {
+			try {
+				converter.fromString(value);
+				fail("accepted " + value);
+			}
+			catch (MalformedSessionIdentifierException e) {
+				Response response = e.getResponse();
+				assertThat(response.getStatus(), is(400));
+				if (!value.isEmpty()) {
+					assertThat(String.valueOf(response.getEntity()), not(containsString(value)));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testFailedPrecheckSendsNoTransaction() {
+		SessionIdentifierCollectionEndpoint endpoint = new SessionIdentifierCollectionEndpoint(coordinator);
+		RequestSnapshot snapshot = new RequestSnapshot(coordinator, now);
+		SessionIdentifier expired = sid(Duration.ofHours(-1));
+		SessionIdentifier unknownIssuer = sid(Duration.ofHours(1), 1_000, Optional.empty());
+
+		assertThat(endpoint.updateSession(expired, true, snapshot).getStatus(), is(410));
+		assertThat(endpoint.deleteSession(expired, snapshot).getStatus(), is(410));
+		assertThat(endpoint.updateSession(unknownIssuer, true, snapshot).getStatus(), is(400));
+		assertThat(endpoint.deleteSession(unknownIssuer, snapshot).getStatus(), is(400));
+		assertThat(coordinator.sent.isEmpty(), is(true));
+	}
+
+	private static ValidityBatchOperation interactivity(SessionIdentifier sid) {
+		Map<String, Object> fields = new HashMap<>();
+		fields.put(ValidityBatchOperation.OP, ValidityBatchOperation.Op.Interactivity.getName());
+		fields.put(Constants.SID, sid.toStringIdentifier());
+		return ValidityBatchOperation.fromFields(fields);
+	}
+
+	@Test
+	public void testBatchOperationsFailingPrecheckAreNotSent() {
+		SessionIdentifierCollectionEndpoint endpoint = new SessionIdentifierCollectionEndpoint(coordinator);
+		Response response = endpoint.batchSessions(new ValidityBatch(Arrays.asList(
+				interactivity(sid(Duration.ofHours(1), 1_000, Optional.empty())),
+				interactivity(sid(Duration.ofHours(-1))),
+				interactivity(sid(Duration.ofHours(1))))));
+		List<ValidityBatchResult.Entry> entries = ((ValidityBatchResult) response.getEntity()).getEntries();
+		assertThat(entries.get(0).getStatus().getStatusCode(), is(400));
+		assertThat(entries.get(1).getStatus().getStatusCode(), is(410));
+		assertThat(entries.get(2).getStatus().getStatusCode(), is(202));
+		assertThat(coordinator.sent.size(), is(1));
+	}
+}
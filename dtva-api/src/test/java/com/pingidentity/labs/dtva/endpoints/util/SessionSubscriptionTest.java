@@ -0,0 +1,111 @@
+/* Copyright 2017 Ping Identity Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package com.pingidentity.labs.dtva.endpoints.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.glassfish.jersey.server.ChunkedOutput;
+import org.junit.Test;
+import static org.junit.Assert.assertThat;
+import com.pingidentity.labs.dtva.application.ValidityKey;
+import static org.hamcrest.CoreMatchers.*;
+
+public class SessionSubscriptionTest {
+
+	/** collects written chunks, optionally holding each write until released */
+	private static class RecordingOutput extends ChunkedOutput<byte[]> {
+		final BlockingQueue<String> written = new LinkedBlockingQueue<>();
+		final CountDownLatch released;
+
+		RecordingOutput(boolean blocked) {
+			super(byte[].class);
+			released = new CountDownLatch(blocked ? 1 : 0);
+		}
+
+		@Override
+		public void write(byte[] chunk) throws IOException {
+			try {
+				released.await();
+			}
+			catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+			written.add(new String(chunk, StandardCharsets.UTF_8));
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	private static SessionIdentifier sid() {
+		Instant now = Instant.now();
+		ValidityKey key = new ValidityKey(now.plus(8, ChronoUnit.HOURS), 0, Optional.of(Duration.ofMinutes(15)),
+				System.nanoTime());
+		return new SessionIdentifier(key, now);
+	}
+
+	private static SessionSubscription subscription(int bufferSize, RecordingOutput output) {
+		return new SessionSubscription(Collections.emptyMap(), Constants.SERVER_SENT_EVENTS_TYPE, bufferSize, output,
+				(closed) -> { });
+	}
+
+	@Test
+	public void testInitialStateLargerThanBufferIsWrittenWithoutResync() throws Exception {
+		RecordingOutput output = new RecordingOutput(false);
+		SessionSubscription subscription = subscription(2, output);
+		List<byte[]> initial = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			initial.add(subscription.initialUnknown(sid()));
+		}
+		subscription.start(initial);
+		for (int i = 0; i < 100; i++) {
+			String chunk = output.written.poll(5, TimeUnit.SECONDS);
+			assertThat(chunk, startsWith("event: unknown\n"));
+		}
+		subscription.close();
+		assertThat(output.written.isEmpty(), is(true));
+	}
+
+	@Test
+	public void testBlockedConsumerDoesNotDelayAnother() throws Exception {
+		RecordingOutput blockedOutput = new RecordingOutput(true);
+		RecordingOutput output = new RecordingOutput(false);
+		SessionSubscription blocked = subscription(4, blockedOutput);
+		SessionSubscription flowing = subscription(4, output);
+		blocked.start(Collections.singletonList(blocked.initialUnknown(sid())));
+		flowing.start(Collections.emptyList());
+
+		flowing.heartbeat();
+		assertThat(output.written.poll(5, TimeUnit.SECONDS), is(notNullValue()));
+		assertThat(blockedOutput.written.isEmpty(), is(true));
+
+		blockedOutput.released.countDown();
+		assertThat(blockedOutput.written.poll(5, TimeUnit.SECONDS), startsWith("event: unknown\n"));
+		blocked.close();
+		flowing.close();
+	}
+}
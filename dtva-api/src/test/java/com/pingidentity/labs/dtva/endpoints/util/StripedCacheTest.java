@@ -0,0 +1,60 @@
+/* Copyright 2017 Ping Identity Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package com.pingidentity.labs.dtva.endpoints.util;
+
+import org.junit.Test;
+import static org.junit.Assert.assertThat;
+import static org.hamcrest.CoreMatchers.*;
+
+public class StripedCacheTest {
+
+	@Test
+	public void testEachStripeKeepsItsShareOfTheCapacity() {
+		StripedCache<Integer, String> cache = new StripedCache<>(StripedCache.STRIPES * 4);
+		for (int i = 0; i < 10_000; i++) {
+			cache.put(i, Integer.toString(i));
+		}
+		int retained = 0;
+		for (int i = 0; i < 10_000; i++) {
+			String value = cache.get(i);
+			if (value != null) {
+				assertThat(value, is(Integer.toString(i)));
+				retained++;
+			}
+		}
+		assertThat(retained <= StripedCache.STRIPES * 4, is(true));
+		assertThat(retained > 0, is(true));
+	}
+
+	@Test
+	public void testEntriesHitSinceTheLastSweepAreKept() {
+		// one stripe's share is one entry per slot; keys a multiple of the stripe count share a stripe
+		StripedCache<Integer, String> cache = new StripedCache<>(StripedCache.STRIPES * 2);
+		int first = 0;
+		int second = StripedCache.STRIPES;
+		int third = StripedCache.STRIPES * 2;
+		cache.put(first, "first");
+		cache.put(second, "second");
+		assertThat(cache.get(first), is("first"));
+		cache.put(third, "third");
+		assertThat(cache.get(first), is("first"));
+		assertThat(cache.get(second), is(nullValue()));
+		assertThat(cache.get(third), is("third"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCapacityBelowTheStripeCountIsRefused() {
+		new StripedCache<String, String>(StripedCache.STRIPES - 1);
+	}
+}
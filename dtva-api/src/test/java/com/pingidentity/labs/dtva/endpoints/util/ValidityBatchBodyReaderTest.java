@@ -0,0 +1,61 @@
+/* Copyright 2017 Ping Identity Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package com.pingidentity.labs.dtva.endpoints.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import javax.ws.rs.WebApplicationException;
+
+import org.junit.Test;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.hamcrest.CoreMatchers.*;
+
+public class ValidityBatchBodyReaderTest {
+	private final ValidityBatchBodyReader reader = new ValidityBatchBodyReader(10);
+
+	private ValidityBatch read(byte[] body) throws IOException {
+		return reader.readFrom(ValidityBatch.class, ValidityBatch.class, null, Constants.APPLICATION_CBOR_TYPE, null,
+				new ByteArrayInputStream(body));
+	}
+
+	private void assertRefused(byte[] body) throws IOException {
+		try {
+			read(body);
+			fail("expected the batch to be refused");
+		}
+		catch (WebApplicationException e) {
+			assertThat(e.getResponse().getStatus(), is(400));
+		}
+	}
+
+	@Test
+	public void testEmptyCborArray() throws IOException {
+		assertThat(read(new byte[] { (byte) 0x80 }).getOperations().isEmpty(), is(true));
+	}
+
+	@Test
+	public void testIndefiniteLengthCborArrayIsRefused() throws IOException {
+		// [_ {}], which must not be taken for an empty batch
+		assertRefused(new byte[] { (byte) 0x9f, (byte) 0xa0, (byte) 0xff });
+	}
+
+	@Test
+	public void testIndefiniteLengthCborMapIsRefused() throws IOException {
+		// [{_ "op": "invalidate"}]
+		assertRefused(new byte[] { (byte) 0x81, (byte) 0xbf, 0x62, 'o', 'p', 0x6a,
+				'i', 'n', 'v', 'a', 'l', 'i', 'd', 'a', 't', 'e', (byte) 0xff });
+	}
+}
@@ -0,0 +1,71 @@
+/* Copyright 2017 Ping Identity Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package com.pingidentity.labs.dtva.endpoints.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+
+import org.junit.Test;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.hamcrest.CoreMatchers.*;
+
+public class ValidityQueryBodyReaderTest {
+	private final ValidityQueryBodyReader reader = new ValidityQueryBodyReader(2);
+
+	private ValidityQuery read(MediaType mediaType, byte[] body) throws IOException {
+		return reader.readFrom(ValidityQuery.class, ValidityQuery.class, null, mediaType, null,
+				new ByteArrayInputStream(body));
+	}
+
+	@Test
+	public void testJson() throws IOException {
+		ValidityQuery query = read(MediaType.APPLICATION_JSON_TYPE, "[\"a\", \"b\"]".getBytes(StandardCharsets.UTF_8));
+		assertThat(query.getSessionIdentifiers(), is(equalTo(Arrays.asList("a", "b"))));
+	}
+
+	@Test
+	public void testEmptyCborArray() throws IOException {
+		ValidityQuery query = read(Constants.APPLICATION_CBOR_TYPE, new byte[] { (byte) 0x80 });
+		assertThat(query.getSessionIdentifiers().isEmpty(), is(true));
+	}
+
+	@Test
+	public void testIndefiniteLengthCborArrayIsRefused() throws IOException {
+		// [_ "a"], which must not be taken for an empty query
+		try {
+			read(Constants.APPLICATION_CBOR_TYPE, new byte[] { (byte) 0x9f, 0x61, 'a', (byte) 0xff });
+			fail("expected an indefinite length array to be refused");
+		}
+		catch (WebApplicationException e) {
+			assertThat(e.getResponse().getStatus(), is(400));
+		}
+	}
+
+	@Test
+	public void testOversizedCborArrayIsRefused() throws IOException {
+		try {
+			read(Constants.APPLICATION_CBOR_TYPE, new byte[] { (byte) 0x83, 0x61, 'a', 0x61, 'b', 0x61, 'c' });
+			fail("expected an oversized query to be refused");
+		}
+		catch (WebApplicationException e) {
+			assertThat(e.getResponse().getStatus(), is(413));
+		}
+	}
+}
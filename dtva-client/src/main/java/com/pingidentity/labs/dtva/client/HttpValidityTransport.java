@@ -0,0 +1,107 @@
+/* Copyright 2017 Ping Identity Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package com.pingidentity.labs.dtva.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URL;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonException;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.stream.JsonGenerator;
+
+import com.pingidentity.labs.dtva.endpoints.util.ValidityQueryResult;
+
+/**
+ * Sends validity queries to {@code POST /validity/_query} of a participant's web API, as JSON over a
+ * persistent HTTP connection.
+ */
+public class HttpValidityTransport implements ValidityTransport {
+	static final String STATE = "state";
+	static final String SCHEDULED_TRANSITION_AT = "scheduledTransitionAt";
+
+	private final URL queryURL;
+
+	/**
+	 * @param webAPI the base of the web API, such as {@code http://localhost:8080/}
+	 */
+	public HttpValidityTransport(URI webAPI) {
+		String base = webAPI.toString();
+		try {
+			this.queryURL = URI.create(base.endsWith("/") ? base : base + "/").resolve("validity/_query").toURL();
+		}
+		catch (MalformedURLException e) {
+			throw new IllegalArgumentException("Web API must be an HTTP URL", e);
+		}
+	}
+
+	@Override
+	public List<ValidityQueryResult.Entry> query(List<String> sids) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) queryURL.openConnection();
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		connection.setRequestProperty("Content-Type", "application/json");
+		connection.setRequestProperty("Accept", "application/json");
+		try (OutputStream out = connection.getOutputStream();
+				JsonGenerator generator = Json.createGenerator(out)) {
+			generator.writeStartArray();
+			for (String sid : sids) {
+				generator.write(sid);
+			}
+			generator.writeEnd();
+		}
+		int status = connection.getResponseCode();
+		if (status != HttpURLConnection.HTTP_OK) {
+			// drain the error so that the connection may be reused
+			try (InputStream error = connection.getErrorStream()) {
+				while (error != null && error.read() >= 0) {
+					// discard
+				}
+			}
+			throw new IOException("Validity query answered with status " + status);
+		}
+		List<ValidityQueryResult.Entry> entries = new ArrayList<>(sids.size());
+		try (InputStream in = connection.getInputStream();
+				JsonReader reader = Json.createReader(in)) {
+			JsonArray results = reader.readArray();
+			if (results.size() != sids.size()) {
+				throw new IOException("Expected " + sids.size() + " validity query results, got " + results.size());
+			}
+			for (JsonObject result : results.getValuesAs(JsonObject.class)) {
+				String state = result.getString(STATE, null);
+				if (state == null) {
+					throw new IOException("Missing state in validity query result");
+				}
+				JsonNumber scheduledTransitionAt = result.getJsonNumber(SCHEDULED_TRANSITION_AT);
+				entries.add(new ValidityQueryResult.Entry(state,
+						scheduledTransitionAt == null ? null : Instant.ofEpochSecond(scheduledTransitionAt.longValue())));
+			}
+		}
+		catch (JsonException | ClassCastException e) {
+			throw new IOException("Malformed validity query result", e);
+		}
+		return entries;
+	}
+}
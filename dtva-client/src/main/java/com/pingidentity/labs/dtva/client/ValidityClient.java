@@ -0,0 +1,265 @@
+/* Copyright 2017 Ping Identity Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package com.pingidentity.labs.dtva.client;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.validation.constraints.NotNull;
+
+import com.pingidentity.labs.dtva.endpoints.util.SessionIdentifier;
+import com.pingidentity.labs.dtva.endpoints.util.ValidityQueryResult;
+import com.pingidentity.labs.dtva.endpoints.util.ValidityQueryResult.Entry;
+
+/**
+ * Validates session identifiers for a relying party, going to a participant only when the identifier
+ * itself cannot settle the answer.
+ * 
+ * Identifiers are decoded locally. Malformed identifiers and those past their hard expiry are answered
+ * without a query, as are identifiers still within their consensus grace period, which are valid
+ * whether or not they have reached consensus yet. Other identifiers are looked up through the bulk
+ * query API, and their state is cached until its next scheduled transition. Active sessions may be
+ * invalidated at any time, so their state is cached for no longer than the maximum active age.
+ * 
+ * Identifiers are looked up in as few queries as the maximum query size allows. A lookup of an
+ * identifier which another thread is already querying waits for that query rather than repeating it.
+ */
+public class ValidityClient {
+	/** as the default {@code max-cache-age} of the web API */
+	public static final Duration DEFAULT_MAX_ACTIVE_AGE = Duration.ofSeconds(5);
+	/** as the default {@code max-query-size} of the web API */
+	public static final int DEFAULT_MAX_QUERY_SIZE = 1000;
+	public static final int DEFAULT_CACHE_SIZE = 10_000;
+
+	static final String ACTIVE = "active";
+	static final String EXPIRED = "expired";
+	static final String GRACE = "grace";
+
+	private final @NotNull ValidityTransport transport;
+	private final Duration maxActiveAge;
+	private final int maxQuerySize;
+	private final Clock clock;
+	private final Map<String, CachedEntry> cache;
+	private final ConcurrentMap<String, CompletableFuture<Entry>> querying = new ConcurrentHashMap<>();
+	private final LongAdder local = new LongAdder();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder queries = new LongAdder();
+
+	public ValidityClient(@NotNull ValidityTransport transport) {
+		this(transport, DEFAULT_MAX_ACTIVE_AGE, DEFAULT_MAX_QUERY_SIZE, DEFAULT_CACHE_SIZE, Clock.systemUTC());
+	}
+
+	public ValidityClient(@NotNull ValidityTransport transport, Duration maxActiveAge, int maxQuerySize,
+			int cacheSize, Clock clock) {
+		if (maxQuerySize < 1) {
+			throw new IllegalArgumentException("maximum query size must be positive");
+		}
+		this.transport = transport;
+		this.maxActiveAge = maxActiveAge;
+		this.maxQuerySize = maxQuerySize;
+		this.clock = clock;
+		this.cache = Collections.synchronizedMap(new LinkedHashMap<String, CachedEntry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedEntry> eldest) {
+				return size() > cacheSize;
+			}
+		});
+	}
+
+	/**
+	 * The state of a session, as {@code POST /validity/_query} would answer it.
+	 * 
+	 * @throws IOException if the identifier had to be queried, and the query failed
+	 */
+	public Entry validate(String sid) throws IOException {
+		return validateAll(Collections.singletonList(sid)).get(sid);
+	}
+
+	/** Whether a session may currently be relied upon, being active or within its grace period */
+	public boolean isValid(String sid) throws IOException {
+		String stateName = validate(sid).getStateName();
+		return ACTIVE.equals(stateName) || GRACE.equals(stateName);
+	}
+
+	/**
+	 * The states of several sessions, querying those not settled locally or from the cache together.
+	 * 
+	 * @return the state of each distinct identifier, in the order supplied
+	 * @throws IOException if any identifier had to be queried, and the query failed
+	 */
+	public Map<String, Entry> validateAll(Collection<String> sids) throws IOException {
+		Instant now = clock.instant();
+		Map<String, Entry> settled = new LinkedHashMap<>();
+		Map<String, CompletableFuture<Entry>> awaited = new LinkedHashMap<>();
+		Map<String, CompletableFuture<Entry>> owned = new LinkedHashMap<>();
+		for (String sid : sids) {
+			if (settled.containsKey(sid) || awaited.containsKey(sid)) {
+				continue;
+			}
+			Entry entry = evaluateLocally(sid, now);
+			if (entry != null) {
+				local.increment();
+				settled.put(sid, entry);
+				continue;
+			}
+			CachedEntry cached = cache.get(sid);
+			if (cached != null && cached.expiresAt.isAfter(now)) {
+				hits.increment();
+				settled.put(sid, cached.entry);
+				continue;
+			}
+			misses.increment();
+			CompletableFuture<Entry> future = new CompletableFuture<>();
+			CompletableFuture<Entry> existing = querying.putIfAbsent(sid, future);
+			if (existing == null) {
+				owned.put(sid, future);
+				existing = future;
+			}
+			awaited.put(sid, existing);
+		}
+		query(new ArrayList<>(owned.keySet()), owned);
+
+		Map<String, Entry> results = new LinkedHashMap<>();
+		for (String sid : sids) {
+			if (results.containsKey(sid)) {
+				continue;
+			}
+			Entry entry = settled.get(sid);
+			results.put(sid, entry != null ? entry : await(awaited.get(sid)));
+		}
+		return results;
+	}
+
+	// queries in batches of at most the maximum query size, failing every batch not yet sent on error
+	private void query(List<String> sids, Map<String, CompletableFuture<Entry>> futures) throws IOException {
+		for (int start = 0; start < sids.size(); start += maxQuerySize) {
+			List<String> batch = sids.subList(start, Math.min(start + maxQuerySize, sids.size()));
+			List<ValidityQueryResult.Entry> entries;
+			try {
+				queries.increment();
+				entries = transport.query(batch);
+				if (entries.size() != batch.size()) {
+					throw new IOException("Expected " + batch.size() + " validity query results, got " + entries.size());
+				}
+			}
+			catch (IOException | RuntimeException e) {
+				for (String sid : sids.subList(start, sids.size())) {
+					querying.remove(sid);
+					futures.get(sid).completeExceptionally(e);
+				}
+				throw e;
+			}
+			Instant now = clock.instant();
+			for (int i = 0; i < batch.size(); i++) {
+				String sid = batch.get(i);
+				Entry entry = entries.get(i);
+				cache.put(sid, new CachedEntry(entry, expiresAt(entry, now)));
+				querying.remove(sid);
+				futures.get(sid).complete(entry);
+			}
+		}
+	}
+
+	private static Entry await(CompletableFuture<Entry> future) throws IOException {
+		try {
+			return future.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting for validity query", e);
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Validity query failed", e.getCause());
+		}
+	}
+
+	/**
+	 * The state of a session as can be told from its identifier alone, or null if it must be queried.
+	 */
+	static Entry evaluateLocally(String identifier, Instant now) {
+		SessionIdentifier sid;
+		try {
+			sid = SessionIdentifier.fromStringIdentifier(identifier);
+		}
+		catch (IllegalArgumentException e) {
+			return new Entry(ValidityQueryResult.MALFORMED, null);
+		}
+		if (!sid.getKey().getHardExpiryAt().isAfter(now)) {
+			return new Entry(EXPIRED, null);
+		}
+		if (sid.isInGrace(now)) {
+			return new Entry(GRACE, sid.getConsensusGrace().get());
+		}
+		return null;
+	}
+
+	// until the next scheduled transition, capped for states which may change without one
+	private Instant expiresAt(Entry entry, Instant now) {
+		Instant expiresAt = entry.getScheduledTransitionAt().orElse(Instant.MAX);
+		if (ACTIVE.equals(entry.getStateName()) || ValidityQueryResult.UNKNOWN.equals(entry.getStateName())) {
+			Instant cappedAt = now.plus(maxActiveAge);
+			if (cappedAt.isBefore(expiresAt)) {
+				expiresAt = cappedAt;
+			}
+		}
+		return expiresAt;
+	}
+
+	/** identifiers answered from the identifier alone */
+	public long getLocal() {
+		return local.sum();
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/** requests made through the transport */
+	public long getQueries() {
+		return queries.sum();
+	}
+
+	private static final class CachedEntry {
+		private final Entry entry;
+		private final Instant expiresAt;
+
+		CachedEntry(Entry entry, Instant expiresAt) {
+			this.entry = entry;
+			this.expiresAt = expiresAt;
+		}
+	}
+}
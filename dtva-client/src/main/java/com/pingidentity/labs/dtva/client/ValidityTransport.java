@@ -0,0 +1,34 @@
+/* Copyright 2017 Ping Identity Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package com.pingidentity.labs.dtva.client;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.pingidentity.labs.dtva.endpoints.util.ValidityQueryResult;
+
+/**
+ * Carries a bulk validity query to a participant, such as {@link HttpValidityTransport} over the web
+ * API. Tests may supply an implementation answering from an in-process server instead.
+ */
+@FunctionalInterface
+public interface ValidityTransport {
+	/**
+	 * Evaluate the session identifiers against one snapshot of state.
+	 * 
+	 * @return one entry per identifier, in the order they were supplied
+	 * @throws IOException if the participant could not be reached or did not answer the query
+	 */
+	List<ValidityQueryResult.Entry> query(List<String> sids) throws IOException;
+}
@@ -0,0 +1,208 @@
+/* Copyright 2017 Ping Identity Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package com.pingidentity.labs.dtva.client;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import com.pingidentity.labs.dtva.application.ValidityKey;
+import com.pingidentity.labs.dtva.endpoints.util.SessionIdentifier;
+import com.pingidentity.labs.dtva.endpoints.util.ValidityQueryResult;
+import com.pingidentity.labs.dtva.endpoints.util.ValidityQueryResult.Entry;
+import static org.hamcrest.CoreMatchers.*;
+
+public class ValidityClientTest {
+	private final MutableClock clock = new MutableClock(Instant.now().truncatedTo(ChronoUnit.SECONDS));
+	private final AtomicInteger queries = new AtomicInteger();
+	private final List<Integer> querySizes = new ArrayList<>();
+
+	// stands in for a participant, with every queried session active for the next hour
+	private List<Entry> activeForAnHour(List<String> sids) {
+		queries.incrementAndGet();
+		querySizes.add(sids.size());
+		List<Entry> entries = new ArrayList<>();
+		for (int i = 0; i < sids.size(); i++) {
+			entries.add(new Entry("active", clock.instant().plus(Duration.ofHours(1))));
+		}
+		return entries;
+	}
+
+	private String sid(long nonce, Instant consensusGrace) {
+		ValidityKey key = new ValidityKey(clock.instant().plus(Duration.ofHours(8)), 0,
+				Optional.of(Duration.ofMinutes(15)), nonce);
+		return new SessionIdentifier(key, consensusGrace).toStringIdentifier();
+	}
+
+	@Test
+	public void testAnsweredFromIdentifier() throws IOException {
+		ValidityClient client = new ValidityClient((sids) -> {
+			throw new IOException("identifier alone should settle the answer");
+		}, ValidityClient.DEFAULT_MAX_ACTIVE_AGE, 10, 100, clock);
+		ValidityKey expiredKey = new ValidityKey(clock.instant().minusSeconds(1), 0, Optional.empty(), 1);
+
+		assertThat(client.validate("not a session identifier").getStateName(), is(ValidityQueryResult.MALFORMED));
+		assertThat(client.validate(new SessionIdentifier(expiredKey, null).toStringIdentifier()).getStateName(), is("expired"));
+		Entry grace = client.validate(sid(2, clock.instant().plusSeconds(30)));
+		assertThat(grace.getStateName(), is("grace"));
+		assertThat(grace.getScheduledTransitionAt(), is(Optional.of(clock.instant().plusSeconds(30))));
+		assertThat(client.getLocal(), is(3L));
+	}
+
+	@Test
+	public void testCachedUntilTransition() throws IOException {
+		ValidityClient client = new ValidityClient(this::activeForAnHour,
+				Duration.ofSeconds(5), 10, 100, clock);
+		String sid = sid(1, null);
+
+		assertThat(client.isValid(sid), is(true));
+		assertThat(client.isValid(sid), is(true));
+		assertThat(queries.get(), is(1));
+
+		// active sessions may be invalidated at any time, so are only cached for the maximum active age
+		clock.advance(Duration.ofSeconds(5));
+		assertThat(client.isValid(sid), is(true));
+		assertThat(queries.get(), is(2));
+		assertThat(client.getHits(), is(1L));
+	}
+
+	@Test
+	public void testTerminalStateCached() throws IOException {
+		ValidityClient client = new ValidityClient((sids) -> {
+			queries.incrementAndGet();
+			return Arrays.asList(new Entry("invalidated", null));
+		}, Duration.ofSeconds(5), 10, 100, clock);
+		String sid = sid(1, null);
+
+		assertThat(client.isValid(sid), is(false));
+		clock.advance(Duration.ofMinutes(10));
+		assertThat(client.isValid(sid), is(false));
+		assertThat(queries.get(), is(1));
+	}
+
+	@Test
+	public void testBulkQueries() throws IOException {
+		ValidityClient client = new ValidityClient(this::activeForAnHour,
+				Duration.ofSeconds(5), 2, 100, clock);
+		List<String> sids = Arrays.asList(sid(1, null), sid(2, null), "malformed", sid(3, null), sid(1, null),
+				sid(4, null), sid(5, null));
+
+		Map<String, Entry> results = client.validateAll(sids);
+		assertThat(new ArrayList<>(results.keySet()), is(Arrays.asList(sid(1, null), sid(2, null), "malformed",
+				sid(3, null), sid(4, null), sid(5, null))));
+		assertThat(results.get("malformed").getStateName(), is(ValidityQueryResult.MALFORMED));
+		assertThat(results.get(sid(5, null)).getStateName(), is("active"));
+		assertThat(querySizes, is(Arrays.asList(2, 2, 1)));
+	}
+
+	@Test
+	public void testFailedQueryNotCached() throws IOException {
+		AtomicInteger attempts = new AtomicInteger();
+		ValidityClient client = new ValidityClient((sids) -> {
+			if (attempts.incrementAndGet() == 1) {
+				throw new IOException("participant unavailable");
+			}
+			return activeForAnHour(sids);
+		}, Duration.ofSeconds(5), 10, 100, clock);
+		String sid = sid(1, null);
+
+		try {
+			client.validate(sid);
+			fail("expected the query failure to be reported");
+		}
+		catch (IOException e) {
+			assertThat(e.getMessage(), is("participant unavailable"));
+		}
+		assertThat(client.isValid(sid), is(true));
+	}
+
+	@Test
+	public void testConcurrentLookupsCoalesced() throws Exception {
+		CountDownLatch queried = new CountDownLatch(1);
+		CountDownLatch answer = new CountDownLatch(1);
+		ValidityClient client = new ValidityClient((sids) -> {
+			queried.countDown();
+			try {
+				answer.await();
+			}
+			catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+			return activeForAnHour(sids);
+		}, Duration.ofSeconds(5), 10, 100, clock);
+		String sid = sid(1, null);
+
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			Future<Boolean> first = executor.submit(() -> client.isValid(sid));
+			assertThat(queried.await(5, TimeUnit.SECONDS), is(true));
+			Future<Boolean> second = executor.submit(() -> client.isValid(sid));
+			while (client.getMisses() < 2) {
+				Thread.sleep(1);
+			}
+			answer.countDown();
+			assertThat(first.get(5, TimeUnit.SECONDS), is(true));
+			assertThat(second.get(5, TimeUnit.SECONDS), is(true));
+			assertThat(queries.get(), is(1));
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static final class MutableClock extends Clock {
+		private volatile Instant now;
+
+		MutableClock(Instant now) {
+			this.now = now;
+		}
+
+		void advance(Duration duration) {
+			now = now.plus(duration);
+		}
+
+		@Override
+		public Instant instant() {
+			return now;
+		}
+
+		@Override
+		public ZoneId getZone() {
+			return ZoneOffset.UTC;
+		}
+
+		@Override
+		public Clock withZone(ZoneId zone) {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
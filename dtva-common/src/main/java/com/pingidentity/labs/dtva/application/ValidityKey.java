@@ -48,7 +48,7 @@ public final class ValidityKey implements Comparable<ValidityKey>, Cloneable {
 	 * Create a new validity key from the consituent parameters
 	 * 
 	 * @param hardExpiryAt the hard expiry time of the token(s) this validity key refers to.
-	 * @param issuerIndex the index of a previously registered issuer name within {@link StateImpl#getIssuers()}
+	 * @param issuerIndex the index of a previously registered issuer name within the issuers of the state
 	 * @param interactivityTimeout the interactivity timeout of the token(s), or {@link Optional#empty()} if 
 	 * interactivity is not to be tracked
 	 * @param nonce a differentiating value to distinguish multiple validity keys to be created with the same
@@ -0,0 +1,261 @@
+/* Copyright 2017 Ping Identity Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package com.pingidentity.labs.dtva.endpoints.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.DateTimeException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Base64;
+import java.util.Objects;
+import java.util.Optional;
+
+import javax.validation.constraints.NotNull;
+
+import com.pingidentity.labs.dtva.application.ValidityKey;
+
+import com.github.dwaite.cyborg.electrode.CborException;
+import com.github.dwaite.cyborg.electrode.impl.CborDataInput;
+import com.github.dwaite.cyborg.electrode.impl.CborOutput;
+
+// IDP-provided session identifier. Consists of a validity key (which is a compound key that contains the
+// necessary configuration info) and a consensus grace value describing a grace cutoff before which the
+// key does not need to be backed by consensus
+public class SessionIdentifier {
+	/** well beyond the longest encoding of an identifier, which is under 64 characters */
+	public static final int MAX_IDENTIFIER_LENGTH = 128;
+
+	@NotNull private final ValidityKey key;
+	private final Instant consensusGrace;
+	
+	public SessionIdentifier(@NotNull ValidityKey key, Instant consensusGrace) {
+		Objects.requireNonNull(key);
+		this.key = key;
+		if (consensusGrace != null) {
+			this.consensusGrace = consensusGrace.truncatedTo(ChronoUnit.SECONDS);
+		}
+		else {
+			this.consensusGrace = null;
+		}
+	}
+	
+	public ValidityKey getKey() {
+		return key;
+	}
+	
+	public Optional<Instant> getConsensusGrace() {
+		return Optional.ofNullable(consensusGrace);
+	}
+	
+	public void writeExternal(@NotNull DataOutput dout) throws IOException {
+		Objects.requireNonNull(dout);
+		CborOutput cout = new CborOutput(dout);
+		cout.writeStartArray(2);
+		key.writeExternal(dout);
+		if (consensusGrace != null) {
+			cout.writeLong(consensusGrace.getEpochSecond());
+		} else {
+			cout.writeNull();
+		}		
+	}
+	
+	public SessionIdentifier(@NotNull DataInput din) throws IOException {
+		Objects.requireNonNull(din);
+		CborDataInput cin = new CborDataInput(din);
+		if (cin.readStartArray() != 2) {
+			throw new IOException("Unexpected 2-element array");
+		}
+		this.key = new ValidityKey(din);
+		Instant consensusGrace = null;
+		if (cin.peek().isNull()) {
+			cin.readNull();
+		} else {
+			consensusGrace = Instant.ofEpochSecond(cin.readLong());
+		}
+		this.consensusGrace = consensusGrace;
+	}
+	
+	/**
+	 * Whether the string could be a session identifier, being of base64url characters and no longer
+	 * than {@value #MAX_IDENTIFIER_LENGTH}. Checked before decoding so that arbitrary input is turned
+	 * away without an exception being thrown.
+	 */
+	public static boolean hasValidSyntax(String identifier) {
+		int length = identifier.length();
+		if (length == 0 || length > MAX_IDENTIFIER_LENGTH) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			char c = identifier.charAt(i);
+			if (!((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') ||
+					c == '-' || c == '_' || c == '=')) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public static SessionIdentifier fromStringIdentifier(String identifier) throws IllegalArgumentException {
+		return fromBytes(Base64.getUrlDecoder().decode(identifier));
+	}
+
+	/** Decode a session identifier from the CBOR encoding underlying its string form */
+	public static SessionIdentifier fromBytes(byte[] cborEncoded) throws IllegalArgumentException {
+		SessionIdentifier decoded = decodeFixedLayout(cborEncoded);
+		if (decoded != null) {
+			return decoded;
+		}
+		try(DataInputStream in = new DataInputStream(new ByteArrayInputStream(cborEncoded))) {
+			return new SessionIdentifier(in);
+		} catch (IOException | CborException e) {
+			throw new IllegalArgumentException("Session Identifier Format not legal", e);
+		}
+ 	}
+	
+	/**
+	 * Decode the layout written by {@link #writeExternal(DataOutput)} directly from the bytes, being
+	 * {@code [[hardExpiryAt, issuerIndex, interactivityTimeout / null, nonce], consensusGrace / null]}
+	 * with definite-length arrays and integers of up to eight bytes.
+	 * 
+	 * @return the session identifier, or null if the data is not exactly in that layout and must be
+	 * decoded by the general CBOR path
+	 */
+	static SessionIdentifier decodeFixedLayout(byte[] data) {
+		FixedLayoutReader reader = new FixedLayoutReader(data);
+		if (!reader.next(0x82) || !reader.next(0x84)) {
+			return null;
+		}
+		Long hardExpiryAt = reader.readLong();
+		Long issuerIndex = reader.readLong();
+		Long interactivityTimeout = null;
+		if (!reader.next(NULL) && (interactivityTimeout = reader.readLong()) == null) {
+			return null;
+		}
+		Long nonce = reader.readLong();
+		Long consensusGrace = null;
+		if (!reader.next(NULL) && (consensusGrace = reader.readLong()) == null) {
+			return null;
+		}
+		if (hardExpiryAt == null || issuerIndex == null || nonce == null) {
+			return null;
+		}
+		if (reader.position != data.length) {
+			return null;
+		}
+		try {
+			ValidityKey key = new ValidityKey(Instant.ofEpochSecond(hardExpiryAt),
+					issuerIndex,
+					Optional.ofNullable(interactivityTimeout).map(Duration::ofSeconds),
+					nonce);
+			return new SessionIdentifier(key, consensusGrace == null ? null : Instant.ofEpochSecond(consensusGrace));
+		}
+		catch (DateTimeException | ArithmeticException e) {
+			// out of range; leave the general path to report it
+			return null;
+		}
+	}
+
+	private static final int NULL = 0xf6;
+
+	private static final class FixedLayoutReader {
+		private final byte[] data;
+		private int position;
+
+		FixedLayoutReader(byte[] data) {
+			this.data = data;
+		}
+
+		/** consume the next byte if it is the one expected */
+		boolean next(int expected) {
+			if (position < data.length && (data[position] & 0xff) == expected) {
+				position++;
+				return true;
+			}
+			return false;
+		}
+
+		/** read an unsigned or negative integer, or return null if the next item is not one */
+		Long readLong() {
+			if (position >= data.length) {
+				return null;
+			}
+			int initial = data[position++] & 0xff;
+			int major = initial >>> 5;
+			int info = initial & 0x1f;
+			if (major > 1) {
+				return null;
+			}
+			long value;
+			if (info < 24) {
+				value = info;
+			}
+			else if (info <= 27) {
+				int length = 1 << (info - 24);
+				if (position + length > data.length) {
+					return null;
+				}
+				value = 0;
+				for (int i = 0; i < length; i++) {
+					value = (value << 8) | (data[position++] & 0xff);
+				}
+				if (value < 0) {
+					// beyond the range of a long
+					return null;
+				}
+			}
+			else {
+				return null;
+			}
+			return major == 0 ? value : -1 - value;
+		}
+	}
+
+	public String toStringIdentifier() {
+		try (ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DataOutputStream dout = new DataOutputStream(baos);) {
+			writeExternal(dout);
+			return Base64.getUrlEncoder().encodeToString(baos.toByteArray());
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Unexpected IO exception", e);
+		}
+	}
+
+	public boolean isInGrace(Instant now) {
+		return getConsensusGrace().map( (grace) -> grace.isAfter(now)).orElse(false);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * key.hashCode() + Objects.hashCode(consensusGrace);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof SessionIdentifier)) {
+			return false;
+		}
+		SessionIdentifier other = (SessionIdentifier) obj;
+		return key.equals(other.key) && Objects.equals(consensusGrace, other.consensusGrace);
+	}
+}
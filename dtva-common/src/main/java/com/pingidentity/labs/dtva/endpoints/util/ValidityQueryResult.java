@@ -0,0 +1,58 @@
+/* Copyright 2017 Ping Identity Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package com.pingidentity.labs.dtva.endpoints.util;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Per-identifier results of a validity query ({@code POST /validity/_query}), in the same order as the
+ * identifiers were supplied
+ */
+public class ValidityQueryResult {
+	/** state name for an identifier which is neither in consensus nor within its grace period */
+	public static final String UNKNOWN = "unknown";
+	/** state name for an identifier which could not be decoded */
+	public static final String MALFORMED = "malformed";
+
+	public static class Entry {
+		private final String stateName;
+		private final Instant scheduledTransitionAt;
+
+		public Entry(String stateName, Instant scheduledTransitionAt) {
+			this.stateName = stateName;
+			this.scheduledTransitionAt = scheduledTransitionAt;
+		}
+
+		public String getStateName() {
+			return stateName;
+		}
+
+		public Optional<Instant> getScheduledTransitionAt() {
+			return Optional.ofNullable(scheduledTransitionAt);
+		}
+	}
+
+	private final List<Entry> entries;
+
+	public ValidityQueryResult(List<Entry> entries) {
+		this.entries = Collections.unmodifiableList(entries);
+	}
+
+	public List<Entry> getEntries() {
+		return entries;
+	}
+}
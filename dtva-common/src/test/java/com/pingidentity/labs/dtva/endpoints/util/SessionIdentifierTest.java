@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
 import java.util.Optional;
 import java.util.Random;
 
@@ -62,4 +63,48 @@ public class SessionIdentifierTest {
 		
 	}
 
+	@Test
+	public void testFixedLayoutDecoding() throws IOException {
+		Random random = new Random();
+		Instant now = Instant.now();
+		for (int i = 0; i < 100; i++) {
+			Optional<Duration> interactivityTimeout = random.nextBoolean() ?
+					Optional.of(Duration.ofSeconds(random.nextInt(100_000))) : Optional.empty();
+			Instant consensusGrace = random.nextBoolean() ? now.plusSeconds(random.nextInt(600)) : null;
+			ValidityKey key = new ValidityKey(now.plusSeconds(random.nextInt(1_000_000)), random.nextInt(300),
+					interactivityTimeout, random.nextLong());
+			SessionIdentifier sid = new SessionIdentifier(key, consensusGrace);
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			DataOutputStream dos = new DataOutputStream(baos);
+			sid.writeExternal(dos);
+			dos.close();
+			byte sidData[] = baos.toByteArray();
+
+			SessionIdentifier generic = new SessionIdentifier(new DataInputStream(new ByteArrayInputStream(sidData)));
+			SessionIdentifier fixed = SessionIdentifier.decodeFixedLayout(sidData);
+			assertThat(fixed, is(notNullValue()));
+			assertThat(fixed.getKey(), is(equalTo(generic.getKey())));
+			assertThat(fixed.getKey().getInteractivityTimeout(), is(equalTo(generic.getKey().getInteractivityTimeout())));
+			assertThat(fixed.getConsensusGrace(), is(equalTo(generic.getConsensusGrace())));
+			assertThat(fixed, is(equalTo(sid)));
+
+			assertThat(SessionIdentifier.decodeFixedLayout(Arrays.copyOf(sidData, sidData.length - 1)), is(nullValue()));
+			assertThat(SessionIdentifier.decodeFixedLayout(Arrays.copyOf(sidData, sidData.length + 1)), is(nullValue()));
+		}
+	}
+
+	@Test
+	public void testSyntaxScreen() {
+		ValidityKey key = new ValidityKey(Instant.now().plus(8, ChronoUnit.HOURS), 3,
+				Optional.of(Duration.ofMinutes(15)), new Random().nextLong() & Long.MAX_VALUE);
+		String identifier = new SessionIdentifier(key, Instant.now()).toStringIdentifier();
+		assertThat(SessionIdentifier.hasValidSyntax(identifier), is(true));
+		assertThat(SessionIdentifier.hasValidSyntax(""), is(false));
+		assertThat(SessionIdentifier.hasValidSyntax("abc+/def"), is(false));
+		assertThat(SessionIdentifier.hasValidSyntax("abc%20def"), is(false));
+		char[] tooLong = new char[SessionIdentifier.MAX_IDENTIFIER_LENGTH + 1];
+		Arrays.fill(tooLong, 'A');
+		assertThat(SessionIdentifier.hasValidSyntax(new String(tooLong)), is(false));
+	}
+
 }
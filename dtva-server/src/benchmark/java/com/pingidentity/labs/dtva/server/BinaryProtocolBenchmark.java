@@ -0,0 +1,124 @@
+/* Copyright 2017 Ping Identity Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package com.pingidentity.labs.dtva.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compares looking up a session through {@code GET /validity/{sid}} against the binary protocol, on a
+ * running node.
+ *
+ * HTTP requests are made by as many threads as the concurrency, each over its own persistent
+ * connection. Binary protocol requests are pipelined over a single connection, keeping as many
+ * outstanding as the concurrency.
+ *
+ * Usage: {@code BinaryProtocolBenchmark <web API URL> <binary protocol address> <sid> [requests] [concurrency]}
+ */
+public class BinaryProtocolBenchmark {
+	private static final byte[] DISCARD = new byte[4096];
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3) {
+			System.err.println("Usage: BinaryProtocolBenchmark <web API URL> <binary protocol address> <sid> [requests] [concurrency]");
+			System.exit(1);
+		}
+		URL url = new URL(args[0].replaceAll("/$", "") + "/validity/" + args[2]);
+		String sid = args[2];
+		int requests = args.length > 3 ? Integer.parseInt(args[3]) : 100_000;
+		int concurrency = args.length > 4 ? Integer.parseInt(args[4]) : 16;
+
+		try (BinaryProtocolClient client = new BinaryProtocolClient(SocketAddressAdapter.unmarshalSocket(args[1]))) {
+			System.out.println("binary protocol answers " + client.validate(sid).get());
+			// warm up both paths before measuring
+			runHttp(url, requests / 10, concurrency);
+			runBinary(client, sid, requests / 10, concurrency);
+			report("http", requests, runHttp(url, requests, concurrency));
+			report("binary", requests, runBinary(client, sid, requests, concurrency));
+		}
+	}
+
+	private static void report(String name, int requests, long elapsedNanos) {
+		System.out.printf("%-8s %,10d requests in %,8d ms, %,10.0f requests/s%n", name, requests,
+				elapsedNanos / 1_000_000, requests * 1e9 / elapsedNanos);
+	}
+
+	private static long runHttp(URL url, int requests, int concurrency) throws InterruptedException, ExecutionException {
+		ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+		try {
+			long startedAt = System.nanoTime();
+			List<Future<?>> workers = new ArrayList<>();
+			for (int i = 0; i < concurrency; i++) {
+				int share = requests / concurrency + (i < requests % concurrency ? 1 : 0);
+				workers.add(executor.submit(() -> {
+					for (int j = 0; j < share; j++) {
+						get(url);
+					}
+					return null;
+				}));
+			}
+			for (Future<?> worker : workers) {
+				worker.get();
+			}
+			return System.nanoTime() - startedAt;
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	// reads the body to the end so the connection is kept alive for the next request
+	private static void get(URL url) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setRequestProperty("Accept", "application/cbor");
+		if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+			throw new IOException("Unexpected status " + connection.getResponseCode());
+		}
+		try (InputStream in = connection.getInputStream()) {
+			while (in.read(DISCARD) >= 0) {
+				// discard
+			}
+		}
+	}
+
+	private static long runBinary(BinaryProtocolClient client, String sid, int requests, int concurrency)
+			throws InterruptedException, ExecutionException {
+		List<String> window = Collections.nCopies(concurrency, sid);
+		long startedAt = System.nanoTime();
+		// send the next window of requests as each one completes, keeping the pipeline full
+		List<CompletableFuture<BinaryProtocolClient.Result>> inFlight = new ArrayList<>(client.validateAll(window));
+		int sent = inFlight.size();
+		for (int completed = 0; completed < requests; completed++) {
+			BinaryProtocolClient.Result result = inFlight.get(completed % concurrency).get();
+			if (result.getStatus() != BinaryProtocolServer.OK) {
+				throw new IllegalStateException("Unexpected status " + result.getStatus());
+			}
+			if (sent < requests) {
+				inFlight.set(completed % concurrency, client.validate(sid));
+				sent++;
+			}
+		}
+		return System.nanoTime() - startedAt;
+	}
+}
@@ -0,0 +1,196 @@
+/* Copyright 2017 Ping Identity Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package com.pingidentity.labs.dtva.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.dwaite.bytestring.Bytes;
+import com.github.dwaite.cyborg.electrode.CborException;
+import com.github.dwaite.cyborg.electrode.impl.CborDataInput;
+import com.github.dwaite.cyborg.electrode.impl.CborOutput;
+
+/**
+ * A client for {@link BinaryProtocolServer}, over a single connection. Requests may be made from any
+ * thread and are pipelined, with each answer completing the future returned for its request.
+ */
+public class BinaryProtocolClient implements Closeable {
+	private final Socket socket;
+	private final DataOutputStream out;
+	private final DataInputStream in;
+	private final AtomicLong nextId = new AtomicLong();
+	private final Map<Long, CompletableFuture<Result>> outstanding = new ConcurrentHashMap<>();
+	private final ByteArrayOutputStream encoded = new ByteArrayOutputStream(128);
+	private final CborOutput output = new CborOutput(new DataOutputStream(encoded));
+	private volatile IOException failure;
+
+	public BinaryProtocolClient(InetSocketAddress address) throws IOException {
+		socket = new Socket(address.getAddress(), address.getPort());
+		socket.setTcpNoDelay(true);
+		out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		Thread reader = new Thread(this::readLoop, "dtva-binary-protocol-client");
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	/** Look up a session by the string form of its identifier */
+	public CompletableFuture<Result> validate(String sid) {
+		return validateAll(Collections.singletonList(sid)).get(0);
+	}
+
+	/**
+	 * Look up several sessions by the string form of their identifiers, sending all of the requests
+	 * together.
+	 */
+	public List<CompletableFuture<Result>> validateAll(List<String> sids) {
+		List<CompletableFuture<Result>> results = new ArrayList<>(sids.size());
+		synchronized (out) {
+			try {
+				for (String sid : sids) {
+					results.add(send(Base64.getUrlDecoder().decode(sid)));
+				}
+				out.flush();
+			}
+			catch (IOException e) {
+				fail(e);
+			}
+		}
+		return results;
+	}
+
+	private CompletableFuture<Result> send(byte[] sid) throws IOException {
+		long id = nextId.getAndIncrement();
+		CompletableFuture<Result> result = new CompletableFuture<>();
+		outstanding.put(id, result);
+		if (failure != null) {
+			outstanding.remove(id);
+			result.completeExceptionally(failure);
+			return result;
+		}
+		encoded.reset();
+		output.writeStartArray(2).writeLong(id).writeBytes(new Bytes(sid));
+		out.writeInt(encoded.size());
+		encoded.writeTo(out);
+		return result;
+	}
+
+	private void readLoop() {
+		try {
+			byte[] frame = new byte[256];
+			while (true) {
+				int length = in.readInt();
+				if (length > frame.length) {
+					frame = new byte[length];
+				}
+				in.readFully(frame, 0, length);
+				CborDataInput input = new CborDataInput(new DataInputStream(new ByteArrayInputStream(frame, 0, length)));
+				int count = input.readStartArray();
+				long id = input.readLong();
+				int status = input.readInteger();
+				Result result = count == 5 ?
+						new Result(status, input.readText(), Instant.ofEpochSecond(input.readLong()),
+								Duration.ofSeconds(input.readInteger())) :
+						new Result(status, null, null, null);
+				CompletableFuture<Result> future = outstanding.remove(id);
+				if (future != null) {
+					future.complete(result);
+				}
+			}
+		}
+		catch (EOFException e) {
+			fail(new IOException("Connection closed by server", e));
+		}
+		catch (IOException e) {
+			fail(e);
+		}
+		catch (CborException e) {
+			fail(new IOException("Malformed response", e));
+		}
+	}
+
+	private void fail(IOException e) {
+		failure = e;
+		for (Long id : outstanding.keySet()) {
+			CompletableFuture<Result> future = outstanding.remove(id);
+			if (future != null) {
+				future.completeExceptionally(e);
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		socket.close();
+	}
+
+	/** The answer to a single lookup */
+	public static final class Result {
+		private final int status;
+		private final String state;
+		private final Instant lastModifiedAt;
+		private final Duration maxAge;
+
+		Result(int status, String state, Instant lastModifiedAt, Duration maxAge) {
+			this.status = status;
+			this.state = state;
+			this.lastModifiedAt = lastModifiedAt;
+			this.maxAge = maxAge;
+		}
+
+		/** the status code the equivalent HTTP request would have been answered with */
+		public int getStatus() {
+			return status;
+		}
+
+		/** the state name of a session which was found */
+		public Optional<String> getState() {
+			return Optional.ofNullable(state);
+		}
+
+		public Optional<Instant> getLastModifiedAt() {
+			return Optional.ofNullable(lastModifiedAt);
+		}
+
+		/** how long the answer may be cached for */
+		public Optional<Duration> getMaxAge() {
+			return Optional.ofNullable(maxAge);
+		}
+
+		@Override
+		public String toString() {
+			return state == null ? Integer.toString(status) : status + " " + state;
+		}
+	}
+}
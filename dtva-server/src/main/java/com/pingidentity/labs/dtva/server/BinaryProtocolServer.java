@@ -0,0 +1,388 @@
+/* Copyright 2017 Ping Identity Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package com.pingidentity.labs.dtva.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.Optional;
+
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.validation.constraints.NotNull;
+import javax.ws.rs.core.Response;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.dwaite.cyborg.electrode.CborException;
+import com.github.dwaite.cyborg.electrode.impl.CborDataInput;
+import com.github.dwaite.cyborg.electrode.impl.CborOutput;
+import com.pingidentity.labs.dtva.application.DTVACoordinator;
+import com.pingidentity.labs.dtva.application.State;
+import com.pingidentity.labs.dtva.endpoints.SessionIdentifierCollectionEndpoint;
+import com.pingidentity.labs.dtva.endpoints.util.SessionIdentifier;
+import com.pingidentity.labs.dtva.endpoints.util.SessionIdentifierPrecheck;
+import com.pingidentity.labs.dtva.endpoints.util.SessionIdentifierView;
+
+/**
+ * Answers session validity lookups over a plain TCP connection, for relying parties close enough to a
+ * node that the cost of HTTP dominates the lookup itself.
+ *
+ * Each message is framed by a four byte big-endian length followed by that many bytes of CBOR. A
+ * request is {@code [id, sid]}, where the id is an unsigned integer chosen by the client and the sid
+ * is the byte string underlying the string form of a session identifier. The response carries the
+ * same id, along with a status code as the equivalent {@code GET /validity/{sid}} would have answered:
+ * <ul>
+ * <li>{@code [id, 200, state, lastModified, maxAge]} with the state name, the last modification in
+ * epoch seconds and the seconds the answer may be cached for</li>
+ * <li>{@code [id, 404]} for a session which is not known</li>
+ * <li>{@code [id, 410]} for a session identifier past its hard expiry</li>
+ * <li>{@code [id, 400]} for a malformed session identifier, or one from an unknown issuer</li>
+ * </ul>
+ * Clients may pipeline any number of requests without waiting for the responses, which are sent in
+ * request order. A frame which is too large or is not a request closes the connection.
+ *
+ * Connections are served by a single selector thread. Every request read from a connection in one go
+ * is evaluated against the same state snapshot, and reading from a connection is paused while too
+ * many of its responses wait to be written.
+ */
+public class BinaryProtocolServer implements Closeable {
+	private static final Logger log = LoggerFactory.getLogger(BinaryProtocolServer.class);
+
+	/** local configuration object for the binary protocol listener, disabled by default */
+	public static final String CONFIGURATION_KEY = "binary-protocol";
+	public static final int DEFAULT_MAX_FRAME_SIZE = 1024;
+	public static final int DEFAULT_MAX_PENDING_WRITES = 64 * 1024;
+
+	static final int OK = 200;
+	static final int BAD_REQUEST = 400;
+	static final int NOT_FOUND = 404;
+
+	private static final int FRAME_HEADER_SIZE = 4;
+	private static final int READ_BUFFER_SIZE = 16 * 1024;
+	private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+	private final @NotNull DTVACoordinator platform;
+	private final InetSocketAddress address;
+	private final int maxFrameSize;
+	private final int maxPendingWrites;
+	private final Duration maxCacheAge;
+	private final ByteBuffer readBuffer;
+	private final ByteArrayOutputStream encoded = new ByteArrayOutputStream(64);
+	private final CborOutput output = new CborOutput(new DataOutputStream(encoded));
+
+	private Selector selector;
+	private ServerSocketChannel serverChannel;
+	private volatile Thread selectorThread;
+
+	public BinaryProtocolServer(@NotNull DTVACoordinator platform, @NotNull InetSocketAddress address,
+			int maxFrameSize, int maxPendingWrites) {
+		this.platform = platform;
+		this.address = address;
+		this.maxFrameSize = maxFrameSize;
+		this.maxPendingWrites = maxPendingWrites;
+		// large enough to always hold a partial frame along with the rest of it
+		this.readBuffer = ByteBuffer.allocate(Math.max(READ_BUFFER_SIZE, FRAME_HEADER_SIZE + maxFrameSize));
+		JsonObject localConfiguration = platform.getLocalConfiguration();
+		JsonNumber maxCacheAge = localConfiguration == null ? null :
+			localConfiguration.getJsonNumber(SessionIdentifierCollectionEndpoint.MAX_CACHE_AGE_KEY);
+		this.maxCacheAge = Duration.ofSeconds(maxCacheAge == null ?
+				SessionIdentifierCollectionEndpoint.DEFAULT_MAX_CACHE_AGE : maxCacheAge.longValue());
+	}
+
+	/**
+	 * Create a server from the {@value #CONFIGURATION_KEY} object of the local configuration, with an
+	 * {@code address} to listen on and optionally a {@code max-frame-size} and
+	 * {@code max-pending-writes} in bytes.
+	 *
+	 * @return the server, or empty if the listener is not enabled
+	 */
+	public static Optional<BinaryProtocolServer> fromConfiguration(@NotNull DTVACoordinator platform) {
+		JsonObject localConfiguration = platform.getLocalConfiguration();
+		JsonObject config = localConfiguration == null ? null : localConfiguration.getJsonObject(CONFIGURATION_KEY);
+		if (config == null || !config.getBoolean("enabled", false)) {
+			return Optional.empty();
+		}
+		String address = config.getString("address", null);
+		if (address == null) {
+			throw new IllegalArgumentException("No 'address' specified in '" + CONFIGURATION_KEY + "'");
+		}
+		return Optional.of(new BinaryProtocolServer(platform,
+				SocketAddressAdapter.unmarshalSocket(address),
+				config.getInt("max-frame-size", DEFAULT_MAX_FRAME_SIZE),
+				config.getInt("max-pending-writes", DEFAULT_MAX_PENDING_WRITES)));
+	}
+
+	/** Bind the listening socket and start the selector thread */
+	public synchronized void start() throws IOException {
+		if (selectorThread != null) {
+			throw new IllegalStateException("binary protocol server already started");
+		}
+		selector = Selector.open();
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(address);
+		serverChannel.configureBlocking(false);
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		Thread thread = new Thread(this::selectLoop, "dtva-binary-protocol");
+		thread.setDaemon(true);
+		selectorThread = thread;
+		thread.start();
+		log.info("Binary protocol listening on {}", serverChannel.getLocalAddress());
+	}
+
+	/** The address being listened on, once started */
+	public InetSocketAddress getLocalAddress() throws IOException {
+		return (InetSocketAddress) serverChannel.getLocalAddress();
+	}
+
+	/** Stop the selector thread, closing the listening socket and all connections */
+	@Override
+	public synchronized void close() throws IOException {
+		Thread thread = selectorThread;
+		selectorThread = null;
+		if (thread != null) {
+			selector.wakeup();
+			try {
+				thread.join();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private void selectLoop() {
+		try {
+			while (selectorThread == Thread.currentThread()) {
+				selector.select();
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						accept();
+						continue;
+					}
+					Connection connection = (Connection) key.attachment();
+					try {
+						if (key.isWritable()) {
+							connection.flush();
+						}
+						// the ready set is stale once a flush has paused reading, so check the interest set too
+						if (key.isValid() && key.isReadable() && (key.interestOps() & SelectionKey.OP_READ) != 0) {
+							connection.read();
+						}
+					}
+					catch (IOException | RuntimeException e) {
+						log.debug("Closing binary protocol connection", e);
+						connection.close();
+					}
+				}
+			}
+		}
+		catch (IOException e) {
+			log.error("Binary protocol selector failed", e);
+		}
+		finally {
+			for (SelectionKey key : selector.keys()) {
+				try {
+					key.channel().close();
+				}
+				catch (IOException e) {
+					// closing anyway
+				}
+			}
+			try {
+				selector.close();
+			}
+			catch (IOException e) {
+				// closing anyway
+			}
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel;
+		while ((channel = serverChannel.accept()) != null) {
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+			key.attach(new Connection(channel, key));
+		}
+	}
+
+	/**
+	 * Evaluate a request against the state, appending the framed response to the buffer.
+	 *
+	 * @throws IOException if the frame is not a request
+	 */
+	private ByteBuffer respond(byte[] frame, int offset, int length, State state, Instant now,
+			ByteBuffer pending) throws IOException {
+		long id;
+		byte[] sidBytes;
+		try {
+			CborDataInput input = new CborDataInput(new DataInputStream(
+					new ByteArrayInputStream(frame, offset, length)));
+			if (input.readStartArray() != 2) {
+				throw new IOException("Expected two element request");
+			}
+			id = input.readLong();
+			sidBytes = input.readBinary().toByteArray();
+		}
+		catch (CborException e) {
+			throw new IOException("Malformed request", e);
+		}
+
+		encoded.reset();
+		Optional<SessionIdentifierView> view;
+		try {
+			SessionIdentifier sid = SessionIdentifier.fromBytes(sidBytes);
+			Optional<Response> problem = SessionIdentifierPrecheck.check(sid, state, now);
+			if (problem.isPresent()) {
+				output.writeStartArray(2).writeLong(id).writeInteger(problem.get().getStatus());
+				return append(pending);
+			}
+			view = SessionIdentifierView.inState(sid, state, now);
+			if (!view.isPresent() && sid.isInGrace(now)) {
+				output.writeStartArray(2).writeLong(id).writeInteger(BAD_REQUEST);
+				return append(pending);
+			}
+		}
+		catch (IllegalArgumentException e) {
+			output.writeStartArray(2).writeLong(id).writeInteger(BAD_REQUEST);
+			return append(pending);
+		}
+		if (!view.isPresent()) {
+			output.writeStartArray(2).writeLong(id).writeInteger(NOT_FOUND);
+			return append(pending);
+		}
+		SessionIdentifierView sessionView = view.get();
+		output.writeStartArray(5)
+			.writeLong(id)
+			.writeInteger(OK)
+			.writeText(sessionView.getView().getStateName())
+			.writeLong(sessionView.getLastModifiedAt().getEpochSecond())
+			.writeInteger(sessionView.getCacheControl(maxCacheAge).getMaxAge());
+		return append(pending);
+	}
+
+	// frames the encoded response onto the end of the buffer, growing it as needed
+	private ByteBuffer append(ByteBuffer pending) {
+		int size = encoded.size();
+		if (pending.remaining() < FRAME_HEADER_SIZE + size) {
+			ByteBuffer grown = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + FRAME_HEADER_SIZE + size));
+			pending.flip();
+			grown.put(pending);
+			pending = grown;
+		}
+		pending.putInt(size);
+		pending.put(encoded.toByteArray());
+		return pending;
+	}
+
+	private final class Connection {
+		private final SocketChannel channel;
+		private final SelectionKey key;
+		// holds a partial frame between reads
+		private ByteBuffer partial = EMPTY;
+		// responses waiting to be written, in write mode
+		private ByteBuffer pending = ByteBuffer.allocate(1024);
+
+		Connection(SocketChannel channel, SelectionKey key) {
+			this.channel = channel;
+			this.key = key;
+		}
+
+		void read() throws IOException {
+			readBuffer.clear();
+			readBuffer.put(partial);
+			int read = channel.read(readBuffer);
+			if (read < 0) {
+				close();
+				return;
+			}
+			readBuffer.flip();
+
+			State state = null;
+			Instant now = null;
+			byte[] frames = readBuffer.array();
+			while (readBuffer.remaining() >= FRAME_HEADER_SIZE) {
+				int position = readBuffer.position();
+				int length = readBuffer.getInt(position);
+				if (length < 0 || length > maxFrameSize) {
+					throw new IOException("Frame of " + length + " bytes exceeds " + maxFrameSize);
+				}
+				if (readBuffer.remaining() < FRAME_HEADER_SIZE + length) {
+					break;
+				}
+				if (state == null) {
+					now = Instant.now();
+					state = platform.getStateEvaluatedAtTime(now);
+				}
+				pending = respond(frames, position + FRAME_HEADER_SIZE, length, state, now, pending);
+				readBuffer.position(position + FRAME_HEADER_SIZE + length);
+			}
+			// the read buffer is shared by all connections, so a partial frame is kept aside until the next read
+			if (readBuffer.hasRemaining()) {
+				partial = ByteBuffer.allocate(readBuffer.remaining());
+				partial.put(readBuffer).flip();
+			}
+			else {
+				partial = EMPTY;
+			}
+			flush();
+		}
+
+		void flush() throws IOException {
+			pending.flip();
+			channel.write(pending);
+			pending.compact();
+			int ops = SelectionKey.OP_READ;
+			if (pending.position() > 0) {
+				ops |= SelectionKey.OP_WRITE;
+				if (pending.position() > maxPendingWrites) {
+					// the client is not keeping up with its responses, stop reading requests
+					ops = SelectionKey.OP_WRITE;
+				}
+			}
+			key.interestOps(ops);
+		}
+
+		void close() {
+			key.cancel();
+			try {
+				channel.close();
+			}
+			catch (IOException e) {
+				// closing anyway
+			}
+		}
+	}
+}
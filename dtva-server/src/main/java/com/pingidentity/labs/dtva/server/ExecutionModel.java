@@ -0,0 +1,124 @@
+/* Copyright 2017 Ping Identity Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package com.pingidentity.labs.dtva.server;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.json.JsonObject;
+
+import org.eclipse.jetty.util.BlockingArrayQueue;
+import org.eclipse.jetty.util.thread.ExecutorThreadPool;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+/**
+ * How the web API runs requests, as configured by the {@value #CONFIGURATION_KEY} object of the local
+ * configuration.
+ * 
+ * The {@code platform} model (the default) runs requests on a bounded pool of platform threads, sized
+ * by {@code min-threads}, {@code max-threads} and {@code queue-size}. Once the queue is full, further
+ * connections are turned away rather than queued without limit. The {@code virtual} model runs each
+ * request on its own virtual thread, so requests blocked on the coordinator do not hold a platform
+ * thread. This needs a JDK with virtual threads (21 or later). The build still targets Java 8 for the
+ * Rapport platform, so they are looked up reflectively and refused at startup on an older JDK.
+ * 
+ * In both models, {@code acceptors} and {@code selectors} set the connector's acceptor and selector
+ * threads, with -1 leaving the choice to Jetty.
+ */
+public class ExecutionModel {
+	public static final String CONFIGURATION_KEY = "web-threads";
+	public static final String PLATFORM = "platform";
+	public static final String VIRTUAL = "virtual";
+
+	public static final int DEFAULT_MIN_THREADS = 8;
+	public static final int DEFAULT_MAX_THREADS = 200;
+	public static final int DEFAULT_IDLE_TIMEOUT_MS = 60_000;
+
+	private final String model;
+	private final int minThreads;
+	private final int maxThreads;
+	private final int queueSize;
+	private final int idleTimeoutMs;
+	private final int acceptors;
+	private final int selectors;
+
+	public ExecutionModel(String model, int minThreads, int maxThreads, int queueSize, int idleTimeoutMs,
+			int acceptors, int selectors) {
+		if (!PLATFORM.equals(model) && !VIRTUAL.equals(model)) {
+			throw new IllegalArgumentException("Unknown web thread model '" + model + "'");
+		}
+		if (minThreads < 1 || maxThreads < minThreads) {
+			throw new IllegalArgumentException("Web threads need 0 < min-threads <= max-threads");
+		}
+		this.model = model;
+		this.minThreads = minThreads;
+		this.maxThreads = maxThreads;
+		this.queueSize = queueSize;
+		this.idleTimeoutMs = idleTimeoutMs;
+		this.acceptors = acceptors;
+		this.selectors = selectors;
+	}
+
+	public static ExecutionModel fromConfiguration(JsonObject localConfiguration) {
+		JsonObject configuration = localConfiguration == null ? null : localConfiguration.getJsonObject(CONFIGURATION_KEY);
+		if (configuration == null) {
+			return new ExecutionModel(PLATFORM, DEFAULT_MIN_THREADS, DEFAULT_MAX_THREADS, 0, DEFAULT_IDLE_TIMEOUT_MS, -1, -1);
+		}
+		return new ExecutionModel(
+				configuration.getString("model", PLATFORM),
+				configuration.getInt("min-threads", DEFAULT_MIN_THREADS),
+				configuration.getInt("max-threads", DEFAULT_MAX_THREADS),
+				configuration.getInt("queue-size", 0),
+				configuration.getInt("idle-timeout-ms", DEFAULT_IDLE_TIMEOUT_MS),
+				configuration.getInt("acceptors", -1),
+				configuration.getInt("selectors", -1));
+	}
+
+	public ThreadPool createThreadPool() {
+		if (VIRTUAL.equals(model)) {
+			return new ExecutorThreadPool(newVirtualThreadPerTaskExecutor());
+		}
+		// a queue size of zero or less leaves the queue unbounded, as Jetty does by default
+		BlockingQueue<Runnable> queue = queueSize > 0 ?
+				new BlockingArrayQueue<>(queueSize, 0, queueSize) :
+				new BlockingArrayQueue<>(minThreads, minThreads);
+		QueuedThreadPool threadPool = new QueuedThreadPool(maxThreads, minThreads, idleTimeoutMs, queue);
+		threadPool.setName("dtva-web");
+		return threadPool;
+	}
+
+	public int getAcceptors() {
+		return acceptors;
+	}
+
+	public int getSelectors() {
+		return selectors;
+	}
+
+	private static ExecutorService newVirtualThreadPerTaskExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		}
+		catch (NoSuchMethodException e) {
+			throw new IllegalStateException("The '" + VIRTUAL + "' web thread model needs a JDK with virtual threads, "
+					+ "running on " + System.getProperty("java.version"), e);
+		}
+		catch (IllegalAccessException | InvocationTargetException e) {
+			throw new IllegalStateException("Unable to create a virtual thread executor", e);
+		}
+	}
+}
@@ -0,0 +1,201 @@
+/* Copyright 2017 Ping Identity Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package com.pingidentity.labs.dtva.server;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.validation.constraints.NotNull;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+
+import com.pingidentity.labs.dtva.application.DTVACoordinator;
+import com.pingidentity.labs.dtva.application.State;
+import com.pingidentity.labs.dtva.application.ValidityKeyView;
+import com.pingidentity.labs.dtva.endpoints.SessionIdentifierCollectionEndpoint;
+import com.pingidentity.labs.dtva.endpoints.util.AdmissionControl;
+import com.pingidentity.labs.dtva.endpoints.util.AdmissionControl.RouteClass;
+import com.pingidentity.labs.dtva.endpoints.util.Constants;
+import com.pingidentity.labs.dtva.endpoints.util.SessionIdentifier;
+import com.pingidentity.labs.dtva.endpoints.util.SessionIdentifierCache;
+import com.pingidentity.labs.dtva.endpoints.util.SessionIdentifierPrecheck;
+import com.pingidentity.labs.dtva.endpoints.util.SessionIdentifierView;
+import com.pingidentity.labs.dtva.endpoints.util.SessionIdentifierViewWriter;
+import com.pingidentity.labs.dtva.endpoints.util.SessionIdentifierViewWriter.EncodedView;
+
+/**
+ * Answers the plain {@code GET /validity/{sid}} of a session in consensus directly from Jetty, ahead of
+ * the web application, sparing the busiest request of resource matching, parameter conversion and
+ * message body writer selection.
+ * 
+ * Responses are built from the same view, entity tag, cache control and encoded body as the JAX-RS
+ * resource uses, so they are identical to what it would have sent. Any request the handler cannot
+ * settle the same way - another route, a query string, content negotiation beyond a single type, a
+ * conditional request other than a single strong entity tag, a session identifier failing the
+ * pre-checks, or a session which is unknown or still in its consensus grace period - is left
+ * unhandled and so falls through to the web application.
+ * 
+ * When the web application is registered directly, the handler is given its cache of decoded session
+ * identifiers and its view writer, so both paths share one set of caches.
+ */
+public class SessionViewHandler extends AbstractHandler {
+	private static final String PATH_PREFIX = "/validity/";
+
+	private final @NotNull DTVACoordinator platform;
+	private final SessionIdentifierCache sids;
+	private final SessionIdentifierViewWriter writer;
+	private final Duration maxCacheAge;
+	private final AdmissionControl admissionControl;
+
+	public SessionViewHandler(@NotNull DTVACoordinator platform, @NotNull AdmissionControl admissionControl) {
+		this(platform, admissionControl, SessionIdentifierCache.fromConfiguration(platform.getLocalConfiguration()),
+				SessionIdentifierViewWriter.fromConfiguration(platform.getLocalConfiguration()));
+	}
+
+	/**
+	 * @param sids cache of decoded identifiers shared with the web application, or null to decode every time
+	 * @param writer view writer shared with the web application
+	 */
+	public SessionViewHandler(@NotNull DTVACoordinator platform, @NotNull AdmissionControl admissionControl,
+			SessionIdentifierCache sids, @NotNull SessionIdentifierViewWriter writer) {
+		this.platform = platform;
+		this.admissionControl = admissionControl;
+		this.sids = sids;
+		this.writer = writer;
+		JsonObject localConfiguration = platform.getLocalConfiguration();
+		JsonNumber maxCacheAge = localConfiguration == null ? null :
+			localConfiguration.getJsonNumber(SessionIdentifierCollectionEndpoint.MAX_CACHE_AGE_KEY);
+		this.maxCacheAge = Duration.ofSeconds(maxCacheAge == null ?
+				SessionIdentifierCollectionEndpoint.DEFAULT_MAX_CACHE_AGE : maxCacheAge.longValue());
+	}
+
+	@Override
+	public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
+			throws IOException, ServletException {
+		if (!HttpMethod.GET.is(request.getMethod()) || request.getQueryString() != null ||
+				!target.startsWith(PATH_PREFIX) || target.length() == PATH_PREFIX.length() ||
+				target.indexOf('/', PATH_PREFIX.length()) >= 0 || target.charAt(PATH_PREFIX.length()) == '_') {
+			return;
+		}
+		MediaType mediaType = negotiate(request.getHeader(HttpHeaders.ACCEPT));
+		if (mediaType == null || request.getHeader(HttpHeaders.IF_MODIFIED_SINCE) != null ||
+				request.getHeader("If-Match") != null || request.getHeader("If-Unmodified-Since") != null) {
+			return;
+		}
+		String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+		if (ifNoneMatch != null && !isSingleStrongTag(ifNoneMatch)) {
+			return;
+		}
+		String identifier = target.substring(PATH_PREFIX.length());
+		if (!SessionIdentifier.hasValidSyntax(identifier)) {
+			return;
+		}
+		SessionIdentifier sid;
+		try {
+			sid = sids == null ? SessionIdentifier.fromStringIdentifier(identifier) :
+				sids.get(identifier, SessionIdentifier::fromStringIdentifier);
+		}
+		catch (IllegalArgumentException e) {
+			return;
+		}
+		long startedAt = System.nanoTime();
+		Instant now = Instant.now();
+		State state = platform.getStateEvaluatedAtTime(now);
+		if (SessionIdentifierPrecheck.check(sid, state, now).isPresent()) {
+			return;
+		}
+		Optional<ValidityKeyView> view = state.viewValidityKey(sid.getKey());
+		if (!view.isPresent()) {
+			return;
+		}
+		SessionIdentifierView sessionView = new SessionIdentifierView(view.get(), sid);
+		if (!admissionControl.isEnabled()) {
+			respond(sessionView, mediaType, ifNoneMatch, baseRequest, response);
+			return;
+		}
+		// a slot is taken only once the handler is sure to answer, so requests falling through are
+		// admitted once, by the web application. Refused requests fall through for it to refuse in turn.
+		if (!admissionControl.tryAcquire(RouteClass.READ)) {
+			return;
+		}
+		try {
+			respond(sessionView, mediaType, ifNoneMatch, baseRequest, response);
+		}
+		finally {
+			admissionControl.release(RouteClass.READ, startedAt, response.getStatus());
+		}
+	}
+
+	private void respond(SessionIdentifierView sessionView, MediaType mediaType, String ifNoneMatch,
+			Request baseRequest, HttpServletResponse response) throws IOException {
+		EntityTag etag = sessionView.getEntityTag(mediaType);
+		CacheControl cacheControl = sessionView.getCacheControl(maxCacheAge);
+		// headers are set in the order the web application writes them
+		if (etag.toString().equals(ifNoneMatch)) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			response.setHeader(HttpHeaders.ETAG, etag.toString());
+			response.setHeader(HttpHeaders.LAST_MODIFIED,
+					SessionIdentifierViewWriter.toHTTPDate(sessionView.getLastModifiedAt()));
+			response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl.toString());
+			response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+		}
+		else {
+			EncodedView encoded = writer.getEncoded(sessionView, mediaType);
+			response.setStatus(HttpServletResponse.SC_OK);
+			response.setContentType(mediaType.toString());
+			response.setHeader(HttpHeaders.ETAG, etag.toString());
+			response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl.toString());
+			response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+			response.setHeader(HttpHeaders.LAST_MODIFIED, encoded.getLastModified());
+			response.setHeader(HttpHeaders.EXPIRES, encoded.getExpires());
+			response.setContentLength(encoded.getBody().length);
+			response.getOutputStream().write(encoded.getBody());
+		}
+		baseRequest.setHandled(true);
+	}
+
+	// the variant JAX-RS would select for the simple Accept headers sent by relying parties, otherwise null
+	private static MediaType negotiate(String accept) {
+		if (accept == null) {
+			return MediaType.APPLICATION_JSON_TYPE;
+		}
+		switch (accept.trim()) {
+		case MediaType.WILDCARD:
+		case MediaType.APPLICATION_JSON:
+			return MediaType.APPLICATION_JSON_TYPE;
+		case Constants.APPLICATION_CBOR:
+			return Constants.APPLICATION_CBOR_TYPE;
+		default:
+			return null;
+		}
+	}
+
+	private static boolean isSingleStrongTag(String ifNoneMatch) {
+		return ifNoneMatch.length() >= 2 && ifNoneMatch.charAt(0) == '"' &&
+				ifNoneMatch.indexOf('"', 1) == ifNoneMatch.length() - 1;
+	}
+}
@@ -14,10 +14,14 @@ limitations under the License. */
 package com.pingidentity.labs.dtva.server;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.Optional;
 
+import javax.json.JsonNumber;
 import javax.json.JsonObject;
 
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
 import org.eclipse.jetty.server.Handler;
 import org.eclipse.jetty.server.HttpConfiguration;
 import org.eclipse.jetty.server.HttpConnectionFactory;
@@ -25,10 +29,19 @@ import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.server.handler.ContextHandlerCollection;
 import org.eclipse.jetty.server.handler.HandlerCollection;
+import org.eclipse.jetty.server.handler.HandlerList;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
 import org.eclipse.jetty.webapp.WebAppContext;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.glassfish.jersey.servlet.ServletContainer;
 
 import com.pingidentity.labs.dtva.application.DTVACoordinator;
 import com.pingidentity.labs.dtva.application.impl.StateImpl;
+import com.pingidentity.labs.dtva.endpoints.App;
+import com.pingidentity.labs.dtva.endpoints.util.AdmissionControl;
+import com.pingidentity.labs.dtva.endpoints.util.SessionIdentifierCache;
+import com.pingidentity.labs.dtva.endpoints.util.SessionIdentifierViewWriter;
 import com.pingidentity.labs.dtva.application.transactions.DTVATransaction;
 import com.pingidentity.labs.rapport.Coordinator;
 
@@ -36,21 +49,97 @@ import com.pingidentity.labs.rapport.Coordinator;
  * Rapport application (building on the DTVA app) to use a HTTP API-based coordinator
  */
 public class WebAPIApplication extends com.pingidentity.labs.dtva.application.DTVABaseApplication {
+	/** local configuration object for HTTP/2 support */
+	public static final String HTTP2_KEY = "http2";
+	public static final int DEFAULT_MAX_CONCURRENT_STREAMS = 256;
+	/** local configuration value, false to send every request through the web application */
+	public static final String SESSION_VIEW_FAST_PATH_KEY = "session-view-fast-path";
+	/** local configuration value, false to deploy dtva-api.war instead of registering the API directly */
+	public static final String EMBEDDED_API_KEY = "embedded-api";
 
 	@Override
 	public void createInteractor(Coordinator<StateImpl, DTVATransaction> coordinator) {
 		DTVACoordinator dtvaCoordinator = super.wrapCoordinator(coordinator);
 		InetSocketAddress webAPI = getLocalWebAPI(dtvaCoordinator);
 		
-		Server server = new Server(webAPI.getPort());
+		ExecutionModel executionModel = ExecutionModel.fromConfiguration(dtvaCoordinator.getLocalConfiguration());
+		Server server = new Server(executionModel.createThreadPool());
 
 	    HttpConfiguration httpConfig = new HttpConfiguration();
 	    // set forwarding support on
 	    httpConfig.addCustomizer( new org.eclipse.jetty.server.ForwardedRequestCustomizer() );
 	    HttpConnectionFactory connectionFactory = new HttpConnectionFactory( httpConfig );
-	    ServerConnector connector = new ServerConnector(server, connectionFactory);
+	    Optional<HTTP2CServerConnectionFactory> h2c = getHttp2ConnectionFactory(dtvaCoordinator, httpConfig);
+	    ServerConnector connector = h2c.isPresent() ?
+	    		new ServerConnector(server, executionModel.getAcceptors(), executionModel.getSelectors(), connectionFactory, h2c.get()) :
+	    		new ServerConnector(server, executionModel.getAcceptors(), executionModel.getSelectors(), connectionFactory);
 	    connector.setPort( webAPI.getPort() );
 	    server.setConnectors( new ServerConnector[] { connector } );
+		server.setHandler(createHandler(server, dtvaCoordinator));
+		Optional<BinaryProtocolServer> binaryProtocol = BinaryProtocolServer.fromConfiguration(dtvaCoordinator);
+		try {
+			if (binaryProtocol.isPresent()) {
+				binaryProtocol.get().start();
+			}
+			server.start();
+			server.join();
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			if (binaryProtocol.isPresent()) {
+				try {
+					binaryProtocol.get().close();
+				}
+				catch (IOException e) {
+					// shutting down anyway
+				}
+			}
+		}
+	}
+	/**
+	 * The web API, with {@link SessionViewHandler} ahead of it unless disabled. An embedded application
+	 * shares admission control, the session identifier cache and the view writer with the handler; a
+	 * deployed WAR has its own copies in its own class loader.
+	 */
+	protected Handler createHandler(Server server, DTVACoordinator coordinator) {
+		JsonObject localConfig = coordinator.getLocalConfiguration();
+		AdmissionControl admissionControl = AdmissionControl.fromConfiguration(localConfig);
+		SessionIdentifierCache sids = SessionIdentifierCache.fromConfiguration(localConfig);
+		SessionIdentifierViewWriter viewWriter = SessionIdentifierViewWriter.fromConfiguration(localConfig);
+		Handler api = isEmbeddedAPIEnabled(coordinator) ?
+				createEmbeddedAPIContext(new App(coordinator, admissionControl, sids, viewWriter)) :
+				createWebAppContext(server, coordinator);
+		if (!isSessionViewFastPathEnabled(coordinator)) {
+			return api;
+		}
+		HandlerList handlerList = new HandlerList();
+		handlerList.setHandlers(new Handler[] {
+				new SessionViewHandler(coordinator, admissionControl, sids, viewWriter), api });
+		return handlerList;
+	}
+
+	/**
+	 * Register the resources and providers of {@link App} with a Jersey servlet on a plain servlet
+	 * context, handing the coordinator to the application directly. This avoids unpacking the WAR,
+	 * processing web.xml and scanning its classpath on startup, and lets the application share admission
+	 * control and caches with {@link SessionViewHandler}.
+	 */
+	protected Handler createEmbeddedAPIContext(App app) {
+		ResourceConfig config = ResourceConfig.forApplication(app);
+		ServletHolder holder = new ServletHolder("jersey", new ServletContainer(config));
+		holder.setInitOrder(1);
+		holder.setAsyncSupported(true);
+		ServletContextHandler ctx = new ServletContextHandler(ServletContextHandler.NO_SESSIONS);
+		ctx.setContextPath("/");
+		ctx.addServlet(holder, "/*");
+		return ctx;
+	}
+
+	/**
+	 * Deploy dtva-api.war from ./lib or ./build, with the coordinator passed through a servlet
+	 * context attribute.
+	 */
+	protected Handler createWebAppContext(Server server, DTVACoordinator coordinator) {
 	    HandlerCollection handlers = server.getChildHandlerByClass(HandlerCollection.class);
         if (handlers == null) 
         {
@@ -71,15 +160,50 @@ public class WebAPIApplication extends com.pingidentity.labs.dtva.application.DT
 			warFile = new File("./build/dtva-api.war");
 		}
 		WebAppContext ctx = new WebAppContext(contexts, warFile.getAbsolutePath(), "/");
-		ctx.setAttribute("com.pingidentity.labs.dtva.state.PlatformInstance", dtvaCoordinator);
-		server.setHandler(ctx);
-		try {
-			server.start();
-			server.join();
-		} catch (Exception e) {
-			throw new RuntimeException(e);
-		}		
+		ctx.setAttribute(App.PLATFORM_INSTANCE_ATTRIBUTE, coordinator);
+		return ctx;
+	}
+
+	/**
+	 * Whether the web API is registered with an embedded servlet context rather than deployed from
+	 * dtva-api.war, which is the default.
+	 */
+	protected boolean isEmbeddedAPIEnabled(DTVACoordinator coordinator) {
+		JsonObject localConfig = (JsonObject) coordinator.getLocalConfiguration();
+		return localConfig == null || localConfig.getBoolean(EMBEDDED_API_KEY, true);
 	}
+
+	/**
+	 * Whether plain session view requests are answered by {@link SessionViewHandler} ahead of the web
+	 * application, which is the default.
+	 */
+	protected boolean isSessionViewFastPathEnabled(DTVACoordinator coordinator) {
+		JsonObject localConfig = (JsonObject) coordinator.getLocalConfiguration();
+		return localConfig == null || localConfig.getBoolean(SESSION_VIEW_FAST_PATH_KEY, true);
+	}
+
+	/**
+	 * When enabled through the {@value #HTTP2_KEY} object of the local configuration, serve cleartext
+	 * HTTP/2 (h2c) alongside HTTP/1.1 on the same port. Clients should upgrade from HTTP/1.1 and then
+	 * multiplex many requests over one connection; starting with HTTP/2 directly ("prior knowledge")
+	 * is not supported, as some clients reject it against the bundled Jetty after the first stream.
+	 */
+	protected Optional<HTTP2CServerConnectionFactory> getHttp2ConnectionFactory(DTVACoordinator coordinator,
+			HttpConfiguration httpConfig) {
+		JsonObject localConfig = (JsonObject) coordinator.getLocalConfiguration();
+		JsonObject http2 = localConfig == null ? null : localConfig.getJsonObject(HTTP2_KEY);
+		if (http2 == null || !http2.getBoolean("enabled", false)) {
+			return Optional.empty();
+		}
+		HTTP2CServerConnectionFactory h2c = new HTTP2CServerConnectionFactory(httpConfig);
+		h2c.setMaxConcurrentStreams(http2.getInt("max-concurrent-streams", DEFAULT_MAX_CONCURRENT_STREAMS));
+		JsonNumber streamWindow = http2.getJsonNumber("initial-stream-window");
+		if (streamWindow != null) {
+			h2c.setInitialStreamRecvWindow(streamWindow.intValue());
+		}
+		return Optional.of(h2c);
+	}
+
 	protected InetSocketAddress getLocalWebAPI(DTVACoordinator coordinator) {
 		JsonObject localConfig = (JsonObject) coordinator.getLocalConfiguration();
 		if (localConfig != null) {
@@ -0,0 +1,182 @@
+/* Copyright 2017 Ping Identity Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package com.pingidentity.labs.dtva.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Optional;
+
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.assertThat;
+import com.github.dwaite.bytestring.Bytes;
+import com.github.dwaite.cyborg.electrode.impl.CborDataInput;
+import com.github.dwaite.cyborg.electrode.impl.CborOutput;
+import com.pingidentity.labs.dtva.application.ValidityKey;
+import com.pingidentity.labs.dtva.endpoints.TestCoordinator;
+import com.pingidentity.labs.dtva.endpoints.util.SessionIdentifier;
+import static org.hamcrest.CoreMatchers.*;
+
+public class BinaryProtocolServerTest {
+	private static final int MAX_FRAME_SIZE = 256;
+
+	private final TestCoordinator coordinator = new TestCoordinator();
+	private BinaryProtocolServer server;
+
+	private InetSocketAddress start(int maxPendingWrites) throws IOException {
+		server = new BinaryProtocolServer(coordinator, new InetSocketAddress("127.0.0.1", 0), MAX_FRAME_SIZE,
+				maxPendingWrites);
+		server.start();
+		return server.getLocalAddress();
+	}
+
+	@After
+	public void stop() throws IOException {
+		if (server != null) {
+			server.close();
+		}
+	}
+
+	private byte[] sid(boolean registered) {
+		Instant hardExpiryAt = Instant.now().plus(Duration.ofHours(1));
+		ValidityKey key = registered ?
+				coordinator.sendValidityKeyRegistration(hardExpiryAt, coordinator.getIssuer(), Optional.empty()) :
+				coordinator.createValidityKey(hardExpiryAt, coordinator.getIssuer(), Optional.empty());
+		coordinator.apply();
+		String identifier = new SessionIdentifier(key, Instant.now().minusSeconds(60)).toStringIdentifier();
+		return Base64.getUrlDecoder().decode(identifier);
+	}
+
+	private static byte[] frame(long id, byte[] sid) throws IOException {
+		ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+		new CborOutput(new DataOutputStream(encoded)).writeStartArray(2).writeLong(id).writeBytes(new Bytes(sid));
+		ByteArrayOutputStream framed = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(framed);
+		out.writeInt(encoded.size());
+		encoded.writeTo(out);
+		return framed.toByteArray();
+	}
+
+	/** the id and status of the next response */
+	private static long[] readResponse(DataInputStream in) throws Exception {
+		byte[] frame = new byte[in.readInt()];
+		in.readFully(frame);
+		CborDataInput input = new CborDataInput(new DataInputStream(new ByteArrayInputStream(frame)));
+		input.readStartArray();
+		return new long[] { input.readLong(), input.readInteger() };
+	}
+
+	@Test
+	public void testFrameSplitAcrossReads() throws Exception {
+		InetSocketAddress address = start(BinaryProtocolServer.DEFAULT_MAX_PENDING_WRITES);
+		byte[] request = frame(7, sid(true));
+		try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+			socket.setTcpNoDelay(true);
+			OutputStream out = socket.getOutputStream();
+			// the length header on its own, then the body a byte at a time
+			out.write(request, 0, 2);
+			out.flush();
+			Thread.sleep(50);
+			out.write(request, 2, 3);
+			out.flush();
+			for (int i = 5; i < request.length; i++) {
+				Thread.sleep(5);
+				out.write(request[i]);
+				out.flush();
+			}
+			long[] response = readResponse(new DataInputStream(socket.getInputStream()));
+			assertThat(response[0], is(7L));
+			assertThat(response[1], is((long) BinaryProtocolServer.OK));
+		}
+	}
+
+	@Test
+	public void testPipelinedResponsesKeepRequestOrder() throws Exception {
+		InetSocketAddress address = start(BinaryProtocolServer.DEFAULT_MAX_PENDING_WRITES);
+		byte[] known = sid(true);
+		byte[] unknown = sid(false);
+		ByteArrayOutputStream requests = new ByteArrayOutputStream();
+		for (int id = 0; id < 1000; id++) {
+			requests.write(frame(id, id % 3 == 0 ? unknown : known));
+		}
+		try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+			socket.getOutputStream().write(requests.toByteArray());
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			for (int id = 0; id < 1000; id++) {
+				long[] response = readResponse(in);
+				assertThat(response[0], is((long) id));
+				assertThat(response[1], is((long) (id % 3 == 0 ? BinaryProtocolServer.NOT_FOUND : BinaryProtocolServer.OK)));
+			}
+		}
+	}
+
+	@Test
+	public void testOversizedFrameClosesConnection() throws Exception {
+		InetSocketAddress address = start(BinaryProtocolServer.DEFAULT_MAX_PENDING_WRITES);
+		try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+			socket.setSoTimeout(5000);
+			DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			out.write(frame(1, sid(true)));
+			out.flush();
+			assertThat(readResponse(in)[0], is(1L));
+			out.writeInt(MAX_FRAME_SIZE + 1);
+			out.flush();
+			assertThat(in.read(), is(-1));
+		}
+	}
+
+	@Test
+	public void testReadingPausesWhileResponsesBackUp() throws Exception {
+		InetSocketAddress address = start(1024);
+		byte[] request = frame(0, sid(true));
+		ByteBuffer batch = ByteBuffer.allocate(request.length * 1024);
+		while (batch.hasRemaining()) {
+			batch.put(request);
+		}
+		long cap = 64L * 1024 * 1024;
+		long written = 0;
+		try (SocketChannel channel = SocketChannel.open(address)) {
+			channel.configureBlocking(false);
+			// write without ever reading, until the server stops taking requests
+			long stalledSince = System.nanoTime();
+			while (written < cap && System.nanoTime() - stalledSince < 500_000_000L) {
+				if (!batch.hasRemaining()) {
+					batch.rewind();
+				}
+				int count = channel.write(batch);
+				if (count > 0) {
+					written += count;
+					stalledSince = System.nanoTime();
+				}
+				else {
+					Thread.sleep(1);
+				}
+			}
+		}
+		// without backpressure the server would go on reading and queueing responses up to the cap
+		assertThat(written < cap, is(true));
+	}
+}
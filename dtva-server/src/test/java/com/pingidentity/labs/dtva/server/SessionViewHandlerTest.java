@@ -0,0 +1,143 @@
+/* Copyright 2017 Ping Identity Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package com.pingidentity.labs.dtva.server;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.json.Json;
+import javax.ws.rs.core.Response;
+
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.LocalConnector;
+import org.eclipse.jetty.server.Server;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertThat;
+import com.pingidentity.labs.dtva.endpoints.App;
+import com.pingidentity.labs.dtva.endpoints.RecordingAsyncResponse;
+import com.pingidentity.labs.dtva.endpoints.SessionIdentifierCollectionEndpoint;
+import com.pingidentity.labs.dtva.endpoints.TestCoordinator;
+import com.pingidentity.labs.dtva.endpoints.util.AdmissionControl;
+import com.pingidentity.labs.dtva.endpoints.util.ValidityKeyCreationRequest;
+import static org.hamcrest.CoreMatchers.*;
+
+public class SessionViewHandlerTest {
+	private final TestCoordinator coordinator = new TestCoordinator(Json.createObjectBuilder()
+			.add(WebAPIApplication.EMBEDDED_API_KEY, true)
+			.build());
+	private final WebAPIApplication application = new WebAPIApplication();
+	private final Server fastPathServer = new Server();
+	private final LocalConnector fastPath = new LocalConnector(fastPathServer);
+	private final Server webAppServer = new Server();
+	private final LocalConnector webApp = new LocalConnector(webAppServer);
+	private String sid;
+
+	@Before
+	public void start() throws Exception {
+		fastPathServer.addConnector(fastPath);
+		fastPathServer.setHandler(application.createHandler(fastPathServer, coordinator));
+		fastPathServer.start();
+		webAppServer.addConnector(webApp);
+		webAppServer.setHandler(application.createEmbeddedAPIContext(new App(coordinator)));
+		webAppServer.start();
+
+		RecordingAsyncResponse async = new RecordingAsyncResponse();
+		new SessionIdentifierCollectionEndpoint(coordinator).createSession(new ValidityKeyCreationRequest(
+				Instant.now().plus(Duration.ofHours(1)).truncatedTo(ChronoUnit.SECONDS), Optional.empty(),
+				TestCoordinator.ISSUER), null, async);
+		Response created = async.await(0, TimeUnit.SECONDS);
+		sid = created.getLocation().toString().substring("/validity/".length());
+		coordinator.apply();
+	}
+
+	@After
+	public void stop() throws Exception {
+		fastPathServer.stop();
+		webAppServer.stop();
+	}
+
+	/** status line, headers other than Date, and body of a raw response */
+	private static String[] parse(String response) {
+		int end = response.indexOf("\r\n\r\n");
+		String[] lines = response.substring(0, end).split("\r\n");
+		TreeMap<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+		for (int i = 1; i < lines.length; i++) {
+			int colon = lines[i].indexOf(':');
+			String name = lines[i].substring(0, colon);
+			if (!name.equalsIgnoreCase("Date")) {
+				headers.put(name, lines[i].substring(colon + 1).trim());
+			}
+		}
+		return new String[] { lines[0], headers.toString(), response.substring(end + 4) };
+	}
+
+	private void assertSameResponse(String request) throws Exception {
+		String[] expected = parse(webApp.getResponse(request));
+		String[] actual = parse(fastPath.getResponse(request));
+		assertThat(actual[0], is(expected[0]));
+		assertThat(actual[1], is(expected[1]));
+		assertThat(actual[2], is(expected[2]));
+	}
+
+	private String get(String accept, String ifNoneMatch) {
+		return "GET /validity/" + sid + " HTTP/1.1\r\nHost: localhost\r\n" +
+				(accept == null ? "" : "Accept: " + accept + "\r\n") +
+				(ifNoneMatch == null ? "" : "If-None-Match: " + ifNoneMatch + "\r\n") +
+				"Connection: close\r\n\r\n";
+	}
+
+	@Test
+	public void testFastPathAnswersWithoutTheWebApplication() throws Exception {
+		Server handlerOnly = new Server();
+		LocalConnector connector = new LocalConnector(handlerOnly);
+		handlerOnly.addConnector(connector);
+		handlerOnly.setHandler(new SessionViewHandler(coordinator, AdmissionControl.fromConfiguration(null)));
+		handlerOnly.start();
+		try {
+			assertThat(parse(connector.getResponse(get(null, null)))[0], is("HTTP/1.1 200 OK"));
+		}
+		finally {
+			handlerOnly.stop();
+		}
+	}
+
+	@Test
+	public void testJsonViewMatchesWebApplication() throws Exception {
+		assertSameResponse(get(null, null));
+		assertSameResponse(get("application/json", null));
+	}
+
+	@Test
+	public void testCborViewMatchesWebApplication() throws Exception {
+		assertSameResponse(get("application/cbor", null));
+	}
+
+	@Test
+	public void testNotModifiedMatchesWebApplication() throws Exception {
+		String etag = null;
+		for (String line : webApp.getResponse(get(null, null)).split("\r\n")) {
+			if (line.regionMatches(true, 0, "ETag:", 0, 5)) {
+				etag = line.substring(5).trim();
+			}
+		}
+		assertThat(etag, is(notNullValue()));
+		assertSameResponse(get(null, etag));
+	}
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2017 Ping Identity
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pingidentity.labs.dtva.application;
+
+import java.time.Duration;
+
+import javax.validation.constraints.NotNull;
+
+import com.pingidentity.labs.dtva.application.transactions.DTVATransaction.Type;
+
+/**
+ * Thrown when a transaction is refused because the local participant already has as many transactions
+ * of that type awaiting consensus as it is configured to allow.
+ * 
+ * No transaction has been queued when this is thrown, so the caller may safely retry after
+ * {@link #getRetryAfter()}.
+ */
+public class BacklogFullException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	private final @NotNull Type     type;
+	private final          int      limit;
+	private final @NotNull Duration retryAfter;
+
+	public BacklogFullException(@NotNull Type type, int limit, @NotNull Duration retryAfter) {
+		super();
+		this.type = type;
+		this.limit = limit;
+		this.retryAfter = retryAfter;
+	}
+
+	@Override
+	public String getMessage() {
+		return "Limit of " + limit + " in-flight " + type + " transactions reached, retry after " + retryAfter;
+	}
+
+	/** the type of transaction which was refused */
+	public Type getType() {
+		return type;
+	}
+
+	/** the configured limit on in-flight transactions of this type */
+	public int getLimit() {
+		return limit;
+	}
+
+	/** estimate of how long until enough in-flight transactions will have been applied to accept another */
+	public Duration getRetryAfter() {
+		return retryAfter;
+	}
+}
@@ -33,12 +33,16 @@ import com.pingidentity.labs.rapport.StateManager;
  * this application.
  */
 public class DTVABaseApplication implements Application<StateImpl, DTVATransaction> {
+	// shared so that coordinators can observe the transactions it applies
+	private final DTVAStateManager stateManager = new DTVAStateManager();
 
 	/** Create an implementation instance of the DSM platform, typically called within 
 	 * @link {@link #createInteractor(Platform)}
 	 */
 	protected DTVACoordinator wrapCoordinator(Coordinator<StateImpl, DTVATransaction> rapportPlatform) {
-		return new DTVACoordinatorImpl(rapportPlatform);
+		DTVACoordinatorImpl coordinator = new DTVACoordinatorImpl(rapportPlatform);
+		stateManager.addTransactionListener(coordinator);
+		return coordinator;
 	}
 	
 	@Override
@@ -47,6 +51,6 @@ public class DTVABaseApplication implements Application<StateImpl, DTVATransacti
 
 	@Override
 	public StateManager<StateImpl, DTVATransaction> createStateManager() {
-		return new DTVAStateManager();
+		return stateManager;
 	}
 }
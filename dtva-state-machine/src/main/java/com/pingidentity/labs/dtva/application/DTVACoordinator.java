@@ -17,11 +17,16 @@ package com.pingidentity.labs.dtva.application;
 
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
 import javax.json.JsonObject;
 
+import com.pingidentity.labs.dtva.application.transactions.DTVATransaction;
+
 /** 
  * A domain-specific platform for DSM.
  */
@@ -33,28 +38,64 @@ public interface DTVACoordinator {
 	 * @param issuerImpl object representing the issuer name. Must be a issuer name registered to the local issuer
 	 * @param interactivityTimeout the interactivity timeout for the validity key, or {@link Optional#empty()}
 	 * if the validity key is not tracking interactivity.
+	 * @throws BacklogFullException if too many registrations are already awaiting consensus
+	 * @throws IssuerRateLimitedException if the issuer is over its registration rate limit
 	 */
 	public ValidityKey sendValidityKeyRegistration(Instant hardExpiryAt, Issuer issuer, Optional<Duration> interactivityTimeout);
 
+	/**
+	 * Form a new validity key with a freshly generated nonce, without sending any transaction. This
+	 * allows a caller to build up registrations to send together via {@link #sendTransactions(List)}.
+	 */
+	public ValidityKey createValidityKey(Instant hardExpiryAt, Issuer issuer, Optional<Duration> interactivityTimeout);
+
 	/**
 	 * Send a transaction to register a new validity key, which has been completely formed by the caller.
+	 * 
+	 * @throws BacklogFullException if too many registrations are already awaiting consensus
+	 * @throws IssuerRateLimitedException if the issuer is over its registration rate limit
 	 */
 	public void sendValidityKeyRegistration(ValidityKey validityKey);
 	
 	/**
 	 * Send a transaction representing interactivity for the given validity key.
+	 * 
+	 * @throws BacklogFullException if too many interactivity updates are already awaiting consensus
+	 * @throws IssuerRateLimitedException if the issuer is over its interactivity rate limit
 	 */
 	public void sendValidityKeyInteractivity(ValidityKey key);
 	/**
 	 * Send a transaction representing invalidation of the given validity key. The local issuer must have
 	 * issued the original validity key.
+	 * 
+	 * @throws BacklogFullException if too many invalidations are already awaiting consensus
 	 */
 	public void sendValidityKeyInvalidation(ValidityKey key);
+	/**
+	 * Send a transaction invalidating every validity key of the issuer registered before the given
+	 * instant. The instant is interpreted in consensus time, and is limited to the time at which the
+	 * transaction reaches consensus.
+	 * 
+	 * @throws BacklogFullException if too many issuer invalidations are already awaiting consensus
+	 */
+	public void sendIssuerInvalidation(Issuer issuer, Instant invalidatedBefore);
 	/**
 	 * Register a new issuer name. The local participant must have issuer capability.
+	 * 
+	 * @throws BacklogFullException if too many issuer registrations are already awaiting consensus
 	 */
 	public void sendIssuerRegistration(String issuerName);
 	
+	/**
+	 * Send a batch of transactions together. Either every transaction is accepted for submission, or
+	 * none are.
+	 * 
+	 * @throws BacklogFullException if any transaction type in the batch would exceed its in-flight limit
+	 * @throws IssuerRateLimitedException if any transaction in the batch would take its issuer over a
+	 * rate limit
+	 */
+	public void sendTransactions(List<? extends DTVATransaction> transactions);
+	
 	/**
 	 * Evaluate a snapshot of the system state, evaluating the state of any validity keys against the
 	 * provided instant in time.
@@ -65,8 +106,37 @@ public interface DTVACoordinator {
 	 */
 	public <R> R withStateEvaluatedAtTime(Instant instant, Function<? super State, ? extends R> stateConsumer);
 
+	/**
+	 * Take a snapshot of the current system state, evaluating the state of any validity keys against
+	 * the provided instant in time. States are immutable once produced by consensus, so the snapshot
+	 * stays consistent however long it is held; it simply does not see later transactions.
+	 */
+	public State getStateEvaluatedAtTime(Instant instant);
+
 	public Participant getSelf();
 	
 	public JsonObject getLocalConfiguration();
+
+	/**
+	 * The current filter of individually invalidated validity keys, for relying parties to check
+	 * locally before calling the API.
+	 */
+	public RevocationFilter getRevocationFilter();
+
+	/**
+	 * Receive the view of any of the given validity keys each time consensus applies a transaction
+	 * affecting it, such as its registration or invalidation. Transitions which happen purely with the
+	 * passage of time, such as expiry, are not reported.
+	 * 
+	 * The listener is called on a dispatch thread and must be thread safe. It should close the watch
+	 * once no further views are wanted.
+	 */
+	public ValidityKeyWatch watchValidityKeys(Collection<ValidityKey> keys, Consumer<? super ValidityKeyView> listener);
+
+	/**
+	 * Operational metrics for the local participant, such as transactions awaiting consensus and time
+	 * spent queued for submission.
+	 */
+	public JsonObject getMetrics();
 	public Optional<Duration> getConsensusGraceSpan();
 }
\ No newline at end of file
@@ -15,6 +15,9 @@
  */
 package com.pingidentity.labs.dtva.application;
 
+import java.time.Instant;
+import java.util.Optional;
+
 /**
  * Represents a view of an issuer entry.
  */
@@ -22,4 +25,10 @@ public interface Issuer {
 	public String getIssuerName();
 	public Participant getIssuingParticipant();
 	public int getIndex();
+
+	/**
+	 * The revocation epoch of the issuer, if any. Every validity key of the issuer registered before
+	 * this instant in consensus time is considered invalidated.
+	 */
+	public Optional<Instant> getInvalidatedBefore();
 }
\ No newline at end of file
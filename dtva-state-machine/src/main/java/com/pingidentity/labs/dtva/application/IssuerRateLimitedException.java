@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2017 Ping Identity
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pingidentity.labs.dtva.application;
+
+import java.time.Duration;
+
+import javax.validation.constraints.NotNull;
+
+import com.pingidentity.labs.dtva.application.transactions.DTVATransaction.Type;
+
+/**
+ * Thrown when a transaction is refused because the issuer it acts for has used up its rate limit for
+ * that type of transaction.
+ * 
+ * No transaction has been queued when this is thrown, so the caller may safely retry after
+ * {@link #getRetryAfter()}.
+ */
+public class IssuerRateLimitedException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	private final          int      issuerIndex;
+	private final @NotNull Type     type;
+	private final @NotNull Duration retryAfter;
+
+	public IssuerRateLimitedException(int issuerIndex, @NotNull Type type, @NotNull Duration retryAfter) {
+		super();
+		this.issuerIndex = issuerIndex;
+		this.type = type;
+		this.retryAfter = retryAfter;
+	}
+
+	@Override
+	public String getMessage() {
+		return "Rate limit for " + type + " transactions of issuer " + issuerIndex + " reached, retry after " + retryAfter;
+	}
+
+	/** index of the issuer whose limit was reached */
+	public int getIssuerIndex() {
+		return issuerIndex;
+	}
+
+	/** the type of transaction which was refused */
+	public Type getType() {
+		return type;
+	}
+
+	/** how long until the issuer's limit will admit another transaction of this type */
+	public Duration getRetryAfter() {
+		return retryAfter;
+	}
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2017 Ping Identity
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pingidentity.labs.dtva.application;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * An immutable snapshot of a Bloom filter over individually invalidated validity keys, which relying
+ * parties can download to reject most revoked session identifiers without a network call. A miss is
+ * definite: the key has not been individually invalidated as of {@link #getVersion()}. A hit needs to
+ * be confirmed against the API.
+ * 
+ * Keys are identified by issuer index and nonce. The filter is {@link #getBitCount()} bits long, with
+ * bit {@code i} stored as bit {@code i % 64} of the big-endian 64-bit word {@code i / 64}. The
+ * {@link #getHashCount()} bit positions of a key are derived by double hashing: the murmur3 64-bit
+ * finalizer is applied to {@code issuerIndex * 0x9E3779B97F4A7C15 ^ nonce}, its low 32 bits give
+ * {@code h1} and its high 32 bits (with the lowest bit set) give {@code h2}, and position {@code j} is
+ * {@code (h1 + j * h2) mod bitCount}, all as signed 64-bit arithmetic with a non-negative modulus.
+ * 
+ * A filter belongs to a generation. Within a generation bits are only ever set, so a consumer holding
+ * an older version can catch up by setting the bits listed by {@link #getSetSince(long, long)}. When
+ * enough invalidated keys have expired the filter is rebuilt as a new generation.
+ */
+public final class RevocationFilter {
+	private final long generation;
+	private final long version;
+	private final int bitCount;
+	private final int hashCount;
+	private final long[] words;
+	// positions set on reaching each version, for every version after historySince
+	private final long historySince;
+	private final long[] historyVersions;
+	private final int[][] historyPositions;
+
+	public RevocationFilter(long generation, long version, int bitCount, int hashCount, long[] words,
+			long historySince, long[] historyVersions, int[][] historyPositions) {
+		if (bitCount <= 0 || bitCount > (long) words.length * Long.SIZE || hashCount <= 0) {
+			throw new IllegalArgumentException("Inconsistent filter dimensions");
+		}
+		this.generation = generation;
+		this.version = version;
+		this.bitCount = bitCount;
+		this.hashCount = hashCount;
+		this.words = words;
+		this.historySince = historySince;
+		this.historyVersions = historyVersions;
+		this.historyPositions = historyPositions;
+	}
+
+	/** Read a filter as downloaded from the API, without any history */
+	public static RevocationFilter fromByteArray(long generation, long version, int bitCount, int hashCount, byte[] bytes) {
+		if (bytes.length % Long.BYTES != 0) {
+			throw new IllegalArgumentException("Filter length is not a whole number of words");
+		}
+		long[] words = new long[bytes.length / Long.BYTES];
+		ByteBuffer.wrap(bytes).asLongBuffer().get(words);
+		return new RevocationFilter(generation, version, bitCount, hashCount, words, version, new long[0], new int[0][]);
+	}
+
+	/** Apply an incremental update, as downloaded from the API, to produce a later version */
+	public RevocationFilter withPositionsSet(long version, int[] positions) {
+		long[] updated = words.clone();
+		for (int position : positions) {
+			if (position < 0 || position >= bitCount) {
+				throw new IllegalArgumentException("Position outside of filter");
+			}
+			updated[position >>> 6] |= 1L << (position & 63);
+		}
+		return new RevocationFilter(generation, version, bitCount, hashCount, updated, version, new long[0], new int[0][]);
+	}
+
+	/** Bit positions for a key within a filter of the given dimensions */
+	public static long[] positions(int issuerIndex, long nonce, int bitCount, int hashCount) {
+		long hash = fmix64(issuerIndex * 0x9E3779B97F4A7C15L ^ nonce);
+		long h1 = (int) hash;
+		long h2 = (int) (hash >>> 32) | 1;
+		long[] positions = new long[hashCount];
+		for (int j = 0; j < hashCount; j++) {
+			positions[j] = Math.floorMod(h1 + j * h2, (long) bitCount);
+		}
+		return positions;
+	}
+
+	private static long fmix64(long k) {
+		k ^= k >>> 33;
+		k *= 0xff51afd7ed558ccdL;
+		k ^= k >>> 33;
+		k *= 0xc4ceb9fe1a85ec53L;
+		k ^= k >>> 33;
+		return k;
+	}
+
+	public boolean mightContain(ValidityKey key) {
+		return mightContain(key.getIssuerIndex(), key.getNonce());
+	}
+
+	public boolean mightContain(int issuerIndex, long nonce) {
+		for (long position : positions(issuerIndex, nonce, bitCount, hashCount)) {
+			if ((words[(int) (position >>> 6)] & (1L << (position & 63))) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Positions set after the given version, if that version belongs to the same generation and is
+	 * still within the retained history.
+	 */
+	public Optional<int[]> getSetSince(long generation, long version) {
+		if (generation != this.generation || version > this.version || version < historySince) {
+			return Optional.empty();
+		}
+		int from = Arrays.binarySearch(historyVersions, version);
+		from = from >= 0 ? from + 1 : -from - 1;
+		int length = 0;
+		for (int i = from; i < historyPositions.length; i++) {
+			length += historyPositions[i].length;
+		}
+		int[] positions = new int[length];
+		int offset = 0;
+		for (int i = from; i < historyPositions.length; i++) {
+			System.arraycopy(historyPositions[i], 0, positions, offset, historyPositions[i].length);
+			offset += historyPositions[i].length;
+		}
+		return Optional.of(positions);
+	}
+
+	public byte[] toByteArray() {
+		ByteBuffer buffer = ByteBuffer.allocate(words.length * Long.BYTES);
+		buffer.asLongBuffer().put(words);
+		return buffer.array();
+	}
+
+	public long getGeneration() {
+		return generation;
+	}
+
+	/** the change log sequence the filter reflects */
+	public long getVersion() {
+		return version;
+	}
+
+	public int getBitCount() {
+		return bitCount;
+	}
+
+	public int getHashCount() {
+		return hashCount;
+	}
+
+	/** an entity tag identifying the generation and version */
+	public String getTag() {
+		return generation + "." + version;
+	}
+}
@@ -15,7 +15,10 @@
  */
 package com.pingidentity.labs.dtva.application;
 
+import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Stream;
 
@@ -36,6 +39,32 @@ public interface State {
 	 */
 	Optional<ValidityKeyView> viewValidityKey(ValidityKey key);
 
+	/** For a collection of validity keys, evaluate each against the state of the system and the view's
+	 * supplied point in time. Keys which are not known to the system are absent from the result.
+	 */
+	Map<ValidityKey, ValidityKeyView> viewValidityKeys(Collection<ValidityKey> keys);
+
+	/**
+	 * Return the validity keys of one issuer, ordered by hard expiry. Listing may resume after a key
+	 * previously returned, and may be limited to a range of hard expiry times (inclusive of the start,
+	 * exclusive of the end).
+	 */
+	Stream<? extends ValidityKeyView> viewIssuerValidityKeys(int issuerIndex, Optional<ValidityKey> after,
+			Optional<Instant> hardExpiryFrom, Optional<Instant> hardExpiryBefore);
+
+	/**
+	 * The position of this snapshot in the change log: the sequence number of the last
+	 * {@link StateChange} it includes.
+	 */
+	long getChangeSequence();
+
+	/**
+	 * Changes recorded after the given sequence number, in order, up to {@link #getChangeSequence()}.
+	 * Returns {@link Optional#empty()} if the sequence number is no longer retained (or is ahead of
+	 * this snapshot), in which case a consumer needs to resynchronize.
+	 */
+	Optional<Stream<StateChange>> viewChangesSince(long sequence);
+
 	/** Get the system constitution */
 	Constitution getConstitution();
 	
@@ -43,4 +72,7 @@ public interface State {
 	List<Issuer> getIssuers();
 	
 	public Optional<Issuer> getIssuerByName(String issuerName);
+
+	/** Get an issuer by its index, as referenced by {@link ValidityKey#getIssuerIndex()} */
+	public Optional<Issuer> getIssuer(int index);
 }
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2017 Ping Identity
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pingidentity.labs.dtva.application;
+
+import java.time.Instant;
+import java.util.Optional;
+
+/**
+ * An entry of the change log kept by the state machine, describing a transition which relying
+ * parties caching validity would need to learn about. Entries are numbered by a sequence which
+ * increases by one for each change.
+ */
+public interface StateChange {
+	public enum Kind {
+		/** a single validity key was invalidated */
+		Invalidated,
+		/** a validity key reached its hard expiry and was removed from the system */
+		Expired,
+		/** every key of an issuer registered before {@link StateChange#getInvalidatedBefore()} was invalidated */
+		IssuerInvalidated
+	}
+
+	long getSequence();
+
+	Kind getKind();
+
+	/** the consensus time at which the change took effect */
+	Instant getAt();
+
+	/** index of the affected issuer */
+	int getIssuerIndex();
+
+	/** the affected validity key, for changes to a single key */
+	Optional<ValidityKey> getValidityKey();
+
+	/** for issuer invalidations, the cutoff before which registered keys are invalidated */
+	Optional<Instant> getInvalidatedBefore();
+}
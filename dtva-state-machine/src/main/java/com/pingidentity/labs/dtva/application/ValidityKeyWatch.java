@@ -0,0 +1,29 @@
+/*
+ * Copyright (c) 2017 Ping Identity
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pingidentity.labs.dtva.application;
+
+/**
+ * A registration for the views of a set of validity keys as consensus changes them.
+ * 
+ * @see DTVACoordinator#watchValidityKeys(java.util.Collection, java.util.function.Consumer)
+ */
+public interface ValidityKeyWatch extends AutoCloseable {
+	/**
+	 * Stop watching. Views already dispatched to the listener may still be delivered.
+	 */
+	@Override
+	void close();
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2017 Ping Identity
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pingidentity.labs.dtva.application.impl;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import javax.validation.constraints.NotNull;
+
+import com.pingidentity.labs.dtva.application.StateChange;
+import com.pingidentity.labs.dtva.application.ValidityKey;
+
+/**
+ * Persistent, append-only log of state changes. Each {@link StateImpl} holds its own log, which is
+ * never modified: appending or pruning returns a new log sharing structure with this one.
+ * 
+ * Entries are kept in fixed size chunks. Full chunks are immutable and shared by every later log.
+ * The partly filled chunk at the end is shared too, with each slot claimed by the first log to append
+ * into it; a log appending from an earlier point, such as when transactions are applied to an older
+ * state again, copies that chunk instead. Pruning drops whole chunks from the head, so up to one
+ * chunk of entries may be retained past the retention window.
+ */
+public final class ChangeLog {
+	static final int CHUNK_SIZE = 256;
+
+	private static final class Tail {
+		final Entry[] entries = new Entry[CHUNK_SIZE];
+		// slots claimed by some log; a log ending before this must copy before appending
+		final AtomicInteger claimed = new AtomicInteger();
+	}
+
+	// full chunks, oldest first, the first holding the entry after prunedThrough
+	private final List<Entry[]> chunks;
+	private final Tail tail;
+	private final int tailLength;
+	// highest sequence which has been pruned; cursors before this can no longer be resumed
+	private final long prunedThrough;
+	// sequence of the last entry in this log
+	private final long sequence;
+
+	public ChangeLog() {
+		this(0);
+	}
+
+	ChangeLog(long prunedThrough) {
+		this(Collections.emptyList(), new Tail(), 0, prunedThrough, prunedThrough);
+	}
+
+	private ChangeLog(List<Entry[]> chunks, Tail tail, int tailLength, long prunedThrough, long sequence) {
+		this.chunks = chunks;
+		this.tail = tail;
+		this.tailLength = tailLength;
+		this.prunedThrough = prunedThrough;
+		this.sequence = sequence;
+	}
+
+	static final class Entry implements StateChange {
+		private final long sequence;
+		private final Kind kind;
+		private final Instant at;
+		private final int issuerIndex;
+		private final ValidityKey key;
+		private final Instant invalidatedBefore;
+
+		Entry(long sequence, Kind kind, Instant at, int issuerIndex, ValidityKey key, Instant invalidatedBefore) {
+			this.sequence = sequence;
+			this.kind = kind;
+			this.at = at;
+			this.issuerIndex = issuerIndex;
+			this.key = key;
+			this.invalidatedBefore = invalidatedBefore;
+		}
+
+		@Override
+		public long getSequence() {
+			return sequence;
+		}
+
+		@Override
+		public Kind getKind() {
+			return kind;
+		}
+
+		@Override
+		public Instant getAt() {
+			return at;
+		}
+
+		@Override
+		public int getIssuerIndex() {
+			return issuerIndex;
+		}
+
+		@Override
+		public Optional<ValidityKey> getValidityKey() {
+			return Optional.ofNullable(key);
+		}
+
+		@Override
+		public Optional<Instant> getInvalidatedBefore() {
+			return Optional.ofNullable(invalidatedBefore);
+		}
+	}
+
+	ChangeLog withKeyChange(@NotNull StateChange.Kind kind, @NotNull Instant at, @NotNull ValidityKey key) {
+		return append(new Entry(sequence + 1, kind, at, key.getIssuerIndex(), key, null));
+	}
+
+	ChangeLog withIssuerInvalidation(@NotNull Instant at, int issuerIndex, @NotNull Instant invalidatedBefore) {
+		return append(new Entry(sequence + 1, StateChange.Kind.IssuerInvalidated, at, issuerIndex, null, invalidatedBefore));
+	}
+
+	/** Restore the next entry read back from serialized state */
+	ChangeLog restored(@NotNull StateChange.Kind kind, long sequence, @NotNull Instant at, int issuerIndex, ValidityKey key, Instant invalidatedBefore) {
+		if (sequence != this.sequence + 1) {
+			throw new IllegalArgumentException("change log entries must be restored in sequence");
+		}
+		return append(new Entry(sequence, kind, at, issuerIndex, key, invalidatedBefore));
+	}
+
+	private ChangeLog append(Entry entry) {
+		if (tailLength == CHUNK_SIZE) {
+			List<Entry[]> newChunks = new ArrayList<>(chunks.size() + 1);
+			newChunks.addAll(chunks);
+			newChunks.add(tail.entries);
+			Tail newTail = new Tail();
+			newTail.entries[0] = entry;
+			newTail.claimed.set(1);
+			return new ChangeLog(Collections.unmodifiableList(newChunks), newTail, 1, prunedThrough, entry.getSequence());
+		}
+		Tail target = tail;
+		if (!tail.claimed.compareAndSet(tailLength, tailLength + 1)) {
+			// a log derived from this one already appended here
+			target = new Tail();
+			System.arraycopy(tail.entries, 0, target.entries, 0, tailLength);
+			target.claimed.set(tailLength + 1);
+		}
+		target.entries[tailLength] = entry;
+		return new ChangeLog(chunks, target, tailLength + 1, prunedThrough, entry.getSequence());
+	}
+
+	/**
+	 * A log without the leading chunks whose entries all took effect before the cutoff, or this log
+	 * if there are none.
+	 */
+	ChangeLog prunedBefore(Instant cutoff) {
+		int dropped = 0;
+		while (dropped < chunks.size() && Stream.of(chunks.get(dropped)).allMatch((entry) -> entry.getAt().isBefore(cutoff))) {
+			dropped++;
+		}
+		if (dropped == 0) {
+			return this;
+		}
+		return new ChangeLog(Collections.unmodifiableList(new ArrayList<>(chunks.subList(dropped, chunks.size()))),
+				tail, tailLength, prunedThrough + (long) dropped * CHUNK_SIZE, sequence);
+	}
+
+	long getPrunedThrough() {
+		return prunedThrough;
+	}
+
+	/** sequence number of the last entry in this log */
+	long getSequence() {
+		return sequence;
+	}
+
+	private Entry get(long sequence) {
+		long offset = sequence - prunedThrough - 1;
+		int chunk = (int) (offset / CHUNK_SIZE);
+		Entry[] entries = chunk < chunks.size() ? chunks.get(chunk) : tail.entries;
+		return entries[(int) (offset % CHUNK_SIZE)];
+	}
+
+	/** every retained entry, oldest first */
+	Stream<Entry> entries() {
+		return Stream.concat(chunks.stream().flatMap(Stream::of),
+				IntStream.range(0, tailLength).mapToObj((i) -> tail.entries[i]));
+	}
+
+	/**
+	 * Changes after {@code since}, or {@link Optional#empty()} if {@code since} is outside of the
+	 * retained log and the caller must resynchronize. The changes are collected before returning.
+	 */
+	Optional<Stream<StateChange>> since(long since) {
+		if (since < prunedThrough || since > sequence) {
+			return Optional.empty();
+		}
+		List<StateChange> changes = new ArrayList<>((int) (sequence - since));
+		LongStream.rangeClosed(since + 1, sequence).forEach((s) -> changes.add(get(s)));
+		return Optional.of(changes.stream());
+	}
+}
@@ -40,9 +40,18 @@ public class ConstitutionImpl implements Constitution {
 	// it is valid and be accepted by the swirld
 	private final @NotNull Duration maxSessionDuration;
 
+	// limits on the transactions applied for each issuer, enforced by every participant
+	private final @NotNull IssuerRateLimits issuerRateLimits;
+
 	public ConstitutionImpl(@NotNull List<? extends ParticipantImpl> addressBook, @NotNull Duration maxSessionDuration) {
+		this(addressBook, maxSessionDuration, IssuerRateLimits.NONE);
+	}
+
+	public ConstitutionImpl(@NotNull List<? extends ParticipantImpl> addressBook, @NotNull Duration maxSessionDuration,
+			@NotNull IssuerRateLimits issuerRateLimits) {
 		this.participants = Collections.unmodifiableList(new ArrayList<>(addressBook));
 		this.maxSessionDuration = maxSessionDuration;
+		this.issuerRateLimits = issuerRateLimits;
 	}
 
 	/* (non-Javadoc)
@@ -56,19 +65,22 @@ public class ConstitutionImpl implements Constitution {
 	public static class Builder {
 		private List<ParticipantImpl> addresses;
 		private Duration maxSessionDuration;
+		private IssuerRateLimits issuerRateLimits;
 
 		public Builder() {
 			addresses = new ArrayList<>();
 			maxSessionDuration = Duration.ofDays(1);
+			issuerRateLimits = IssuerRateLimits.NONE;
 		}
 
 		public Builder(ConstitutionImpl constitutionImpl) {
 			addresses = new ArrayList<ParticipantImpl>(constitutionImpl.getParticipants());
 			maxSessionDuration = constitutionImpl.getMaxHardExpiryIn();
+			issuerRateLimits = constitutionImpl.getIssuerRateLimits();
 		}
 
 		public ConstitutionImpl build() {
-			return new ConstitutionImpl(addresses, maxSessionDuration);
+			return new ConstitutionImpl(addresses, maxSessionDuration, issuerRateLimits);
 		}
 
 		public List<? extends ParticipantImpl> getAddresses() {
@@ -103,6 +115,11 @@ public class ConstitutionImpl implements Constitution {
 			this.maxSessionDuration = maxSessionDuration;
 			return this;
 		}
+
+		public Builder issuerRateLimits(IssuerRateLimits issuerRateLimits) {
+			this.issuerRateLimits = issuerRateLimits;
+			return this;
+		}
 	}
 	
 	public static Constitution fromJSON(
@@ -118,6 +135,8 @@ public class ConstitutionImpl implements Constitution {
 				map(Duration::ofSeconds).
 				orElse(Duration.ofHours(24));
 		boolean tokenIssuer = constitution.getBoolean("tokenIssuer", false);
+		IssuerRateLimits issuerRateLimits = IssuerRateLimits.fromJSON(
+				constitution.getJsonObject("issuerRateLimits"), "issuerRateLimits");
 		List<? extends ParticipantImpl> constitutionAddresses = 
 				addresses.stream().map((a) -> new ParticipantImpl(
 						a.getNickname(),
@@ -128,10 +147,16 @@ public class ConstitutionImpl implements Constitution {
 		
 		return new ConstitutionImpl(
 				constitutionAddresses,
-				maxSessionDuration);
+				maxSessionDuration,
+				issuerRateLimits);
 		}
 
 	public Duration getMaxHardExpiryIn() {
 		return maxSessionDuration;
 	}
+
+	/** per-issuer rate limits, applied to transactions from every participant */
+	public IssuerRateLimits getIssuerRateLimits() {
+		return issuerRateLimits;
+	}
 }
\ No newline at end of file
@@ -20,10 +20,14 @@ import java.io.DataOutput;
 import java.io.IOException;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.IntStream;
 
 import com.pingidentity.labs.dtva.application.Participant;
+import com.pingidentity.labs.dtva.application.impl.IssuerRateLimits.Limit;
+import com.pingidentity.labs.dtva.application.transactions.DTVATransaction.Type;
 import com.pingidentity.labs.rapport.StateSerializer;
 
 import com.github.dwaite.bytestring.Bytes;
@@ -37,8 +41,9 @@ public class ConstitutionStateManager implements StateSerializer<ConstitutionImp
 	public ConstitutionImpl deserializeState(DataInput din) throws IOException {
 		try {
 			CborDataInput input = new CborDataInput(din);
-			if (input.readStartArray() != 2) {
-				throw new CborException("expected two element array at root of constitution");
+			int rootCount = input.readStartArray();
+			if (rootCount != 2 && rootCount != 3) {
+				throw new CborException("expected two or three element array at root of constitution");
 			}
 			
 			long maxSessionDuration = input.readLong();
@@ -71,8 +76,22 @@ public class ConstitutionStateManager implements StateSerializer<ConstitutionImp
 						throw new IllegalStateException(e);
 					}
 				});
+				IssuerRateLimits issuerRateLimits = IssuerRateLimits.NONE;
+				if (rootCount == 3) {
+					Map<Type, Limit> limits = new EnumMap<>(Type.class);
+					int limitCount = input.readStartArray();
+					for (int i = 0; i < limitCount; i++) {
+						if (input.readStartArray() != 3) {
+							throw new CborException("expected three element array for issuer rate limit");
+						}
+						Type type = Type.values()[input.readInteger()];
+						limits.put(type, new Limit(input.readLong(), input.readLong()));
+					}
+					issuerRateLimits = new IssuerRateLimits(limits);
+				}
 				return new ConstitutionImpl(addresses,
-						Duration.ofSeconds(maxSessionDuration));
+						Duration.ofSeconds(maxSessionDuration),
+						issuerRateLimits);
 			}
 			catch (IllegalStateException e) {
 				Throwable inner = e.getCause();
@@ -89,7 +108,9 @@ public class ConstitutionStateManager implements StateSerializer<ConstitutionImp
 	@Override
 	public void serializeState(ConstitutionImpl constitutionImpl, DataOutput dout) throws IOException {
 		CborOutput output = new CborOutput(dout);
-		output.writeStartArray(2)
+		IssuerRateLimits issuerRateLimits = constitutionImpl.getIssuerRateLimits();
+		// without rate limits, written as before they were introduced
+		output.writeStartArray(issuerRateLimits.isEmpty() ? 2 : 3)
 			.writeLong(constitutionImpl.getMaxHardExpiryIn().getSeconds())
 			.writeStartArray(constitutionImpl.getParticipants().size());
 		for (Participant participant : constitutionImpl.getParticipants()) {
@@ -103,5 +124,15 @@ public class ConstitutionStateManager implements StateSerializer<ConstitutionImp
 			output.writeBytes(participant.getIdentifier());
 			output.writeBoolean(participant.isTokenIssuer());
 		}
+		if (!issuerRateLimits.isEmpty()) {
+			// [[type, rate, burst]...]
+			output.writeStartArray(issuerRateLimits.getLimits().size());
+			for (Map.Entry<Type, Limit> entry : issuerRateLimits.getLimits().entrySet()) {
+				output.writeStartArray(3)
+					.writeInteger(entry.getKey().ordinal())
+					.writeLong(entry.getValue().getRate())
+					.writeLong(entry.getValue().getBurst());
+			}
+		}
 	}
 }
@@ -19,33 +19,132 @@ import java.security.SecureRandom;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.List;
+import java.util.Collection;
 import java.util.Optional;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
+import javax.json.Json;
 import javax.json.JsonNumber;
 import javax.json.JsonObject;
 
+import com.pingidentity.labs.dtva.application.BacklogFullException;
 import com.pingidentity.labs.dtva.application.DTVACoordinator;
 import com.pingidentity.labs.dtva.application.Issuer;
+import com.pingidentity.labs.dtva.application.IssuerRateLimitedException;
 import com.pingidentity.labs.dtva.application.Participant;
+import com.pingidentity.labs.dtva.application.RevocationFilter;
 import com.pingidentity.labs.dtva.application.State;
 import com.pingidentity.labs.dtva.application.ValidityKey;
+import com.pingidentity.labs.dtva.application.ValidityKeyView;
+import com.pingidentity.labs.dtva.application.ValidityKeyWatch;
 import com.pingidentity.labs.dtva.application.transactions.DTVATransaction;
+import com.pingidentity.labs.dtva.application.transactions.IssuerInvalidationTransaction;
 import com.pingidentity.labs.dtva.application.transactions.IssuerRegistrationTransaction;
 import com.pingidentity.labs.dtva.application.transactions.ValidityKeyInteractivityTransaction;
 import com.pingidentity.labs.dtva.application.transactions.ValidityKeyInvalidationTransaction;
 import com.pingidentity.labs.dtva.application.transactions.ValidityKeyRegistrationTransaction;
 import com.pingidentity.labs.rapport.Coordinator;
+import com.pingidentity.labs.rapport.TransactionMessage;
 
 import com.github.dwaite.bytestring.Bytes;
 
-public class DTVACoordinatorImpl implements DTVACoordinator {
+public class DTVACoordinatorImpl implements DTVACoordinator, TransactionListener {
 	private static SecureRandom random = new SecureRandom();
 	
 	private Coordinator<StateImpl, DTVATransaction> platform;
-
+	private final InFlightTransactions inFlight;
+	private final OutboundPipeline pipeline;
+	private final RevocationFilterTracker revocationFilter;
+	private final IssuerRateLimiter rateLimiter;
+	private final ValidityKeyWatchRegistry watches = new ValidityKeyWatchRegistry();
+
+	/**
+	 * Create a coordinator. To have in-flight transactions tracked as they are applied, the coordinator
+	 * must also be registered as a listener on the {@link DTVAStateManager}.
+	 */
 	public DTVACoordinatorImpl(Coordinator<StateImpl, DTVATransaction> platform) {
 		this.platform = platform;
+		JsonObject localConfiguration = getLocalConfiguration();
+		this.inFlight = InFlightTransactions.fromConfiguration(localConfiguration);
+		this.rateLimiter = IssuerRateLimiter.fromConfiguration(localConfiguration,
+				() -> ((ConstitutionImpl) platform.getState().getConstitution()).getIssuerRateLimits());
+		// a transaction the platform refuses was never sent, so neither its in-flight place nor its
+		// rate limit place is used
+		this.pipeline = new OutboundPipeline(
+				(tx) -> {
+					inFlight.sent(tx);
+					platform.queueTransaction(tx);
+				},
+				(tx) -> {
+					inFlight.release(tx);
+					rateLimiter.release(tx);
+				},
+				OutboundPipeline.policiesFromConfiguration(localConfiguration));
+		pipeline.start();
+		this.revocationFilter = RevocationFilterTracker.fromConfiguration(localConfiguration);
+	}
+
+	@Override
+	public void transactionsApplied(StateImpl newState, List<? extends TransactionMessage<DTVATransaction>> transactions) {
+		inFlight.transactionsApplied(newState, transactions);
+		revocationFilter.transactionsApplied(newState, transactions);
+		watches.transactionsApplied(newState, transactions);
+	}
+
+	public InFlightTransactions getInFlightTransactions() {
+		return inFlight;
+	}
+
+	public OutboundPipeline getOutboundPipeline() {
+		return pipeline;
+	}
+
+	private void submit(DTVATransaction tx) {
+		rateLimiter.acquire(tx);
+		try {
+			inFlight.acquire(tx);
+		}
+		catch (BacklogFullException e) {
+			rateLimiter.release(tx);
+			throw e;
+		}
+		if (!pipeline.submit(tx)) {
+			// coalesced with a transaction already waiting to be sent
+			inFlight.release(tx);
+			rateLimiter.release(tx);
+		}
+	}
+
+	@Override
+	public void sendTransactions(List<? extends DTVATransaction> transactions) {
+		int limited = 0;
+		int acquired = 0;
+		try {
+			for (DTVATransaction tx : transactions) {
+				rateLimiter.acquire(tx);
+				limited++;
+			}
+			for (DTVATransaction tx : transactions) {
+				inFlight.acquire(tx);
+				acquired++;
+			}
+		}
+		catch (BacklogFullException | IssuerRateLimitedException e) {
+			for (DTVATransaction tx : transactions.subList(0, limited)) {
+				rateLimiter.release(tx);
+			}
+			for (DTVATransaction tx : transactions.subList(0, acquired)) {
+				inFlight.release(tx);
+			}
+			throw e;
+		}
+		for (DTVATransaction tx : transactions) {
+			if (!pipeline.submit(tx)) {
+				inFlight.release(tx);
+				rateLimiter.release(tx);
+			}
+		}
 	}
 
 	@Override
@@ -55,7 +154,12 @@ public class DTVACoordinatorImpl implements DTVACoordinator {
 	}
 
 	@Override
-	public ValidityKey sendValidityKeyRegistration(Instant hardExpiryAt, Issuer issuer,
+	public State getStateEvaluatedAtTime(Instant instant) {
+		return platform.withState((state) -> new StateViewImpl(state, instant));
+	}
+
+	@Override
+	public ValidityKey createValidityKey(Instant hardExpiryAt, Issuer issuer,
 			Optional<Duration> interactivityTimeout) {
 		long issuerIndex = issuer.getIndex();
 
@@ -63,7 +167,13 @@ public class DTVACoordinatorImpl implements DTVACoordinator {
 		synchronized(this) {
 			nonce = random.nextLong() & Long.MAX_VALUE;
 		}
-		ValidityKey key = new ValidityKey(hardExpiryAt, issuerIndex, interactivityTimeout, nonce);
+		return new ValidityKey(hardExpiryAt, issuerIndex, interactivityTimeout, nonce);
+	}
+
+	@Override
+	public ValidityKey sendValidityKeyRegistration(Instant hardExpiryAt, Issuer issuer,
+			Optional<Duration> interactivityTimeout) {
+		ValidityKey key = createValidityKey(hardExpiryAt, issuer, interactivityTimeout);
 		sendValidityKeyRegistration(key);
 		return key;
 	}
@@ -71,25 +181,31 @@ public class DTVACoordinatorImpl implements DTVACoordinator {
 	@Override
 	public void sendValidityKeyRegistration(ValidityKey validityKey) {
 		ValidityKeyRegistrationTransaction tx = new ValidityKeyRegistrationTransaction(validityKey);
-		platform.queueTransaction(tx);
+		submit(tx);
 	}
 
 	@Override
 	public void sendValidityKeyInteractivity(ValidityKey key) {
 		ValidityKeyInteractivityTransaction tx = new ValidityKeyInteractivityTransaction(key);
-		platform.queueTransaction(tx);
+		submit(tx);
 	}
 
 	@Override
 	public void sendValidityKeyInvalidation(ValidityKey key) {
 		ValidityKeyInvalidationTransaction tx = new ValidityKeyInvalidationTransaction(key);
-		platform.queueTransaction(tx);
+		submit(tx);
+	}
+
+	@Override
+	public void sendIssuerInvalidation(Issuer issuer, Instant invalidatedBefore) {
+		IssuerInvalidationTransaction tx = new IssuerInvalidationTransaction(issuer.getIssuerName(), invalidatedBefore);
+		submit(tx);
 	}
 
 	@Override
 	public void sendIssuerRegistration(String issuerName) {
 		IssuerRegistrationTransaction tx = new IssuerRegistrationTransaction(issuerName);
-		platform.queueTransaction(tx);
+		submit(tx);
 	}
 
 	@Override
@@ -109,6 +225,28 @@ public class DTVACoordinatorImpl implements DTVACoordinator {
 		return (JsonObject) platform.getLocalConfiguration();
 	}
 
+	@Override
+	public RevocationFilter getRevocationFilter() {
+		return revocationFilter.getFilter(platform::getState);
+	}
+
+	@Override
+	public ValidityKeyWatch watchValidityKeys(Collection<ValidityKey> keys, Consumer<? super ValidityKeyView> listener) {
+		return watches.watch(keys, listener);
+	}
+
+	@Override
+	public JsonObject getMetrics() {
+		return Json.createObjectBuilder()
+				.add("in_flight", inFlight.getMetrics())
+				.add("lanes", pipeline.getMetrics())
+				.add("revocation_filter", revocationFilter.getMetrics())
+				.add("issuer_rate_limits", rateLimiter.getMetrics())
+				.add("watches", watches.getMetrics())
+				.add("validity_key_filter", platform.getState().getKeyFilter().getMetrics())
+				.build();
+	}
+
 	@Override
 	public Optional<Duration> getConsensusGraceSpan() {
 		JsonNumber consensusGraceSpan = getLocalConfiguration().getJsonNumber("consensus-grace-span");
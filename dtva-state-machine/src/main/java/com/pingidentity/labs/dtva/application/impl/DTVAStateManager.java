@@ -24,6 +24,7 @@ import java.io.DataOutput;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -31,6 +32,8 @@ import java.util.NavigableMap;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 import javax.json.JsonObject;
@@ -40,8 +43,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.pingidentity.labs.dtva.application.Constitution;
+import com.pingidentity.labs.dtva.application.StateChange;
 import com.pingidentity.labs.dtva.application.ValidityKey;
 import com.pingidentity.labs.dtva.application.transactions.DTVATransaction;
+import com.pingidentity.labs.dtva.application.transactions.IssuerInvalidationTransaction;
 import com.pingidentity.labs.dtva.application.transactions.IssuerRegistrationTransaction;
 import com.pingidentity.labs.dtva.application.transactions.ValidityKeyInteractivityTransaction;
 import com.pingidentity.labs.dtva.application.transactions.ValidityKeyInvalidationTransaction;
@@ -58,6 +63,17 @@ public class DTVAStateManager implements StateManager<StateImpl, DTVATransaction
 	private final Logger log = LoggerFactory.getLogger(DTVAStateManager.class);
 	private static final boolean DEBUG = true;
 
+	private final List<TransactionListener> listeners = new CopyOnWriteArrayList<>();
+
+	/** Register a listener to be told of each set of transactions applied by consensus */
+	public void addTransactionListener(TransactionListener listener) {
+		listeners.add(Objects.requireNonNull(listener));
+	}
+
+	public void removeTransactionListener(TransactionListener listener) {
+		listeners.remove(listener);
+	}
+
 	@Override
 	public StateImpl createInitialState(List<? extends Peer> addresses, JsonValue constitutionValue) {
 		Objects.requireNonNull(addresses);
@@ -93,9 +109,9 @@ public class DTVAStateManager implements StateManager<StateImpl, DTVATransaction
 			while (dis.available() > 0) {
 				dis.mark(10);
 				CborDataInput input = new CborDataInput(dis);
-				if (input.readStartArray() != 2) {
+				if (input.readStartArray() < 2) {
 					dis.reset();
-					throw new CborException("expected transaction to be a two-element array");
+					throw new CborException("expected transaction to be an array of at least two elements");
 				}
 				int type = input.readInteger();
 				dis.reset();
@@ -114,6 +130,9 @@ public class DTVAStateManager implements StateManager<StateImpl, DTVATransaction
 				case RegisterIssuer:
 					tx = new IssuerRegistrationTransaction(dis);
 					break;
+				case InvalidateIssuer:
+					tx = new IssuerInvalidationTransaction(dis);
+					break;
 				default:
 					throw new IOException("Unrecognized transaction code " + type);
 				}
@@ -139,11 +158,32 @@ public class DTVAStateManager implements StateManager<StateImpl, DTVATransaction
 				earliestInstant = earliestInTransactions;
 			}
 		}
+		ChangeLog changeLog = originalStateImpl.getChangeLog();
+		IssuerIndex newSessionsByIssuer = originalStateImpl.periodsByIssuer;
+		ValidityKeyFilter keyFilter = originalStateImpl.getKeyFilter().copy();
+		for (ValidityKey expired : originalStateImpl.periods.headMap(ValidityKey.smallestAtInstant(earliestInstant), false).keySet()) {
+			changeLog = changeLog.withKeyChange(StateChange.Kind.Expired, expired.getHardExpiryAt(), expired);
+			newSessionsByIssuer = newSessionsByIssuer.without(expired);
+			keyFilter.remove(expired);
+		}
 		ConcurrentSkipListMap<ValidityKey, ValidityKeyRecord> newSessions = cleanUpSessions(originalStateImpl.periods, earliestInstant);
 		List<IssuerImpl> newIssuers = new ArrayList<>(originalStateImpl.issuerImpls);
+		IssuerRateLimits rateLimits = issuerRateLimitsOf(originalState.getConstitution());
+		IssuerRateBuckets rateBuckets = rateLimits.isEmpty() ?
+				originalStateImpl.getRateBuckets() :
+				originalStateImpl.getRateBuckets().copyAt(earliestInstant);
 		
 		for (TransactionMessage<DTVATransaction> tx : transactions) {
 			DTVATransaction transaction = tx.getTransaction();
+			if (!rateLimits.isEmpty()) {
+				Optional<Integer> limitedIssuer = IssuerRateLimits.issuerIndexOf(transaction);
+				if (limitedIssuer.isPresent() && !rateBuckets.tryConsume(rateLimits, limitedIssuer.get(),
+						transaction.getType(), tx.getConsensusEstablishedTime())) {
+					log.debug("Issuer " + limitedIssuer.get() + " is over its " + transaction.getType() +
+							" rate limit. Ignoring");
+					continue;
+				}
+			}
 			switch (transaction.getType()) {
 			case RegisterValidityKey:
 				ValidityKeyRegistrationTransaction creation = (ValidityKeyRegistrationTransaction)transaction;
@@ -158,6 +198,8 @@ public class DTVAStateManager implements StateManager<StateImpl, DTVATransaction
 							"be inconsistent");
 					continue;
 				}
+				newSessionsByIssuer = newSessionsByIssuer.with(creation.getKey(), session);
+				keyFilter.add(creation.getKey());
 				break;
 			case UpdateInteractivity:
 				ValidityKeyInteractivityTransaction update = (ValidityKeyInteractivityTransaction)transaction;
@@ -170,12 +212,18 @@ public class DTVAStateManager implements StateManager<StateImpl, DTVATransaction
 								"the time it was received, the session had lapsed and been cleaned up. Ignoring.");
 						continue;
 					}
+					Optional<IssuerImpl> updateIssuer = issuerAt(newIssuers, update.getKey().getIssuerIndex());
+					if (updateIssuer.isPresent() && session.isCoveredBy(updateIssuer.get())) {
+						log.debug("Update received for session invalidated by its issuer's revocation epoch. Ignoring");
+						continue;
+					}
 					session = session.updated(tx.getConsensusEstablishedTime()).orElse(null);
 					if (session == null) {
 						log.debug("Update received for session which has been invalidated or expired. Ignoring");
 						continue;
 					}
 					newSessions.put(update.getKey(), session);
+					newSessionsByIssuer = newSessionsByIssuer.with(update.getKey(), session);
 				}
 				break;
 			case Invalidate:
@@ -193,6 +241,9 @@ public class DTVAStateManager implements StateManager<StateImpl, DTVATransaction
 						continue;
 					}
 					newSessions.put(invalidation.getKey(), session);
+					newSessionsByIssuer = newSessionsByIssuer.with(invalidation.getKey(), session);
+					changeLog = changeLog.withKeyChange(StateChange.Kind.Invalidated,
+							session.getInvalidatedAt().get(), invalidation.getKey());
 				}
 				break;
 			case RegisterIssuer:
@@ -208,12 +259,59 @@ public class DTVAStateManager implements StateManager<StateImpl, DTVATransaction
 					newIssuers.add(issuerImpl);
 				}
 				break;
+			case InvalidateIssuer:
+				IssuerInvalidationTransaction revocation = (IssuerInvalidationTransaction) transaction;
+				log.debug("invalidate issuer received for " + revocation.getIssuerName());
+				Optional<IssuerImpl> revokedIssuer = newIssuers.stream()
+						.filter((issuer) -> issuer.getIssuerName().equals(revocation.getIssuerName()))
+						.findFirst();
+				if (!revokedIssuer.isPresent()) {
+					log.debug("Issuer invalidation received for an issuer which does not exist. Ignoring");
+					continue;
+				}
+				// an epoch may not reach into the future, which would invalidate keys not yet registered
+				Instant appliedAt = tx.getConsensusEstablishedTime().truncatedTo(ChronoUnit.SECONDS);
+				Instant invalidatedBefore = revocation.getInvalidatedBefore().isAfter(appliedAt) ?
+						appliedAt : revocation.getInvalidatedBefore();
+				IssuerImpl epochIssuer = revokedIssuer.get().withRevocationEpoch(invalidatedBefore, appliedAt,
+						originalState.getConstitution().getMaxHardExpiryIn());
+				if (epochIssuer != revokedIssuer.get()) {
+					log.info("applying revocation epoch to issuer " + epochIssuer.getIssuerName() + " for keys registered before " + invalidatedBefore);
+					newIssuers = new ArrayList<>(newIssuers);
+					newIssuers.set(epochIssuer.getIndex(), epochIssuer);
+					changeLog = changeLog.withIssuerInvalidation(appliedAt, epochIssuer.getIndex(), invalidatedBefore);
+				}
+				break;
 			default:
 				// FIXME
 				throw new UnsupportedOperationException();
 			}
 		}
-		return new StateImpl(originalState.getConstitution(), newSessions, newIssuers);
+		// nothing is left to report about keys from before the longest possible lifetime
+		changeLog = changeLog.prunedBefore(earliestInstant.minus(originalState.getConstitution().getMaxHardExpiryIn()));
+		StateImpl newState = new StateImpl(originalState.getConstitution(), newSessions, newSessionsByIssuer, newIssuers, changeLog, rateBuckets,
+				keyFilter.fittedTo(newSessions.keySet()));
+		for (TransactionListener listener : listeners) {
+			try {
+				listener.transactionsApplied(newState, transactions);
+			}
+			catch (RuntimeException e) {
+				log.error("Transaction listener failed, continuing", e);
+			}
+		}
+		return newState;
+	}
+
+	private static IssuerRateLimits issuerRateLimitsOf(Constitution constitution) {
+		return constitution instanceof ConstitutionImpl ?
+				((ConstitutionImpl) constitution).getIssuerRateLimits() : IssuerRateLimits.NONE;
+	}
+
+	private static Optional<IssuerImpl> issuerAt(List<IssuerImpl> issuers, int index) {
+		if (index < 0 || index >= issuers.size()) {
+			return Optional.empty();
+		}
+		return Optional.of(issuers.get(index));
 	}
 
 	private ConcurrentSkipListMap<ValidityKey, ValidityKeyRecord> cleanUpSessions( NavigableMap<ValidityKey, ValidityKeyRecord> sessions, Instant timeCreated) {
@@ -230,8 +328,9 @@ public class DTVAStateManager implements StateManager<StateImpl, DTVATransaction
 	//		if (dis.readLong() != DSM_STATE_VERSION) {
 	//			throw new IOException("Unknown DSM StateImpl version");
 	//		}
-			if (input.readStartArray() != 3) {
-				throw new CborException("expected three element array at root of state");
+			int rootCount = input.readStartArray();
+			if (rootCount < 3 || rootCount > 5) {
+				throw new CborException("expected three to five element array at root of state");
 			}
 			// safe, since we haven't peeked the next cbor data type
 			// when returned, will be advanced past the first array element
@@ -241,12 +340,18 @@ public class DTVAStateManager implements StateManager<StateImpl, DTVATransaction
 			int issuerCount = input.readStartArray();
 			for (int i = 0; i< issuerCount; i++) {
 				int elementCount = input.readStartArray();
-				if (elementCount != 2) {
-					throw new CborException("expected two element array for each issuer name entry");
+				if (elementCount < 2 || elementCount % 2 != 0) {
+					throw new CborException("expected an even element array of at least two for each issuer name entry");
 				}
 				String issuerName = input.readText();
 				int participant = input.readInteger();
 				IssuerImpl issuerImpl = new IssuerImpl(issuerName, participant, i);
+				for (int e = 2; e < elementCount; e += 2) {
+					// revocation epochs, oldest first
+					Instant invalidatedBefore = Instant.ofEpochSecond(input.readLong());
+					Instant epochAppliedAt = Instant.ofEpochSecond(input.readLong());
+					issuerImpl = issuerImpl.withRevocationEpoch(invalidatedBefore, epochAppliedAt);
+				}
 				issuerImpls.add(issuerImpl);
 			}
 
@@ -255,6 +360,10 @@ public class DTVAStateManager implements StateManager<StateImpl, DTVATransaction
 				ConcurrentSkipListMap<ValidityKey, ValidityKeyRecord> periods = new ConcurrentSkipListMap<>();
 				IntStream.range(0, validityKeyCount).forEach((idx)-> {
 					try {
+						int elementCount = input.readStartArray();
+						if (elementCount != 3 && elementCount != 4) {
+							throw new CborException("expected three or four element array for each validity key entry");
+						}
 						ValidityKey key = new ValidityKey(di);
 						Instant lastActivityAt = Instant.ofEpochSecond(input.readLong());
 						Optional<Instant> invalidatedAt;
@@ -265,11 +374,16 @@ public class DTVAStateManager implements StateManager<StateImpl, DTVATransaction
 						case NULL:
 							input.readNull();
 							invalidatedAt = Optional.empty();
+							break;
 						default:
 							throw new CborException("expected invalidation time for validity key to be represented by either an integer, or null if still valid")	;
 						}
+						// records written before creation time was kept are treated as the oldest possible, so
+						// that any revocation epoch covers them
+						Instant createdAt = elementCount == 4 ? Instant.ofEpochSecond(input.readLong()) : Instant.EPOCH;
 						ValidityKeyRecord record = 
 								new ValidityKeyRecord(key.getHardExpiryAt(),
+										createdAt,
 										lastActivityAt,
 										key.getInteractivityTimeout());
 						if (invalidatedAt.isPresent()) {
@@ -281,7 +395,43 @@ public class DTVAStateManager implements StateManager<StateImpl, DTVATransaction
 						throw new IllegalStateException(e);
 					}
 				});
-				StateImpl stateImpl = new StateImpl(constitutionImpl, periods , issuerImpls);
+				ChangeLog changeLog;
+				if (rootCount >= 4) {
+					if (input.readStartArray() != 2) {
+						throw new CborException("expected two element array for the change log");
+					}
+					changeLog = new ChangeLog(input.readLong());
+					int changeCount = input.readStartArray();
+					for (int i = 0; i < changeCount; i++) {
+						if (input.readStartArray() != 6) {
+							throw new CborException("expected six element array for each change log entry");
+						}
+						StateChange.Kind kind = StateChange.Kind.values()[input.readInteger()];
+						long changeSequence = input.readLong();
+						Instant at = Instant.ofEpochSecond(input.readLong());
+						int issuerIndex = input.readInteger();
+						ValidityKey key = null;
+						if (input.peek().isNull()) {
+							input.readNull();
+						} else {
+							key = new ValidityKey(di);
+						}
+						Instant invalidatedBefore = null;
+						if (input.peek().isNull()) {
+							input.readNull();
+						} else {
+							invalidatedBefore = Instant.ofEpochSecond(input.readLong());
+						}
+						changeLog = changeLog.restored(kind, changeSequence, at, issuerIndex, key, invalidatedBefore);
+					}
+				}
+				else {
+					changeLog = new ChangeLog();
+				}
+				IssuerRateBuckets rateBuckets = rootCount == 5 ?
+						IssuerRateBuckets.readExternal(di) : new IssuerRateBuckets();
+				StateImpl stateImpl = new StateImpl(constitutionImpl, periods, IssuerIndex.of(periods), issuerImpls, changeLog, rateBuckets,
+						ValidityKeyFilter.of(periods.keySet()));
 				return stateImpl;
 			}
 			catch (IllegalStateException e) {
@@ -301,14 +451,21 @@ public class DTVAStateManager implements StateManager<StateImpl, DTVATransaction
 		try {
 			CborOutput output = new CborOutput(dout);
 			ConstitutionStateManager constitutionState = new ConstitutionStateManager();
-			output.writeStartArray(3);
+			// rate limit buckets are left off entirely when there are none, as state was before them
+			boolean withRateBuckets = !stateImpl.getRateBuckets().isEmpty();
+			output.writeStartArray(withRateBuckets ? 5 : 4);
 			constitutionState.serializeState((ConstitutionImpl)stateImpl.getConstitution(), dout);
 			output.writeStartArray(stateImpl.getIssuers().size());
 			stateImpl.getIssuers().forEach((issuer) -> {
 				try {
-					output.writeStartArray(2)
+					List<IssuerImpl.Epoch> epochs = issuer.getEpochs();
+					output.writeStartArray(2 + 2 * epochs.size())
 						.writeText(issuer.getIssuerName())
 						.writeLong(issuer.getIssuingParticipant());
+					for (IssuerImpl.Epoch epoch : epochs) {
+						output.writeLong(epoch.getInvalidatedBefore().getEpochSecond())
+							.writeLong(epoch.getAppliedAt().getEpochSecond());
+					}
 				}
 				catch (Exception e) {
 					throw new IllegalStateException(e);
@@ -319,7 +476,7 @@ public class DTVAStateManager implements StateManager<StateImpl, DTVATransaction
 			records.entrySet().forEach((kv) -> {
 				try {
 					ValidityKey key = kv.getKey();
-					output.writeStartArray(3);
+					output.writeStartArray(4);
 					key.writeExternal(dout);
 					output.writeLong(kv.getValue().getLastActivityAt().getEpochSecond());
 					Optional<Instant> invalidatedAt = kv.getValue().getInvalidatedAt();
@@ -329,11 +486,39 @@ public class DTVAStateManager implements StateManager<StateImpl, DTVATransaction
 					else {
 						output.writeNull();
 					}
+					output.writeLong(kv.getValue().getCreatedAt().getEpochSecond());
 				}
 				catch (Exception e) {
 					throw new IllegalStateException(e);
 				}
 			});
+			// change log: [pruned-through sequence, [[kind, sequence, at, issuer index, key|null, before|null]...]]
+			List<ChangeLog.Entry> changes = stateImpl.getChangeLog()
+					.entries()
+					.collect(Collectors.toList());
+			output.writeStartArray(2)
+				.writeLong(changes.isEmpty() ? stateImpl.getChangeSequence() : changes.get(0).getSequence() - 1)
+				.writeStartArray(changes.size());
+			for (ChangeLog.Entry change : changes) {
+				output.writeStartArray(6)
+					.writeInteger(change.getKind().ordinal())
+					.writeLong(change.getSequence())
+					.writeLong(change.getAt().getEpochSecond())
+					.writeInteger(change.getIssuerIndex());
+				if (change.getValidityKey().isPresent()) {
+					change.getValidityKey().get().writeExternal(dout);
+				} else {
+					output.writeNull();
+				}
+				if (change.getInvalidatedBefore().isPresent()) {
+					output.writeLong(change.getInvalidatedBefore().get().getEpochSecond());
+				} else {
+					output.writeNull();
+				}
+			}
+			if (withRateBuckets) {
+				stateImpl.getRateBuckets().writeExternal(dout);
+			}
 		}
 		catch (IllegalStateException e) {
 			Throwable inner = e.getCause();
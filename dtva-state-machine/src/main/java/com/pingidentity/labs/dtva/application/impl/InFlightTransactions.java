@@ -0,0 +1,323 @@
+/*
+ * Copyright (c) 2017 Ping Identity
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pingidentity.labs.dtva.application.impl;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.json.Json;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonValue;
+
+import com.pingidentity.labs.dtva.application.BacklogFullException;
+import com.pingidentity.labs.dtva.application.transactions.DTVATransaction;
+import com.pingidentity.labs.dtva.application.transactions.DTVATransaction.Type;
+import com.pingidentity.labs.rapport.TransactionMessage;
+
+/**
+ * Tracks transactions submitted by the local participant which have not yet been applied by consensus,
+ * refusing new transactions of a type once its configured limit is reached.
+ * 
+ * Each submission is tracked individually, from {@link #acquire(DTVATransaction)} until it is applied,
+ * released or reclaimed. An applied transaction only releases a submission which has already been
+ * handed to the platform (see {@link #sent(DTVATransaction)}), oldest first, so that an identical
+ * transaction from another participant cannot release one still waiting in the outbound lanes.
+ * Submissions which were sent but have not been applied within the expiry are presumed lost and are
+ * reclaimed. Matching applied transactions also gives an observed drain rate per type, used to
+ * estimate how long a refused caller should wait.
+ */
+public class InFlightTransactions implements TransactionListener {
+	/** local configuration object mapping {@link Type} names to their limit */
+	public static final String CONFIGURATION_KEY = "in-flight-limits";
+	/** local configuration for the seconds a sent transaction may await consensus before being reclaimed */
+	public static final String EXPIRY_CONFIGURATION_KEY = "in-flight-expiry";
+	static final Duration DEFAULT_EXPIRY = Duration.ofMinutes(1);
+
+	// suggested wait before any transactions of a type have been seen to drain
+	private static final Duration DEFAULT_RETRY_AFTER = Duration.ofSeconds(5);
+	private static final Duration MAX_RETRY_AFTER     = Duration.ofMinutes(1);
+	// weight given to the newest drain rate sample
+	private static final double   DRAIN_RATE_WEIGHT   = 0.2;
+
+	private final Map<Type, Integer>       limits;
+	private final Map<Type, AtomicInteger> counts     = new EnumMap<>(Type.class);
+	private final Map<Type, DrainRate>     drainRates = new EnumMap<>(Type.class);
+	private final Map<Type, LongAdder>     reclaimed  = new EnumMap<>(Type.class);
+	// our submissions of each transaction, in order of acquisition; deques are only touched within compute
+	private final ConcurrentMap<DTVATransaction, Deque<Submission>> pending = new ConcurrentHashMap<>();
+	// sent submissions in order of sending, swept for expiry
+	private final Queue<Submission> sent = new ConcurrentLinkedQueue<>();
+	private final long expiryNanos;
+
+	/**
+	 * @param limits maximum in-flight transactions for each type. Types without a positive limit are
+	 * unbounded.
+	 */
+	public InFlightTransactions(Map<Type, Integer> limits) {
+		this(limits, DEFAULT_EXPIRY);
+	}
+
+	/**
+	 * @param limits maximum in-flight transactions for each type. Types without a positive limit are
+	 * unbounded.
+	 * @param expiry how long a sent transaction may await consensus before its place is reclaimed
+	 */
+	public InFlightTransactions(Map<Type, Integer> limits, Duration expiry) {
+		if (expiry.isNegative() || expiry.isZero()) {
+			throw new IllegalArgumentException("In-flight expiry must be positive");
+		}
+		this.limits = new EnumMap<>(Type.class);
+		this.limits.putAll(limits);
+		this.expiryNanos = expiry.toNanos();
+		for (Type type : Type.values()) {
+			counts.put(type, new AtomicInteger());
+			drainRates.put(type, new DrainRate());
+			reclaimed.put(type, new LongAdder());
+		}
+	}
+
+	public static InFlightTransactions fromConfiguration(JsonObject localConfiguration) {
+		Map<Type, Integer> limits = new EnumMap<>(Type.class);
+		if (localConfiguration != null && localConfiguration.containsKey(CONFIGURATION_KEY)) {
+			JsonObject configured = localConfiguration.getJsonObject(CONFIGURATION_KEY);
+			for (Map.Entry<String, JsonValue> entry : configured.entrySet()) {
+				Type type;
+				try {
+					type = Type.valueOf(entry.getKey());
+				}
+				catch (IllegalArgumentException e) {
+					throw new IllegalArgumentException("Unknown transaction type '" + entry.getKey() + "' in '" +
+							CONFIGURATION_KEY + "'", e);
+				}
+				limits.put(type, ((JsonNumber) entry.getValue()).intValue());
+			}
+		}
+		JsonNumber expiry = localConfiguration == null ? null : localConfiguration.getJsonNumber(EXPIRY_CONFIGURATION_KEY);
+		return new InFlightTransactions(limits, expiry == null ? DEFAULT_EXPIRY : Duration.ofSeconds(expiry.longValue()));
+	}
+
+	/**
+	 * Reserve a place for a transaction about to be queued.
+	 * 
+	 * @throws BacklogFullException if the limit for the transaction type has been reached
+	 */
+	public void acquire(DTVATransaction transaction) {
+		Type type = transaction.getType();
+		int limit = getLimit(type);
+		AtomicInteger count = counts.get(type);
+		int current;
+		do {
+			current = count.get();
+			if (limit > 0 && current >= limit) {
+				throw new BacklogFullException(type, limit, estimateRetryAfter(type, current - limit + 1));
+			}
+		} while (!count.compareAndSet(current, current + 1));
+		Submission submission = new Submission(transaction);
+		pending.compute(transaction, (tx, submissions) -> {
+			Deque<Submission> updated = submissions == null ? new ArrayDeque<>(1) : submissions;
+			updated.addLast(submission);
+			return updated;
+		});
+	}
+
+	/**
+	 * Note that a transaction is being handed to the platform, from which point an identical applied
+	 * transaction is taken to be ours. Called before queueing, as the platform may apply it at once.
+	 */
+	public void sent(DTVATransaction transaction) {
+		pending.computeIfPresent(transaction, (tx, submissions) -> {
+			for (Submission submission : submissions) {
+				if (submission.sentAt == 0) {
+					submission.sentAt = Math.max(1, System.nanoTime());
+					sent.add(submission);
+					break;
+				}
+			}
+			return submissions;
+		});
+	}
+
+	/**
+	 * Give up the place held by the latest submission of a transaction, because it will never be
+	 * queued or the platform refused it.
+	 * 
+	 * @return true if the transaction was being tracked
+	 */
+	public boolean release(DTVATransaction transaction) {
+		return finish(remove(transaction, false));
+	}
+
+	@Override
+	public void transactionsApplied(StateImpl newState, List<? extends TransactionMessage<DTVATransaction>> transactions) {
+		List<DTVATransaction> applied = new ArrayList<>(transactions.size());
+		for (TransactionMessage<DTVATransaction> message : transactions) {
+			applied.add(message.getTransaction());
+		}
+		applied(applied);
+	}
+
+	// releases the oldest sent submission matching each applied transaction, then reclaims expired ones
+	void applied(List<DTVATransaction> transactions) {
+		Map<Type, Integer> drained = new EnumMap<>(Type.class);
+		for (DTVATransaction transaction : transactions) {
+			if (finish(remove(transaction, true))) {
+				drained.merge(transaction.getType(), 1, Integer::sum);
+			}
+		}
+		long now = System.nanoTime();
+		reclaimExpired(now);
+		for (Type type : Type.values()) {
+			int drainedCount = drained.getOrDefault(type, 0);
+			drainRates.get(type).sample(drainedCount, getInFlight(type) + drainedCount > 0, now);
+		}
+	}
+
+	private void reclaimExpired(long now) {
+		for (Submission oldest = sent.peek(); oldest != null; oldest = sent.peek()) {
+			if (!oldest.released.get() && now - oldest.sentAt < expiryNanos) {
+				break;
+			}
+			sent.poll();
+			Submission expired = oldest;
+			pending.computeIfPresent(expired.transaction, (tx, submissions) -> {
+				submissions.removeIf(submission -> submission == expired);
+				return submissions.isEmpty() ? null : submissions;
+			});
+			if (finish(expired)) {
+				reclaimed.get(expired.transaction.getType()).increment();
+			}
+		}
+	}
+
+	// removes the oldest sent submission, or the latest of any, returning null if there is none
+	private Submission remove(DTVATransaction transaction, boolean oldestSent) {
+		Submission[] removed = new Submission[1];
+		pending.computeIfPresent(transaction, (tx, submissions) -> {
+			if (!oldestSent) {
+				removed[0] = submissions.pollLast();
+			}
+			else {
+				for (Iterator<Submission> iterator = submissions.iterator(); iterator.hasNext();) {
+					Submission submission = iterator.next();
+					if (submission.sentAt != 0) {
+						iterator.remove();
+						removed[0] = submission;
+						break;
+					}
+				}
+			}
+			return submissions.isEmpty() ? null : submissions;
+		});
+		return removed[0];
+	}
+
+	// gives up the place of a submission once, however many ways it is let go
+	private boolean finish(Submission submission) {
+		if (submission == null || !submission.released.compareAndSet(false, true)) {
+			return false;
+		}
+		counts.get(submission.transaction.getType()).decrementAndGet();
+		return true;
+	}
+
+	public int getLimit(Type type) {
+		return limits.getOrDefault(type, 0);
+	}
+
+	public int getInFlight(Type type) {
+		return counts.get(type).get();
+	}
+
+	/** number of sent transactions of this type which expired before being applied */
+	public long getReclaimed(Type type) {
+		return reclaimed.get(type).sum();
+	}
+
+	/** observed rate at which transactions of this type are applied, per second */
+	public double getDrainRate(Type type) {
+		return drainRates.get(type).get();
+	}
+
+	public JsonObject getMetrics() {
+		JsonObjectBuilder builder = Json.createObjectBuilder();
+		for (Type type : Type.values()) {
+			builder.add(type.name(), Json.createObjectBuilder()
+					.add("in_flight", getInFlight(type))
+					.add("limit", getLimit(type))
+					.add("reclaimed", getReclaimed(type))
+					.add("drain_rate", getDrainRate(type)));
+		}
+		return builder.build();
+	}
+
+	Duration estimateRetryAfter(Type type, int excess) {
+		double rate = getDrainRate(type);
+		if (rate <= 0) {
+			return DEFAULT_RETRY_AFTER;
+		}
+		long seconds = Math.max(1, (long) Math.ceil(excess / rate));
+		return seconds > MAX_RETRY_AFTER.getSeconds() ? MAX_RETRY_AFTER : Duration.ofSeconds(seconds);
+	}
+
+	private static final class Submission {
+		final DTVATransaction transaction;
+		final AtomicBoolean   released = new AtomicBoolean();
+		// nanoTime when handed to the platform, or 0 if still waiting to be sent; set within compute
+		volatile long         sentAt;
+
+		Submission(DTVATransaction transaction) {
+			this.transaction = transaction;
+		}
+	}
+
+	// exponentially weighted moving average of transactions drained per second, sampled while there is
+	// outstanding work so that idle periods do not drag the estimate toward zero
+	private static class DrainRate {
+		private volatile double rate;
+		private long lastSampleAt;
+
+		synchronized void sample(int drained, boolean busy, long nanoTime) {
+			if (busy && lastSampleAt != 0) {
+				double seconds = (nanoTime - lastSampleAt) / (double) TimeUnit.SECONDS.toNanos(1);
+				if (seconds > 0) {
+					double sample = drained / seconds;
+					rate = rate == 0 ? sample : rate + DRAIN_RATE_WEIGHT * (sample - rate);
+				}
+			}
+			lastSampleAt = nanoTime;
+		}
+
+		double get() {
+			return rate;
+		}
+	}
+}
@@ -15,6 +15,13 @@
  */
 package com.pingidentity.labs.dtva.application.impl;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
 import javax.validation.constraints.NotNull;
 
 public class IssuerImpl {
@@ -22,11 +29,65 @@ public class IssuerImpl {
 	private final @NotNull String issuerName;
 	private final @NotNull int issuingParticipant;
 	private final int index;
+	// revocation epochs, oldest first: keys registered before invalidatedBefore are invalid from appliedAt
+	private final List<Epoch> epochs;
+
+	/** one issuer-wide invalidation, as applied at consensus */
+	public static final class Epoch {
+		private final Instant invalidatedBefore;
+		private final Instant appliedAt;
+
+		Epoch(Instant invalidatedBefore, Instant appliedAt) {
+			this.invalidatedBefore = invalidatedBefore;
+			this.appliedAt = appliedAt;
+		}
+
+		public Instant getInvalidatedBefore() {
+			return invalidatedBefore;
+		}
+
+		public Instant getAppliedAt() {
+			return appliedAt;
+		}
+	}
 
 	public IssuerImpl(@NotNull String name, @NotNull int issuingParticipant, int index) {
+		this(name, issuingParticipant, index, Collections.emptyList());
+	}
+
+	private IssuerImpl(@NotNull String name, @NotNull int issuingParticipant, int index, List<Epoch> epochs) {
 		this.issuerName = name;
 		this.issuingParticipant = issuingParticipant;
 		this.index = index;
+		this.epochs = epochs;
+	}
+
+	/**
+	 * Return a copy of this issuer with a revocation epoch covering keys registered before
+	 * {@code invalidatedBefore}, or this issuer unchanged if its current epoch already covers them.
+	 * Keys already covered by an earlier epoch keep that epoch's application time.
+	 */
+	public IssuerImpl withRevocationEpoch(@NotNull Instant invalidatedBefore, @NotNull Instant appliedAt) {
+		return withRevocationEpoch(invalidatedBefore, appliedAt, null);
+	}
+
+	/**
+	 * As {@link #withRevocationEpoch(Instant, Instant)}, also dropping earlier epochs which can no longer
+	 * cover a live key, since every key registered before them is past {@code maxHardExpiryIn}.
+	 */
+	public IssuerImpl withRevocationEpoch(@NotNull Instant invalidatedBefore, @NotNull Instant appliedAt, Duration maxHardExpiryIn) {
+		if (!epochs.isEmpty() && !invalidatedBefore.isAfter(epochs.get(epochs.size() - 1).invalidatedBefore)) {
+			return this;
+		}
+		List<Epoch> newEpochs = new ArrayList<>(epochs.size() + 1);
+		Instant cutoff = maxHardExpiryIn == null ? null : appliedAt.minus(maxHardExpiryIn);
+		for (Epoch epoch : epochs) {
+			if (cutoff == null || epoch.invalidatedBefore.isAfter(cutoff)) {
+				newEpochs.add(epoch);
+			}
+		}
+		newEpochs.add(new Epoch(invalidatedBefore, appliedAt));
+		return new IssuerImpl(issuerName, issuingParticipant, index, Collections.unmodifiableList(newEpochs));
 	}
 
 	public String getIssuerName() {
@@ -40,4 +101,29 @@ public class IssuerImpl {
 	public int getIndex() {
 		return index;
 	}
+
+	/** keys registered before this instant (in consensus time) are invalidated */
+	public Optional<Instant> getInvalidatedBefore() {
+		return epochs.isEmpty() ? Optional.empty() : Optional.of(epochs.get(epochs.size() - 1).invalidatedBefore);
+	}
+
+	/** the consensus time at which the current revocation epoch was applied */
+	public Optional<Instant> getEpochAppliedAt() {
+		return epochs.isEmpty() ? Optional.empty() : Optional.of(epochs.get(epochs.size() - 1).appliedAt);
+	}
+
+	/** the consensus time at which the first epoch covering a key registered at {@code createdAt} was applied */
+	public Optional<Instant> getEpochAppliedAt(Instant createdAt) {
+		for (Epoch epoch : epochs) {
+			if (createdAt.isBefore(epoch.invalidatedBefore)) {
+				return Optional.of(epoch.appliedAt);
+			}
+		}
+		return Optional.empty();
+	}
+
+	/** the revocation epochs still retained, oldest first */
+	public List<Epoch> getEpochs() {
+		return epochs;
+	}
 }
@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2017 Ping Identity
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pingidentity.labs.dtva.application.impl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.pingidentity.labs.dtva.application.ValidityKey;
+
+/**
+ * The validity key records of a state in {@link StateImpl#ISSUER_ORDER}, held as a persistent AVL tree.
+ * 
+ * Updates return a new index sharing all but the path to the changed entry with this one, so applying
+ * a batch of transactions costs in proportion to the keys it touches rather than to the whole index,
+ * and earlier states keep their own index unchanged.
+ */
+final class IssuerIndex {
+	static final IssuerIndex EMPTY = new IssuerIndex(null);
+	private static final Comparator<ValidityKey> ORDER = StateImpl.ISSUER_ORDER;
+
+	private static final class Node implements Map.Entry<ValidityKey, ValidityKeyRecord> {
+		final ValidityKey key;
+		final ValidityKeyRecord record;
+		final Node left;
+		final Node right;
+		final int height;
+		final int size;
+
+		Node(ValidityKey key, ValidityKeyRecord record, Node left, Node right) {
+			this.key = key;
+			this.record = record;
+			this.left = left;
+			this.right = right;
+			this.height = Math.max(height(left), height(right)) + 1;
+			this.size = size(left) + size(right) + 1;
+		}
+
+		@Override
+		public ValidityKey getKey() {
+			return key;
+		}
+
+		@Override
+		public ValidityKeyRecord getValue() {
+			return record;
+		}
+
+		@Override
+		public ValidityKeyRecord setValue(ValidityKeyRecord value) {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	private final Node root;
+
+	private IssuerIndex(Node root) {
+		this.root = root;
+	}
+
+	/** An index of the given records */
+	static IssuerIndex of(Map<ValidityKey, ValidityKeyRecord> records) {
+		List<Map.Entry<ValidityKey, ValidityKeyRecord>> sorted = new ArrayList<>(records.entrySet());
+		sorted.sort(Map.Entry.comparingByKey(ORDER));
+		return new IssuerIndex(build(sorted, 0, sorted.size()));
+	}
+
+	private static Node build(List<Map.Entry<ValidityKey, ValidityKeyRecord>> sorted, int from, int to) {
+		if (from >= to) {
+			return null;
+		}
+		int middle = (from + to) >>> 1;
+		Map.Entry<ValidityKey, ValidityKeyRecord> entry = sorted.get(middle);
+		return new Node(entry.getKey(), entry.getValue(), build(sorted, from, middle), build(sorted, middle + 1, to));
+	}
+
+	int size() {
+		return size(root);
+	}
+
+	/** An index with the record for the key added or replaced */
+	IssuerIndex with(ValidityKey key, ValidityKeyRecord record) {
+		return new IssuerIndex(insert(root, key, record));
+	}
+
+	/** An index without the key, or this index if it is absent */
+	IssuerIndex without(ValidityKey key) {
+		Node newRoot = delete(root, key);
+		return newRoot == root ? this : new IssuerIndex(newRoot);
+	}
+
+	/** Entries from {@code lower} up to but excluding {@code upper}, in order */
+	Stream<Map.Entry<ValidityKey, ValidityKeyRecord>> range(ValidityKey lower, boolean lowerInclusive, ValidityKey upper) {
+		Iterator<Map.Entry<ValidityKey, ValidityKeyRecord>> iterator = new RangeIterator(root, lower, lowerInclusive, upper);
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+				Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL | Spliterator.IMMUTABLE), false);
+	}
+
+	private static Node insert(Node node, ValidityKey key, ValidityKeyRecord record) {
+		if (node == null) {
+			return new Node(key, record, null, null);
+		}
+		int compared = ORDER.compare(key, node.key);
+		if (compared == 0) {
+			return new Node(key, record, node.left, node.right);
+		}
+		if (compared < 0) {
+			return balance(node.key, node.record, insert(node.left, key, record), node.right);
+		}
+		return balance(node.key, node.record, node.left, insert(node.right, key, record));
+	}
+
+	private static Node delete(Node node, ValidityKey key) {
+		if (node == null) {
+			return null;
+		}
+		int compared = ORDER.compare(key, node.key);
+		if (compared < 0) {
+			Node left = delete(node.left, key);
+			return left == node.left ? node : balance(node.key, node.record, left, node.right);
+		}
+		if (compared > 0) {
+			Node right = delete(node.right, key);
+			return right == node.right ? node : balance(node.key, node.record, node.left, right);
+		}
+		if (node.left == null) {
+			return node.right;
+		}
+		if (node.right == null) {
+			return node.left;
+		}
+		Node successor = node.right;
+		while (successor.left != null) {
+			successor = successor.left;
+		}
+		return balance(successor.key, successor.record, node.left, deleteFirst(node.right));
+	}
+
+	private static Node deleteFirst(Node node) {
+		if (node.left == null) {
+			return node.right;
+		}
+		return balance(node.key, node.record, deleteFirst(node.left), node.right);
+	}
+
+	private static Node balance(ValidityKey key, ValidityKeyRecord record, Node left, Node right) {
+		int difference = height(left) - height(right);
+		if (difference > 1) {
+			if (height(left.left) < height(left.right)) {
+				left = rotateLeft(left.key, left.record, left.left, left.right);
+			}
+			return rotateRight(key, record, left, right);
+		}
+		if (difference < -1) {
+			if (height(right.right) < height(right.left)) {
+				right = rotateRight(right.key, right.record, right.left, right.right);
+			}
+			return rotateLeft(key, record, left, right);
+		}
+		return new Node(key, record, left, right);
+	}
+
+	private static Node rotateRight(ValidityKey key, ValidityKeyRecord record, Node left, Node right) {
+		return new Node(left.key, left.record, left.left, new Node(key, record, left.right, right));
+	}
+
+	private static Node rotateLeft(ValidityKey key, ValidityKeyRecord record, Node left, Node right) {
+		return new Node(right.key, right.record, new Node(key, record, left, right.left), right.right);
+	}
+
+	private static int height(Node node) {
+		return node == null ? 0 : node.height;
+	}
+
+	private static int size(Node node) {
+		return node == null ? 0 : node.size;
+	}
+
+	private static final class RangeIterator implements Iterator<Map.Entry<ValidityKey, ValidityKeyRecord>> {
+		// ancestors still to visit, nearest last
+		private final Deque<Node> path = new ArrayDeque<>();
+		private final ValidityKey upper;
+
+		RangeIterator(Node node, ValidityKey lower, boolean lowerInclusive, ValidityKey upper) {
+			this.upper = upper;
+			while (node != null) {
+				int compared = ORDER.compare(node.key, lower);
+				if (compared > 0 || (compared == 0 && lowerInclusive)) {
+					path.push(node);
+					node = node.left;
+				}
+				else {
+					node = node.right;
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return !path.isEmpty() && ORDER.compare(path.peek().key, upper) < 0;
+		}
+
+		@Override
+		public Map.Entry<ValidityKey, ValidityKeyRecord> next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			Node node = path.pop();
+			for (Node next = node.right; next != null; next = next.left) {
+				path.push(next);
+			}
+			return node;
+		}
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2017 Ping Identity
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pingidentity.labs.dtva.application.impl;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+import com.pingidentity.labs.dtva.application.impl.IssuerRateLimits.Limit;
+import com.pingidentity.labs.dtva.application.transactions.DTVATransaction.Type;
+
+import com.github.dwaite.cyborg.electrode.CborException;
+import com.github.dwaite.cyborg.electrode.impl.CborDataInput;
+import com.github.dwaite.cyborg.electrode.impl.CborOutput;
+
+/**
+ * The per-issuer, per-type rate limit buckets of the shared state, being the theoretical arrival time
+ * of each in epoch nanoseconds of consensus time (see {@link IssuerRateLimits}).
+ * 
+ * Buckets which have refilled completely hold no information, so are dropped as each round of
+ * transactions is applied; only issuers active within their burst window take up space.
+ */
+public final class IssuerRateBuckets {
+	private final TreeMap<Long, Long> arrivals;
+
+	public IssuerRateBuckets() {
+		this(new TreeMap<>());
+	}
+
+	private IssuerRateBuckets(TreeMap<Long, Long> arrivals) {
+		this.arrivals = arrivals;
+	}
+
+	/**
+	 * A copy to apply further transactions to, leaving out buckets which are full as of {@code now}.
+	 */
+	public IssuerRateBuckets copyAt(Instant now) {
+		long nowNanos = IssuerRateLimits.toEpochNanos(now);
+		TreeMap<Long, Long> copy = new TreeMap<>();
+		for (Map.Entry<Long, Long> entry : arrivals.entrySet()) {
+			if (entry.getValue() > nowNanos) {
+				copy.put(entry.getKey(), entry.getValue());
+			}
+		}
+		return new IssuerRateBuckets(copy);
+	}
+
+	/**
+	 * Take one transaction from the issuer's bucket for the type, if limited.
+	 * 
+	 * @return false if the issuer has exceeded its limit, and the transaction should not be applied
+	 */
+	public boolean tryConsume(IssuerRateLimits limits, int issuerIndex, Type type, Instant at) {
+		Optional<Limit> limit = limits.getLimit(type);
+		if (!limit.isPresent()) {
+			return true;
+		}
+		long bucket = bucket(issuerIndex, type);
+		long now = IssuerRateLimits.toEpochNanos(at);
+		long next = limit.get().admit(arrivals.getOrDefault(bucket, now), now);
+		if (next == Limit.REFUSED) {
+			return false;
+		}
+		arrivals.put(bucket, next);
+		return true;
+	}
+
+	public int size() {
+		return arrivals.size();
+	}
+
+	public boolean isEmpty() {
+		return arrivals.isEmpty();
+	}
+
+	static long bucket(int issuerIndex, Type type) {
+		return ((long) issuerIndex << 8) | type.ordinal();
+	}
+
+	/** buckets as [[issuer index, type, arrival nanos]...] */
+	public void writeExternal(DataOutput dout) throws IOException {
+		CborOutput output = new CborOutput(dout);
+		output.writeStartArray(arrivals.size());
+		for (Map.Entry<Long, Long> entry : arrivals.entrySet()) {
+			output.writeStartArray(3)
+				.writeLong(entry.getKey() >>> 8)
+				.writeInteger((int) (entry.getKey() & 0xff))
+				.writeLong(entry.getValue());
+		}
+	}
+
+	public static IssuerRateBuckets readExternal(DataInput din) throws IOException, CborException {
+		CborDataInput input = new CborDataInput(din);
+		TreeMap<Long, Long> arrivals = new TreeMap<>();
+		int count = input.readStartArray();
+		for (int i = 0; i < count; i++) {
+			if (input.readStartArray() != 3) {
+				throw new CborException("expected three element array for each rate limit bucket");
+			}
+			int issuerIndex = (int) input.readLong();
+			Type type = Type.values()[input.readInteger()];
+			arrivals.put(bucket(issuerIndex, type), input.readLong());
+		}
+		return new IssuerRateBuckets(arrivals);
+	}
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2017 Ping Identity
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pingidentity.labs.dtva.application.impl;
+
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+
+import com.pingidentity.labs.dtva.application.IssuerRateLimitedException;
+import com.pingidentity.labs.dtva.application.impl.IssuerRateLimits.Limit;
+import com.pingidentity.labs.dtva.application.transactions.DTVATransaction;
+import com.pingidentity.labs.dtva.application.transactions.DTVATransaction.Type;
+
+/**
+ * Refuses transactions from the local participant which would take an issuer over its rate limit, so that
+ * callers are told straight away rather than having their transactions ignored once they reach
+ * consensus.
+ * 
+ * The limits applied are the stricter of those of the constitution, which {@link DTVAStateManager}
+ * enforces on every participant, and any set for this participant alone in the local configuration.
+ * Buckets are updated by compare-and-set against wall clock time, without locking. A bucket whose
+ * arrival time has passed is full again, and so is dropped rather than kept for an issuer which may
+ * not be heard from again, as {@link IssuerRateBuckets#copyAt(Instant)} does for consensus.
+ */
+public class IssuerRateLimiter {
+	/** local configuration object mapping {@link Type} names to a {@code rate} and {@code burst} */
+	public static final String CONFIGURATION_KEY = "issuer-rate-limits";
+
+	private final IssuerRateLimits localLimits;
+	private final Supplier<IssuerRateLimits> consensusLimits;
+	private volatile Limits effective;
+	private static final int MIN_SWEEP_SIZE = 1024;
+
+	private final ConcurrentMap<Long, Long> arrivals = new ConcurrentHashMap<>();
+	// bucket count beyond which acquiring first sweeps out the full buckets
+	private volatile int sweepAt = MIN_SWEEP_SIZE;
+	private final Map<Type, LongAdder> refused = new EnumMap<>(Type.class);
+
+	/**
+	 * @param localLimits limits for this participant alone
+	 * @param consensusLimits supplies the limits of the current constitution
+	 */
+	public IssuerRateLimiter(IssuerRateLimits localLimits, Supplier<IssuerRateLimits> consensusLimits) {
+		this.localLimits = localLimits;
+		this.consensusLimits = consensusLimits;
+		this.effective = new Limits(null, localLimits);
+		for (Type type : Type.values()) {
+			refused.put(type, new LongAdder());
+		}
+	}
+
+	public static IssuerRateLimiter fromConfiguration(JsonObject localConfiguration,
+			Supplier<IssuerRateLimits> consensusLimits) {
+		return new IssuerRateLimiter(IssuerRateLimits.fromJSON(
+				localConfiguration == null ? null : localConfiguration.getJsonObject(CONFIGURATION_KEY),
+				CONFIGURATION_KEY), consensusLimits);
+	}
+
+	/**
+	 * Take a place in the issuer's bucket for a transaction about to be queued.
+	 * 
+	 * @throws IssuerRateLimitedException if the issuer is over its limit for the transaction type
+	 */
+	public void acquire(DTVATransaction transaction) {
+		Optional<Integer> issuerIndex = IssuerRateLimits.issuerIndexOf(transaction);
+		if (!issuerIndex.isPresent()) {
+			return;
+		}
+		Optional<Limit> limit = getLimits().getLimit(transaction.getType());
+		if (!limit.isPresent()) {
+			return;
+		}
+		long bucket = IssuerRateBuckets.bucket(issuerIndex.get(), transaction.getType());
+		long now = IssuerRateLimits.toEpochNanos(Instant.now());
+		if (arrivals.size() > sweepAt) {
+			sweep(now);
+		}
+		Long current;
+		long next;
+		do {
+			current = arrivals.get(bucket);
+			long arrival = current == null ? now : current;
+			next = limit.get().admit(arrival, now);
+			if (next == Limit.REFUSED) {
+				refused.get(transaction.getType()).increment();
+				throw new IssuerRateLimitedException(issuerIndex.get(), transaction.getType(),
+						limit.get().getRetryAfter(arrival, now));
+			}
+		} while (current == null ? arrivals.putIfAbsent(bucket, next) != null :
+			!arrivals.replace(bucket, current, next));
+	}
+
+	// removal is conditional on the arrival time, so a bucket being taken from concurrently is kept
+	private void sweep(long now) {
+		for (Map.Entry<Long, Long> entry : arrivals.entrySet()) {
+			if (entry.getValue() <= now) {
+				arrivals.remove(entry.getKey(), entry.getValue());
+			}
+		}
+		sweepAt = Math.max(MIN_SWEEP_SIZE, 2 * arrivals.size());
+	}
+
+	/**
+	 * Return the place taken for a transaction which will not be queued after all.
+	 */
+	public void release(DTVATransaction transaction) {
+		Optional<Integer> issuerIndex = IssuerRateLimits.issuerIndexOf(transaction);
+		if (!issuerIndex.isPresent()) {
+			return;
+		}
+		Optional<Limit> limit = getLimits().getLimit(transaction.getType());
+		if (limit.isPresent()) {
+			arrivals.computeIfPresent(IssuerRateBuckets.bucket(issuerIndex.get(), transaction.getType()),
+					(bucket, arrival) -> limit.get().refund(arrival));
+		}
+	}
+
+	/** the number of buckets held, full or not */
+	int size() {
+		return arrivals.size();
+	}
+
+	/** the limits currently applied, recombined whenever the constitution's limits change */
+	public IssuerRateLimits getLimits() {
+		IssuerRateLimits consensus = consensusLimits.get();
+		Limits current = effective;
+		if (current.consensus != consensus) {
+			current = new Limits(consensus, consensus.stricter(localLimits));
+			effective = current;
+		}
+		return current.combined;
+	}
+
+	public JsonObject getMetrics() {
+		IssuerRateLimits limits = getLimits();
+		JsonObjectBuilder builder = Json.createObjectBuilder();
+		for (Map.Entry<Type, Limit> entry : limits.getLimits().entrySet()) {
+			builder.add(entry.getKey().name(), Json.createObjectBuilder()
+					.add("rate", entry.getValue().getRate())
+					.add("burst", entry.getValue().getBurst())
+					.add("refused", refused.get(entry.getKey()).sum()));
+		}
+		return builder.build();
+	}
+
+	private static final class Limits {
+		final IssuerRateLimits consensus;
+		final IssuerRateLimits combined;
+
+		Limits(IssuerRateLimits consensus, IssuerRateLimits combined) {
+			this.consensus = consensus;
+			this.combined = combined;
+		}
+	}
+}
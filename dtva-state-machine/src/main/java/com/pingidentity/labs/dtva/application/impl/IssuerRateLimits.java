@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2017 Ping Identity
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pingidentity.labs.dtva.application.impl;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+
+import com.pingidentity.labs.dtva.application.transactions.DTVATransaction;
+import com.pingidentity.labs.dtva.application.transactions.DTVATransaction.Type;
+import com.pingidentity.labs.dtva.application.transactions.ValidityKeyTransaction;
+
+/**
+ * Token bucket limits on the transactions each issuer may have applied, per transaction type.
+ * 
+ * Buckets are kept as the generic cell rate algorithm: rather than a token count, each bucket holds the
+ * theoretical arrival time of its next transaction, which advances by the emission interval for each
+ * transaction admitted. A transaction is admitted while that time is no more than the burst's worth of
+ * intervals ahead. Everything is whole nanoseconds, so participants applying the same transactions at the
+ * same consensus times always come to the same decisions.
+ * 
+ * Only registrations and interactivity updates are limited, attributed to the key's issuer.
+ * Invalidations never are: a transaction over the limit is dropped at consensus on every participant,
+ * and dropping a logout would leave the session valid.
+ */
+public final class IssuerRateLimits {
+	/** no limits */
+	public static final IssuerRateLimits NONE = new IssuerRateLimits(Collections.emptyMap());
+
+	private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+	/**
+	 * longest a bucket may take to refill. Bounding it keeps arrival times, which run up to this far
+	 * ahead of consensus time in epoch nanoseconds, well clear of overflow.
+	 */
+	static final long MAX_WINDOW_NANOS = TimeUnit.DAYS.toNanos(365);
+
+	private final Map<Type, Limit> limits;
+
+	public IssuerRateLimits(Map<Type, Limit> limits) {
+		this.limits = limits.isEmpty() ? Collections.emptyMap() :
+			Collections.unmodifiableMap(new EnumMap<>(limits));
+	}
+
+	/**
+	 * Parse limits from an object mapping {@link Type} names to objects with a {@code rate} per second
+	 * and a {@code burst} size.
+	 * 
+	 * @param source name of the configuration, for error messages
+	 */
+	public static IssuerRateLimits fromJSON(JsonObject configured, String source) {
+		if (configured == null || configured.isEmpty()) {
+			return NONE;
+		}
+		Map<Type, Limit> limits = new EnumMap<>(Type.class);
+		for (Map.Entry<String, JsonValue> entry : configured.entrySet()) {
+			Type type;
+			try {
+				type = Type.valueOf(entry.getKey());
+			}
+			catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("Unknown transaction type '" + entry.getKey() + "' in '" +
+						source + "'", e);
+			}
+			if (!isLimitable(type)) {
+				throw new IllegalArgumentException("Transaction type '" + type + "' in '" + source +
+						"' cannot be rate limited; only RegisterValidityKey and UpdateInteractivity can");
+			}
+			JsonObject limit = (JsonObject) entry.getValue();
+			limits.put(type, new Limit(limit.getJsonNumber("rate").longValueExact(),
+					limit.getJsonNumber("burst").longValueExact()));
+		}
+		return new IssuerRateLimits(limits);
+	}
+
+	public static boolean isLimitable(Type type) {
+		return type == Type.RegisterValidityKey || type == Type.UpdateInteractivity;
+	}
+
+	/** index of the issuer a transaction is attributed to, if it is of a limitable type */
+	public static Optional<Integer> issuerIndexOf(DTVATransaction transaction) {
+		if (!isLimitable(transaction.getType())) {
+			return Optional.empty();
+		}
+		return Optional.of(((ValidityKeyTransaction) transaction).getKey().getIssuerIndex());
+	}
+
+	public Optional<Limit> getLimit(Type type) {
+		return Optional.ofNullable(limits.get(type));
+	}
+
+	public Map<Type, Limit> getLimits() {
+		return limits;
+	}
+
+	public boolean isEmpty() {
+		return limits.isEmpty();
+	}
+
+	/** limits admitting no more than either of these or the other */
+	public IssuerRateLimits stricter(IssuerRateLimits other) {
+		if (other.isEmpty()) {
+			return this;
+		}
+		if (isEmpty()) {
+			return other;
+		}
+		Map<Type, Limit> combined = new EnumMap<>(Type.class);
+		combined.putAll(limits);
+		other.limits.forEach((type, limit) -> combined.merge(type, limit, Limit::stricter));
+		return new IssuerRateLimits(combined);
+	}
+
+	static long toEpochNanos(Instant instant) {
+		return Math.addExact(Math.multiplyExact(instant.getEpochSecond(), NANOS_PER_SECOND), instant.getNano());
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof IssuerRateLimits && limits.equals(((IssuerRateLimits) obj).limits);
+	}
+
+	@Override
+	public int hashCode() {
+		return limits.hashCode();
+	}
+
+	public static final class Limit {
+		/** returned by {@link #admit(long, long)} when a transaction does not fit within the limit */
+		public static final long REFUSED = Long.MIN_VALUE;
+
+		private final long rate;
+		private final long burst;
+		private final long interval;
+		// interval * burst, how far ahead of now the arrival time may run
+		private final long window;
+
+		/**
+		 * @param rate transactions per second replenished
+		 * @param burst transactions which may be admitted at once after a quiet period, taking no more
+		 * than a year to replenish
+		 */
+		public Limit(long rate, long burst) {
+			if (rate < 1 || rate > NANOS_PER_SECOND || burst < 1) {
+				throw new IllegalArgumentException("Rate limits need a rate of 1 to " + NANOS_PER_SECOND +
+						" per second and a burst of at least 1");
+			}
+			long interval = NANOS_PER_SECOND / rate;
+			if (burst > MAX_WINDOW_NANOS / interval) {
+				throw new IllegalArgumentException("A burst of " + burst + " at " + rate +
+						" per second would take more than a year to replenish");
+			}
+			this.rate = rate;
+			this.burst = burst;
+			this.interval = interval;
+			this.window = interval * burst;
+		}
+
+		public long getRate() {
+			return rate;
+		}
+
+		public long getBurst() {
+			return burst;
+		}
+
+		/**
+		 * Admit one transaction arriving at {@code now} to a bucket.
+		 * 
+		 * @param arrival the bucket's theoretical arrival time, or any time at or before {@code now} for a
+		 * full bucket
+		 * @return the bucket's new theoretical arrival time, or {@link #REFUSED}
+		 */
+		public long admit(long arrival, long now) {
+			long next = Math.max(arrival, now) + interval;
+			return next - now > window ? REFUSED : next;
+		}
+
+		/** the arrival time after returning a transaction admitted against it */
+		public long refund(long arrival) {
+			return arrival - interval;
+		}
+
+		/** how long until a transaction arriving at {@code now} would be admitted */
+		public Duration getRetryAfter(long arrival, long now) {
+			return Duration.ofNanos(Math.max(0, Math.max(arrival, now) + interval - now - window));
+		}
+
+		Limit stricter(Limit other) {
+			return new Limit(Math.min(rate, other.rate), Math.min(burst, other.burst));
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Limit)) {
+				return false;
+			}
+			Limit other = (Limit) obj;
+			return rate == other.rate && burst == other.burst;
+		}
+
+		@Override
+		public int hashCode() {
+			return Long.hashCode(rate) * 31 + Long.hashCode(burst);
+		}
+
+		@Override
+		public String toString() {
+			return rate + "/s, burst " + burst;
+		}
+	}
+}
@@ -15,6 +15,9 @@
  */
 package com.pingidentity.labs.dtva.application.impl;
 
+import java.time.Instant;
+import java.util.Optional;
+
 import com.pingidentity.labs.dtva.application.Issuer;
 import com.pingidentity.labs.dtva.application.Participant;
 
@@ -39,4 +42,8 @@ public class IssuerViewImpl implements Issuer {
 	public int getIndex() {
 		return issuerImpl.getIndex();
 	}
+
+	public Optional<Instant> getInvalidatedBefore() {
+		return issuerImpl.getInvalidatedBefore();
+	}
 }
\ No newline at end of file
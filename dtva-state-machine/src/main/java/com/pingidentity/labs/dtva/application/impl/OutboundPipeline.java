@@ -0,0 +1,380 @@
+/*
+ * Copyright (c) 2017 Ping Identity
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pingidentity.labs.dtva.application.impl;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.validation.constraints.NotNull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.pingidentity.labs.dtva.application.ValidityKey;
+import com.pingidentity.labs.dtva.application.transactions.DTVATransaction;
+import com.pingidentity.labs.dtva.application.transactions.DTVATransaction.Type;
+import com.pingidentity.labs.dtva.application.transactions.ValidityKeyInteractivityTransaction;
+import com.pingidentity.labs.dtva.application.transactions.ValidityKeyInvalidationTransaction;
+import com.pingidentity.labs.dtva.application.transactions.ValidityKeyRegistrationTransaction;
+
+/**
+ * Feeds locally submitted transactions to the platform in priority order.
+ * 
+ * Each {@link Lane} has its own queue and {@link BatchPolicy}. A single dispatch thread always drains
+ * a ready batch from the highest priority lane first. Invalidations therefore overtake any backlog of
+ * interactivity updates. Interactivity updates for a validity key which already has one waiting are
+ * coalesced, as consensus would record the same activity for both.
+ * 
+ * An invalidation must not overtake the registration of its own key, which consensus would then not
+ * know of and so ignore. An invalidation submitted while its key's registration is still waiting is
+ * queued in the registration lane behind it instead.
+ */
+public class OutboundPipeline {
+	private static final Logger log = LoggerFactory.getLogger(OutboundPipeline.class);
+
+	/** local configuration object mapping {@link Lane} names to their batch policy */
+	public static final String CONFIGURATION_KEY = "outbound-lanes";
+
+	/** Lanes in priority order, highest first */
+	public enum Lane {
+		Invalidate(new BatchPolicy(256, Duration.ZERO)),
+		Register(new BatchPolicy(256, Duration.ZERO)),
+		Background(new BatchPolicy(512, Duration.ofMillis(50)));
+
+		private final BatchPolicy defaultPolicy;
+
+		Lane(BatchPolicy defaultPolicy) {
+			this.defaultPolicy = defaultPolicy;
+		}
+
+		public BatchPolicy getDefaultPolicy() {
+			return defaultPolicy;
+		}
+
+		public static Lane forType(Type type) {
+			switch (type) {
+			case Invalidate:
+			case InvalidateIssuer:
+				return Invalidate;
+			case RegisterValidityKey:
+				return Register;
+			case UpdateInteractivity:
+			case RegisterIssuer:
+				return Background;
+			default:
+				throw new IllegalArgumentException("No lane for transaction type " + type);
+			}
+		}
+	}
+
+	/**
+	 * How a lane groups transactions: a batch is dispatched once it reaches the maximum size, or once
+	 * its oldest transaction has waited for the linger time.
+	 */
+	public static final class BatchPolicy {
+		private final          int      maxBatchSize;
+		private final @NotNull Duration linger;
+
+		public BatchPolicy(int maxBatchSize, @NotNull Duration linger) {
+			if (maxBatchSize < 1) {
+				throw new IllegalArgumentException("batch size must be positive");
+			}
+			this.maxBatchSize = maxBatchSize;
+			this.linger = Objects.requireNonNull(linger);
+		}
+
+		public static BatchPolicy fromJson(JsonObject json, BatchPolicy defaults) {
+			return new BatchPolicy(
+					json.getInt("batch-size", defaults.getMaxBatchSize()),
+					Duration.ofMillis(json.getInt("linger-ms", (int) defaults.getLinger().toMillis())));
+		}
+
+		public int getMaxBatchSize() {
+			return maxBatchSize;
+		}
+
+		public Duration getLinger() {
+			return linger;
+		}
+	}
+
+	private final Map<Lane, LaneQueue>        lanes = new EnumMap<>(Lane.class);
+	private final Consumer<DTVATransaction>   sink;
+	private final Consumer<DTVATransaction>   onFailure;
+	// keys with an interactivity update already waiting in the background lane
+	private final Set<ValidityKey>            queuedInteractivity = Collections.newSetFromMap(new ConcurrentHashMap<>());
+	// keys with a registration waiting in the register lane
+	private final Set<ValidityKey>            queuedRegistrations = Collections.newSetFromMap(new ConcurrentHashMap<>());
+	private volatile Thread                   dispatcher;
+
+	/**
+	 * @param sink receives transactions in dispatch order, typically by queueing them with the platform
+	 * @param onFailure told of any transaction the sink failed to accept
+	 * @param policies batch policy for each lane, with defaults used for any lane not supplied
+	 */
+	public OutboundPipeline(Consumer<DTVATransaction> sink, Consumer<DTVATransaction> onFailure,
+			Map<Lane, BatchPolicy> policies) {
+		this.sink = Objects.requireNonNull(sink);
+		this.onFailure = Objects.requireNonNull(onFailure);
+		for (Lane lane : Lane.values()) {
+			lanes.put(lane, new LaneQueue(policies.getOrDefault(lane, lane.getDefaultPolicy())));
+		}
+	}
+
+	public static Map<Lane, BatchPolicy> policiesFromConfiguration(JsonObject localConfiguration) {
+		Map<Lane, BatchPolicy> policies = new EnumMap<>(Lane.class);
+		if (localConfiguration != null && localConfiguration.containsKey(CONFIGURATION_KEY)) {
+			JsonObject configured = localConfiguration.getJsonObject(CONFIGURATION_KEY);
+			for (String name : configured.keySet()) {
+				Lane lane;
+				try {
+					lane = Lane.valueOf(name);
+				}
+				catch (IllegalArgumentException e) {
+					throw new IllegalArgumentException("Unknown lane '" + name + "' in '" + CONFIGURATION_KEY + "'", e);
+				}
+				policies.put(lane, BatchPolicy.fromJson(configured.getJsonObject(name), lane.getDefaultPolicy()));
+			}
+		}
+		return policies;
+	}
+
+	/** Start the dispatch thread */
+	public synchronized void start() {
+		if (dispatcher != null) {
+			throw new IllegalStateException("pipeline already started");
+		}
+		Thread thread = new Thread(this::dispatchLoop, "dtva-outbound-pipeline");
+		thread.setDaemon(true);
+		dispatcher = thread;
+		thread.start();
+	}
+
+	/** Stop the dispatch thread. Transactions still queued are not sent. */
+	public synchronized void stop() {
+		Thread thread = dispatcher;
+		dispatcher = null;
+		if (thread != null) {
+			thread.interrupt();
+		}
+	}
+
+	/**
+	 * Queue a transaction in the lane for its type, or behind the waiting registration of its key.
+	 * 
+	 * @return false if the transaction was coalesced with one already waiting, and so will not be sent
+	 */
+	public boolean submit(DTVATransaction transaction) {
+		Lane lane = Lane.forType(transaction.getType());
+		switch (transaction.getType()) {
+		case UpdateInteractivity:
+			if (!queuedInteractivity.add(((ValidityKeyInteractivityTransaction) transaction).getKey())) {
+				lanes.get(Lane.Background).coalesced.increment();
+				return false;
+			}
+			break;
+		case RegisterValidityKey:
+			// recorded before queueing, so that a later invalidation cannot miss it
+			queuedRegistrations.add(((ValidityKeyRegistrationTransaction) transaction).getKey());
+			break;
+		case Invalidate:
+			if (queuedRegistrations.contains(((ValidityKeyInvalidationTransaction) transaction).getKey())) {
+				// if the registration is dispatched meanwhile, this is still sent after it
+				lane = Lane.Register;
+				lanes.get(lane).heldBehindRegistration.increment();
+			}
+			break;
+		default:
+		}
+		lanes.get(lane).offer(transaction);
+		Thread thread = dispatcher;
+		if (thread != null) {
+			LockSupport.unpark(thread);
+		}
+		return true;
+	}
+
+	private void dispatchLoop() {
+		while (dispatcher == Thread.currentThread()) {
+			long now = System.nanoTime();
+			long wakeAt = Long.MAX_VALUE;
+			boolean dispatched = false;
+			for (LaneQueue lane : lanes.values()) {
+				long readyAt = lane.readyAt();
+				if (readyAt - now <= 0) {
+					dispatch(lane, now);
+					// start over from the highest priority lane after every batch
+					dispatched = true;
+					break;
+				}
+				wakeAt = Math.min(wakeAt, readyAt);
+			}
+			if (!dispatched) {
+				if (wakeAt == Long.MAX_VALUE) {
+					LockSupport.park(this);
+				} else {
+					LockSupport.parkNanos(this, wakeAt - now);
+				}
+			}
+		}
+	}
+
+	private void dispatch(LaneQueue lane, long now) {
+		int batchSize = lane.policy.getMaxBatchSize();
+		for (int i = 0; i < batchSize; i++) {
+			Queued queued = lane.poll();
+			if (queued == null) {
+				break;
+			}
+			DTVATransaction transaction = queued.transaction;
+			if (transaction.getType() == Type.UpdateInteractivity) {
+				queuedInteractivity.remove(((ValidityKeyInteractivityTransaction) transaction).getKey());
+			}
+			else if (transaction.getType() == Type.RegisterValidityKey) {
+				queuedRegistrations.remove(((ValidityKeyRegistrationTransaction) transaction).getKey());
+			}
+			lane.recordDelay(now - queued.enqueuedAt);
+			try {
+				sink.accept(transaction);
+			}
+			catch (RuntimeException e) {
+				log.error("Unable to queue transaction " + transaction.getType() + " with platform", e);
+				onFailure.accept(transaction);
+			}
+		}
+		lane.batches.increment();
+	}
+
+	/** Number of transactions waiting in a lane */
+	public int getQueued(Lane lane) {
+		return lanes.get(lane).size.get();
+	}
+
+	/** Average time transactions recently dispatched from a lane spent waiting */
+	public Duration getRecentQueueDelay(Lane lane) {
+		return Duration.ofNanos(lanes.get(lane).recentDelayNanos.get());
+	}
+
+	public JsonObject getMetrics() {
+		JsonObjectBuilder builder = Json.createObjectBuilder();
+		lanes.forEach((lane, queue) -> builder.add(lane.name(), queue.getMetrics()));
+		return builder.build();
+	}
+
+	private static final class Queued {
+		final DTVATransaction transaction;
+		final long            enqueuedAt;
+
+		Queued(DTVATransaction transaction, long enqueuedAt) {
+			this.transaction = transaction;
+			this.enqueuedAt = enqueuedAt;
+		}
+	}
+
+	private static final class LaneQueue {
+		// weight of the newest sample in the recent queue delay average
+		private static final double RECENT_DELAY_WEIGHT = 0.05;
+
+		final BatchPolicy         policy;
+		final long                lingerNanos;
+		final Queue<Queued>       queue = new ConcurrentLinkedQueue<>();
+		final AtomicInteger       size = new AtomicInteger();
+
+		final LongAdder           submitted = new LongAdder();
+		final LongAdder           coalesced = new LongAdder();
+		final LongAdder           heldBehindRegistration = new LongAdder();
+		final LongAdder           dispatched = new LongAdder();
+		final LongAdder           batches = new LongAdder();
+		final LongAdder           totalDelayNanos = new LongAdder();
+		final AtomicLong          maxDelayNanos = new AtomicLong();
+		final AtomicLong          recentDelayNanos = new AtomicLong();
+
+		LaneQueue(BatchPolicy policy) {
+			this.policy = policy;
+			this.lingerNanos = policy.getLinger().toNanos();
+		}
+
+		void offer(DTVATransaction transaction) {
+			queue.offer(new Queued(transaction, System.nanoTime()));
+			size.incrementAndGet();
+			submitted.increment();
+		}
+
+		Queued poll() {
+			Queued queued = queue.poll();
+			if (queued != null) {
+				size.decrementAndGet();
+			}
+			return queued;
+		}
+
+		// the nanoTime at which the lane has a batch ready, or Long.MAX_VALUE if it is empty
+		long readyAt() {
+			Queued oldest = queue.peek();
+			if (oldest == null) {
+				return Long.MAX_VALUE;
+			}
+			if (size.get() >= policy.getMaxBatchSize()) {
+				return oldest.enqueuedAt;
+			}
+			return oldest.enqueuedAt + lingerNanos;
+		}
+
+		// only called from the dispatch thread
+		void recordDelay(long delayNanos) {
+			dispatched.increment();
+			totalDelayNanos.add(delayNanos);
+			maxDelayNanos.accumulateAndGet(delayNanos, Math::max);
+			long recent = recentDelayNanos.get();
+			recentDelayNanos.set(recent + (long) (RECENT_DELAY_WEIGHT * (delayNanos - recent)));
+		}
+
+		JsonObject getMetrics() {
+			long dispatchedCount = dispatched.sum();
+			double meanDelayMillis = dispatchedCount == 0 ? 0 :
+				totalDelayNanos.sum() / (double) dispatchedCount / TimeUnit.MILLISECONDS.toNanos(1);
+			return Json.createObjectBuilder()
+					.add("queued", size.get())
+					.add("submitted", submitted.sum())
+					.add("coalesced", coalesced.sum())
+					.add("held_behind_registration", heldBehindRegistration.sum())
+					.add("dispatched", dispatchedCount)
+					.add("batches", batches.sum())
+					.add("mean_delay_ms", meanDelayMillis)
+					.add("recent_delay_ms", recentDelayNanos.get() / (double) TimeUnit.MILLISECONDS.toNanos(1))
+					.add("max_delay_ms", maxDelayNanos.get() / (double) TimeUnit.MILLISECONDS.toNanos(1))
+					.add("batch_size", policy.getMaxBatchSize())
+					.add("linger_ms", policy.getLinger().toMillis())
+					.build();
+		}
+	}
+}
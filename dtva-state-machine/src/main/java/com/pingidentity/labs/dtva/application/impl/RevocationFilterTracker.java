@@ -0,0 +1,288 @@
+/*
+ * Copyright (c) 2017 Ping Identity
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pingidentity.labs.dtva.application.impl;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import javax.json.Json;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+
+import com.pingidentity.labs.dtva.application.RevocationFilter;
+import com.pingidentity.labs.dtva.application.StateChange;
+import com.pingidentity.labs.dtva.application.ValidityKey;
+import com.pingidentity.labs.dtva.application.transactions.DTVATransaction;
+import com.pingidentity.labs.rapport.TransactionMessage;
+
+/**
+ * Maintains a {@link RevocationFilter} of individually invalidated validity keys, setting bits as
+ * invalidations appear in the change log of each new state.
+ * 
+ * Bloom filters cannot have entries removed, so once enough of the invalidated keys have expired out
+ * of the system the filter is rebuilt from the state as a new generation. Rebuilds scan every key, so
+ * they run on a background thread while the current generation keeps being updated and served; the
+ * new generation catches up with the changes applied meanwhile and then replaces it in one step.
+ */
+public class RevocationFilterTracker implements TransactionListener {
+	/** local configuration object with "expected-entries" and "false-positive-rate" */
+	public static final String CONFIGURATION_KEY = "revocation-filter";
+	static final int DEFAULT_EXPECTED_ENTRIES = 100_000;
+	static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+	// bound on the positions kept for incremental updates
+	private static final int MAX_HISTORY_POSITIONS = 1 << 16;
+
+	private final int bitCount;
+	private final int hashCount;
+	private final Executor rebuilder;
+
+	// all guarded by this
+	private long[] words;
+	private long generation;
+	private long version = -1;
+	private long historySince;
+	private final ArrayDeque<Long> historyVersions = new ArrayDeque<>();
+	private final ArrayDeque<int[]> historyPositions = new ArrayDeque<>();
+	private int historySize;
+	private int inserted;
+	private int stale;
+	private RevocationFilter snapshot;
+	// the most recent state applied, which a rebuild catches up to before it is published
+	private StateImpl latestState;
+	private boolean rebuildPending;
+
+	public RevocationFilterTracker(int expectedEntries, double falsePositiveRate) {
+		this(expectedEntries, falsePositiveRate, Executors.newSingleThreadExecutor((runnable) -> {
+			Thread thread = new Thread(runnable, "dtva-revocation-filter-rebuild");
+			thread.setDaemon(true);
+			return thread;
+		}));
+	}
+
+	RevocationFilterTracker(int expectedEntries, double falsePositiveRate, Executor rebuilder) {
+		if (expectedEntries <= 0 || !(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+			throw new IllegalArgumentException("Expected entries must be positive and false positive rate between 0 and 1");
+		}
+		double bits = Math.ceil(-expectedEntries * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+		this.bitCount = (int) Math.min(bits, Integer.MAX_VALUE - Long.SIZE);
+		this.hashCount = (int) Math.max(1, Math.round((double) bitCount / expectedEntries * Math.log(2)));
+		this.words = new long[(bitCount + Long.SIZE - 1) / Long.SIZE];
+		this.rebuilder = rebuilder;
+	}
+
+	public static RevocationFilterTracker fromConfiguration(JsonObject localConfiguration) {
+		JsonObject configuration = localConfiguration == null ? null : localConfiguration.getJsonObject(CONFIGURATION_KEY);
+		if (configuration == null) {
+			return new RevocationFilterTracker(DEFAULT_EXPECTED_ENTRIES, DEFAULT_FALSE_POSITIVE_RATE);
+		}
+		JsonNumber expectedEntries = configuration.getJsonNumber("expected-entries");
+		JsonNumber falsePositiveRate = configuration.getJsonNumber("false-positive-rate");
+		return new RevocationFilterTracker(
+				expectedEntries == null ? DEFAULT_EXPECTED_ENTRIES : expectedEntries.intValue(),
+				falsePositiveRate == null ? DEFAULT_FALSE_POSITIVE_RATE : falsePositiveRate.doubleValue());
+	}
+
+	@Override
+	public synchronized void transactionsApplied(StateImpl newState, List<? extends TransactionMessage<DTVATransaction>> transactions) {
+		latestState = newState;
+		Optional<Stream<StateChange>> changes = version < 0 ? Optional.empty() : newState.getChangesSince(version);
+		if (!changes.isPresent()) {
+			// the current generation cannot be brought up to date, so must not be served
+			version = -1;
+			snapshot = null;
+			scheduleRebuild(newState);
+			return;
+		}
+		int[] added = apply(words, changes.get().iterator());
+		version = newState.getChangeSequence();
+		snapshot = null;
+		if (stale > 0 && stale * 2 > inserted) {
+			scheduleRebuild(newState);
+		}
+		if (added.length > 0) {
+			historyVersions.addLast(version);
+			historyPositions.addLast(added);
+			historySize += added.length;
+			while (historySize > MAX_HISTORY_POSITIONS) {
+				historySince = historyVersions.removeFirst();
+				historySize -= historyPositions.removeFirst().length;
+			}
+		}
+	}
+
+	/** Set the bits of invalidated keys and count expired ones, returning the positions newly set */
+	private int[] apply(long[] target, Iterator<StateChange> changes) {
+		int[] added = new int[0];
+		int addedCount = 0;
+		while (changes.hasNext()) {
+			StateChange change = changes.next();
+			ValidityKey key = change.getValidityKey().orElse(null);
+			if (key == null) {
+				continue;
+			}
+			long[] positions = RevocationFilter.positions(key.getIssuerIndex(), key.getNonce(), bitCount, hashCount);
+			switch (change.getKind()) {
+			case Invalidated:
+				inserted++;
+				for (long position : positions) {
+					if (set(target, position)) {
+						if (addedCount == added.length) {
+							added = Arrays.copyOf(added, Math.max(16, addedCount * 2));
+						}
+						added[addedCount++] = (int) position;
+					}
+				}
+				break;
+			case Expired:
+				if (contains(target, positions)) {
+					stale++;
+				}
+				break;
+			default:
+			}
+		}
+		return Arrays.copyOf(added, addedCount);
+	}
+
+	/**
+	 * The current filter. If no generation is ready yet, such as just after startup, this waits for one
+	 * to be built, from the supplied state if none has been applied.
+	 */
+	public synchronized RevocationFilter getFilter(Supplier<StateImpl> currentState) {
+		while (version < 0) {
+			if (latestState == null) {
+				latestState = currentState.get();
+			}
+			scheduleRebuild(latestState);
+			try {
+				wait();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted waiting for the revocation filter", e);
+			}
+		}
+		if (snapshot == null) {
+			snapshot = new RevocationFilter(generation, version, bitCount, hashCount, words.clone(),
+					historySince,
+					historyVersions.stream().mapToLong(Long::longValue).toArray(),
+					historyPositions.toArray(new int[historyPositions.size()][]));
+		}
+		return snapshot;
+	}
+
+	public synchronized JsonObject getMetrics() {
+		return Json.createObjectBuilder()
+				.add("generation", generation)
+				.add("version", version)
+				.add("bits", bitCount)
+				.add("hashes", hashCount)
+				.add("entries", inserted)
+				.add("stale", stale)
+				.add("history_positions", historySize)
+				.build();
+	}
+
+	private void scheduleRebuild(StateImpl state) {
+		if (rebuildPending) {
+			// the pending rebuild catches up to the latest state before publishing
+			return;
+		}
+		rebuildPending = true;
+		rebuilder.execute(() -> rebuild(state));
+	}
+
+	private void rebuild(StateImpl state) {
+		try {
+			while (state != null) {
+				long[] built = new long[(bitCount + Long.SIZE - 1) / Long.SIZE];
+				int builtInserted = 0;
+				for (Map.Entry<ValidityKey, ValidityKeyRecord> entry : state.periods.entrySet()) {
+					if (entry.getValue().getInvalidatedAt().isPresent()) {
+						ValidityKey key = entry.getKey();
+						for (long position : RevocationFilter.positions(key.getIssuerIndex(), key.getNonce(), bitCount, hashCount)) {
+							set(built, position);
+						}
+						builtInserted++;
+					}
+				}
+				state = publish(state, built, builtInserted);
+			}
+		}
+		catch (RuntimeException | Error e) {
+			synchronized (this) {
+				rebuildPending = false;
+				notifyAll();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Replace the current generation with one built from the given state, after applying the changes
+	 * since. If those are no longer available, returns the state to build from instead.
+	 */
+	private synchronized StateImpl publish(StateImpl builtFrom, long[] built, int builtInserted) {
+		StateImpl latest = latestState == null ? builtFrom : latestState;
+		Optional<Stream<StateChange>> changes = latest.getChangesSince(builtFrom.getChangeSequence());
+		if (!changes.isPresent()) {
+			return latest;
+		}
+		inserted = builtInserted;
+		stale = 0;
+		apply(built, changes.get().iterator());
+		words = built;
+		// the generation is named for the state it was built from
+		generation = builtFrom.getChangeSequence();
+		version = latest.getChangeSequence();
+		historySince = version;
+		historyVersions.clear();
+		historyPositions.clear();
+		historySize = 0;
+		snapshot = null;
+		rebuildPending = false;
+		notifyAll();
+		return null;
+	}
+
+	/** @return true if the bit was not already set */
+	private static boolean set(long[] words, long position) {
+		int word = (int) (position >>> 6);
+		long mask = 1L << (position & 63);
+		if ((words[word] & mask) != 0) {
+			return false;
+		}
+		words[word] |= mask;
+		return true;
+	}
+
+	private static boolean contains(long[] words, long[] positions) {
+		for (long position : positions) {
+			if ((words[(int) (position >>> 6)] & (1L << (position & 63))) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
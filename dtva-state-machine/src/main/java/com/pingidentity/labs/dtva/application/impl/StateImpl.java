@@ -17,38 +17,68 @@ package com.pingidentity.labs.dtva.application.impl;
 
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.TreeSet;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.stream.Stream;
 
 import com.pingidentity.labs.dtva.application.Constitution;
 import com.pingidentity.labs.dtva.application.Participant;
+import com.pingidentity.labs.dtva.application.StateChange;
 import com.pingidentity.labs.dtva.application.ValidityKey;
 import com.pingidentity.labs.dtva.application.ValidityKeyView;
 
 public final class StateImpl {
+	// how far an ordered lookup steps forward through records before searching afresh
+	private static final int MAX_ORDERED_STEPS = 32;
+
+	/** orders validity keys by issuer index, then as {@link #periods} */
+	public static final Comparator<ValidityKey> ISSUER_ORDER =
+			Comparator.comparingInt(ValidityKey::getIssuerIndex).thenComparing(Comparator.naturalOrder());
+
 	public final NavigableMap<ValidityKey, ValidityKeyRecord> periods;
+	/** the same records as {@link #periods}, in {@link #ISSUER_ORDER} */
+	final IssuerIndex periodsByIssuer;
 	private final Constitution constitution;
 	public final List<IssuerImpl> issuerImpls;
 	public final Map<String, IssuerImpl> issuersByName;
+	private final ChangeLog changeLog;
+	private final IssuerRateBuckets rateBuckets;
+	private final ValidityKeyFilter keyFilter;
 
 	public StateImpl(Constitution constitution) {
 		this.constitution = constitution;
 		periods = Collections.unmodifiableNavigableMap(new ConcurrentSkipListMap<>());
+		periodsByIssuer = IssuerIndex.EMPTY;
 		issuerImpls = Collections.unmodifiableList(Collections.emptyList());
 		issuersByName = Collections.unmodifiableMap(Collections.emptyMap());
+		changeLog = new ChangeLog();
+		rateBuckets = new IssuerRateBuckets();
+		keyFilter = ValidityKeyFilter.empty();
 	}
 
 	StateImpl(Constitution constitution,
-			ConcurrentSkipListMap<ValidityKey, ValidityKeyRecord> periods, List<IssuerImpl> issuerImpls) {
+			ConcurrentSkipListMap<ValidityKey, ValidityKeyRecord> periods,
+			IssuerIndex periodsByIssuer,
+			List<IssuerImpl> issuerImpls,
+			ChangeLog changeLog,
+			IssuerRateBuckets rateBuckets, ValidityKeyFilter keyFilter) {
+		assert(periods.size() == periodsByIssuer.size());
 		this.constitution = constitution;
+		this.rateBuckets = rateBuckets;
+		this.keyFilter = keyFilter;
+		this.changeLog = changeLog;
 		this.periods = Collections.unmodifiableNavigableMap(periods);
+		this.periodsByIssuer = periodsByIssuer;
 		this.issuerImpls = Collections.unmodifiableList(new ArrayList<>(issuerImpls));
 		Map<String, IssuerImpl> issuersByName = new HashMap<String, IssuerImpl>();
 		for (IssuerImpl issuerImpl : issuerImpls) {
@@ -78,7 +108,7 @@ public final class StateImpl {
 		IssuerImpl issuerImpl = issuerImpls.get(key.getIssuerIndex());
 		Participant participant = constitution.getParticipants().get(issuerImpl.getIssuingParticipant());
 		IssuerViewImpl issuer = new IssuerViewImpl(issuerImpl, participant);
-		return record.toView(now, issuer, key).orElse(null);
+		return record.toView(now, issuerImpl, issuer, key).orElse(null);
 	}
 
 	/* (non-Javadoc)
@@ -95,10 +125,130 @@ public final class StateImpl {
 	 * @see com.pingidentity.labs.dsm.state.DSMState#getSession(java.time.Instant, com.pingidentity.labs.dsm.state.CompoundKey)
 	 */
 	public Optional<ValidityKeyView> viewKeyValidity(Instant now, ValidityKey key) {
+		if (!keyFilter.mightContain(key)) {
+			return Optional.empty();
+		}
 		Optional<ValidityKeyRecord> record = Optional.ofNullable(periods.get(key));
+		if (!record.isPresent()) {
+			keyFilter.recordFalsePositives(1);
+		}
 		return record.map((r) -> toView(key, r, now));
 	}
 
+	/**
+	 * Evaluate several validity keys in one ordered pass over the records.
+	 * 
+	 * The keys are visited in sorted order, stepping forward from the previous match rather than
+	 * searching from the head of the map each time. A fresh search is only made when the next key is
+	 * more than a few records away. Keys ruled out by the {@link ValidityKeyFilter} are not visited.
+	 */
+	public Map<ValidityKey, ValidityKeyView> viewKeyValidities(Instant now, Collection<ValidityKey> keys) {
+		Map<ValidityKey, ValidityKeyView> results = new HashMap<>();
+		TreeSet<ValidityKey> candidates = new TreeSet<>();
+		for (ValidityKey key : keys) {
+			if (keyFilter.mightContain(key)) {
+				candidates.add(key);
+			}
+		}
+		Iterator<Map.Entry<ValidityKey, ValidityKeyRecord>> cursor = null;
+		Map.Entry<ValidityKey, ValidityKeyRecord> current = null;
+		int found = 0;
+		for (ValidityKey key : candidates) {
+			if (cursor != null) {
+				int steps = 0;
+				while (current != null && current.getKey().compareTo(key) < 0) {
+					if (++steps > MAX_ORDERED_STEPS) {
+						cursor = null;
+						break;
+					}
+					current = cursor.hasNext() ? cursor.next() : null;
+				}
+				if (cursor != null && current == null) {
+					// walked past the last record, so none of the remaining keys are present
+					break;
+				}
+			}
+			if (cursor == null) {
+				cursor = periods.tailMap(key, true).entrySet().iterator();
+				if (!cursor.hasNext()) {
+					break;
+				}
+				current = cursor.next();
+			}
+			if (current.getKey().compareTo(key) == 0) {
+				found++;
+				ValidityKeyView view = toView(key, current.getValue(), now);
+				if (view != null) {
+					results.put(key, view);
+				}
+			}
+		}
+		if (found < candidates.size()) {
+			keyFilter.recordFalsePositives(candidates.size() - found);
+		}
+		return results;
+	}
+
+	/**
+	 * Evaluate the validity keys of one issuer in order of hard expiry, optionally resuming after a
+	 * previously returned key. Only the requested range of the issuer index is visited, so taking a
+	 * page of results costs a single search plus the page itself.
+	 * 
+	 * @param after the last key already seen, if resuming
+	 * @param hardExpiryFrom earliest hard expiry to include, if limited
+	 * @param hardExpiryBefore hard expiry to stop before, if limited
+	 */
+	public Stream<ValidityKeyView> getIssuerValidityKeys(Instant now, int issuerIndex, Optional<ValidityKey> after,
+			Optional<Instant> hardExpiryFrom, Optional<Instant> hardExpiryBefore) {
+		ValidityKey lower = firstOfIssuerAt(issuerIndex, hardExpiryFrom.orElse(Instant.MIN));
+		ValidityKey upper = hardExpiryBefore.isPresent() ?
+				firstOfIssuerAt(issuerIndex, hardExpiryBefore.get()) :
+				firstOfIssuerAt(issuerIndex + 1, Instant.MIN);
+		boolean lowerInclusive = true;
+		if (after.isPresent() && ISSUER_ORDER.compare(after.get(), lower) >= 0) {
+			lower = after.get();
+			lowerInclusive = false;
+		}
+		if (ISSUER_ORDER.compare(lower, upper) >= 0) {
+			return Stream.empty();
+		}
+		return periodsByIssuer.range(lower, lowerInclusive, upper)
+				.map(kv -> toView(kv, now))
+				.filter(Objects::nonNull);
+	}
+
+	// sorts no later than any key of the issuer with this hard expiry, given non-negative interactivity timeouts
+	private static ValidityKey firstOfIssuerAt(int issuerIndex, Instant hardExpiryAt) {
+		return new ValidityKey(hardExpiryAt, issuerIndex, Optional.empty(), Long.MIN_VALUE);
+	}
+
+	ChangeLog getChangeLog() {
+		return changeLog;
+	}
+
+	/** sequence number of the last change log entry included in this state */
+	public long getChangeSequence() {
+		return changeLog.getSequence();
+	}
+
+	/** issuer rate limit buckets as of this state, not to be modified */
+	IssuerRateBuckets getRateBuckets() {
+		return rateBuckets;
+	}
+
+	/** membership filter over the keys of {@link #periods} */
+	public ValidityKeyFilter getKeyFilter() {
+		return keyFilter;
+	}
+
+	/**
+	 * Changes included in this state after the given sequence, or {@link Optional#empty()} if that
+	 * point is no longer retained in the change log.
+	 */
+	public Optional<Stream<StateChange>> getChangesSince(long sequence) {
+		return changeLog.since(sequence);
+	}
+
 	/* (non-Javadoc)
 	 * @see com.pingidentity.labs.dsm.state.DSMState#getConstitution()
 	 */
@@ -16,7 +16,9 @@
 package com.pingidentity.labs.dtva.application.impl;
 
 import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -25,6 +27,7 @@ import com.pingidentity.labs.dtva.application.Constitution;
 import com.pingidentity.labs.dtva.application.Issuer;
 import com.pingidentity.labs.dtva.application.Participant;
 import com.pingidentity.labs.dtva.application.State;
+import com.pingidentity.labs.dtva.application.StateChange;
 import com.pingidentity.labs.dtva.application.ValidityKey;
 import com.pingidentity.labs.dtva.application.ValidityKeyView;
 
@@ -54,6 +57,27 @@ public class StateViewImpl implements State {
 		return state.viewKeyValidity(instant, key);
 	}
 
+	@Override
+	public Map<ValidityKey, ValidityKeyView> viewValidityKeys(Collection<ValidityKey> keys) {
+		return state.viewKeyValidities(instant, keys);
+	}
+
+	@Override
+	public Stream<? extends ValidityKeyView> viewIssuerValidityKeys(int issuerIndex, Optional<ValidityKey> after,
+			Optional<Instant> hardExpiryFrom, Optional<Instant> hardExpiryBefore) {
+		return state.getIssuerValidityKeys(instant, issuerIndex, after, hardExpiryFrom, hardExpiryBefore);
+	}
+
+	@Override
+	public long getChangeSequence() {
+		return state.getChangeSequence();
+	}
+
+	@Override
+	public Optional<Stream<StateChange>> viewChangesSince(long sequence) {
+		return state.getChangesSince(sequence);
+	}
+
 	@Override
 	public Constitution getConstitution() {
 		return state.getConstitution();
@@ -76,4 +100,15 @@ public class StateViewImpl implements State {
 				.map((iv) -> Issuer.class.cast(iv));
 	}
 
+	@Override
+	public Optional<Issuer> getIssuer(int index) {
+		List<IssuerImpl> issuers = state.getIssuers();
+		if (index < 0 || index >= issuers.size()) {
+			return Optional.empty();
+		}
+		IssuerImpl issuer = issuers.get(index);
+		return Optional.of(new IssuerViewImpl(issuer,
+				state.getConstitution().getParticipants().get(issuer.getIssuingParticipant())));
+	}
+
 }
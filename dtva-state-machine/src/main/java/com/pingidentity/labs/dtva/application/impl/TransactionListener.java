@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2017 Ping Identity
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pingidentity.labs.dtva.application.impl;
+
+import java.util.List;
+
+import com.pingidentity.labs.dtva.application.transactions.DTVATransaction;
+import com.pingidentity.labs.rapport.TransactionMessage;
+
+/**
+ * Receives notice from {@link DTVAStateManager} each time a set of transactions has been applied by
+ * consensus.
+ * 
+ * Listeners are called on the thread processing consensus, before the new state is returned to the
+ * platform, and so must not block.
+ */
+@FunctionalInterface
+public interface TransactionListener {
+	/**
+	 * @param newState the state resulting from applying the transactions
+	 * @param transactions the transactions applied, in consensus order
+	 */
+	void transactionsApplied(StateImpl newState, List<? extends TransactionMessage<DTVATransaction>> transactions);
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2017 Ping Identity
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pingidentity.labs.dtva.application.impl;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+
+import com.pingidentity.labs.dtva.application.RevocationFilter;
+import com.pingidentity.labs.dtva.application.ValidityKey;
+
+/**
+ * A counting Bloom filter over the validity keys held by a state, so that lookups of keys which are
+ * not in consensus can be answered without searching the records.
+ * 
+ * Counters are four bits, sixteen to a word, and are positioned by the same double hashing of issuer
+ * index and nonce as a {@link RevocationFilter}. Registering a key increments its counters and expiry
+ * decrements them. A counter which saturates is never decremented again, so the filter cannot give a
+ * false negative.
+ * 
+ * Each state is given a copy of the previous state's filter with the keys of its batch added and
+ * removed, and the filter is not modified once the state is published. The counters are held in
+ * blocks of {@value #WORDS_PER_BLOCK} words which a copy shares with its original, cloning a block
+ * only when first writing to it, so a batch costs the block references plus the blocks it touches
+ * rather than the whole filter. When the number of keys
+ * outgrows the capacity the filter was sized for, or shrinks to a small fraction of it, a filter of
+ * fitting size is built from the keys instead. Lookup counts are shared by every generation of the
+ * filter, for reporting.
+ */
+public final class ValidityKeyFilter {
+	static final int MIN_CAPACITY = 1024;
+	static final double FALSE_POSITIVE_RATE = 0.01;
+	private static final int COUNTERS_PER_WORD = 16;
+	private static final int SATURATED = 0xF;
+	static final int WORDS_PER_BLOCK = 64;
+	private static final int COUNTERS_PER_BLOCK = COUNTERS_PER_WORD * WORDS_PER_BLOCK;
+
+	private final int capacity;
+	private final int counterCount;
+	private final int hashCount;
+	private final long[][] blocks;
+	/** which blocks this filter allocated and may write, rather than shares with its original */
+	private final boolean[] owned;
+	private final Statistics statistics;
+	private int entries;
+	private int saturated;
+
+	private ValidityKeyFilter(int capacity, Statistics statistics) {
+		this.capacity = capacity;
+		double counters = Math.ceil(-capacity * Math.log(FALSE_POSITIVE_RATE) / (Math.log(2) * Math.log(2)));
+		this.counterCount = (int) Math.min(counters, (long) (Integer.MAX_VALUE - COUNTERS_PER_WORD));
+		this.hashCount = (int) Math.max(1, Math.round((double) counterCount / capacity * Math.log(2)));
+		int wordCount = (counterCount + COUNTERS_PER_WORD - 1) / COUNTERS_PER_WORD;
+		this.blocks = new long[(wordCount + WORDS_PER_BLOCK - 1) / WORDS_PER_BLOCK][WORDS_PER_BLOCK];
+		this.owned = new boolean[blocks.length];
+		Arrays.fill(owned, true);
+		this.statistics = statistics;
+	}
+
+	private ValidityKeyFilter(ValidityKeyFilter original) {
+		this.capacity = original.capacity;
+		this.counterCount = original.counterCount;
+		this.hashCount = original.hashCount;
+		this.blocks = original.blocks.clone();
+		this.owned = new boolean[blocks.length];
+		this.statistics = original.statistics;
+		this.entries = original.entries;
+		this.saturated = original.saturated;
+	}
+
+	/** A filter of the smallest capacity with no keys */
+	static ValidityKeyFilter empty() {
+		return new ValidityKeyFilter(MIN_CAPACITY, new Statistics());
+	}
+
+	/** A filter holding the given keys, with room for as many again */
+	static ValidityKeyFilter of(Collection<ValidityKey> keys) {
+		return of(keys, new Statistics());
+	}
+
+	private static ValidityKeyFilter of(Collection<ValidityKey> keys, Statistics statistics) {
+		int capacity = (int) Math.min(Math.max(MIN_CAPACITY, 2L * keys.size()), Integer.MAX_VALUE / 16);
+		ValidityKeyFilter filter = new ValidityKeyFilter(capacity, statistics);
+		for (ValidityKey key : keys) {
+			filter.add(key);
+		}
+		return filter;
+	}
+
+	/** A copy to be updated for a new state, sharing the counter blocks until they are written */
+	ValidityKeyFilter copy() {
+		return new ValidityKeyFilter(this);
+	}
+
+	/**
+	 * This filter if it suits the number of keys it holds, otherwise a filter built from the keys at a
+	 * fitting size.
+	 */
+	ValidityKeyFilter fittedTo(Collection<ValidityKey> keys) {
+		if (entries <= capacity && (capacity == MIN_CAPACITY || entries * 8L >= capacity)) {
+			return this;
+		}
+		return of(keys, statistics);
+	}
+
+	void add(ValidityKey key) {
+		long hash = hash(key);
+		long h1 = (int) hash;
+		long h2 = (int) (hash >>> 32) | 1;
+		for (int j = 0; j < hashCount; j++) {
+			int index = (int) Math.floorMod(h1 + j * h2, (long) counterCount);
+			int counter = counter(index);
+			if (counter < SATURATED) {
+				writableBlock(index)[word(index)] += 1L << shift(index);
+				if (counter + 1 == SATURATED) {
+					saturated++;
+				}
+			}
+		}
+		entries++;
+	}
+
+	/** Remove a key which was previously added */
+	void remove(ValidityKey key) {
+		long hash = hash(key);
+		long h1 = (int) hash;
+		long h2 = (int) (hash >>> 32) | 1;
+		for (int j = 0; j < hashCount; j++) {
+			int index = (int) Math.floorMod(h1 + j * h2, (long) counterCount);
+			int counter = counter(index);
+			if (counter > 0 && counter < SATURATED) {
+				writableBlock(index)[word(index)] -= 1L << shift(index);
+			}
+		}
+		entries--;
+	}
+
+	/**
+	 * Whether the key might be held. A false answer is definite, while a true answer should be
+	 * confirmed against the records, reporting a key which was not found through
+	 * {@link #recordFalsePositives(int)}.
+	 */
+	public boolean mightContain(ValidityKey key) {
+		statistics.lookups.increment();
+		long hash = hash(key);
+		long h1 = (int) hash;
+		long h2 = (int) (hash >>> 32) | 1;
+		for (int j = 0; j < hashCount; j++) {
+			if (counter((int) Math.floorMod(h1 + j * h2, (long) counterCount)) == 0) {
+				statistics.definiteMisses.increment();
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** Note how many keys the filter might have held were not found */
+	public void recordFalsePositives(int count) {
+		statistics.falsePositives.add(count);
+	}
+
+	/**
+	 * Dimensions and effectiveness of the filter. The estimated false positive rate follows from the
+	 * share of counters in use, while the observed rate is the share of lookups for keys not held which
+	 * the filter failed to rule out. The hit ratio is the share of all lookups answered by the filter
+	 * alone.
+	 */
+	public JsonObject getMetrics() {
+		int used = 0;
+		for (long[] block : blocks) {
+			for (long word : block) {
+				for (int i = 0; i < COUNTERS_PER_WORD; i++) {
+					if ((word >>> (i * 4) & SATURATED) != 0) {
+						used++;
+					}
+				}
+			}
+		}
+		long lookups = statistics.lookups.sum();
+		long definiteMisses = statistics.definiteMisses.sum();
+		long falsePositives = statistics.falsePositives.sum();
+		return Json.createObjectBuilder()
+				.add("capacity", capacity)
+				.add("counters", counterCount)
+				.add("bytes", (long) blocks.length * WORDS_PER_BLOCK * Long.BYTES)
+				.add("hashes", hashCount)
+				.add("entries", entries)
+				.add("saturated_counters", saturated)
+				.add("estimated_false_positive_rate", Math.pow((double) used / counterCount, hashCount))
+				.add("lookups", lookups)
+				.add("definite_misses", definiteMisses)
+				.add("false_positives", falsePositives)
+				.add("observed_false_positive_rate", definiteMisses + falsePositives == 0 ? 0.0 :
+						(double) falsePositives / (definiteMisses + falsePositives))
+				.add("hit_ratio", lookups == 0 ? 0.0 : (double) definiteMisses / lookups)
+				.build();
+	}
+
+	private int counter(int index) {
+		return (int) (blocks[index / COUNTERS_PER_BLOCK][word(index)] >>> shift(index)) & SATURATED;
+	}
+
+	private long[] writableBlock(int index) {
+		int block = index / COUNTERS_PER_BLOCK;
+		if (!owned[block]) {
+			blocks[block] = blocks[block].clone();
+			owned[block] = true;
+		}
+		return blocks[block];
+	}
+
+	private static int word(int index) {
+		return index / COUNTERS_PER_WORD % WORDS_PER_BLOCK;
+	}
+
+	private static int shift(int index) {
+		return (index % COUNTERS_PER_WORD) * 4;
+	}
+
+	// as RevocationFilter#positions, without allocating the positions
+	private static long hash(ValidityKey key) {
+		long k = key.getIssuerIndex() * 0x9E3779B97F4A7C15L ^ key.getNonce();
+		k ^= k >>> 33;
+		k *= 0xff51afd7ed558ccdL;
+		k ^= k >>> 33;
+		k *= 0xc4ceb9fe1a85ec53L;
+		k ^= k >>> 33;
+		return k;
+	}
+
+	private static final class Statistics {
+		final LongAdder lookups = new LongAdder();
+		final LongAdder definiteMisses = new LongAdder();
+		final LongAdder falsePositives = new LongAdder();
+	}
+}
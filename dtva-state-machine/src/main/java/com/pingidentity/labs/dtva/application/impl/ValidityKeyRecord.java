@@ -33,6 +33,7 @@ public class ValidityKeyRecord {
 //	public Instant getLastModifiedAt();
 
 	private final          Instant  invalidatedAt;
+	private final @NotNull Instant  createdAt;
 	private final @NotNull Instant  lastActivityAt;
 	private final @NotNull Instant  dynamicExpiryAt;
 	private final          Duration inactivitySpan;
@@ -42,30 +43,59 @@ public class ValidityKeyRecord {
 			@NotNull Instant destructionAt,
 			@NotNull Instant createdAt, 
 			@NotNull Optional<Duration> inactivitySpan) {
-		createdAt = createdAt.truncatedTo(ChronoUnit.SECONDS);
+		this(destructionAt, createdAt, createdAt, inactivitySpan);
+	}
 
+	ValidityKeyRecord(
+			@NotNull Instant destructionAt,
+			@NotNull Instant createdAt,
+			@NotNull Instant lastActivityAt,
+			@NotNull Optional<Duration> inactivitySpan) {
 		this.inactivitySpan  = inactivitySpan.orElse(null);
 		this.destructionAt   = destructionAt;
-		this.lastActivityAt  = createdAt;
+		this.createdAt       = createdAt.truncatedTo(ChronoUnit.SECONDS);
+		this.lastActivityAt  = lastActivityAt.truncatedTo(ChronoUnit.SECONDS);
 		this.invalidatedAt   = null;
 		this.dynamicExpiryAt = calculateDynamicExpiry(inactivitySpan, getLastActivityAt(), destructionAt);
 	}
 
-	public Optional<ValidityKeyView> toView(Instant now, Issuer issuer, ValidityKey key) {
+	/**
+	 * Evaluate the record at a point in time. The issuer's revocation epoch is consulted directly, so
+	 * an issuer-wide invalidation does not require each record to be rewritten.
+	 */
+	public Optional<ValidityKeyView> toView(Instant now, IssuerImpl issuerImpl, Issuer issuer, ValidityKey key) {
 		if (isDestroyed(now)) {
 			return Optional.empty();
 		}
 		if (isExpired(now)) {
 			return Optional.<ValidityKeyView>of(new ExpiredView(key, issuer, dynamicExpiryAt, now));
 		}
-		if (isInvalidated(now)) {
-			return Optional.<ValidityKeyView>of(new InvalidatedView(key, issuer, invalidatedAt, now));
+		Optional<Instant> invalidatedAt = getInvalidatedAt(issuerImpl);
+		if (invalidatedAt.isPresent() && now.isAfter(invalidatedAt.get())) {
+			return Optional.<ValidityKeyView>of(new InvalidatedView(key, issuer, now, invalidatedAt.get()));
 		}
 		return Optional.<ValidityKeyView>of(new ActiveView(key, issuer, lastActivityAt, now));
 	}
 
-	private boolean isInvalidated(Instant now) {
-		return invalidatedAt != null && now.isAfter(invalidatedAt);
+	/** whether the issuer's revocation epoch covers this record */
+	public boolean isCoveredBy(IssuerImpl issuerImpl) {
+		return issuerImpl.getInvalidatedBefore().map(createdAt::isBefore).orElse(false);
+	}
+
+	/**
+	 * The instant at which this record was invalidated, either individually or by the earliest revocation
+	 * epoch of its issuer covering it, whichever came first.
+	 */
+	public Optional<Instant> getInvalidatedAt(IssuerImpl issuerImpl) {
+		Optional<Instant> coveredAt = issuerImpl.getEpochAppliedAt(createdAt);
+		if (!coveredAt.isPresent()) {
+			return getInvalidatedAt();
+		}
+		Instant epochAppliedAt = coveredAt.get();
+		if (invalidatedAt != null && invalidatedAt.isBefore(epochAppliedAt)) {
+			return Optional.of(invalidatedAt);
+		}
+		return Optional.of(epochAppliedAt);
 	}
 
 	private boolean isDestroyed(Instant now) {
@@ -107,6 +137,7 @@ public class ValidityKeyRecord {
 	private ValidityKeyRecord(ValidityKeyRecord session, Instant newerActivity) {
 		destructionAt   = session.destructionAt;
 		inactivitySpan  = session.inactivitySpan;
+		createdAt       = session.createdAt;
 		invalidatedAt   = session.getInvalidatedAt().orElse(null);
 
 		lastActivityAt  = newerActivity;
@@ -120,6 +151,7 @@ public class ValidityKeyRecord {
 
 		destructionAt   = session.destructionAt;
 		inactivitySpan  = session.inactivitySpan;
+		createdAt       = session.createdAt;
 		lastActivityAt  = session.getLastActivityAt();
 		dynamicExpiryAt = session.dynamicExpiryAt;
 		invalidatedAt   = now;
@@ -129,6 +161,10 @@ public class ValidityKeyRecord {
 		return Optional.ofNullable(invalidatedAt);
 	}
 
+	public Instant getCreatedAt() {
+		return createdAt;
+	}
+
 	public Instant getLastActivityAt() {
 		return lastActivityAt;
 	}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2017 Ping Identity
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pingidentity.labs.dtva.application.impl;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.pingidentity.labs.dtva.application.ValidityKey;
+import com.pingidentity.labs.dtva.application.ValidityKeyView;
+import com.pingidentity.labs.dtva.application.ValidityKeyWatch;
+import com.pingidentity.labs.dtva.application.transactions.DTVATransaction;
+import com.pingidentity.labs.dtva.application.transactions.IssuerInvalidationTransaction;
+import com.pingidentity.labs.dtva.application.transactions.ValidityKeyTransaction;
+import com.pingidentity.labs.rapport.TransactionMessage;
+
+/**
+ * Tracks watches on validity keys, dispatching the new view of a watched key whenever an applied
+ * transaction affects it.
+ * 
+ * Views are evaluated against the state being produced, as listeners run before the platform makes it
+ * current. They are then handed to a small pool of dispatch threads, so the consensus thread never
+ * waits on a listener.
+ */
+public class ValidityKeyWatchRegistry implements TransactionListener {
+	private static final int DISPATCH_THREADS = 2;
+
+	private final Logger log = LoggerFactory.getLogger(ValidityKeyWatchRegistry.class);
+	private final ConcurrentMap<ValidityKey, Set<Watch>> watches = new ConcurrentHashMap<>();
+	private final ExecutorService dispatcher = Executors.newFixedThreadPool(DISPATCH_THREADS, (runnable) -> {
+		Thread thread = new Thread(runnable, "dtva-watch-dispatch");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private final AtomicLong dispatched = new AtomicLong();
+
+	public ValidityKeyWatch watch(Collection<ValidityKey> keys, Consumer<? super ValidityKeyView> listener) {
+		Watch watch = new Watch(new ArrayList<>(keys), listener);
+		for (ValidityKey key : watch.keys) {
+			watches.compute(key, (k, watchers) -> {
+				Set<Watch> result = watchers == null ? ConcurrentHashMap.newKeySet() : watchers;
+				result.add(watch);
+				return result;
+			});
+		}
+		return watch;
+	}
+
+	@Override
+	public void transactionsApplied(StateImpl newState, List<? extends TransactionMessage<DTVATransaction>> transactions) {
+		if (watches.isEmpty()) {
+			return;
+		}
+		Set<ValidityKey> changed = new HashSet<>();
+		for (TransactionMessage<DTVATransaction> message : transactions) {
+			DTVATransaction transaction = message.getTransaction();
+			switch (transaction.getType()) {
+			case RegisterValidityKey:
+			case UpdateInteractivity:
+			case Invalidate:
+				ValidityKey key = ((ValidityKeyTransaction) transaction).getKey();
+				if (watches.containsKey(key)) {
+					changed.add(key);
+				}
+				break;
+			case InvalidateIssuer:
+				String issuerName = ((IssuerInvalidationTransaction) transaction).getIssuerName();
+				newState.getIssuerByName(issuerName).ifPresent((issuer) -> {
+					for (ValidityKey watched : watches.keySet()) {
+						if (watched.getIssuerIndex() == issuer.getIndex()) {
+							changed.add(watched);
+						}
+					}
+				});
+				break;
+			default:
+				break;
+			}
+		}
+		Instant now = Instant.now();
+		for (ValidityKey key : changed) {
+			Optional<ValidityKeyView> view = newState.viewKeyValidity(now, key);
+			Set<Watch> watchers = watches.get(key);
+			if (!view.isPresent() || watchers == null) {
+				continue;
+			}
+			for (Watch watch : watchers) {
+				watch.dispatch(view.get());
+			}
+		}
+	}
+
+	public int getWatchedKeyCount() {
+		return watches.size();
+	}
+
+	public JsonObject getMetrics() {
+		return Json.createObjectBuilder()
+				.add("watched_keys", getWatchedKeyCount())
+				.add("dispatched", dispatched.get())
+				.build();
+	}
+
+	private class Watch implements ValidityKeyWatch {
+		private final List<ValidityKey> keys;
+		private final Consumer<? super ValidityKeyView> listener;
+		private volatile boolean closed;
+
+		Watch(List<ValidityKey> keys, Consumer<? super ValidityKeyView> listener) {
+			this.keys = keys;
+			this.listener = listener;
+		}
+
+		void dispatch(ValidityKeyView view) {
+			if (closed) {
+				return;
+			}
+			dispatched.incrementAndGet();
+			dispatcher.execute(() -> {
+				if (closed) {
+					return;
+				}
+				try {
+					listener.accept(view);
+				}
+				catch (RuntimeException e) {
+					log.error("Validity key watch listener failed", e);
+				}
+			});
+		}
+
+		@Override
+		public void close() {
+			closed = true;
+			for (ValidityKey key : keys) {
+				watches.computeIfPresent(key, (k, watchers) -> {
+					watchers.remove(this);
+					return watchers.isEmpty() ? null : watchers;
+				});
+			}
+		}
+	}
+}
@@ -23,7 +23,8 @@ public interface DTVATransaction {
 		RegisterIssuer,
 		RegisterValidityKey,
 		UpdateInteractivity,
-		Invalidate
+		Invalidate,
+		InvalidateIssuer
 	}
 	
 	Type getType();	
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2017 Ping Identity
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pingidentity.labs.dtva.application.transactions;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.time.Instant;
+
+import javax.validation.constraints.NotNull;
+
+import com.github.dwaite.cyborg.electrode.CborException;
+import com.github.dwaite.cyborg.electrode.impl.CborDataInput;
+import com.github.dwaite.cyborg.electrode.impl.CborOutput;
+
+/**
+ * Invalidates every validity key of an issuer which was registered before the given time, by
+ * recording a revocation epoch against the issuer rather than touching each key.
+ */
+public class IssuerInvalidationTransaction implements DTVATransaction {
+
+	private @NotNull String issuerName;
+	private @NotNull Instant invalidatedBefore;
+
+	public IssuerInvalidationTransaction(@NotNull String issuerName, @NotNull Instant invalidatedBefore) {
+		this.issuerName = issuerName;
+		this.invalidatedBefore = invalidatedBefore;
+	}
+
+	public IssuerInvalidationTransaction(DataInput in) throws IOException {
+		try {
+			CborDataInput input = new CborDataInput(in);
+			if (input.readStartArray() != 3) {
+				throw new CborException("expected three element array");
+			}
+			if (input.readLong() != getType().ordinal()) {
+				throw new CborException("expected invalidate issuer transaction type");
+			}
+			issuerName = input.readText();
+			invalidatedBefore = Instant.ofEpochSecond(input.readLong());
+		}
+		catch (CborException e) {
+			throw new IOException("error processing transaction", e);
+		}
+	}
+
+	public void writeExternal(DataOutput out) throws IOException {
+		new CborOutput(out)
+			.writeStartArray(3)
+				.writeInteger(getType().ordinal())
+				.writeText(issuerName)
+				.writeLong(invalidatedBefore.getEpochSecond());
+	}
+
+	public Type getType() {
+		return Type.InvalidateIssuer;
+	}
+
+	public String getIssuerName() {
+		return issuerName;
+	}
+
+	/** keys registered before this instant, in consensus time, are invalidated */
+	public Instant getInvalidatedBefore() {
+		return invalidatedBefore;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == this) {
+			return true;
+		}
+		if (obj instanceof IssuerInvalidationTransaction) {
+			IssuerInvalidationTransaction o = (IssuerInvalidationTransaction) obj;
+			return issuerName.equals(o.issuerName) && invalidatedBefore.equals(o.invalidatedBefore);
+		}
+		return false;
+	}
+
+	@Override
+	public int hashCode() {
+		return getType().hashCode() ^ issuerName.hashCode() ^ invalidatedBefore.hashCode();
+	}
+}
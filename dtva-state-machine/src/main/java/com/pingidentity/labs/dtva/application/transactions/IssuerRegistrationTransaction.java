@@ -63,4 +63,20 @@ public class IssuerRegistrationTransaction implements DTVATransaction {
 	public String getIssuerName() {
 		return issuerName;
 	}
-}
\ No newline at end of file
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == this) {
+			return true;
+		}
+		if (obj instanceof IssuerRegistrationTransaction) {
+			return issuerName.equals(((IssuerRegistrationTransaction) obj).issuerName);
+		}
+		return false;
+	}
+
+	@Override
+	public int hashCode() {
+		return getType().hashCode() ^ issuerName.hashCode();
+	}
+}
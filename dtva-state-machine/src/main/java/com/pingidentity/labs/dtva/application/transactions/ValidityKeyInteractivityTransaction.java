@@ -41,4 +41,20 @@ public class ValidityKeyInteractivityTransaction implements ValidityKeyTransacti
 	public ValidityKey getKey() {
 		return key;
 	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == this) {
+			return true;
+		}
+		if (obj instanceof ValidityKeyInteractivityTransaction) {
+			return key.equals(((ValidityKeyInteractivityTransaction) obj).key);
+		}
+		return false;
+	}
+
+	@Override
+	public int hashCode() {
+		return getType().hashCode() ^ key.hashCode();
+	}
 }
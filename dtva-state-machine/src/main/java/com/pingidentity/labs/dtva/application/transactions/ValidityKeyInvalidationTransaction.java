@@ -42,4 +42,20 @@ public class ValidityKeyInvalidationTransaction implements ValidityKeyTransactio
 	public ValidityKey getKey() {
 		return key;
 	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == this) {
+			return true;
+		}
+		if (obj instanceof ValidityKeyInvalidationTransaction) {
+			return key.equals(((ValidityKeyInvalidationTransaction) obj).key);
+		}
+		return false;
+	}
+
+	@Override
+	public int hashCode() {
+		return getType().hashCode() ^ key.hashCode();
+	}
 }
@@ -49,4 +49,20 @@ public class ValidityKeyRegistrationTransaction implements ValidityKeyTransactio
 	public ValidityKey getKey() {
 		return key;
 	}
-}
\ No newline at end of file
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == this) {
+			return true;
+		}
+		if (obj instanceof ValidityKeyRegistrationTransaction) {
+			return key.equals(((ValidityKeyRegistrationTransaction) obj).key);
+		}
+		return false;
+	}
+
+	@Override
+	public int hashCode() {
+		return getType().hashCode() ^ key.hashCode();
+	}
+}
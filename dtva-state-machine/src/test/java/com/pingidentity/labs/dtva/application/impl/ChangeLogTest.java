@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2017 Ping Identity
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pingidentity.labs.dtva.application.impl;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+import static org.junit.Assert.assertThat;
+import com.pingidentity.labs.dtva.application.StateChange;
+import com.pingidentity.labs.dtva.application.ValidityKey;
+import com.pingidentity.labs.dtva.application.transactions.ValidityKeyInvalidationTransaction;
+import com.pingidentity.labs.dtva.application.transactions.ValidityKeyRegistrationTransaction;
+import static org.hamcrest.CoreMatchers.*;
+
+public class ChangeLogTest {
+	private static final Instant AT = Instant.parse("2017-06-01T00:00:00Z");
+
+	@Test
+	public void testAppendingFromAnEarlierLogLeavesLaterLogsIntact() {
+		ValidityKey first = key(1);
+		ValidityKey second = key(2);
+		ChangeLog base = new ChangeLog().withKeyChange(StateChange.Kind.Invalidated, AT, key(0));
+		ChangeLog original = base.withKeyChange(StateChange.Kind.Invalidated, AT, first);
+		ChangeLog replayed = base.withKeyChange(StateChange.Kind.Expired, AT, second);
+
+		assertThat(keys(original.since(0)), is(equalTo(Arrays.asList(key(0), first))));
+		assertThat(keys(replayed.since(0)), is(equalTo(Arrays.asList(key(0), second))));
+		assertThat(keys(base.since(0)), is(equalTo(Collections.singletonList(key(0)))));
+		assertThat(original.getSequence(), is(2L));
+		assertThat(replayed.getSequence(), is(2L));
+	}
+
+	@Test
+	public void testPruningDropsWholeChunksOnly() {
+		ChangeLog log = new ChangeLog();
+		for (int i = 0; i < ChangeLog.CHUNK_SIZE * 2 + 10; i++) {
+			log = log.withKeyChange(StateChange.Kind.Invalidated, AT.plusSeconds(i), key(i));
+		}
+		ChangeLog pruned = log.prunedBefore(AT.plusSeconds(ChangeLog.CHUNK_SIZE + 1));
+		assertThat(pruned.getPrunedThrough(), is((long) ChangeLog.CHUNK_SIZE));
+		assertThat(pruned.since(ChangeLog.CHUNK_SIZE - 1), is(Optional.empty()));
+		assertThat(keys(pruned.since(ChangeLog.CHUNK_SIZE)).get(0), is(equalTo(key(ChangeLog.CHUNK_SIZE))));
+		assertThat(pruned.entries().count(), is((long) ChangeLog.CHUNK_SIZE + 10));
+		// the log pruned from is untouched
+		assertThat(keys(log.since(0)).size(), is(ChangeLog.CHUNK_SIZE * 2 + 10));
+	}
+
+	@Test
+	public void testStateChangesSurviveReapplyingTransactions() {
+		Consensus consensus = new Consensus();
+		ValidityKey key = consensus.key(Duration.ofHours(1));
+		StateImpl registered = consensus.apply(new ValidityKeyRegistrationTransaction(key));
+		long sequence = registered.getChangeSequence();
+		StateImpl invalidated = consensus.apply(new ValidityKeyInvalidationTransaction(key));
+
+		// apply a different batch to the earlier state, as consensus would after a rollback
+		consensus.state = registered;
+		consensus.advance(Duration.ofSeconds(1));
+
+		List<StateChange> changes = invalidated.getChangesSince(sequence).get().collect(Collectors.toList());
+		assertThat(changes.size(), is(1));
+		assertThat(changes.get(0).getKind(), is(StateChange.Kind.Invalidated));
+		assertThat(changes.get(0).getValidityKey().get(), is(equalTo(key)));
+	}
+
+	private static ValidityKey key(int n) {
+		return new ValidityKey(AT.plus(Duration.ofHours(1)), 0, Optional.empty(), n);
+	}
+
+	private static List<ValidityKey> keys(Optional<Stream<StateChange>> changes) {
+		return changes.get().map((change) -> change.getValidityKey().get()).collect(Collectors.toList());
+	}
+}
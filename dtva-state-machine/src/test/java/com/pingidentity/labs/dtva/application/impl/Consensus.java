@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2017 Ping Identity
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pingidentity.labs.dtva.application.impl;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+
+import com.github.dwaite.bytestring.Bytes;
+import com.pingidentity.labs.dtva.application.ValidityKey;
+import com.pingidentity.labs.dtva.application.transactions.DTVATransaction;
+import com.pingidentity.labs.dtva.application.transactions.IssuerRegistrationTransaction;
+import com.pingidentity.labs.rapport.TransactionMessage;
+
+/**
+ * Applies transactions through a {@link DTVAStateManager} as consensus would, for tests. Every
+ * transaction of a call reaches consensus at the same instant.
+ */
+class Consensus {
+	private final Random random = new Random();
+	final DTVAStateManager stateManager = new DTVAStateManager();
+	StateImpl state;
+	Instant now = Instant.parse("2017-06-01T00:00:00Z");
+
+	Consensus() {
+		this(IssuerRateLimits.NONE);
+	}
+
+	Consensus(IssuerRateLimits issuerRateLimits) {
+		state = new StateImpl(new ConstitutionImpl(
+				Collections.singletonList(new ParticipantImpl("test", new Bytes(new byte[] { 1 }), true)),
+				Duration.ofDays(1), issuerRateLimits));
+		apply(new IssuerRegistrationTransaction("https://issuer.example.com"));
+	}
+
+	/** A key of the first issuer, expiring after the given time from now */
+	ValidityKey key(Duration hardExpiryIn) {
+		return new ValidityKey(now.plus(hardExpiryIn), 0, Optional.empty(), random.nextLong() & Long.MAX_VALUE);
+	}
+
+	StateImpl apply(DTVATransaction... transactions) {
+		return apply(Arrays.asList(transactions));
+	}
+
+	StateImpl apply(List<? extends DTVATransaction> transactions) {
+		List<Message> messages = new ArrayList<>();
+		for (DTVATransaction transaction : transactions) {
+			messages.add(new Message(transaction, now));
+		}
+		state = stateManager.handleTransactions(state, messages);
+		return state;
+	}
+
+	/** Let time pass, applying nothing but the expiry of keys at the new time */
+	StateImpl advance(Duration duration) {
+		now = now.plus(duration);
+		return apply(new IssuerRegistrationTransaction("https://issuer.example.com"));
+	}
+
+	static final class Message implements TransactionMessage<DTVATransaction> {
+		private final DTVATransaction transaction;
+		private final Instant at;
+
+		Message(DTVATransaction transaction, Instant at) {
+			this.transaction = transaction;
+			this.at = at;
+		}
+
+		@Override
+		public DTVATransaction getTransaction() {
+			return transaction;
+		}
+
+		@Override
+		public Instant getConsensusEstablishedTime() {
+			return at;
+		}
+	}
+}
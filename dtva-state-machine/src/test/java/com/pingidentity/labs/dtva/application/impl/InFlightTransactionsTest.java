@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2017 Ping Identity
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pingidentity.labs.dtva.application.impl;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import com.pingidentity.labs.dtva.application.BacklogFullException;
+import com.pingidentity.labs.dtva.application.ValidityKey;
+import com.pingidentity.labs.dtva.application.transactions.DTVATransaction;
+import com.pingidentity.labs.dtva.application.transactions.DTVATransaction.Type;
+import com.pingidentity.labs.dtva.application.transactions.ValidityKeyInvalidationTransaction;
+import static org.hamcrest.CoreMatchers.*;
+
+public class InFlightTransactionsTest {
+	private final Random random = new Random();
+
+	private InFlightTransactions withLimit(int limit, Duration expiry) {
+		Map<Type, Integer> limits = new EnumMap<>(Type.class);
+		limits.put(Type.Invalidate, limit);
+		return new InFlightTransactions(limits, expiry);
+	}
+
+	private DTVATransaction invalidation() {
+		return new ValidityKeyInvalidationTransaction(new ValidityKey(Instant.now().plusSeconds(3600), 0,
+				Optional.empty(), random.nextLong() & Long.MAX_VALUE));
+	}
+
+	@Test
+	public void testAppliedReleasesSentSubmission() {
+		InFlightTransactions inFlight = withLimit(1, Duration.ofMinutes(1));
+		DTVATransaction tx = invalidation();
+		inFlight.acquire(tx);
+		try {
+			inFlight.acquire(invalidation());
+			fail("expected the limit to be reached");
+		}
+		catch (BacklogFullException e) {
+			assertThat(e.getLimit(), is(1));
+		}
+		inFlight.sent(tx);
+		inFlight.applied(Collections.singletonList(tx));
+		assertThat(inFlight.getInFlight(Type.Invalidate), is(0));
+		inFlight.acquire(invalidation());
+	}
+
+	@Test
+	public void testIdenticalTransactionDoesNotReleaseUnsentSubmission() {
+		InFlightTransactions inFlight = withLimit(10, Duration.ofMinutes(1));
+		DTVATransaction tx = invalidation();
+		inFlight.acquire(tx);
+		// another participant's identical transaction, applied while ours is still in a lane
+		inFlight.applied(Collections.singletonList(tx));
+		assertThat(inFlight.getInFlight(Type.Invalidate), is(1));
+
+		inFlight.sent(tx);
+		inFlight.applied(Collections.singletonList(tx));
+		assertThat(inFlight.getInFlight(Type.Invalidate), is(0));
+		// applying it again must not release anything further
+		inFlight.applied(Collections.singletonList(tx));
+		assertThat(inFlight.getInFlight(Type.Invalidate), is(0));
+	}
+
+	@Test
+	public void testReleaseGivesUpLatestSubmission() {
+		InFlightTransactions inFlight = withLimit(10, Duration.ofMinutes(1));
+		DTVATransaction tx = invalidation();
+		inFlight.acquire(tx);
+		inFlight.acquire(tx);
+		assertThat(inFlight.release(tx), is(true));
+		assertThat(inFlight.getInFlight(Type.Invalidate), is(1));
+		assertThat(inFlight.release(tx), is(true));
+		assertThat(inFlight.release(tx), is(false));
+		assertThat(inFlight.getInFlight(Type.Invalidate), is(0));
+	}
+
+	@Test
+	public void testLostSubmissionsAreReclaimed() throws InterruptedException {
+		InFlightTransactions inFlight = withLimit(2, Duration.ofMillis(20));
+		DTVATransaction lost = invalidation();
+		DTVATransaction waiting = invalidation();
+		inFlight.acquire(lost);
+		inFlight.acquire(waiting);
+		inFlight.sent(lost);
+		Thread.sleep(50);
+		inFlight.applied(Collections.emptyList());
+		assertThat(inFlight.getInFlight(Type.Invalidate), is(1));
+		assertThat(inFlight.getReclaimed(Type.Invalidate), is(1L));
+		// a transaction still waiting to be sent is not reclaimed, however long it waits
+		inFlight.applied(Collections.emptyList());
+		assertThat(inFlight.getInFlight(Type.Invalidate), is(1));
+
+		// a reclaimed transaction which turns up after all is not counted twice
+		inFlight.applied(Collections.singletonList(lost));
+		assertThat(inFlight.getInFlight(Type.Invalidate), is(1));
+		inFlight.acquire(invalidation());
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2017 Ping Identity
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pingidentity.labs.dtva.application.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+
+import org.junit.Test;
+import static org.junit.Assert.assertThat;
+import com.pingidentity.labs.dtva.application.ValidityKey;
+import com.pingidentity.labs.dtva.application.transactions.IssuerInvalidationTransaction;
+import com.pingidentity.labs.dtva.application.transactions.ValidityKeyRegistrationTransaction;
+import static org.hamcrest.CoreMatchers.*;
+
+public class IssuerImplTest {
+	private static final String ISSUER = "https://issuer.example.com";
+
+	@Test
+	public void testLaterEpochKeepsEarlierApplicationTime() throws IOException {
+		Consensus consensus = new Consensus();
+		ValidityKey first = consensus.key(Duration.ofHours(1));
+		consensus.apply(new ValidityKeyRegistrationTransaction(first));
+
+		consensus.advance(Duration.ofMinutes(10));
+		Instant firstEpoch = consensus.now;
+		consensus.apply(new IssuerInvalidationTransaction(ISSUER, firstEpoch));
+
+		consensus.advance(Duration.ofMinutes(1));
+		ValidityKey second = consensus.key(Duration.ofHours(1));
+		consensus.apply(new ValidityKeyRegistrationTransaction(second));
+
+		consensus.advance(Duration.ofMinutes(10));
+		Instant secondEpoch = consensus.now;
+		StateImpl state = consensus.apply(new IssuerInvalidationTransaction(ISSUER, secondEpoch));
+
+		Instant later = secondEpoch.plusSeconds(1);
+		assertThat(state.viewKeyValidity(later, first).get().getInvalidatedAt().get(), is(equalTo(firstEpoch)));
+		assertThat(state.viewKeyValidity(later, second).get().getInvalidatedAt().get(), is(equalTo(secondEpoch)));
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		consensus.stateManager.serializeState(state, new DataOutputStream(bytes));
+		StateImpl restored = consensus.stateManager.deserializeState(
+				new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		assertThat(restored.viewKeyValidity(later, first).get().getInvalidatedAt().get(), is(equalTo(firstEpoch)));
+		assertThat(restored.viewKeyValidity(later, second).get().getInvalidatedAt().get(), is(equalTo(secondEpoch)));
+	}
+
+	@Test
+	public void testEpochsPastTheLongestLifetimeAreDropped() {
+		Instant start = Instant.parse("2017-06-01T00:00:00Z");
+		IssuerImpl issuer = new IssuerImpl(ISSUER, 0, 0)
+				.withRevocationEpoch(start, start, Duration.ofHours(1))
+				.withRevocationEpoch(start.plusSeconds(60), start.plusSeconds(60), Duration.ofHours(1));
+		assertThat(issuer.getEpochs().size(), is(2));
+
+		issuer = issuer.withRevocationEpoch(start.plus(Duration.ofHours(2)), start.plus(Duration.ofHours(2)), Duration.ofHours(1));
+		assertThat(issuer.getEpochs().size(), is(1));
+		assertThat(issuer.getInvalidatedBefore().get(), is(equalTo(start.plus(Duration.ofHours(2)))));
+
+		// an epoch already covered changes nothing
+		assertThat(issuer.withRevocationEpoch(start, start.plus(Duration.ofHours(3))), is(sameInstance(issuer)));
+	}
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2017 Ping Identity
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pingidentity.labs.dtva.application.impl;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+import static org.junit.Assert.assertThat;
+import com.pingidentity.labs.dtva.application.ValidityKey;
+import static org.hamcrest.CoreMatchers.*;
+
+public class IssuerIndexTest {
+	private static final Instant AT = Instant.parse("2017-06-01T00:00:00Z");
+	private final Random random = new Random(1);
+
+	private ValidityKey key() {
+		return new ValidityKey(AT.plusSeconds(random.nextInt(1000)), random.nextInt(4), Optional.empty(), random.nextInt(1 << 20));
+	}
+
+	private static ValidityKeyRecord record(ValidityKey key) {
+		return new ValidityKeyRecord(key.getHardExpiryAt(), AT, Optional.empty());
+	}
+
+	@Test
+	public void testMatchesASortedMapThroughUpdates() {
+		TreeMap<ValidityKey, ValidityKeyRecord> expected = new TreeMap<>(StateImpl.ISSUER_ORDER);
+		IssuerIndex index = IssuerIndex.EMPTY;
+		List<ValidityKey> keys = new ArrayList<>();
+		for (int i = 0; i < 5000; i++) {
+			if (keys.isEmpty() || random.nextInt(3) > 0) {
+				ValidityKey key = key();
+				keys.add(key);
+				expected.put(key, record(key));
+				index = index.with(key, expected.get(key));
+			}
+			else {
+				ValidityKey key = keys.remove(random.nextInt(keys.size()));
+				expected.remove(key);
+				index = index.without(key);
+			}
+		}
+		assertThat(index.size(), is(expected.size()));
+		ValidityKey lower = new ValidityKey(AT.plusSeconds(200), 1, Optional.empty(), Long.MIN_VALUE);
+		ValidityKey upper = new ValidityKey(AT.plusSeconds(700), 2, Optional.empty(), Long.MIN_VALUE);
+		assertThat(keysOf(index, lower, true, upper), is(equalTo(new ArrayList<>(expected.subMap(lower, true, upper, false).keySet()))));
+		ValidityKey after = expected.ceilingKey(lower);
+		assertThat(keysOf(index, after, false, upper), is(equalTo(new ArrayList<>(expected.subMap(after, false, upper, false).keySet()))));
+	}
+
+	@Test
+	public void testUpdatesLeaveEarlierIndexesUnchanged() {
+		Map<ValidityKey, ValidityKeyRecord> records = new TreeMap<>(StateImpl.ISSUER_ORDER);
+		for (int i = 0; i < 100; i++) {
+			ValidityKey key = key();
+			records.put(key, record(key));
+		}
+		IssuerIndex original = IssuerIndex.of(records);
+		ValidityKey first = records.keySet().iterator().next();
+		IssuerIndex updated = original.without(first).with(key(), record(first));
+		assertThat(original.size(), is(records.size()));
+		assertThat(keysOf(original, first, true, new ValidityKey(Instant.MAX, Integer.MAX_VALUE, Optional.empty(), Long.MAX_VALUE)),
+				is(equalTo(new ArrayList<>(records.keySet()))));
+		assertThat(updated.size(), is(records.size()));
+		assertThat(original.without(key()), is(sameInstance(original)));
+	}
+
+	private static List<ValidityKey> keysOf(IssuerIndex index, ValidityKey lower, boolean lowerInclusive, ValidityKey upper) {
+		return index.range(lower, lowerInclusive, upper).map(Map.Entry::getKey).collect(Collectors.toList());
+	}
+}
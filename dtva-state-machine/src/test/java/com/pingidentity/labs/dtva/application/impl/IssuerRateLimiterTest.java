@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2017 Ping Identity
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pingidentity.labs.dtva.application.impl;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.Optional;
+
+import org.junit.Test;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import com.pingidentity.labs.dtva.application.IssuerRateLimitedException;
+import com.pingidentity.labs.dtva.application.ValidityKey;
+import com.pingidentity.labs.dtva.application.impl.IssuerRateLimits.Limit;
+import com.pingidentity.labs.dtva.application.transactions.DTVATransaction;
+import com.pingidentity.labs.dtva.application.transactions.DTVATransaction.Type;
+import com.pingidentity.labs.dtva.application.transactions.ValidityKeyInteractivityTransaction;
+import static org.hamcrest.CoreMatchers.*;
+
+public class IssuerRateLimiterTest {
+	private static IssuerRateLimiter limiter(Limit limit) {
+		return new IssuerRateLimiter(
+				new IssuerRateLimits(Collections.singletonMap(Type.UpdateInteractivity, limit)),
+				() -> IssuerRateLimits.NONE);
+	}
+
+	private static DTVATransaction interactivity(int issuerIndex) {
+		return new ValidityKeyInteractivityTransaction(new ValidityKey(
+				Instant.parse("2017-06-01T00:00:00Z"), issuerIndex, Optional.empty(), 1));
+	}
+
+	@Test
+	public void testReleaseReturnsThePlaceTaken() {
+		IssuerRateLimiter limiter = limiter(new Limit(1, 2));
+		limiter.acquire(interactivity(0));
+		limiter.acquire(interactivity(0));
+		try {
+			limiter.acquire(interactivity(0));
+			fail("admitted beyond the burst");
+		}
+		catch (IssuerRateLimitedException e) {
+		}
+		limiter.release(interactivity(0));
+		limiter.acquire(interactivity(0));
+	}
+
+	@Test
+	public void testFullBucketsAreDropped() throws InterruptedException {
+		IssuerRateLimiter limiter = limiter(new Limit(1_000_000_000, 1));
+		for (int round = 0; round < 10; round++) {
+			for (int i = 0; i < 1000; i++) {
+				limiter.acquire(interactivity(round * 1000 + i));
+			}
+			// arrival times are a nanosecond ahead, so every bucket is full again once the clock moves
+			Thread.sleep(5);
+		}
+		assertThat(limiter.size() < 2000, is(true));
+	}
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2017 Ping Identity
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pingidentity.labs.dtva.application.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.json.Json;
+
+import org.junit.Test;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import com.pingidentity.labs.dtva.application.ValidityKey;
+import com.pingidentity.labs.dtva.application.impl.IssuerRateLimits.Limit;
+import com.pingidentity.labs.dtva.application.transactions.DTVATransaction;
+import com.pingidentity.labs.dtva.application.transactions.DTVATransaction.Type;
+import com.pingidentity.labs.dtva.application.transactions.ValidityKeyInvalidationTransaction;
+import com.pingidentity.labs.dtva.application.transactions.ValidityKeyRegistrationTransaction;
+import static org.hamcrest.CoreMatchers.*;
+
+public class IssuerRateLimitsTest {
+	private static final long T = IssuerRateLimits.toEpochNanos(Instant.parse("2017-06-01T00:00:00Z"));
+	private static final long INTERVAL = 100_000_000L;
+
+	@Test
+	public void testBurstThenRate() {
+		Limit limit = new Limit(10, 3);
+		long arrival = T;
+		for (int i = 1; i <= 3; i++) {
+			arrival = limit.admit(arrival, T);
+			assertThat(arrival, is(T + i * INTERVAL));
+		}
+		assertThat(limit.admit(arrival, T), is(Limit.REFUSED));
+		assertThat(limit.getRetryAfter(arrival, T), is(Duration.ofMillis(100)));
+		assertThat(limit.getRetryAfter(arrival, T + INTERVAL), is(Duration.ZERO));
+		assertThat(limit.admit(arrival, T + INTERVAL), is(T + 4 * INTERVAL));
+		assertThat(limit.refund(arrival), is(T + 2 * INTERVAL));
+	}
+
+	@Test
+	public void testQuietBucketRefillsOnlyToBurst() {
+		Limit limit = new Limit(10, 2);
+		long arrival = limit.admit(T, T);
+		long later = T + 60 * 1_000_000_000L;
+		arrival = limit.admit(arrival, later);
+		arrival = limit.admit(arrival, later);
+		assertThat(limit.admit(arrival, later), is(Limit.REFUSED));
+	}
+
+	@Test
+	public void testBurstIsBoundedAgainstOverflow() {
+		try {
+			new Limit(1, 10_000_000_000L);
+			fail("expected a burst taking centuries to replenish to be refused");
+		}
+		catch (IllegalArgumentException e) {
+			assertThat(e.getMessage(), containsString("year"));
+		}
+		long yearOfSeconds = IssuerRateLimits.MAX_WINDOW_NANOS / 1_000_000_000L;
+		Limit limit = new Limit(1, yearOfSeconds);
+		long arrival = limit.admit(T + IssuerRateLimits.MAX_WINDOW_NANOS - 1_000_000_000L, T);
+		assertThat(arrival, is(T + IssuerRateLimits.MAX_WINDOW_NANOS));
+		assertThat(limit.admit(arrival, T), is(Limit.REFUSED));
+		assertThat(limit.getRetryAfter(arrival, T), is(Duration.ofSeconds(1)));
+	}
+
+	@Test
+	public void testStricterTakesTheLowerOfEach() {
+		assertThat(new Limit(10, 50).stricter(new Limit(20, 5)), is(new Limit(10, 5)));
+	}
+
+	@Test
+	public void testInvalidationsCannotBeLimited() {
+		assertThat(IssuerRateLimits.isLimitable(Type.Invalidate), is(false));
+		try {
+			IssuerRateLimits.fromJSON(Json.createObjectBuilder()
+					.add("Invalidate", Json.createObjectBuilder().add("rate", 1).add("burst", 1))
+					.build(), "test");
+			fail("expected invalidations to be refused a limit");
+		}
+		catch (IllegalArgumentException e) {
+			assertThat(e.getMessage(), containsString("Invalidate"));
+		}
+	}
+
+	/** even a limit restored from state written before invalidations were exempt is not enforced */
+	@Test
+	public void testInvalidationsApplyBeyondAnyLimit() {
+		Consensus consensus = new Consensus(new IssuerRateLimits(
+				Collections.singletonMap(Type.Invalidate, new Limit(1, 1))));
+		List<ValidityKey> keys = new ArrayList<>();
+		List<DTVATransaction> registrations = new ArrayList<>();
+		List<DTVATransaction> invalidations = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			ValidityKey key = consensus.key(Duration.ofHours(1));
+			keys.add(key);
+			registrations.add(new ValidityKeyRegistrationTransaction(key));
+			invalidations.add(new ValidityKeyInvalidationTransaction(key));
+		}
+		consensus.apply(registrations);
+		consensus.apply(invalidations);
+		consensus.advance(Duration.ofSeconds(1));
+		for (ValidityKey key : keys) {
+			assertThat(consensus.state.viewKeyValidity(consensus.now, key).get().isInvalidated(), is(true));
+		}
+	}
+
+	private static byte[] serialize(Consensus consensus) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		consensus.stateManager.serializeState(consensus.state, new DataOutputStream(bytes));
+		return bytes.toByteArray();
+	}
+
+	@Test
+	public void testStateWithoutBucketsOmitsThem() throws IOException {
+		Consensus consensus = new Consensus(new IssuerRateLimits(
+				Collections.singletonMap(Type.RegisterValidityKey, new Limit(1, 3))));
+		// a CBOR array of four elements, as state was before rate limits
+		assertThat(serialize(consensus)[0], is((byte) 0x84));
+
+		consensus.apply(new ValidityKeyRegistrationTransaction(consensus.key(Duration.ofHours(1))));
+		assertThat(consensus.state.getRateBuckets().isEmpty(), is(false));
+		assertThat(serialize(consensus)[0], is((byte) 0x85));
+	}
+
+	private static IssuerRateLimits registrationLimit() {
+		Map<Type, Limit> limits = new EnumMap<>(Type.class);
+		limits.put(Type.RegisterValidityKey, new Limit(1, 2));
+		limits.put(Type.UpdateInteractivity, new Limit(100, 1000));
+		return new IssuerRateLimits(limits);
+	}
+
+	@Test
+	public void testParticipantsComeToTheSameDecisions() throws IOException {
+		Consensus first = new Consensus(registrationLimit());
+		Consensus second = new Consensus(registrationLimit());
+		List<ValidityKey> keys = new ArrayList<>();
+		List<DTVATransaction> registrations = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			ValidityKey key = first.key(Duration.ofHours(1));
+			keys.add(key);
+			registrations.add(new ValidityKeyRegistrationTransaction(key));
+		}
+		for (Consensus consensus : Arrays.asList(first, second)) {
+			consensus.apply(registrations);
+			for (int i = 0; i < keys.size(); i++) {
+				// the burst of two is admitted in order, and the rest ignored
+				assertThat(consensus.state.viewKeyValidity(consensus.now, keys.get(i)).isPresent(), is(i < 2));
+			}
+		}
+		assertThat(Arrays.equals(serialize(first), serialize(second)), is(true));
+
+		ValidityKey later = first.key(Duration.ofHours(1));
+		for (Consensus consensus : Arrays.asList(first, second)) {
+			consensus.now = consensus.now.plusSeconds(1);
+			consensus.apply(new ValidityKeyRegistrationTransaction(later));
+			assertThat(consensus.state.viewKeyValidity(consensus.now, later).isPresent(), is(true));
+		}
+		assertThat(Arrays.equals(serialize(first), serialize(second)), is(true));
+	}
+
+	@Test
+	public void testLimitsAndBucketsSurviveSerialization() throws IOException {
+		Consensus consensus = new Consensus(registrationLimit());
+		consensus.apply(new ValidityKeyRegistrationTransaction(consensus.key(Duration.ofHours(1))),
+				new ValidityKeyRegistrationTransaction(consensus.key(Duration.ofHours(1))));
+		byte[] serialized = serialize(consensus);
+		StateImpl restored = consensus.stateManager.deserializeState(
+				new DataInputStream(new ByteArrayInputStream(serialized)));
+
+		assertThat(((ConstitutionImpl) restored.getConstitution()).getIssuerRateLimits(), is(registrationLimit()));
+		assertThat(restored.getRateBuckets().size(), is(consensus.state.getRateBuckets().size()));
+		consensus.state = restored;
+		assertThat(Arrays.equals(serialize(consensus), serialized), is(true));
+
+		// the restored bucket is still empty, so a third registration in the same second is ignored
+		ValidityKey third = consensus.key(Duration.ofHours(1));
+		consensus.apply(new ValidityKeyRegistrationTransaction(third));
+		assertThat(consensus.state.viewKeyValidity(consensus.now, third).isPresent(), is(false));
+	}
+}
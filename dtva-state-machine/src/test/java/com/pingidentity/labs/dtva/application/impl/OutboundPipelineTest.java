@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2017 Ping Identity
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pingidentity.labs.dtva.application.impl;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import static org.junit.Assert.assertThat;
+import com.pingidentity.labs.dtva.application.ValidityKey;
+import com.pingidentity.labs.dtva.application.ValidityKeyView;
+import com.pingidentity.labs.dtva.application.transactions.DTVATransaction;
+import com.pingidentity.labs.dtva.application.transactions.ValidityKeyInvalidationTransaction;
+import com.pingidentity.labs.dtva.application.transactions.ValidityKeyRegistrationTransaction;
+import static org.hamcrest.CoreMatchers.*;
+
+public class OutboundPipelineTest {
+
+	@Test
+	public void testInvalidationIsNotSentAheadOfItsRegistration() throws InterruptedException {
+		Consensus consensus = new Consensus();
+		ValidityKey key = consensus.key(Duration.ofHours(1));
+		ValidityKey other = consensus.key(Duration.ofHours(1));
+		List<DTVATransaction> sent = new CopyOnWriteArrayList<>();
+		CountDownLatch allSent = new CountDownLatch(3);
+		OutboundPipeline pipeline = new OutboundPipeline((tx) -> {
+			sent.add(tx);
+			allSent.countDown();
+		}, (tx) -> {}, Collections.emptyMap());
+
+		// queued before dispatch starts, so that the invalidation lane would otherwise go first
+		pipeline.submit(new ValidityKeyRegistrationTransaction(key));
+		pipeline.submit(new ValidityKeyInvalidationTransaction(key));
+		pipeline.submit(new ValidityKeyInvalidationTransaction(other));
+		pipeline.start();
+		try {
+			assertThat(allSent.await(5, TimeUnit.SECONDS), is(true));
+		}
+		finally {
+			pipeline.stop();
+		}
+		assertThat(sent.indexOf(new ValidityKeyRegistrationTransaction(key)) <
+				sent.indexOf(new ValidityKeyInvalidationTransaction(key)), is(true));
+		// an invalidation with no registration waiting keeps its priority
+		assertThat(sent.get(0), is(equalTo(new ValidityKeyInvalidationTransaction(other))));
+
+		StateImpl state = consensus.apply(sent);
+		ValidityKeyView view = state.viewKeyValidity(consensus.now.plusSeconds(1), key).get();
+		assertThat(view.isInvalidated(), is(true));
+	}
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2017 Ping Identity
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pingidentity.labs.dtva.application.impl;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+import org.junit.Test;
+import static org.junit.Assert.assertThat;
+import com.pingidentity.labs.dtva.application.RevocationFilter;
+import com.pingidentity.labs.dtva.application.ValidityKey;
+import com.pingidentity.labs.dtva.application.transactions.ValidityKeyInvalidationTransaction;
+import com.pingidentity.labs.dtva.application.transactions.ValidityKeyRegistrationTransaction;
+import static org.hamcrest.CoreMatchers.*;
+
+public class RevocationFilterTrackerTest {
+
+	@Test
+	public void testRebuildRunsInTheBackgroundAndCatchesUp() {
+		Queue<Runnable> rebuilds = new ArrayDeque<>();
+		RevocationFilterTracker tracker = new RevocationFilterTracker(1000, 0.01, rebuilds::add);
+		Consensus consensus = new Consensus();
+		consensus.stateManager.addTransactionListener(tracker);
+
+		ValidityKey expiring = consensus.key(Duration.ofMinutes(1));
+		consensus.apply(new ValidityKeyRegistrationTransaction(expiring));
+		consensus.apply(new ValidityKeyInvalidationTransaction(expiring));
+		assertThat(rebuilds.size(), is(1));
+		rebuilds.poll().run();
+		RevocationFilter first = tracker.getFilter(() -> consensus.state);
+		assertThat(first.mightContain(expiring), is(true));
+
+		// the only invalidated key expires, so more than half the filter is stale
+		ValidityKey later = consensus.key(Duration.ofHours(1));
+		consensus.apply(new ValidityKeyRegistrationTransaction(later));
+		consensus.advance(Duration.ofMinutes(2));
+		assertThat(rebuilds.size(), is(1));
+
+		// meanwhile the current generation is still updated and served
+		consensus.apply(new ValidityKeyInvalidationTransaction(later));
+		RevocationFilter updated = tracker.getFilter(() -> consensus.state);
+		assertThat(updated.getGeneration(), is(first.getGeneration()));
+		assertThat(updated.mightContain(later), is(true));
+
+		rebuilds.poll().run();
+		RevocationFilter rebuilt = tracker.getFilter(() -> consensus.state);
+		assertThat(rebuilt.getGeneration(), is(not(first.getGeneration())));
+		assertThat(rebuilt.getVersion(), is(consensus.state.getChangeSequence()));
+		assertThat(rebuilt.mightContain(later), is(true));
+		assertThat(rebuilt.mightContain(expiring), is(false));
+	}
+}
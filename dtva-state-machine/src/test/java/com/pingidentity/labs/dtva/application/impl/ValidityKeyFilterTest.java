@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2017 Ping Identity
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pingidentity.labs.dtva.application.impl;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.Test;
+import static org.junit.Assert.assertThat;
+import com.pingidentity.labs.dtva.application.ValidityKey;
+import com.pingidentity.labs.dtva.application.transactions.DTVATransaction;
+import com.pingidentity.labs.dtva.application.transactions.ValidityKeyRegistrationTransaction;
+import static org.hamcrest.CoreMatchers.*;
+
+public class ValidityKeyFilterTest {
+	private static final Instant EXPIRY = Instant.parse("2017-06-01T00:00:00Z");
+
+	private static List<ValidityKey> keys(int from, int to) {
+		List<ValidityKey> keys = new ArrayList<>();
+		for (int nonce = from; nonce < to; nonce++) {
+			keys.add(new ValidityKey(EXPIRY, 0, Optional.empty(), nonce));
+		}
+		return keys;
+	}
+
+	private static int count(ValidityKeyFilter filter, List<ValidityKey> keys) {
+		int count = 0;
+		for (ValidityKey key : keys) {
+			if (filter.mightContain(key)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	@Test
+	public void testAddedKeysAreHeldUntilRemoved() {
+		List<ValidityKey> kept = keys(0, 100);
+		List<ValidityKey> removed = keys(100, 200);
+		ValidityKeyFilter filter = ValidityKeyFilter.empty();
+		kept.forEach(filter::add);
+		removed.forEach(filter::add);
+		assertThat(count(filter, kept), is(100));
+		assertThat(count(filter, removed), is(100));
+
+		removed.forEach(filter::remove);
+		assertThat(count(filter, kept), is(100));
+		assertThat(count(filter, removed) < 5, is(true));
+		assertThat(filter.getMetrics().getInt("entries"), is(100));
+	}
+
+	@Test
+	public void testSaturatedCountersAreNeverDecremented() {
+		ValidityKey key = keys(0, 1).get(0);
+		ValidityKeyFilter filter = ValidityKeyFilter.empty();
+		for (int i = 0; i < 20; i++) {
+			filter.add(key);
+		}
+		assertThat(filter.getMetrics().getInt("saturated_counters") > 0, is(true));
+		for (int i = 0; i < 20; i++) {
+			filter.remove(key);
+		}
+		assertThat(filter.mightContain(key), is(true));
+	}
+
+	@Test
+	public void testCopyLeavesTheOriginalUnchanged() {
+		List<ValidityKey> held = keys(0, 2000);
+		List<ValidityKey> added = keys(2000, 2100);
+		ValidityKeyFilter original = ValidityKeyFilter.of(held);
+		ValidityKeyFilter copy = original.copy();
+		held.subList(0, 100).forEach(copy::remove);
+		added.forEach(copy::add);
+
+		assertThat(count(original, held), is(2000));
+		assertThat(count(original, added) < 5, is(true));
+		assertThat(original.getMetrics().getInt("entries"), is(2000));
+		assertThat(count(copy, held.subList(0, 100)) < 5, is(true));
+		assertThat(count(copy, held.subList(100, 2000)), is(1900));
+		assertThat(count(copy, added), is(100));
+		assertThat(copy.getMetrics().getInt("entries"), is(2000));
+	}
+
+	@Test
+	public void testFittedToRebuildsOnlyWhenOutOfProportion() {
+		List<ValidityKey> few = keys(0, 10);
+		ValidityKeyFilter small = ValidityKeyFilter.of(few);
+		assertThat(small.fittedTo(few), is(sameInstance(small)));
+
+		List<ValidityKey> many = keys(0, ValidityKeyFilter.MIN_CAPACITY + 1);
+		ValidityKeyFilter grown = ValidityKeyFilter.empty();
+		many.forEach(grown::add);
+		ValidityKeyFilter regrown = grown.fittedTo(many);
+		assertThat(regrown, is(not(sameInstance(grown))));
+		assertThat(regrown.getMetrics().getInt("capacity"), is(2 * many.size()));
+		assertThat(count(regrown, many), is(many.size()));
+
+		List<ValidityKey> thousands = keys(0, 4000);
+		ValidityKeyFilter shrunk = ValidityKeyFilter.of(thousands);
+		List<ValidityKey> remaining = thousands.subList(0, 500);
+		thousands.subList(500, 4000).forEach(shrunk::remove);
+		ValidityKeyFilter refitted = shrunk.fittedTo(remaining);
+		assertThat(refitted, is(not(sameInstance(shrunk))));
+		assertThat(refitted.getMetrics().getInt("capacity"), is(ValidityKeyFilter.MIN_CAPACITY));
+		assertThat(count(refitted, remaining), is(500));
+	}
+
+	@Test
+	public void testAgreesWithRecordsAfterExpirySweep() {
+		Consensus consensus = new Consensus();
+		List<ValidityKey> expiring = new ArrayList<>();
+		List<ValidityKey> lasting = new ArrayList<>();
+		List<DTVATransaction> registrations = new ArrayList<>();
+		for (int i = 0; i < 200; i++) {
+			ValidityKey key = consensus.key(i % 2 == 0 ? Duration.ofHours(1) : Duration.ofDays(3));
+			(i % 2 == 0 ? expiring : lasting).add(key);
+			registrations.add(new ValidityKeyRegistrationTransaction(key));
+		}
+		consensus.apply(registrations);
+		StateImpl swept = consensus.advance(Duration.ofDays(1));
+
+		ValidityKeyFilter filter = swept.getKeyFilter();
+		assertThat(filter.getMetrics().getInt("entries"), is(swept.periods.size()));
+		for (ValidityKey key : swept.periods.keySet()) {
+			assertThat(filter.mightContain(key), is(true));
+		}
+		for (ValidityKey key : expiring) {
+			assertThat(swept.periods.containsKey(key), is(false));
+		}
+		assertThat(count(filter, lasting), is(100));
+		assertThat(count(filter, expiring) < 5, is(true));
+	}
+}